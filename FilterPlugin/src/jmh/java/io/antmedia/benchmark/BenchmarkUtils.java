@@ -0,0 +1,90 @@
+package io.antmedia.benchmark;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_CODEC_ID_H264;
+import static org.bytedeco.ffmpeg.global.avutil.AVMEDIA_TYPE_VIDEO;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_get_buffer;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.BytePointer;
+
+import io.antmedia.filter.Utils;
+import io.antmedia.filter.utils.Filter;
+import io.antmedia.filter.utils.FilterGraph;
+import io.antmedia.plugin.api.StreamParametersInfo;
+
+/**
+ * Synthetic inputs of the benchmarks
+ */
+public class BenchmarkUtils {
+
+	public static final int WIDTH = 640;
+	public static final int HEIGHT = 360;
+
+	/**
+	 * Sample clip that is used in the tests as well. Benchmarks are run in the FilterPlugin directory
+	 */
+	public static final String SAMPLE_CLIP = "src/test/resources/test_video_360p.ts";
+
+	private BenchmarkUtils() {
+	}
+
+	/**
+	 * @return yuv420p frame filled with a gray level so that the filters have real data to process
+	 */
+	public static AVFrame createVideoFrame(int width, int height, int grayLevel) {
+		AVFrame frame = av_frame_alloc();
+		frame.width(width);
+		frame.height(height);
+		frame.format(AV_PIX_FMT_YUV420P);
+		av_frame_get_buffer(frame, 32);
+		fill(frame.data(0), frame.linesize(0) * height, grayLevel);
+		fill(frame.data(1), frame.linesize(1) * height / 2, 128);
+		fill(frame.data(2), frame.linesize(2) * height / 2, 128);
+		return frame;
+	}
+
+	private static void fill(BytePointer plane, int size, int value) {
+		byte[] data = new byte[size];
+		Arrays.fill(data, (byte) value);
+		plane.position(0).put(data);
+	}
+
+	public static StreamParametersInfo createVideoStreamInfo(int width, int height) {
+		AVCodecParameters codecParameters = new AVCodecParameters();
+		codecParameters.width(width);
+		codecParameters.height(height);
+		codecParameters.codec_id(AV_CODEC_ID_H264);
+		codecParameters.codec_type(AVMEDIA_TYPE_VIDEO);
+		codecParameters.format(AV_PIX_FMT_YUV420P);
+		codecParameters.codec_tag(0);
+
+		StreamParametersInfo streamInfo = new StreamParametersInfo();
+		streamInfo.setEnabled(true);
+		streamInfo.setTimeBase(Utils.TIME_BASE_FOR_MS);
+		streamInfo.setCodecParameters(codecParameters);
+		return streamInfo;
+	}
+
+	/**
+	 * Creates a video filter graph whose sources are "stream0"..."streamN" with [in0]...[inN] labels and the sink is [out0]
+	 */
+	public static FilterGraph createVideoFilterGraph(String filterText, int inputCount) {
+		Map<String, Filter> sourceFiltersMap = new LinkedHashMap<>();
+		for (int i = 0; i < inputCount; i++) {
+			sourceFiltersMap.put("stream" + i, new Filter("buffer", "video_size=" + WIDTH + "x" + HEIGHT + ":pix_fmt=" + AV_PIX_FMT_YUV420P 
+					+ ":time_base=1/1000:pixel_aspect=1/1", "in" + i));
+		}
+		Map<String, Filter> sinkFiltersMap = new LinkedHashMap<>();
+		Filter sink = new Filter("buffersink", null, "out0");
+		sink.setPixelFormat(AV_PIX_FMT_YUV420P);
+		sinkFiltersMap.put("output", sink);
+		return new FilterGraph(filterText, sourceFiltersMap, sinkFiltersMap);
+	}
+}
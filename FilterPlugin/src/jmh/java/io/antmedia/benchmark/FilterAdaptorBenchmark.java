@@ -0,0 +1,164 @@
+package io.antmedia.benchmark;
+
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_clone;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.antmedia.AntMediaApplicationAdapter;
+import io.antmedia.filter.FilterAdaptor;
+import io.antmedia.filter.utils.FilterConfiguration;
+import io.antmedia.filter.utils.MCUFilterTextGenerator;
+import io.antmedia.plugin.api.IFrameListener;
+import io.antmedia.plugin.api.StreamParametersInfo;
+import io.vertx.core.Vertx;
+
+/**
+ * Throughput of FilterAdaptor.onVideoFrame for an MCU grid of decoded inputs in each filter type.
+ * Score is the rate of the caller thread. Output frames are counted in the custom broadcast, so the difference 
+ * between input and output rates shows the frames dropped by the worker in asynchronous and lastpoint types
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterAdaptorBenchmark {
+
+	@Param({FilterConfiguration.SYNCHRONOUS, FilterConfiguration.ASYNCHRONOUS, FilterConfiguration.LASTPOINT})
+	public String type;
+
+	@Param({"4"})
+	public int inputCount;
+
+	private FilterAdaptor filterAdaptor;
+	private AntMediaApplicationAdapter app;
+	private Vertx vertx;
+	private AVFrame[] frames;
+	private List<String> inputs = new ArrayList<>();
+	private final AtomicLong outputFrameCount = new AtomicLong();
+	private long pts = 0;
+
+	/*
+	 * Output of the filter. It only counts the frames
+	 */
+	private class CountingBroadcast implements IFrameListener {
+		@Override
+		public AVFrame onAudioFrame(String streamId, AVFrame audioFrame) {
+			return audioFrame;
+		}
+
+		@Override
+		public AVFrame onVideoFrame(String streamId, AVFrame videoFrame) {
+			outputFrameCount.incrementAndGet();
+			return videoFrame;
+		}
+
+		@Override
+		public void writeTrailer(String streamId) {
+			//no need to implement
+		}
+
+		@Override
+		public void setVideoStreamInfo(String streamId, StreamParametersInfo videoStreamInfo) {
+			//no need to implement
+		}
+
+		@Override
+		public void setAudioStreamInfo(String streamId, StreamParametersInfo audioStreamInfo) {
+			//no need to implement
+		}
+
+		@Override
+		public void start() {
+			//no need to implement
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		vertx = Vertx.vertx();
+		app = mock(AntMediaApplicationAdapter.class);
+		when(app.getVertx()).thenReturn(vertx);
+		when(app.createCustomBroadcast(anyString(), anyInt(), anyInt())).thenReturn(new CountingBroadcast());
+
+		filterAdaptor = new FilterAdaptor("benchmark");
+		//frames are received decoded
+		filterAdaptor.setDecodeStreamMap(new ConcurrentHashMap<>());
+
+		frames = new AVFrame[inputCount];
+		for (int i = 0; i < inputCount; i++) {
+			String streamId = "stream" + i;
+			inputs.add(streamId);
+			filterAdaptor.setVideoStreamInfo(streamId, BenchmarkUtils.createVideoStreamInfo(BenchmarkUtils.WIDTH, BenchmarkUtils.HEIGHT));
+			StreamParametersInfo audioStreamInfo = new StreamParametersInfo();
+			audioStreamInfo.setEnabled(false);
+			filterAdaptor.setAudioStreamInfo(streamId, audioStreamInfo);
+			frames[i] = BenchmarkUtils.createVideoFrame(BenchmarkUtils.WIDTH, BenchmarkUtils.HEIGHT, 16 + i * 10);
+		}
+
+		FilterConfiguration filterConfiguration = new FilterConfiguration();
+		filterConfiguration.setFilterId("benchmark");
+		filterConfiguration.setInputStreams(new ArrayList<>(inputs));
+		List<String> outputs = new ArrayList<>();
+		outputs.add("benchmarkMerged");
+		filterConfiguration.setOutputStreams(outputs);
+		filterConfiguration.setVideoFilter(MCUFilterTextGenerator.createVideoFilter(inputCount));
+		filterConfiguration.setAudioFilter(MCUFilterTextGenerator.createAudioFilter(inputCount));
+		filterConfiguration.setVideoEnabled(true);
+		filterConfiguration.setAudioEnabled(false);
+		filterConfiguration.setType(type);
+
+		if (!filterAdaptor.createOrUpdateFilter(filterConfiguration, app).isSuccess()) {
+			throw new IllegalStateException("Filter cannot be created for type:" + type);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		filterAdaptor.close(app);
+		for (AVFrame frame : frames) {
+			av_frame_free(frame);
+		}
+		vertx.close();
+	}
+
+	@Benchmark
+	public void onVideoFrame(FrameCounters counters) {
+		pts += 33;
+		long before = outputFrameCount.get();
+		for (int i = 0; i < inputCount; i++) {
+			//synchronous type consumes the input frame like a decoded frame so pass a new reference each time
+			AVFrame frame = av_frame_clone(frames[i]);
+			frame.pts(pts);
+			filterAdaptor.onVideoFrame(inputs.get(i), frame);
+			av_frame_free(frame);
+		}
+		counters.inputFrames += inputCount;
+		counters.outputFrames += outputFrameCount.get() - before;
+	}
+}
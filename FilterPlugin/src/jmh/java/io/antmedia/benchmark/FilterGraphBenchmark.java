@@ -0,0 +1,93 @@
+package io.antmedia.benchmark;
+
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.antmedia.filter.utils.FilterGraph;
+import io.antmedia.filter.utils.MCUFilterTextGenerator;
+
+/**
+ * Throughput of the MCU grid filter graph for synthetic 640x360 yuv420p inputs. 
+ * Each operation feeds one frame of every input and drains the output
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterGraphBenchmark {
+
+	@Param({"1", "2", "4", "9", "16"})
+	public int inputCount;
+
+	private FilterGraph filterGraph;
+	private AVFrame[] frames;
+	private final AtomicLong outputFrameCount = new AtomicLong();
+	private long pts = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		filterGraph = BenchmarkUtils.createVideoFilterGraph(MCUFilterTextGenerator.createVideoFilter(inputCount), inputCount);
+		if (!filterGraph.isInitiated()) {
+			throw new IllegalStateException("Filter graph cannot be initiated for input count:" + inputCount);
+		}
+		filterGraph.setListener((streamId, frame) -> outputFrameCount.incrementAndGet());
+
+		frames = new AVFrame[inputCount];
+		for (int i = 0; i < inputCount; i++) {
+			frames[i] = BenchmarkUtils.createVideoFrame(BenchmarkUtils.WIDTH, BenchmarkUtils.HEIGHT, 16 + i * 10);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		filterGraph.close();
+		for (AVFrame frame : frames) {
+			av_frame_free(frame);
+		}
+	}
+
+	@Benchmark
+	public void pushAndDrain(FrameCounters counters) {
+		pts += 33;
+		for (int i = 0; i < inputCount; i++) {
+			frames[i].pts(pts);
+			//frame is kept to be fed again in the next operation
+			filterGraph.pushFrame("stream" + i, frames[i], true);
+		}
+		long before = outputFrameCount.get();
+		filterGraph.drainOutputs();
+		counters.inputFrames += inputCount;
+		counters.outputFrames += outputFrameCount.get() - before;
+	}
+
+	@Benchmark
+	public void doFilter(FrameCounters counters) {
+		pts += 33;
+		long before = outputFrameCount.get();
+		for (int i = 0; i < inputCount; i++) {
+			frames[i].pts(pts);
+			filterGraph.doFilter("stream" + i, frames[i], false, true);
+		}
+		counters.inputFrames += inputCount;
+		counters.outputFrames += outputFrameCount.get() - before;
+	}
+}
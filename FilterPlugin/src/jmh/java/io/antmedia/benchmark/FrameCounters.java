@@ -0,0 +1,24 @@
+package io.antmedia.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Frame counts of a benchmark iteration. JMH reports them as frames/sec next to the score
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class FrameCounters {
+
+	public long inputFrames;
+	public long outputFrames;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		inputFrames = 0;
+		outputFrames = 0;
+	}
+}
@@ -0,0 +1,49 @@
+package io.antmedia.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.antmedia.filter.utils.MCUFilterTextGenerator;
+
+/**
+ * Cost of creating the MCU filter texts. Focus changes in every call like an active speaker switch,
+ * so speaker layouts measure binding the inputs to the cached template
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MCUFilterTextGeneratorBenchmark {
+
+	@Param({MCUFilterTextGenerator.LAYOUT_GRID, MCUFilterTextGenerator.LAYOUT_SPEAKER_FOCUS, MCUFilterTextGenerator.LAYOUT_PIP})
+	public String layout;
+
+	@Param({"4", "16"})
+	public int streamCount;
+
+	private int focusIndex = 0;
+
+	@Benchmark
+	public String createVideoFilter() {
+		focusIndex = (focusIndex + 1) % streamCount;
+		return MCUFilterTextGenerator.createVideoFilter(layout, streamCount, focusIndex, 
+				MCUFilterTextGenerator.OUTPUT_WIDTH, MCUFilterTextGenerator.OUTPUT_HEIGHT);
+	}
+
+	@Benchmark
+	public String createAudioFilter() {
+		return MCUFilterTextGenerator.createAudioFilter(streamCount);
+	}
+}
@@ -0,0 +1,102 @@
+package io.antmedia.benchmark;
+
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_alloc;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_clone;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_free;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_unref;
+import static org.bytedeco.ffmpeg.global.avformat.av_read_frame;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_close_input;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_find_stream_info;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_open_input;
+import static org.bytedeco.ffmpeg.global.avutil.AVMEDIA_TYPE_VIDEO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.antmedia.filter.Utils;
+import io.antmedia.filter.VideoDecoder;
+
+/**
+ * Decoding speed of the sample H.264 clip. Packets are read into memory once and 
+ * each operation decodes the whole clip, so the frame counter is the decoded frames/sec
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VideoDecoderBenchmark {
+
+	/**
+	 * see {@link VideoDecoder#setFrameInterval(int)}
+	 */
+	@Param({"1", "0", "3"})
+	public int frameInterval;
+
+	private List<AVPacket> packets = new ArrayList<>();
+	private VideoDecoder decoder;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		AVFormatContext inputFormatContext = new AVFormatContext(null);
+		int ret = avformat_open_input(inputFormatContext, BenchmarkUtils.SAMPLE_CLIP, null, null);
+		if (ret < 0) {
+			throw new IllegalStateException("Cannot open " + BenchmarkUtils.SAMPLE_CLIP + " " + Utils.getErrorDefinition(ret));
+		}
+		avformat_find_stream_info(inputFormatContext, (AVDictionary) null);
+
+		AVPacket pkt = av_packet_alloc();
+		while (av_read_frame(inputFormatContext, pkt) == 0) {
+			if (inputFormatContext.streams(pkt.stream_index()).codecpar().codec_type() == AVMEDIA_TYPE_VIDEO) {
+				packets.add(av_packet_clone(pkt));
+			}
+			av_packet_unref(pkt);
+		}
+		av_packet_free(pkt);
+		avformat_close_input(inputFormatContext);
+
+		decoder = new VideoDecoder("benchmark", BenchmarkUtils.createVideoStreamInfo(BenchmarkUtils.WIDTH, BenchmarkUtils.HEIGHT));
+		decoder.setDecoderTimeBase(Utils.TIME_BASE_FOR_MS);
+		decoder.setFrameInterval(frameInterval);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		decoder.stop();
+		for (AVPacket packet : packets) {
+			av_packet_free(packet);
+		}
+	}
+
+	@Benchmark
+	public int decodeClip(FrameCounters counters) {
+		int frameCount = 0;
+		for (AVPacket packet : packets) {
+			frameCount += decoder.decodeVideoPacket(packet, (streamId, frame) -> {});
+		}
+		//clip is decoded again from its first key frame in the next operation
+		frameCount += decoder.flush((streamId, frame) -> {});
+		counters.inputFrames += packets.size();
+		counters.outputFrames += frameCount;
+		return frameCount;
+	}
+}
@@ -4,6 +4,7 @@ import static org.bytedeco.ffmpeg.global.avcodec.av_packet_free;
 import static org.bytedeco.ffmpeg.global.avcodec.av_packet_rescale_ts;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_alloc_context3;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_find_decoder;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_flush_buffers;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_free_context;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_open2;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_parameters_to_context;
@@ -105,6 +106,47 @@ public class AudioDecoder
 		return receiveAudioPacket();
 	}
 	
+	/**
+	 * Decodes the packet and gives all the frames that the decoder has ready to the listener
+	 * 
+	 * @return number of frames given to the listener
+	 */
+	public synchronized int decodeAudioPacket(AVRational timebase, AVPacket pkt, IDecodedFrameListener listener) {
+		if (!running) {
+			logger.error("Audio decoder is not running for stream: {}", streamId);
+			return 0;
+		}
+		sendAudioPacket(timebase, pkt);
+
+		return receiveAudioFrames(listener);
+	}
+
+	/**
+	 * Drains the frames buffered in the decoder and gives them to the listener. Decoder can be used after flush
+	 * 
+	 * @return number of frames given to the listener
+	 */
+	public synchronized int flush(IDecodedFrameListener listener) {
+		if (!running) {
+			return 0;
+		}
+		avcodec_send_packet(audioContext, null);
+		int frameCount = receiveAudioFrames(listener);
+		avcodec_flush_buffers(audioContext);
+		logger.info("Audio decoder is flushed for stream:{} and {} frames are drained", streamId, frameCount);
+		return frameCount;
+	}
+
+	private int receiveAudioFrames(IDecodedFrameListener listener) {
+		int frameCount = 0;
+		AVFrame frame;
+		while ((frame = receiveAudioPacket()) != null) {
+			listener.onDecodedFrame(streamId, frame);
+			frameCount++;
+		}
+		return frameCount;
+	}
+	
 	protected void sendAudioPacket(AVRational timebase, AVPacket pkt)
 	{
 		if (timebase.num() != audioContext.time_base().num() || 
@@ -135,7 +177,7 @@ public class AudioDecoder
 
 			return null;
 		}
-		else if (ret < 0 && logger.isErrorEnabled()) {
+		else if (ret < 0) {
 			logger.error("Decode video frame error: {} streamId: {}" , Utils.getErrorDefinition(ret), streamId);
 			return null;
 		}
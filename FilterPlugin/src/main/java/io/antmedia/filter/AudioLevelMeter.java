@@ -0,0 +1,82 @@
+package io.antmedia.filter;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_FLT;
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_FLTP;
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_S16;
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_S16P;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.ShortPointer;
+
+/**
+ * Measures the level of the decoded audio frames. It's used to find the active speaker in the MCU rooms
+ */
+public class AudioLevelMeter {
+
+	/**
+	 * Level of the silence and of the frames that cannot be measured
+	 */
+	public static final double SILENCE_DB = -100;
+
+	/*
+	 * Only some of the samples are used, it's enough to find who is speaking
+	 */
+	private static final int SAMPLE_STEP = 4;
+
+	private AudioLevelMeter() {
+	}
+
+	/**
+	 * @return RMS level of the first channel in dBFS. It's between {@link #SILENCE_DB} and 0
+	 */
+	public static double getLevelDb(AVFrame frame) {
+		int sampleCount = frame.nb_samples();
+		BytePointer data = frame.data(0);
+		if (sampleCount <= 0 || data == null || data.isNull()) {
+			return SILENCE_DB;
+		}
+
+		int format = frame.format();
+		//interleaved formats have the samples of the other channels in between
+		int stride;
+		boolean floatSamples;
+		if (format == AV_SAMPLE_FMT_FLTP || format == AV_SAMPLE_FMT_S16P) {
+			stride = 1;
+			floatSamples = format == AV_SAMPLE_FMT_FLTP;
+		}
+		else if (format == AV_SAMPLE_FMT_FLT || format == AV_SAMPLE_FMT_S16) {
+			stride = Math.max(1, frame.ch_layout().nb_channels());
+			floatSamples = format == AV_SAMPLE_FMT_FLT;
+		}
+		else {
+			return SILENCE_DB;
+		}
+
+		double sum = 0;
+		int count = 0;
+		if (floatSamples) {
+			FloatPointer samples = new FloatPointer(data);
+			for (int i = 0; i < sampleCount; i += SAMPLE_STEP) {
+				float sample = samples.get((long)i * stride);
+				sum += sample * sample;
+				count++;
+			}
+		}
+		else {
+			ShortPointer samples = new ShortPointer(data);
+			for (int i = 0; i < sampleCount; i += SAMPLE_STEP) {
+				double sample = samples.get((long)i * stride) / 32768.0;
+				sum += sample * sample;
+				count++;
+			}
+		}
+
+		double rms = Math.sqrt(sum / count);
+		if (rms <= 0) {
+			return SILENCE_DB;
+		}
+		return Math.max(SILENCE_DB, 20 * Math.log10(rms));
+	}
+}
@@ -0,0 +1,475 @@
+package io.antmedia.filter;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_FLT;
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_FLTP;
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_S16;
+import static org.bytedeco.ffmpeg.global.avutil.AV_NOPTS_VALUE;
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_S16P;
+import static org.bytedeco.ffmpeg.global.avutil.av_channel_layout_copy;
+import static org.bytedeco.ffmpeg.global.avutil.av_channel_layout_default;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_get_buffer;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_make_writable;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_unref;
+import static org.bytedeco.ffmpeg.global.avutil.av_rescale_q;
+import static org.bytedeco.ffmpeg.global.swresample.swr_alloc_set_opts2;
+import static org.bytedeco.ffmpeg.global.swresample.swr_convert_frame;
+import static org.bytedeco.ffmpeg.global.swresample.swr_free;
+import static org.bytedeco.ffmpeg.global.swresample.swr_init;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.swresample.SwrContext;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.ShortPointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.antmedia.filter.utils.IFilteredFrameListener;
+
+/**
+ * Mixes the audio of the inputs in Java instead of an amix filter graph. It's used for the MCU rooms
+ * whose audio filter only mixes the inputs.
+ *
+ * Samples of each input are buffered as float planes. A frame is mixed when all the inputs that have sent audio
+ * have a frame of samples, or when an input has buffered {@link #MAX_BUFFERED_MS}, so a stalled input does not stop the mix.
+ * Each input has its own gain. Mixed samples are not divided by the input count as amix does,
+ * instead the level is lowered automatically only when the mix would clip.
+ * Frames with another sample rate or an unsupported format are resampled to the sample rate of the mixer.
+ *
+ * Pts of the mix follows the inputs. If nothing is mixed for a while, e.g. all inputs are muted or the filter is paused,
+ * the mix continues from the pts of the input that sends audio again, so the audio does not lag behind the video.
+ *
+ * Mixer is called from a single frame queue worker, methods are synchronized for the updates of the filter.
+ */
+public class AudioMixer {
+
+	private static final Logger logger = LoggerFactory.getLogger(AudioMixer.class);
+
+	/**
+	 * Duration of the mixed frames
+	 */
+	public static final int FRAME_DURATION_MS = 20;
+
+	/**
+	 * A frame is mixed without waiting for the other inputs if an input has buffered this much audio
+	 */
+	public static final int MAX_BUFFERED_MS = 100;
+
+	/**
+	 * Peak level of the mix. The mix is lowered to this level if it's louder
+	 */
+	public static final float NORMALIZATION_PEAK = 0.95f;
+
+	/*
+	 * Weight of the target gain when the level of the mix goes up back after a loud frame
+	 */
+	private static final float NORMALIZATION_RELEASE = 0.05f;
+
+	private static final Pattern MIX_FILTER_PATTERN = Pattern.compile("(\\[in\\d+\\])+(amix=inputs=\\d+|acopy)\\[out0\\]");
+
+	private static class InputBuffer {
+		float[][] samples;
+		int size = 0;
+		float gain = 1;
+		boolean started = false;
+
+		/*
+		 * Output pts of the first buffered sample minus the pts of the input. It's constant while the mix follows the input
+		 */
+		long ptsOffset = Long.MIN_VALUE;
+		long mixedFrameCountAtPush = -1;
+
+		SwrContext resampler;
+		AVFrame resampledFrame;
+		int resamplerInputRate;
+		int resamplerInputFormat;
+		int resamplerInputChannels;
+
+		InputBuffer(int channelCount, int capacity) {
+			samples = new float[channelCount][capacity];
+		}
+
+		void closeResampler() {
+			if (resampler != null) {
+				swr_free(resampler);
+				resampler = null;
+			}
+			if (resampledFrame != null) {
+				av_frame_free(resampledFrame);
+				resampledFrame = null;
+			}
+		}
+	}
+
+	private final String outputStreamId;
+	private final int sampleRate;
+	private final int channelCount;
+	private final int frameSize;
+	private final int maxBufferedSamples;
+	private final AVRational sampleTimeBase;
+
+	private final Map<String, InputBuffer> inputs = new LinkedHashMap<>();
+	private final float[][] mix;
+	private float[] readBuffer = new float[0];
+	private short[] shortReadBuffer = new short[0];
+
+	private final IFilteredFrameListener listener;
+	private AVFrame outputFrame;
+
+	private long nextPts = Long.MIN_VALUE;
+	private float normalizationGain = 1;
+	private long mixedFrameCount = 0;
+	private long droppedSampleCount = 0;
+
+	/**
+	 * @param outputStreamId stream id that is given to the listener with the mixed frames
+	 * @param sampleRate sample rate of the inputs and the output
+	 * @param channelCount channel count of the output. Mono inputs are copied to all channels
+	 * and only the first channels of the inputs with more channels are used
+	 * @param listener receives the mixed frames in AV_SAMPLE_FMT_FLTP with pts in 1/sampleRate
+	 */
+	public AudioMixer(String outputStreamId, int sampleRate, int channelCount, IFilteredFrameListener listener) {
+		this.outputStreamId = outputStreamId;
+		this.sampleRate = sampleRate;
+		this.channelCount = channelCount;
+		this.listener = listener;
+		this.frameSize = sampleRate * FRAME_DURATION_MS / 1000;
+		this.maxBufferedSamples = sampleRate * MAX_BUFFERED_MS / 1000;
+		this.sampleTimeBase = new AVRational().num(1).den(sampleRate);
+		this.mix = new float[channelCount][frameSize];
+
+		outputFrame = av_frame_alloc();
+		outputFrame.format(AV_SAMPLE_FMT_FLTP);
+		outputFrame.sample_rate(sampleRate);
+		outputFrame.nb_samples(frameSize);
+		av_channel_layout_default(outputFrame.ch_layout(), channelCount);
+		av_frame_get_buffer(outputFrame, 0);
+	}
+
+	/**
+	 * @return true if the audio filter text only mixes or copies the inputs to the single output, so the mixer can do its job
+	 */
+	public static boolean isMixFilter(String audioFilter) {
+		return audioFilter != null && MIX_FILTER_PATTERN.matcher(audioFilter).matches();
+	}
+
+	/**
+	 * @return true if the samples of the format can be mixed
+	 */
+	public static boolean isSupportedFormat(int sampleFormat) {
+		return sampleFormat == AV_SAMPLE_FMT_FLTP || sampleFormat == AV_SAMPLE_FMT_FLT
+				|| sampleFormat == AV_SAMPLE_FMT_S16P || sampleFormat == AV_SAMPLE_FMT_S16;
+	}
+
+	/**
+	 * Sets the mixed inputs. Buffered samples of the remaining inputs are kept
+	 *
+	 * @param gains linear gains of the inputs, 1 is used for the inputs that are not in the map
+	 */
+	public synchronized void setInputs(List<String> streamIds, Map<String, Double> gains) {
+		inputs.entrySet().removeIf(entry -> {
+			if (streamIds.contains(entry.getKey())) {
+				return false;
+			}
+			entry.getValue().closeResampler();
+			return true;
+		});
+		for (String streamId : streamIds) {
+			InputBuffer input = inputs.computeIfAbsent(streamId, id -> new InputBuffer(channelCount, maxBufferedSamples + frameSize));
+			Double gain = gains != null ? gains.get(streamId) : null;
+			input.gain = gain != null ? gain.floatValue() : 1;
+		}
+		logger.info("Audio mixer inputs are {} for output:{}", streamIds, outputStreamId);
+	}
+
+	/**
+	 * Buffers the samples of the frame and gives the mixed frames that are ready to the listener
+	 *
+	 * @param timeBase time base of the frame pts
+	 */
+	public synchronized void push(String streamId, AVFrame frame, AVRational timeBase) {
+		InputBuffer input = inputs.get(streamId);
+		if (input == null || frame == null || outputFrame == null) {
+			return;
+		}
+		long pts = timeBase != null && frame.pts() != AV_NOPTS_VALUE ? av_rescale_q(frame.pts(), timeBase, sampleTimeBase) : Long.MIN_VALUE;
+		if (frame.sample_rate() != sampleRate || !isSupportedFormat(frame.format())) {
+			frame = resample(streamId, input, frame);
+			if (frame == null) {
+				return;
+			}
+		}
+
+		if (nextPts == Long.MIN_VALUE) {
+			nextPts = pts != Long.MIN_VALUE ? pts : 0;
+		}
+		else if (pts != Long.MIN_VALUE) {
+			followInput(streamId, input, pts);
+		}
+		if (pts != Long.MIN_VALUE) {
+			input.ptsOffset = nextPts + input.size - pts;
+		}
+
+		append(input, frame);
+
+		while (isFrameReady()) {
+			mixFrame();
+		}
+		input.mixedFrameCountAtPush = mixedFrameCount;
+	}
+
+	/*
+	 * If nothing is mixed since the last frame of the input and its pts is ahead of the mix, all inputs have stopped for a while.
+	 * Mix continues from the pts of the input and the stale samples are dropped
+	 */
+	private void followInput(String streamId, InputBuffer input, long pts) {
+		if (input.ptsOffset == Long.MIN_VALUE || input.mixedFrameCountAtPush != mixedFrameCount) {
+			return;
+		}
+		long gap = input.ptsOffset + pts - (nextPts + input.size);
+		if (gap >= frameSize) {
+			for (InputBuffer buffer : inputs.values()) {
+				consume(buffer, buffer.size);
+			}
+			nextPts = input.ptsOffset + pts;
+			logger.info("Audio mixer of output:{} continues {}ms ahead after a gap of stream:{}", outputStreamId, gap * 1000 / sampleRate, streamId);
+		}
+	}
+
+	private AVFrame resample(String streamId, InputBuffer input, AVFrame frame) {
+		int frameChannels = Math.max(1, frame.ch_layout().nb_channels());
+		if (input.resampledFrame == null || input.resamplerInputRate != frame.sample_rate() 
+				|| input.resamplerInputFormat != frame.format() || input.resamplerInputChannels != frameChannels) {
+			input.closeResampler();
+			input.resamplerInputRate = frame.sample_rate();
+			input.resamplerInputFormat = frame.format();
+			input.resamplerInputChannels = frameChannels;
+
+			SwrContext resampler = new SwrContext(null);
+			int ret = swr_alloc_set_opts2(resampler, frame.ch_layout(), AV_SAMPLE_FMT_FLTP, sampleRate, 
+					frame.ch_layout(), frame.format(), frame.sample_rate(), 0, null);
+			input.resampledFrame = av_frame_alloc();
+			if (ret < 0 || swr_init(resampler) < 0) {
+				swr_free(resampler);
+				//resampler is not created again until the input changes, so the warning is not repeated for each frame
+				logger.warn("Audio of stream:{} cannot be resampled for the mixer of output:{}. Sample rate:{} format:{}", 
+						streamId, outputStreamId, frame.sample_rate(), frame.format());
+				return null;
+			}
+			input.resampler = resampler;
+			logger.info("Audio of stream:{} is resampled from sample rate:{} format:{} to sample rate:{} for the mixer of output:{}", 
+					streamId, frame.sample_rate(), frame.format(), sampleRate, outputStreamId);
+		}
+		if (input.resampler == null) {
+			return null;
+		}
+
+		AVFrame resampledFrame = input.resampledFrame;
+		av_frame_unref(resampledFrame);
+		resampledFrame.format(AV_SAMPLE_FMT_FLTP);
+		resampledFrame.sample_rate(sampleRate);
+		av_channel_layout_copy(resampledFrame.ch_layout(), frame.ch_layout());
+		if (swr_convert_frame(input.resampler, resampledFrame, frame) < 0) {
+			logger.warn("Audio frame of stream:{} cannot be resampled for the mixer of output:{}", streamId, outputStreamId);
+			return null;
+		}
+		return resampledFrame.nb_samples() > 0 ? resampledFrame : null;
+	}
+
+	private void append(InputBuffer input, AVFrame frame) {
+		int sampleCount = frame.nb_samples();
+		if (input.size + sampleCount > input.samples[0].length) {
+			//input is too much ahead of the others, oldest samples are dropped to keep the latency
+			int dropCount = input.size + sampleCount - input.samples[0].length;
+			consume(input, Math.min(dropCount, input.size));
+			droppedSampleCount += dropCount;
+			sampleCount = Math.min(sampleCount, input.samples[0].length);
+		}
+
+		int frameChannels = Math.max(1, frame.ch_layout().nb_channels());
+		int format = frame.format();
+		for (int channel = 0; channel < channelCount; channel++) {
+			//mono inputs are copied to all channels
+			int sourceChannel = Math.min(channel, frameChannels - 1);
+			float[] destination = input.samples[channel];
+			if (format == AV_SAMPLE_FMT_FLTP) {
+				new FloatPointer(frame.data(sourceChannel)).get(destination, input.size, sampleCount);
+			}
+			else if (format == AV_SAMPLE_FMT_FLT) {
+				readInterleavedFloats(frame, frameChannels, sampleCount);
+				for (int i = 0; i < sampleCount; i++) {
+					destination[input.size + i] = readBuffer[i * frameChannels + sourceChannel];
+				}
+			}
+			else if (format == AV_SAMPLE_FMT_S16P) {
+				readShorts(frame, sourceChannel, sampleCount);
+				for (int i = 0; i < sampleCount; i++) {
+					destination[input.size + i] = shortReadBuffer[i] / 32768f;
+				}
+			}
+			else {
+				readShorts(frame, 0, sampleCount * frameChannels);
+				for (int i = 0; i < sampleCount; i++) {
+					destination[input.size + i] = shortReadBuffer[i * frameChannels + sourceChannel] / 32768f;
+				}
+			}
+		}
+		input.size += sampleCount;
+		input.started = true;
+	}
+
+	private void readInterleavedFloats(AVFrame frame, int frameChannels, int sampleCount) {
+		int length = sampleCount * frameChannels;
+		if (readBuffer.length < length) {
+			readBuffer = new float[length];
+		}
+		new FloatPointer(frame.data(0)).get(readBuffer, 0, length);
+	}
+
+	private void readShorts(AVFrame frame, int plane, int length) {
+		if (shortReadBuffer.length < length) {
+			shortReadBuffer = new short[length];
+		}
+		new ShortPointer(frame.data(plane)).get(shortReadBuffer, 0, length);
+	}
+
+	/*
+	 * Inputs that have not sent audio yet are silent, so they're not waited
+	 */
+	private boolean isFrameReady() {
+		boolean anyStarted = false;
+		for (InputBuffer input : inputs.values()) {
+			if (input.size >= maxBufferedSamples) {
+				return true;
+			}
+			anyStarted |= input.started;
+		}
+		if (!anyStarted) {
+			return false;
+		}
+		for (InputBuffer input : inputs.values()) {
+			if (input.started && input.size < frameSize) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void mixFrame() {
+		for (float[] channel : mix) {
+			Arrays.fill(channel, 0);
+		}
+
+		float peak = 0;
+		for (InputBuffer input : inputs.values()) {
+			int sampleCount = Math.min(frameSize, input.size);
+			for (int channel = 0; channel < channelCount; channel++) {
+				float[] source = input.samples[channel];
+				float[] destination = mix[channel];
+				for (int i = 0; i < sampleCount; i++) {
+					destination[i] += source[i] * input.gain;
+				}
+			}
+			consume(input, sampleCount);
+		}
+		for (float[] channel : mix) {
+			for (float sample : channel) {
+				peak = Math.max(peak, Math.abs(sample));
+			}
+		}
+
+		//gain goes down immediately to prevent clipping and goes up slowly
+		float targetGain = peak > NORMALIZATION_PEAK ? NORMALIZATION_PEAK / peak : 1;
+		float startGain;
+		float endGain;
+		if (targetGain < normalizationGain) {
+			startGain = targetGain;
+			endGain = targetGain;
+		}
+		else {
+			startGain = normalizationGain;
+			endGain = startGain + (targetGain - startGain) * NORMALIZATION_RELEASE;
+		}
+		normalizationGain = endGain;
+
+		if (av_frame_make_writable(outputFrame) < 0) {
+			logger.warn("Mixed audio frame is not writable for output:{}", outputStreamId);
+			return;
+		}
+		for (int channel = 0; channel < channelCount; channel++) {
+			float[] samples = mix[channel];
+			if (startGain != 1 || endGain != 1) {
+				//gain is ramped in the frame when it goes up to not have clicks
+				for (int i = 0; i < frameSize; i++) {
+					float gain = startGain + (endGain - startGain) * i / frameSize;
+					samples[i] = Math.max(-1f, Math.min(1f, samples[i] * gain));
+				}
+			}
+			new FloatPointer(outputFrame.data(channel)).put(samples, 0, frameSize);
+		}
+		outputFrame.nb_samples(frameSize);
+		outputFrame.pts(nextPts);
+		nextPts += frameSize;
+		mixedFrameCount++;
+
+		try {
+			listener.onFilteredFrame(outputStreamId, outputFrame);
+		}
+		catch (Exception e) {
+			logger.error("Error in delivering mixed audio frame of output:{} {}", outputStreamId, ExceptionUtils.getStackTrace(e));
+		}
+	}
+
+	private static void consume(InputBuffer input, int sampleCount) {
+		int remaining = input.size - sampleCount;
+		for (float[] channel : input.samples) {
+			System.arraycopy(channel, sampleCount, channel, 0, remaining);
+		}
+		input.size = remaining;
+	}
+
+	public synchronized void close() {
+		if (outputFrame != null) {
+			av_frame_free(outputFrame);
+			outputFrame = null;
+		}
+		for (InputBuffer input : inputs.values()) {
+			input.closeResampler();
+		}
+		inputs.clear();
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannelCount() {
+		return channelCount;
+	}
+
+	public synchronized long getMixedFrameCount() {
+		return mixedFrameCount;
+	}
+
+	public synchronized long getDroppedSampleCount() {
+		return droppedSampleCount;
+	}
+
+	public synchronized float getNormalizationGain() {
+		return normalizationGain;
+	}
+
+	public synchronized int getBufferedSampleCount(String streamId) {
+		InputBuffer input = inputs.get(streamId);
+		return input != null ? input.size : 0;
+	}
+}
@@ -0,0 +1,375 @@
+package io.antmedia.filter;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_DEFAULT;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_ref;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_unref;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.antmedia.AntMediaApplicationAdapter;
+import io.antmedia.filter.utils.FramePool;
+import io.antmedia.plugin.api.IFrameListener;
+import io.antmedia.plugin.api.IPacketListener;
+import io.antmedia.plugin.api.StreamParametersInfo;
+
+/**
+ * Decodes each input stream once for all filters in the application.
+ *
+ * FilterAdaptors that need decoded frames of a stream subscribe to the hub instead of registering
+ * themselves as packet listeners and creating their own decoders. The hub registers itself as the packet listener
+ * of the stream for the first subscriber, decodes the packets and gives each subscriber its own reference
+ * to the decoded frame. So the frame data is shared and not copied.
+ * Decoders are stopped when the last subscriber leaves.
+ */
+public class DecodedFrameHub implements IPacketListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(DecodedFrameHub.class);
+
+	static class DecodedStream {
+		volatile VideoDecoder videoDecoder;
+		volatile AudioDecoder audioDecoder;
+		volatile StreamParametersInfo videoStreamInfo;
+		volatile StreamParametersInfo audioStreamInfo;
+		final List<IFrameListener> subscribers = new CopyOnWriteArrayList<>();
+		final Map<IFrameListener, Integer> frameIntervals = new ConcurrentHashMap<>();
+		final Map<IFrameListener, Integer> loopFilterDiscards = new ConcurrentHashMap<>();
+
+		/*
+		 * Decoder decodes the frames for the subscriber that needs the most frames
+		 */
+		int getFrameInterval() {
+			int frameInterval = VideoDecoder.DECODE_NONE;
+			for (int interval : frameIntervals.values()) {
+				if (getRank(interval) < getRank(frameInterval)) {
+					frameInterval = interval;
+				}
+			}
+			return frameInterval;
+		}
+
+		/*
+		 * Lower rank decodes more frames
+		 */
+		private int getRank(int frameInterval) {
+			if (frameInterval == VideoDecoder.DECODE_NONE) {
+				return Integer.MAX_VALUE;
+			}
+			else if (frameInterval == VideoDecoder.DECODE_KEY_FRAMES_ONLY) {
+				return Integer.MAX_VALUE - 1;
+			}
+			return frameInterval;
+		}
+
+		/*
+		 * Deblocking is skipped as much as the subscriber that needs the best quality allows
+		 */
+		int getLoopFilterDiscard() {
+			int loopFilterDiscard = Integer.MAX_VALUE;
+			for (IFrameListener subscriber : subscribers) {
+				loopFilterDiscard = Math.min(loopFilterDiscard, loopFilterDiscards.getOrDefault(subscriber, AVDISCARD_DEFAULT));
+			}
+			return loopFilterDiscard == Integer.MAX_VALUE ? AVDISCARD_DEFAULT : loopFilterDiscard;
+		}
+
+		void applyFrameInterval() {
+			VideoDecoder decoder = videoDecoder;
+			int frameInterval = getFrameInterval();
+			if (decoder != null && decoder.getFrameInterval() != frameInterval) {
+				decoder.setFrameInterval(frameInterval);
+			}
+			int loopFilterDiscard = getLoopFilterDiscard();
+			if (decoder != null && decoder.getLoopFilterDiscard() != loopFilterDiscard) {
+				decoder.setLoopFilterDiscard(loopFilterDiscard);
+			}
+		}
+	}
+
+	private final Map<String, DecodedStream> decodedStreams = new ConcurrentHashMap<>();
+	private final AntMediaApplicationAdapter app;
+	private final FramePool framePool = new FramePool();
+
+	private final AtomicLong decodedVideoFrameCount = new AtomicLong();
+	private final AtomicLong decodedAudioFrameCount = new AtomicLong();
+
+	public DecodedFrameHub(AntMediaApplicationAdapter app) {
+		this.app = app;
+	}
+
+	/**
+	 * Subscribes to the decoded frames of the stream. Stream infos are given to the subscriber
+	 * through setVideoStreamInfo and setAudioStreamInfo before the frames
+	 */
+	public void subscribe(String streamId, IFrameListener subscriber) {
+		subscribe(streamId, subscriber, VideoDecoder.DECODE_ALL_FRAMES);
+	}
+
+	/**
+	 * Subscribes to the decoded frames of the stream with the frame interval the subscriber needs.
+	 * If the subscriber is already subscribed, its frame interval is updated.
+	 * Stream is decoded for the subscriber that needs the most frames, so subscribers may get more frames than they need
+	 * 
+	 * @param frameInterval see {@link VideoDecoder#setFrameInterval(int)}
+	 */
+	public void subscribe(String streamId, IFrameListener subscriber, int frameInterval) {
+		StreamParametersInfo videoStreamInfo = null;
+		StreamParametersInfo audioStreamInfo = null;
+		synchronized (this) {
+			DecodedStream decodedStream = decodedStreams.get(streamId);
+			if (decodedStream == null) {
+				decodedStream = new DecodedStream();
+				decodedStream.subscribers.add(subscriber);
+				decodedStream.frameIntervals.put(subscriber, frameInterval);
+				decodedStreams.put(streamId, decodedStream);
+				//stream infos are received in setVideoStreamInfo and setAudioStreamInfo
+				app.addPacketListener(streamId, this);
+				logger.info("Stream:{} will be decoded in the hub", streamId);
+			}
+			else if (!decodedStream.subscribers.contains(subscriber)) {
+				decodedStream.subscribers.add(subscriber);
+				decodedStream.frameIntervals.put(subscriber, frameInterval);
+				decodedStream.applyFrameInterval();
+				videoStreamInfo = decodedStream.videoStreamInfo;
+				audioStreamInfo = decodedStream.audioStreamInfo;
+			}
+			else {
+				decodedStream.frameIntervals.put(subscriber, frameInterval);
+				decodedStream.applyFrameInterval();
+			}
+			logger.info("Subscriber count is {} for stream:{} in the hub", decodedStream.subscribers.size(), streamId);
+		}
+
+		//subscribers are called out of the lock because they have their own locks
+		if (videoStreamInfo != null) {
+			subscriber.setVideoStreamInfo(streamId, videoStreamInfo);
+		}
+		if (audioStreamInfo != null) {
+			subscriber.setAudioStreamInfo(streamId, audioStreamInfo);
+		}
+	}
+
+	public synchronized void unsubscribe(String streamId, IFrameListener subscriber) {
+		DecodedStream decodedStream = decodedStreams.get(streamId);
+		if (decodedStream == null) {
+			return;
+		}
+		decodedStream.subscribers.remove(subscriber);
+		decodedStream.frameIntervals.remove(subscriber);
+		decodedStream.loopFilterDiscards.remove(subscriber);
+		if (decodedStream.subscribers.isEmpty()) {
+			decodedStreams.remove(streamId);
+			app.removePacketListener(streamId, this);
+			stopDecoders(decodedStream);
+			logger.info("Stream:{} has no subscriber so it's not decoded in the hub anymore", streamId);
+		}
+		else {
+			decodedStream.applyFrameInterval();
+		}
+	}
+
+	public synchronized void setFrameInterval(String streamId, IFrameListener subscriber, int frameInterval) {
+		DecodedStream decodedStream = decodedStreams.get(streamId);
+		if (decodedStream != null && decodedStream.subscribers.contains(subscriber)) {
+			decodedStream.frameIntervals.put(subscriber, frameInterval);
+			decodedStream.applyFrameInterval();
+		}
+	}
+
+	/**
+	 * @param loopFilterDiscard see {@link VideoDecoder#setLoopFilterDiscard(int)}
+	 */
+	public synchronized void setLoopFilterDiscard(String streamId, IFrameListener subscriber, int loopFilterDiscard) {
+		DecodedStream decodedStream = decodedStreams.get(streamId);
+		if (decodedStream != null && decodedStream.subscribers.contains(subscriber)) {
+			decodedStream.loopFilterDiscards.put(subscriber, loopFilterDiscard);
+			decodedStream.applyFrameInterval();
+		}
+	}
+
+	public int getLoopFilterDiscard(String streamId) {
+		DecodedStream decodedStream = decodedStreams.get(streamId);
+		return decodedStream != null ? decodedStream.getLoopFilterDiscard() : AVDISCARD_DEFAULT;
+	}
+
+	public int getFrameInterval(String streamId) {
+		DecodedStream decodedStream = decodedStreams.get(streamId);
+		return decodedStream != null ? decodedStream.getFrameInterval() : VideoDecoder.DECODE_ALL_FRAMES;
+	}
+
+	private void stopDecoders(DecodedStream decodedStream) {
+		if (decodedStream.videoDecoder != null) {
+			decodedStream.videoDecoder.stop();
+			decodedStream.videoDecoder = null;
+		}
+		if (decodedStream.audioDecoder != null) {
+			decodedStream.audioDecoder.stop();
+			decodedStream.audioDecoder = null;
+		}
+	}
+
+	@Override
+	public void setVideoStreamInfo(String streamId, StreamParametersInfo videoStreamInfo) {
+		DecodedStream decodedStream;
+		synchronized (this) {
+			decodedStream = decodedStreams.get(streamId);
+			if (decodedStream == null) {
+				return;
+			}
+			decodedStream.videoStreamInfo = videoStreamInfo;
+			if (decodedStream.videoDecoder != null) {
+				decodedStream.videoDecoder.stop();
+			}
+			VideoDecoder decoder = new VideoDecoder(streamId, videoStreamInfo);
+			decoder.setDecoderTimeBase(Utils.TIME_BASE_FOR_MS);
+			decodedStream.videoDecoder = decoder.isRunning() ? decoder : null;
+			decodedStream.applyFrameInterval();
+		}
+
+		for (IFrameListener subscriber : decodedStream.subscribers) {
+			subscriber.setVideoStreamInfo(streamId, videoStreamInfo);
+		}
+	}
+
+	@Override
+	public void setAudioStreamInfo(String streamId, StreamParametersInfo audioStreamInfo) {
+		DecodedStream decodedStream;
+		synchronized (this) {
+			decodedStream = decodedStreams.get(streamId);
+			if (decodedStream == null) {
+				return;
+			}
+			decodedStream.audioStreamInfo = audioStreamInfo;
+			if (decodedStream.audioDecoder != null) {
+				decodedStream.audioDecoder.stop();
+			}
+			AudioDecoder decoder = new AudioDecoder(streamId);
+			decoder.prepareAudioDecoder(audioStreamInfo.getCodecParameters());
+			decodedStream.audioDecoder = decoder;
+		}
+
+		for (IFrameListener subscriber : decodedStream.subscribers) {
+			subscriber.setAudioStreamInfo(streamId, audioStreamInfo);
+		}
+	}
+
+	@Override
+	public AVPacket onVideoPacket(String streamId, AVPacket packet) {
+		DecodedStream decodedStream = decodedStreams.get(streamId);
+		if (decodedStream == null || decodedStream.videoDecoder == null) {
+			return packet;
+		}
+
+		AVPacket tempPacket = new AVPacket();
+		av_packet_ref(tempPacket, packet);
+
+		app.getVertx().executeBlocking(() -> {
+			VideoDecoder videoDecoder = decodedStream.videoDecoder;
+			if (videoDecoder != null) {
+				videoDecoder.decodeVideoPacket(tempPacket, (id, frame) -> deliverVideoFrame(id, decodedStream, frame));
+			}
+			av_packet_unref(tempPacket);
+			tempPacket.close();
+			return null;
+		});
+		return packet;
+	}
+
+	@Override
+	public AVPacket onAudioPacket(String streamId, AVPacket packet) {
+		DecodedStream decodedStream = decodedStreams.get(streamId);
+		StreamParametersInfo audioStreamInfo = decodedStream != null ? decodedStream.audioStreamInfo : null;
+		AudioDecoder audioDecoder = decodedStream != null ? decodedStream.audioDecoder : null;
+		if (audioDecoder == null || audioStreamInfo == null) {
+			return packet;
+		}
+
+		audioDecoder.decodeAudioPacket(audioStreamInfo.getTimeBase(), packet, (id, frame) -> deliverAudioFrame(id, decodedStream, frame));
+		return packet;
+	}
+
+	private void deliverVideoFrame(String streamId, DecodedStream decodedStream, AVFrame frame) {
+		decodedVideoFrameCount.incrementAndGet();
+		deliver(streamId, decodedStream, frame, true);
+	}
+
+	private void deliverAudioFrame(String streamId, DecodedStream decodedStream, AVFrame frame) {
+		decodedAudioFrameCount.incrementAndGet();
+		deliver(streamId, decodedStream, frame, false);
+	}
+
+	/*
+	 * Each subscriber gets its own reference because subscribers may change the pts or
+	 * move the frame into their filter graphs
+	 */
+	private void deliver(String streamId, DecodedStream decodedStream, AVFrame frame, boolean video) {
+		for (IFrameListener subscriber : decodedStream.subscribers) {
+			AVFrame subscriberFrame = framePool.acquire(frame);
+			try {
+				if (video) {
+					subscriber.onVideoFrame(streamId, subscriberFrame);
+				}
+				else {
+					subscriber.onAudioFrame(streamId, subscriberFrame);
+				}
+			}
+			catch (Exception e) {
+				logger.error("Error in delivering decoded frame of stream:{} {}", streamId, ExceptionUtils.getStackTrace(e));
+			}
+			finally {
+				framePool.release(subscriberFrame);
+			}
+		}
+	}
+
+	@Override
+	public AVPacket onDataPacket(String streamId, AVPacket packet) {
+		return packet;
+	}
+
+	@Override
+	public void writeTrailer(String streamId) {
+		//stream is finished, so deliver the frames waiting in the decoders
+		DecodedStream decodedStream = decodedStreams.get(streamId);
+		if (decodedStream == null) {
+			return;
+		}
+		VideoDecoder videoDecoder = decodedStream.videoDecoder;
+		if (videoDecoder != null) {
+			//packets are decoded in ordered blocking tasks, so the decoder is flushed after the last packet
+			app.getVertx().executeBlocking(() -> {
+				videoDecoder.flush((id, frame) -> deliverVideoFrame(id, decodedStream, frame));
+				return null;
+			});
+		}
+		AudioDecoder audioDecoder = decodedStream.audioDecoder;
+		if (audioDecoder != null) {
+			audioDecoder.flush((id, frame) -> deliverAudioFrame(id, decodedStream, frame));
+		}
+	}
+
+	public boolean isDecoding(String streamId) {
+		return decodedStreams.containsKey(streamId);
+	}
+
+	public int getSubscriberCount(String streamId) {
+		DecodedStream decodedStream = decodedStreams.get(streamId);
+		return decodedStream != null ? decodedStream.subscribers.size() : 0;
+	}
+
+	public long getDecodedVideoFrameCount() {
+		return decodedVideoFrameCount.get();
+	}
+
+	public long getDecodedAudioFrameCount() {
+		return decodedAudioFrameCount.get();
+	}
+}
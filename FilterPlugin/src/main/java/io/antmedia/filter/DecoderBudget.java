@@ -0,0 +1,77 @@
+package io.antmedia.filter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares the CPU cores of the host between the running video decoders.
+ *
+ * Thread count of a decoder is decided when it's opened according to the resolution of the stream
+ * and the number of decoders running on the host. Small inputs like the tiles of an MCU room
+ * do not gain from many threads, and giving every decoder the same thread count oversubscribes the cores
+ * when there are many rooms in the node.
+ */
+public class DecoderBudget {
+
+	/**
+	 * Upper limit of the thread count of a single decoder
+	 */
+	public static final int MAX_THREAD_COUNT = 6;
+
+	private static final int PIXELS_360P = 640 * 360;
+	private static final int PIXELS_720P = 1280 * 720;
+
+	private static DecoderBudget instance = new DecoderBudget(Runtime.getRuntime().availableProcessors());
+
+	private final int coreCount;
+	private final AtomicInteger activeDecoderCount = new AtomicInteger();
+
+	public DecoderBudget(int coreCount) {
+		this.coreCount = Math.max(1, coreCount);
+	}
+
+	public static DecoderBudget getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return thread count for a new decoder that will decode the given resolution.
+	 * It counts the new decoder as an active decoder
+	 */
+	public int getThreadCount(int width, int height) {
+		int fairShare = Math.max(1, coreCount / (activeDecoderCount.get() + 1));
+
+		int pixels = width * height;
+		int resolutionLimit;
+		if (pixels <= 0) {
+			//resolution is not known yet
+			resolutionLimit = MAX_THREAD_COUNT;
+		}
+		else if (pixels <= PIXELS_360P) {
+			resolutionLimit = 2;
+		}
+		else if (pixels <= PIXELS_720P) {
+			resolutionLimit = 4;
+		}
+		else {
+			resolutionLimit = MAX_THREAD_COUNT;
+		}
+
+		return Math.min(resolutionLimit, fairShare);
+	}
+
+	public void register() {
+		activeDecoderCount.incrementAndGet();
+	}
+
+	public void unregister() {
+		activeDecoderCount.decrementAndGet();
+	}
+
+	public int getActiveDecoderCount() {
+		return activeDecoderCount.get();
+	}
+
+	public int getCoreCount() {
+		return coreCount;
+	}
+}
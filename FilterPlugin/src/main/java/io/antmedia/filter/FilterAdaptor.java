@@ -11,14 +11,20 @@ import static org.bytedeco.ffmpeg.global.avutil.AV_ROUND_NEAR_INF;
 import static org.bytedeco.ffmpeg.global.avutil.AV_ROUND_PASS_MINMAX;
 import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_FLTP;
 import static org.bytedeco.ffmpeg.global.avutil.av_channel_layout_default;
-import static org.bytedeco.ffmpeg.global.avutil.av_frame_clone;
-import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
 import static org.bytedeco.ffmpeg.global.avutil.av_rescale_q_rnd;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
 import org.bytedeco.ffmpeg.avcodec.AVPacket;
@@ -30,9 +36,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.antmedia.AntMediaApplicationAdapter;
+import io.antmedia.datastore.db.types.Broadcast;
 import io.antmedia.filter.utils.Filter;
 import io.antmedia.filter.utils.FilterConfiguration;
 import io.antmedia.filter.utils.FilterGraph;
+import io.antmedia.filter.utils.FilterStats;
+import io.antmedia.filter.utils.FrameAligner;
+import io.antmedia.filter.utils.FrameRateDecimator;
+import io.antmedia.filter.utils.FramePool;
+import io.antmedia.filter.utils.TileDownscaler;
 import io.antmedia.muxer.IAntMediaStreamHandler;
 import io.antmedia.plugin.api.IFrameListener;
 import io.antmedia.plugin.api.IPacketListener;
@@ -48,11 +60,34 @@ import io.vertx.core.Vertx;
  *
  */
 public class FilterAdaptor implements IFrameListener, IPacketListener {
-	private FilterGraph videoFilterGraph = null;
-	private FilterGraph audioFilterGraph = null;
+	private volatile FilterGraph videoFilterGraph = null;
+	private volatile FilterGraph audioFilterGraph = null;
+
+	/*
+	 * Updated graphs waiting for their first output frame in hot swap. Running graphs above are replaced 
+	 * by these when they produce a frame or when PENDING_GRAPH_TIMEOUT_MS passes
+	 */
+	private volatile FilterGraph pendingVideoFilterGraph = null;
+	private volatile FilterGraph pendingAudioFilterGraph = null;
+	/*
+	 * Mixes the audio instead of the audio graph if it's enabled and the audio filter only mixes the inputs
+	 */
+	private volatile AudioMixer audioMixer = null;
+
+	private long pendingVideoFilterGraphTime;
+	private long pendingAudioFilterGraphTime;
+
+	private final Object graphSwapLock = new Object();
+
+	public static final long PENDING_GRAPH_TIMEOUT_MS = 5000;
 
 	List<String> currentInStreams = new ArrayList<>();
 	Map<String, IFrameListener> currentOutStreams = new LinkedHashMap<>();
+	
+	/*
+	 * Forwards the encoded outputs to their aliases. Key is the output stream id
+	 */
+	private Map<String, OutputAliasForwarder> aliasForwarders = new HashMap<>();
 
 	// stream Id to video/audio stream params map
 	private Map<String, StreamParametersInfo> videoStreamParamsMap = new LinkedHashMap<>();
@@ -69,20 +104,107 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 	 * So this parameters is used to provide synchronization of video and audio frames.
 	 */
 	private long audioVideoOffset; 
-	private boolean firstVideoReceived = false;
+	private volatile boolean firstVideoReceived = false;
 	private AVChannelLayout channelLayout;
 	private String filterId;
 
 	private Map<String, Boolean> decodeStreamMap;
 
+	/*
+	 * App level hub that decodes the streams once for all filters. If it's null, filter decodes the streams itself
+	 */
+	private DecodedFrameHub decodedFrameHub;
+
+	/*
+	 * Frames of asynchronous and lastpoint modes are processed in this worker
+	 */
+	private volatile FrameQueueWorker frameQueueWorker;
+
+	/*
+	 * Audio frames are processed in this worker if the video and audio graphs have separate threads. 
+	 * Otherwise it's null and the audio frames are processed in the frame queue worker as well
+	 */
+	private volatile FrameQueueWorker audioFrameQueueWorker;
+
+	/*
+	 * Copies of the frames for asynchronous and lastpoint modes are taken from this pool
+	 * instead of av_frame_clone. Filter graphs use it for their pictures as well
+	 */
+	private final FramePool framePool = new FramePool();
+
+	/*
+	 * Feeds the frames of the inputs to the graphs in timestamp order with a fixed latency in asynchronous and lastpoint modes.
+	 * It's null if alignment latency is not set in the configuration
+	 */
+	private volatile FrameAligner frameAligner;
+
+	/*
+	 * Smoothed audio levels of the input streams in dBFS. They're measured if audio level metering is enabled
+	 */
+	private final Map<String, Double> audioLevels = new ConcurrentHashMap<>();
+	private volatile boolean audioLevelMetering = false;
+
+	/*
+	 * Weight of the new measurement in the smoothed audio level
+	 */
+	private static final double AUDIO_LEVEL_SMOOTHING = 0.2;
+
+	/*
+	 * Input streams whose labels are not in the video or audio filter text. 
+	 * Their video is not decoded and their frames are not fed to the graphs
+	 */
+	private volatile Set<String> unusedVideoInputs = Collections.emptySet();
+	private volatile Set<String> unusedAudioInputs = Collections.emptySet();
+
+	/*
+	 * Inputs that are not in the filter graph because their stream info has not been received yet.
+	 * Filter graph is updated when their stream info is received
+	 */
+	private final Set<String> inputsWaitingForStreamInfo = ConcurrentHashMap.newKeySet();
+
+	/*
+	 * Frame rates, latencies and graph rebuilds of the filter. It's served in REST and JMX
+	 */
+	private final FilterMetrics filterMetrics;
+
+	/*
+	 * Drops the video frames above the output frame rate before they're copied to the frame queue
+	 */
+	private final FrameRateDecimator frameRateDecimator = new FrameRateDecimator(0);
+
+	/*
+	 * Outputs of the on-demand filters are checked for the viewers with this period
+	 */
+	public static final long ON_DEMAND_CHECK_PERIOD_MS = 2000;
+
+	/*
+	 * On-demand filter is paused while its outputs have no viewer. Inputs are not decoded and frames are not fed to the graphs
+	 */
+	private volatile boolean paused = false;
+	private long onDemandTimer = -1L;
+	private volatile long lastDemandTime;
+
 	public FilterAdaptor(String filterId) {
 		this.filterId = filterId;
+		this.filterMetrics = new FilterMetrics(filterId, this::getFrameQueueWorkers);
 	}
 	
 	@Override
 	public AVFrame onAudioFrame(String streamId, AVFrame audioFrame) {
 
-		if(audioFilterGraph == null || !audioFilterGraph.isInitiated() || audioFilterGraph.getListener() == null) {
+		if (unusedAudioInputs.contains(streamId) || paused) {
+			//audio of the stream is not used in the filter, e.g. muted participant, or nobody watches the outputs
+			return filterConfiguration.getType().equals(FilterConfiguration.LASTPOINT) ? null : audioFrame;
+		}
+
+		if (audioFrame != null) {
+			filterMetrics.inputFrameReceived(streamId, false);
+			if (audioLevelMetering) {
+				measureAudioLevel(streamId, audioFrame);
+			}
+		}
+
+		if(audioMixer == null && (audioFilterGraph == null || !audioFilterGraph.isInitiated() || audioFilterGraph.getListener() == null)) {
 			logger.warn("AudioFilter graph is not initialized so returning frame for stream:{} and filter:{}", streamId, filterId);
 			return audioFrame;
 		}
@@ -92,35 +214,25 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 		if(filterConfiguration.getType().equals(FilterConfiguration.ASYNCHRONOUS)) {
 			//copy the input frame then return it immediately
 			if (audioFrame != null) {
-				filterInputframe = av_frame_clone(audioFrame);
+				filterInputframe = framePool.acquire(audioFrame);
 			}
 			else {
 				filterInputframe = null;
 			}
 
-			vertx.executeBlocking(()->{
-				audioFilterGraph.doFilter(streamId, filterInputframe, false);
-
-				if (filterInputframe != null) 
-				{
-					av_frame_free(filterInputframe);
-				}
-				return null;
-			});
+			queueFrame(streamId, filterInputframe, false);
 			filterOutputFrame = audioFrame;
 		}
 		else if(filterConfiguration.getType().equals(FilterConfiguration.LASTPOINT)) 
 		{
+			//frame is processed later in the worker so it should be copied as well
 			if (audioFrame != null) {
-				filterInputframe = audioFrame;
+				filterInputframe = framePool.acquire(audioFrame);
 			}
 			else {
 				filterInputframe = null;
 			}
-			vertx.executeBlocking(()->{
-				audioFilterGraph.doFilter(streamId, filterInputframe, false);
-				return null;
-			});
+			queueFrame(streamId, filterInputframe, false);
 
 			filterOutputFrame = null; //lastpoint
 		}
@@ -135,11 +247,14 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 				filterInputframe = null;
 			}
 
+			long startTime = System.nanoTime();
 			filterOutputFrame = audioFilterGraph.doFilter(streamId, filterInputframe, true);
+			filterMetrics.filterCompleted(System.nanoTime() - startTime);
 			if(filterOutputFrame != null) 
 			{
 
 				filterOutputFrame.pts(orgPts);
+				filterMetrics.outputFrameSent(streamId, false);
 
 			}
 		}
@@ -148,6 +263,15 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 
 	@Override
 	public AVFrame onVideoFrame(String streamId, AVFrame videoFrame) {
+		if (unusedVideoInputs.contains(streamId) || paused) {
+			//video of the stream is not used in the filter, e.g. camera-off participant, or nobody watches the outputs
+			return filterConfiguration.getType().equals(FilterConfiguration.LASTPOINT) ? null : videoFrame;
+		}
+
+		if (videoFrame != null) {
+			filterMetrics.inputFrameReceived(streamId, true);
+		}
+
 		if(videoFilterGraph == null || !videoFilterGraph.isInitiated() || videoFilterGraph.getListener() == null) {
 			logger.warn("Videofilter graph is not initialized so returning frame for stream:{} and filter:{}", streamId, filterId);
 			return videoFrame;
@@ -168,28 +292,32 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 			update();
 		}
 
+		if (videoFrame != null && !filterConfiguration.getType().equals(FilterConfiguration.SYNCHRONOUS)
+				&& !frameRateDecimator.accept(streamId, getFramePtsMs(streamId, videoFrame.pts(), videoStreamParams.getTimeBase()))) 
+		{
+			//frame is above the output frame rate so it's not copied or fed to the graph
+			filterMetrics.frameDecimated();
+			return filterConfiguration.getType().equals(FilterConfiguration.LASTPOINT) ? null : videoFrame;
+		}
+
 		if(filterConfiguration.getType().equals(FilterConfiguration.ASYNCHRONOUS)) 
 		{
 			//copy the input frame then refilteredVideoFramesturn it immediately
 			if (videoFrame != null) {
-				filterInputframe = av_frame_clone(videoFrame);
+				filterInputframe = framePool.acquire(videoFrame);
 				rescaleFramePtsToMs(streamId, filterInputframe, videoStreamParams.getTimeBase());
 			}
 			else {
 				filterInputframe = null;
 			}
 
-			vertx.executeBlocking(()->{
-				videoFilterGraph.doFilter(streamId, filterInputframe, false);
-				av_frame_free(filterInputframe);
-				return null;
-			});
+			queueFrame(streamId, filterInputframe, true);
 			filterOutputFrame = videoFrame;
 		}
 		else if(filterConfiguration.getType().equals(FilterConfiguration.LASTPOINT)) 
 		{
 			if (videoFrame != null) {
-				filterInputframe = av_frame_clone(videoFrame);
+				filterInputframe = framePool.acquire(videoFrame);
 				rescaleFramePtsToMs(streamId, filterInputframe, videoStreamParams.getTimeBase());
 			}
 			else {
@@ -198,11 +326,7 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 
 			filterOutputFrame = null; //lastpoint
 
-			vertx.executeBlocking(()->{
-				videoFilterGraph.doFilter(streamId, filterInputframe, false);
-				av_frame_free(filterInputframe);
-				return null;
-			});
+			queueFrame(streamId, filterInputframe, true);
 		}
 		else if(filterConfiguration.getType().equals(FilterConfiguration.SYNCHRONOUS))
 		{
@@ -217,7 +341,9 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 				filterInputframe = null;
 			}
 
+			long startTime = System.nanoTime();
 			filterOutputFrame = videoFilterGraph.doFilter(streamId, filterInputframe, true);
+			filterMetrics.filterCompleted(System.nanoTime() - startTime);
 
 			if(filterOutputFrame != null) 
 			{
@@ -228,6 +354,7 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 				}
 				else {
 					filterOutputFrame.pts(orgPts);
+					filterMetrics.outputFrameSent(streamId, true);
 				}
 			}
 
@@ -235,18 +362,331 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 		return filterOutputFrame;
 	}
 
+	private void queueFrame(String streamId, AVFrame filterInputframe, boolean video) {
+		FrameQueueWorker worker = video ? frameQueueWorker : getAudioWorker();
+		if (worker != null) {
+			worker.offer(streamId, filterInputframe, video);
+		}
+		else {
+			framePool.release(filterInputframe);
+		}
+	}
+
+	/*
+	 * Called in the frame queue worker thread. Frame is pushed to the graph directly or through the aligner and 
+	 * outputs are drained once per batch in {@link #drainFilterGraphs()}
+	 */
+	private void filterQueuedFrame(String streamId, AVFrame frame, boolean video) {
+		FrameAligner aligner = frameAligner;
+		//video frames are in ms when they're queued
+		AVRational timeBase = video ? Utils.TIME_BASE_FOR_MS : getAudioTimeBase(streamId);
+		if (aligner != null && frame != null && timeBase != null) {
+			if (!aligner.offer(streamId, frame, video, timeBase, System.currentTimeMillis())) {
+				filterMetrics.lateFrameDropped();
+			}
+		}
+		else {
+			//null frames flush the inputs so they're not aligned
+			pushToFilterGraphs(streamId, frame, video);
+		}
+	}
+
+	private AVRational getAudioTimeBase(String streamId) {
+		StreamParametersInfo audioStreamParams = audioStreamParamsMap.get(streamId);
+		return audioStreamParams != null ? audioStreamParams.getTimeBase() : null;
+	}
+
+	private FrameQueueWorker getAudioWorker() {
+		FrameQueueWorker worker = audioFrameQueueWorker;
+		return worker != null ? worker : frameQueueWorker;
+	}
+
+	/*
+	 * Frame queue worker processes the video and also the audio if the audio has not its own worker
+	 */
+	private FrameQueueWorker createFrameQueueWorker(String name, boolean audioWorker) {
+		return new FrameQueueWorker(name, filterConfiguration.getFrameQueueCapacity(), 
+				filterConfiguration.getFrameDropPolicy(), new FrameQueueWorker.IQueuedFrameConsumer() {
+					@Override
+					public void consume(String streamId, AVFrame frame, boolean video) {
+						filterQueuedFrame(streamId, frame, video);
+					}
+
+					@Override
+					public void batchConsumed() {
+						boolean audio = audioWorker || audioFrameQueueWorker == null;
+						releaseAlignedFrames(!audioWorker, audio);
+						drainFilterGraphs(!audioWorker, audio);
+					}
+
+					@Override
+					public long idle() {
+						return alignerIdle(!audioWorker, audioWorker || audioFrameQueueWorker == null);
+					}
+				}, framePool);
+	}
+
+	private boolean hasQueueSettings(FrameQueueWorker worker) {
+		return worker.getCapacity() == filterConfiguration.getFrameQueueCapacity() 
+				&& Objects.equals(worker.getDropPolicy(), filterConfiguration.getFrameDropPolicy());
+	}
+
+	/*
+	 * Capacity and drop policy of a worker cannot be changed, so it's replaced with a new one when they're updated. 
+	 * Previous worker is stopped first so that the graphs are not fed by two threads and the frames waiting in it are dropped
+	 */
+	private FrameQueueWorker recreateFrameQueueWorker(FrameQueueWorker previousWorker, String name, boolean audioWorker) {
+		if (previousWorker != null) {
+			previousWorker.stop();
+			logger.info("Frame queue worker:{} is recreated with capacity:{} and drop policy:{}", name, 
+					filterConfiguration.getFrameQueueCapacity(), filterConfiguration.getFrameDropPolicy());
+		}
+		FrameQueueWorker worker = createFrameQueueWorker(name, audioWorker);
+		worker.start();
+		return worker;
+	}
+
+	/*
+	 * Audio gets its own worker if the video and audio graphs should have separate threads
+	 */
+	private void updateAudioFrameQueueWorker(boolean separateGraphThreads) {
+		if (separateGraphThreads && audioFrameQueueWorker == null) {
+			FrameQueueWorker worker = createFrameQueueWorker("filter-audio-worker-" + filterId, true);
+			worker.start();
+			audioFrameQueueWorker = worker;
+			logger.info("Audio graph has its own thread for filter:{}", filterId);
+		}
+		else if (!separateGraphThreads && audioFrameQueueWorker != null) {
+			FrameQueueWorker worker = audioFrameQueueWorker;
+			audioFrameQueueWorker = null;
+			worker.stop();
+			logger.info("Audio graph shares the thread of video graph for filter:{}", filterId);
+		}
+	}
+
+	/*
+	 * Called in the frame queue worker threads to feed the frames whose time has come in the aligner
+	 * @return number of the frames fed to the graphs
+	 */
+	private int releaseAlignedFrames(boolean video, boolean audio) {
+		FrameAligner aligner = frameAligner;
+		if (aligner == null) {
+			return 0;
+		}
+		if (video && audio) {
+			return aligner.release(System.currentTimeMillis(), this::pushToFilterGraphs);
+		}
+		return aligner.release(System.currentTimeMillis(), video, this::pushToFilterGraphs);
+	}
+
+	/*
+	 * Called in the frame queue worker threads when there is no frame in the queues
+	 * @return time in ns that the worker can wait for new frames
+	 */
+	private long alignerIdle(boolean video, boolean audio) {
+		FrameAligner aligner = frameAligner;
+		if (aligner == null) {
+			return FrameQueueWorker.IDLE_PARK_NANOS;
+		}
+		if (releaseAlignedFrames(video, audio) > 0) {
+			drainFilterGraphs(video, audio);
+		}
+		long now = System.currentTimeMillis();
+		long timeToNextRelease = video && audio ? aligner.getTimeToNextRelease(now) : aligner.getTimeToNextRelease(now, video);
+		return timeToNextRelease >= 0 ? TimeUnit.MILLISECONDS.toNanos(timeToNextRelease) : FrameQueueWorker.IDLE_PARK_NANOS;
+	}
+
+	private void pushToFilterGraphs(String streamId, AVFrame frame, boolean video) {
+		AudioMixer mixer = audioMixer;
+		if (!video && mixer != null) {
+			long startTime = System.nanoTime();
+			mixer.push(streamId, frame, getAudioTimeBase(streamId));
+			filterMetrics.filterCompleted(System.nanoTime() - startTime);
+			return;
+		}
+
+		FilterGraph pendingGraph = video ? pendingVideoFilterGraph : pendingAudioFilterGraph;
+		if (pendingGraph != null) {
+			long pendingTime = video ? pendingVideoFilterGraphTime : pendingAudioFilterGraphTime;
+			if (System.currentTimeMillis() - pendingTime > PENDING_GRAPH_TIMEOUT_MS) {
+				logger.warn("Updated {} filter graph has not produced a frame in {}ms for filter:{}. It's activated anyway", 
+						video ? "video" : "audio", PENDING_GRAPH_TIMEOUT_MS, filterId);
+				activateIfPending(pendingGraph, video);
+				pendingGraph = null;
+			}
+		}
+
+		FilterGraph filterGraph = video ? videoFilterGraph : audioFilterGraph;
+		long startTime = System.nanoTime();
+		if (pendingGraph != null) {
+			//feed both graphs until the pending one produces its first frame
+			if (filterGraph != null && filterGraph.hasSource(streamId)) {
+				filterGraph.pushFrame(streamId, frame, pendingGraph.hasSource(streamId));
+			}
+			if (pendingGraph.hasSource(streamId)) {
+				pendingGraph.pushFrame(streamId, frame, false);
+			}
+		}
+		else if (filterGraph != null) {
+			filterGraph.pushFrame(streamId, frame, false);
+		}
+		//frame is processed in the graph while it's pushed
+		filterMetrics.filterCompleted(System.nanoTime() - startTime);
+	}
+
+	/*
+	 * Called in the frame queue worker threads after a batch of frames are pushed
+	 */
+	private void drainFilterGraphs(boolean video, boolean audio) {
+		if (video) {
+			drainFilterGraph(videoFilterGraph);
+			drainFilterGraph(pendingVideoFilterGraph);
+		}
+		if (audio) {
+			drainFilterGraph(audioFilterGraph);
+			drainFilterGraph(pendingAudioFilterGraph);
+		}
+	}
+
+	private void drainFilterGraph(FilterGraph filterGraph) {
+		if (filterGraph != null) {
+			filterGraph.drainOutputs();
+		}
+	}
+
+	/**
+	 * Called by the listeners of the filter graphs before delivering a filtered frame
+	 * 
+	 * @return true if the graph is the running graph or it's the pending graph and just activated.
+	 * false if the graph is replaced and its output should be ignored 
+	 */
+	private boolean activateIfPending(FilterGraph filterGraph, boolean video) {
+		if (filterGraph == (video ? videoFilterGraph : audioFilterGraph)) {
+			return true;
+		}
+
+		FilterGraph runningGraph;
+		synchronized (graphSwapLock) {
+			runningGraph = video ? videoFilterGraph : audioFilterGraph;
+			FilterGraph pendingGraph = video ? pendingVideoFilterGraph : pendingAudioFilterGraph;
+			if (filterGraph != pendingGraph) {
+				return false;
+			}
+
+			if (video) {
+				videoFilterGraph = filterGraph;
+				pendingVideoFilterGraph = null;
+			}
+			else {
+				audioFilterGraph = filterGraph;
+				pendingAudioFilterGraph = null;
+			}
+		}
+		//close outside of the lock because closing waits for the graph lock
+		if (runningGraph != null) {
+			runningGraph.close();
+		}
+		logger.info("Updated {} filter graph is activated for filter:{}", video ? "video" : "audio", filterId);
+		return true;
+	}
+
+	/*
+	 * Replaces the running graph with the new one. If hot swap is available, new graph becomes the pending graph
+	 * and the running graph keeps working until the new one produces its first frame
+	 */
+	private void installFilterGraph(FilterGraph newGraph, boolean video) {
+		List<FilterGraph> replacedGraphs = new ArrayList<>();
+		synchronized (graphSwapLock) {
+			FilterGraph runningGraph = video ? videoFilterGraph : audioFilterGraph;
+			FilterGraph pendingGraph = video ? pendingVideoFilterGraph : pendingAudioFilterGraph;
+			if (pendingGraph != null) {
+				//an update is received before the previous update is activated
+				replacedGraphs.add(pendingGraph);
+			}
+
+			if (isHotSwapAvailable(runningGraph)) {
+				if (video) {
+					pendingVideoFilterGraph = newGraph;
+					pendingVideoFilterGraphTime = System.currentTimeMillis();
+				}
+				else {
+					pendingAudioFilterGraph = newGraph;
+					pendingAudioFilterGraphTime = System.currentTimeMillis();
+				}
+				logger.info("Updated {} filter graph is pending for its first frame for filter:{}", video ? "video" : "audio", filterId);
+			}
+			else {
+				if (video) {
+					videoFilterGraph = newGraph;
+					pendingVideoFilterGraph = null;
+				}
+				else {
+					audioFilterGraph = newGraph;
+					pendingAudioFilterGraph = null;
+				}
+				if (runningGraph != null) {
+					replacedGraphs.add(runningGraph);
+				}
+			}
+		}
+
+		for (FilterGraph replacedGraph : replacedGraphs) {
+			replacedGraph.close();
+		}
+		filterMetrics.graphRebuilt();
+	}
+
+	/*
+	 * Called when the updated graph cannot be initiated. Running graph is kept in hot swap, 
+	 * otherwise the graph is set to let the filter stop as it's done before hot swap
+	 */
+	private void discardFilterGraph(FilterGraph newGraph, boolean video) {
+		FilterGraph runningGraph = video ? videoFilterGraph : audioFilterGraph;
+		if (isHotSwapAvailable(runningGraph)) {
+			newGraph.close();
+		}
+		else {
+			installFilterGraph(newGraph, video);
+		}
+	}
+
+	private boolean isHotSwapAvailable(FilterGraph runningGraph) {
+		return filterConfiguration.isGraphHotSwap() && frameQueueWorker != null
+				&& !FilterConfiguration.SYNCHRONOUS.equals(filterConfiguration.getType())
+				&& runningGraph != null && runningGraph.isInitiated();
+	}
+
 	public void rescaleFramePtsToMs(String streamId, AVFrame filterInputframe, AVRational timebase) {
+		filterInputframe.pts(getFramePtsMs(streamId, filterInputframe.pts(), timebase));
+	}
 
+	/**
+	 * Frames decoded by the filter already have ms timestamps
+	 */
+	private long getFramePtsMs(String streamId, long pts, AVRational timebase) {
 		Boolean decodeStream = decodeStreamMap.get(streamId);
 
 		if(Boolean.FALSE.equals(decodeStream)) {
-			filterInputframe.pts(av_rescale_q_rnd(filterInputframe.pts(), timebase, Utils.TIME_BASE_FOR_MS, AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
+			return av_rescale_q_rnd(pts, timebase, Utils.TIME_BASE_FOR_MS, AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX);
 		}
+		return pts;
 	}
 
 	@Override
 	public void writeTrailer(String streamId) {
-
+		//stream is finished, so filter the frames waiting in the decoders
+		VideoDecoder videoDecoder = videoDecodersMap.get(streamId);
+		if (videoDecoder != null) {
+			//packets are decoded in ordered blocking tasks, so the decoder is flushed after the last packet
+			vertx.executeBlocking(() -> {
+				videoDecoder.flush(this::onVideoFrame);
+				return null;
+			});
+		}
+		AudioDecoder audioDecoder = audioDecodersMap.get(streamId);
+		if (audioDecoder != null) {
+			audioDecoder.flush(this::onAudioFrame);
+		}
 	}
 
 	@Override
@@ -254,6 +694,12 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 		videoStreamParamsMap.put(streamId, videoStreamInfo);
 		Boolean decodeStream = decodeStreamMap.get(streamId);
 
+		if(isDecodedInHub(streamId)) {
+			//frames are received from the hub
+			updateIfWaitingForStreamInfo(streamId);
+			return;
+		}
+
 		if(Boolean.TRUE.equals(decodeStream) || videoStreamInfo.isHostedInOtherNode()) {
 
 			VideoDecoder decoder = new VideoDecoder(streamId, videoStreamInfo);
@@ -261,9 +707,11 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 			// Refactor: instead of using Utils.TIME_BASE_FOR_MS either use input timebase or provide a more structed way to set timebase
 			decoder.setDecoderTimeBase(Utils.TIME_BASE_FOR_MS);
 			if(decoder.isRunning()) {
+				decoder.setFrameInterval(getDecodeFrameInterval(streamId));
 				videoDecodersMap.put(streamId, decoder);
 			}
 		}
+		updateIfWaitingForStreamInfo(streamId);
 	}
 
 	@Override
@@ -272,11 +720,22 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 
 		Boolean decodeStream = decodeStreamMap.get(streamId);
 
-		if(Boolean.TRUE.equals(decodeStream)) {
+		if(Boolean.TRUE.equals(decodeStream) && !isDecodedInHub(streamId)) {
 			AudioDecoder decoder = new AudioDecoder(streamId);
 			decoder.prepareAudioDecoder(audioStreamInfo.getCodecParameters());
 			audioDecodersMap.put(streamId, decoder);
 		}
+		updateIfWaitingForStreamInfo(streamId);
+	}
+
+	/*
+	 * Adds the input to the filter graph if it has been waiting for its stream info
+	 */
+	private void updateIfWaitingForStreamInfo(String streamId) {
+		if (inputsWaitingForStreamInfo.remove(streamId)) {
+			logger.info("Stream info of input:{} is received so filter:{} is updated", streamId, filterId);
+			update();
+		}
 	}
 
 	@Override
@@ -295,12 +754,21 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 		Map<String, Filter> audioSinkFiltersMap = new LinkedHashMap<>();
 		int i = 0;
 
+		Map<Integer, int[]> videoSourceSizes = new HashMap<>();
 		Result result = new Result(false);
+		inputsWaitingForStreamInfo.clear();
 		//prepare buffer for video and audio frames to feed the filter graph
 		for (String streamId : currentInStreams) 
 		{
 			StreamParametersInfo videoStreamParams = videoStreamParamsMap.get(streamId);
-			if(videoStreamParams.isEnabled()) {
+			StreamParametersInfo audioStreamParams = audioStreamParamsMap.get(streamId);
+			if (videoStreamParams == null || audioStreamParams == null) {
+				//stream may not be started yet, e.g. participant joined the room before publishing
+				logger.info("Stream info of input:{} is not received yet for filter:{}", streamId, filterId);
+				inputsWaitingForStreamInfo.add(streamId);
+			}
+
+			if(videoStreamParams != null && videoStreamParams.isEnabled()) {
 
 				String videoFilterArgs = "video_size="+videoStreamParams.getCodecParameters().width()+"x"+videoStreamParams.getCodecParameters().height()+":"
 						+ "pix_fmt="+videoStreamParams.getCodecParameters().format()+":"
@@ -311,12 +779,11 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 
 				if(filterConfiguration.getVideoFilter().contains("["+"in"+i+"]")) {
 					videoSourceFiltersMap.put(streamId, new Filter("buffer", videoFilterArgs, "in"+i));
+					videoSourceSizes.put(i, new int[] {videoStreamParams.getCodecParameters().width(), videoStreamParams.getCodecParameters().height()});
 				}
 			}
 
-			StreamParametersInfo audioStreamParams = audioStreamParamsMap.get(streamId);
-
-			if(audioStreamParams.isEnabled()) {
+			if(audioStreamParams != null && audioStreamParams.isEnabled()) {
 				byte[] channelLayoutData = new byte[64];
 
 				int length = avutil.av_channel_layout_describe(audioStreamParams.getCodecParameters().ch_layout(), channelLayoutData, channelLayoutData.length);
@@ -343,8 +810,6 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 
 			i++;
 		}
-		FilterGraph prevVideoFilterGraph = videoFilterGraph;
-
 
 		/*
 		 * Buffersinks for video and audio to get the output of the filter graph
@@ -361,82 +826,92 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 			i++;
 		}
 
+		String videoFilter = applyDownscaling(videoSourceSizes);
+
 		if(filterConfiguration.isVideoEnabled()) {
-			long currentVideoPts = 0;
-			if(videoFilterGraph != null) {
-				currentVideoPts = videoFilterGraph.getCurrentPts();
-			}
-
-			/*
-			 * Initialize the video filter graph which does the real job
-			 * Filter text and inputs buffer and output buffer sinks are provided as parameter
-			 */
-			videoFilterGraph = new FilterGraph(filterConfiguration.getVideoFilter(), videoSourceFiltersMap , videoSinkFiltersMap);
-			if(!videoFilterGraph.isInitiated()) {
-				logger.error("Video filter graph can not be initiated: {}", filterConfiguration.getVideoFilter());
-				result.setMessage("Video filter graph can not be initiated: " + filterConfiguration.getVideoFilter() + ". Reason: " + videoFilterGraph.getInitializationError());
-				return result;
-			}
-			videoFilterGraph.setCurrentPts(currentVideoPts);
-
-			/*
-			 * Set the listener of video filter graph. FilterGrapah calls the listener for the filtered output frame
-			 */
-			videoFilterGraph.setListener((streamId, frame)->{
-				if(frame != null && currentOutStreams.containsKey(streamId)) {
-					IFrameListener frameListener = currentOutStreams.get(streamId);
-					if(frameListener != null) { 
-						if(!firstVideoReceived) {
-							firstVideoReceived = true;
+			FilterGraph currentVideoFilterGraph = pendingVideoFilterGraph != null ? pendingVideoFilterGraph : videoFilterGraph;
+			if (currentVideoFilterGraph != null && currentVideoFilterGraph.isInitiated() 
+					&& currentVideoFilterGraph.isEquivalent(videoFilter, videoSourceFiltersMap, videoSinkFiltersMap)) 
+			{
+				logger.info("Video filter graph is not changed so it's not rebuilt for filter:{}", filterId);
+				currentVideoFilterGraph.setPassNegativeLinesize(filterConfiguration.isPassNegativeLinesize());
+			}
+			else {
+				long currentVideoPts = 0;
+				if(videoFilterGraph != null) {
+					currentVideoPts = videoFilterGraph.getCurrentPts();
+				}
+
+				/*
+				 * Initialize the video filter graph which does the real job
+				 * Filter text and inputs buffer and output buffer sinks are provided as parameter
+				 */
+				FilterGraph newVideoFilterGraph = new FilterGraph(videoFilter, videoSourceFiltersMap , videoSinkFiltersMap, currentVideoPts);
+				newVideoFilterGraph.setFramePool(framePool);
+				newVideoFilterGraph.setPassNegativeLinesize(filterConfiguration.isPassNegativeLinesize());
+				if(!newVideoFilterGraph.isInitiated()) {
+					logger.error("Video filter graph can not be initiated: {}", videoFilter);
+					result.setMessage("Video filter graph can not be initiated: " + videoFilter + ". Reason: " + newVideoFilterGraph.getInitializationError());
+					discardFilterGraph(newVideoFilterGraph, true);
+					return result;
+				}
+
+				/*
+				 * Set the listener of video filter graph. FilterGrapah calls the listener for the filtered output frame
+				 */
+				newVideoFilterGraph.setListener((streamId, frame)->{
+					if(frame != null && currentOutStreams.containsKey(streamId) && activateIfPending(newVideoFilterGraph, true)) {
+						IFrameListener frameListener = currentOutStreams.get(streamId);
+						if(frameListener != null) { 
+							if(!firstVideoReceived) {
+								firstVideoReceived = true;
+							}
+							//rescale the pts if the filter timebase is different
+							frame.pts(av_rescale_q_rnd(frame.pts(), videoSinkFiltersMap.get(streamId).getFilterContext().inputs(0).time_base(), Utils.TIME_BASE_FOR_MS, AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
+							//framelistener is a custombroadcast
+							frameListener.onVideoFrame(streamId, frame);
+							filterMetrics.outputFrameSent(streamId, true);
 						}
-						//rescale the pts if the filter timebase is different
-						frame.pts(av_rescale_q_rnd(frame.pts(), videoSinkFiltersMap.get(streamId).getFilterContext().inputs(0).time_base(), Utils.TIME_BASE_FOR_MS, AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
-						//framelistener is a custombroadcast
-						frameListener.onVideoFrame(streamId, frame);
 					}
-				}
-			});
+				});
 
-			if(prevVideoFilterGraph != null) {
-				prevVideoFilterGraph.close();
+				installFilterGraph(newVideoFilterGraph, true);
 			}
 		}
 
-		if(filterConfiguration.isAudioEnabled()) {
-			FilterGraph prevAudioFilterGraph = audioFilterGraph;
-			long currentAudioPts = 0;
-
-
-			if(audioFilterGraph != null) {
-				currentAudioPts = audioFilterGraph.getCurrentPts();
+		if(filterConfiguration.isAudioEnabled() && updateAudioMixer(audioSourceFiltersMap.keySet())) {
+			logger.info("Audio is mixed without the audio filter graph for filter:{}", filterId);
+		}
+		else if(filterConfiguration.isAudioEnabled()) {
+			FilterGraph currentAudioFilterGraph = pendingAudioFilterGraph != null ? pendingAudioFilterGraph : audioFilterGraph;
+			if (currentAudioFilterGraph != null && currentAudioFilterGraph.isInitiated() 
+					&& currentAudioFilterGraph.isEquivalent(filterConfiguration.getAudioFilter(), audioSourceFiltersMap, audioSinkFiltersMap)) 
+			{
+				logger.info("Audio filter graph is not changed so it's not rebuilt for filter:{}", filterId);
 			}
-			
-			audioFilterGraph = new FilterGraph(filterConfiguration.getAudioFilter(), audioSourceFiltersMap , audioSinkFiltersMap);
-			if(!audioFilterGraph.isInitiated()) {
-				logger.error("Audio filter graph can not be initiated:{}", filterConfiguration.getAudioFilter());
-				result.setMessage("Audio filter graph can not be initiated:" + filterConfiguration.getAudioFilter());
-				return result;
-			}
-			audioFilterGraph.setCurrentPts(currentAudioPts);
-			audioFilterGraph.setListener((streamId, frame)->{
-				if(frame != null && currentOutStreams.containsKey(streamId)) {
-					IFrameListener frameListener = currentOutStreams.get(streamId);
-					if(frameListener != null) { 
-						if(!firstVideoReceived) {
-							audioVideoOffset = frame.pts();
-						}
-						else {
-							frame.pts(frame.pts()-audioVideoOffset);						
+			else {
+				long currentAudioPts = 0;
 
-							//framelistener is a custombroadcast
-							frameListener.onAudioFrame(streamId, frame);
-						}
-					}
+				if(audioFilterGraph != null) {
+					currentAudioPts = audioFilterGraph.getCurrentPts();
 				}
-			});
 
-			if(prevAudioFilterGraph != null) {
-				prevAudioFilterGraph.close();
+				FilterGraph newAudioFilterGraph = new FilterGraph(filterConfiguration.getAudioFilter(), audioSourceFiltersMap , audioSinkFiltersMap);
+				newAudioFilterGraph.setFramePool(framePool);
+				if(!newAudioFilterGraph.isInitiated()) {
+					logger.error("Audio filter graph can not be initiated:{}", filterConfiguration.getAudioFilter());
+					result.setMessage("Audio filter graph can not be initiated:" + filterConfiguration.getAudioFilter());
+					discardFilterGraph(newAudioFilterGraph, false);
+					return result;
+				}
+				newAudioFilterGraph.setCurrentPts(currentAudioPts);
+				newAudioFilterGraph.setListener((streamId, frame)->{
+					if(frame != null && currentOutStreams.containsKey(streamId) && activateIfPending(newAudioFilterGraph, false)) {
+						deliverAudioOutput(streamId, frame);
+					}
+				});
+
+				installFilterGraph(newAudioFilterGraph, false);
 			}
 		}
 		result.setSuccess(true);
@@ -444,6 +919,91 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 		return result;
 	}
 
+	/*
+	 * Called with the output frames of the audio graph and the audio mixer
+	 */
+	private void deliverAudioOutput(String streamId, AVFrame frame) {
+		IFrameListener frameListener = currentOutStreams.get(streamId);
+		if(frameListener != null) { 
+			if(!firstVideoReceived) {
+				audioVideoOffset = frame.pts();
+			}
+			else {
+				frame.pts(frame.pts()-audioVideoOffset);						
+
+				//framelistener is a custombroadcast
+				frameListener.onAudioFrame(streamId, frame);
+				filterMetrics.outputFrameSent(streamId, false);
+			}
+		}
+	}
+
+	/*
+	 * Creates or updates the audio mixer if it can be used instead of the audio graph. Mixer is used if it's enabled, 
+	 * frames are queued, audio filter only mixes the inputs to a single custom broadcast and the inputs have the same sample rate.
+	 * Audio graphs are closed when the mixer is used and the mixer is closed when it cannot be used anymore
+	 * 
+	 * @param audioInputs streams whose audio is mixed
+	 * @return true if the audio is mixed by the mixer
+	 */
+	private boolean updateAudioMixer(Set<String> audioInputs) {
+		AudioMixer currentMixer = audioMixer;
+		String outputStreamId = currentOutStreams.size() == 1 ? currentOutStreams.keySet().iterator().next() : null;
+		int sampleRate = -1;
+		int channelCount = 1;
+		boolean usable = filterConfiguration.isAudioMixer() && !FilterConfiguration.SYNCHRONOUS.equals(filterConfiguration.getType())
+				&& AudioMixer.isMixFilter(filterConfiguration.getAudioFilter()) && outputStreamId != null 
+				&& currentOutStreams.get(outputStreamId) != null && !audioInputs.isEmpty();
+		for (String streamId : audioInputs) {
+			if (!usable) {
+				break;
+			}
+			AVCodecParameters codecParameters = audioStreamParamsMap.get(streamId).getCodecParameters();
+			usable = sampleRate == -1 || sampleRate == codecParameters.sample_rate();
+			sampleRate = codecParameters.sample_rate();
+			channelCount = Math.max(channelCount, Math.min(2, codecParameters.ch_layout().nb_channels()));
+		}
+
+		if (!usable || sampleRate <= 0) {
+			if (currentMixer != null) {
+				audioMixer = null;
+				currentMixer.close();
+				logger.info("Audio mixer is closed for filter:{}", filterId);
+			}
+			return false;
+		}
+
+		if (currentMixer == null || currentMixer.getSampleRate() != sampleRate || currentMixer.getChannelCount() != channelCount) {
+			AudioMixer newMixer = new AudioMixer(outputStreamId, sampleRate, channelCount, this::deliverAudioOutput);
+			newMixer.setInputs(new ArrayList<>(audioInputs), filterConfiguration.getAudioGains());
+			audioMixer = newMixer;
+			if (currentMixer != null) {
+				currentMixer.close();
+			}
+			logger.info("Audio mixer is created with sample rate:{} and channels:{} for filter:{}", sampleRate, channelCount, filterId);
+		}
+		else {
+			//inputs are updated without rebuilding anything
+			currentMixer.setInputs(new ArrayList<>(audioInputs), filterConfiguration.getAudioGains());
+		}
+
+		List<FilterGraph> replacedGraphs = new ArrayList<>();
+		synchronized (graphSwapLock) {
+			if (audioFilterGraph != null) {
+				replacedGraphs.add(audioFilterGraph);
+				audioFilterGraph = null;
+			}
+			if (pendingAudioFilterGraph != null) {
+				replacedGraphs.add(pendingAudioFilterGraph);
+				pendingAudioFilterGraph = null;
+			}
+		}
+		for (FilterGraph replacedGraph : replacedGraphs) {
+			replacedGraph.close();
+		}
+		return true;
+	}
+
 	/*
 	 * This method is used for the creation and also for the update of the filter
 	 * For example new inputs mat be added as an update
@@ -456,6 +1016,24 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 
 		this.filterConfiguration = filterConfiguration;
 
+		if (!FilterConfiguration.SYNCHRONOUS.equals(filterConfiguration.getType())) {
+			if (frameQueueWorker == null || !hasQueueSettings(frameQueueWorker)) {
+				frameQueueWorker = recreateFrameQueueWorker(frameQueueWorker, "filter-worker-" + filterId, false);
+			}
+			if (audioFrameQueueWorker != null && !hasQueueSettings(audioFrameQueueWorker)) {
+				audioFrameQueueWorker = recreateFrameQueueWorker(audioFrameQueueWorker, "filter-audio-worker-" + filterId, true);
+			}
+			updateAudioFrameQueueWorker(filterConfiguration.isSeparateGraphThreads());
+		}
+
+		updateFrameAligner(filterConfiguration.getAlignmentLatencyMs());
+		frameRateDecimator.setTargetFps(filterConfiguration.getOutputFps());
+
+		audioLevelMetering = filterConfiguration.isAudioLevelMetering();
+
+		//labels of the inputs in the filter text follow the order in the configuration
+		List<String> requestedOrder = new ArrayList<>(filterConfiguration.getInputStreams());
+
 		// check the inserted or removed streams to the filter as an update
 		List<String> inserted = filterConfiguration.getInputStreams();
 		List<String> removed = new ArrayList<>();
@@ -477,7 +1055,23 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 			for (String streamId : removed) {
 				app.removeFrameListener(streamId, this);
 				app.removePacketListener(streamId, this);
+				if (decodedFrameHub != null) {
+					decodedFrameHub.unsubscribe(streamId, this);
+				}
 				currentInStreams.remove(streamId);
+				audioLevels.remove(streamId);
+				filterMetrics.removeInput(streamId);
+				stopDecoders(streamId);
+				if (frameQueueWorker != null) {
+					frameQueueWorker.removeInput(streamId);
+				}
+				if (audioFrameQueueWorker != null) {
+					audioFrameQueueWorker.removeInput(streamId);
+				}
+				if (frameAligner != null) {
+					frameAligner.removeInput(streamId);
+				}
+				frameRateDecimator.removeInput(streamId);
 				logger.info("StreamId:{} is being removed from the filter:{}", streamId, filterId);
 			}
 
@@ -487,7 +1081,11 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 
 				Boolean decodeStream = decodeStreamMap.get(streamId);
 
-				if(Boolean.TRUE.equals(decodeStream)) {
+				if(Boolean.TRUE.equals(decodeStream) && decodedFrameHub != null) {
+					//hub decodes the stream once for all filters and sends the frames
+					decodedFrameHub.subscribe(streamId, this, filterConfiguration.getDecodeFrameInterval(streamId));
+				}
+				else if(Boolean.TRUE.equals(decodeStream)) {
 					app.addPacketListener(streamId, this); //to get video/audio packets
 				}
 				else {
@@ -496,9 +1094,16 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 				currentInStreams.add(streamId);
 				logger.info("StreamId:{} is being added as input to the filter:{}", streamId, filterId);
 			}
-
-			filterConfiguration.setInputStreams(currentInStreams);
 		}
+
+		currentInStreams.sort(Comparator.comparingInt(requestedOrder::indexOf));
+		filterConfiguration.setInputStreams(currentInStreams);
+
+		unusedVideoInputs = getUnusedInputs(filterConfiguration.getVideoFilter());
+		unusedAudioInputs = getUnusedInputs(filterConfiguration.getAudioFilter());
+
+		updateOnDemand(app);
+		applyDecodeFrameIntervals();
 		
 		/*
 		 * create custom broadcast for each output and add them to the map
@@ -524,11 +1129,118 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 
 			}		
 		}
+		
+		updateOutputAliases(app);
 
 		//we need to update the filter graph to make the configuration changes will be effective
 		return update();
 	}
 
+	/*
+	 * Starts checking the viewers of the outputs when on-demand mode is enabled. 
+	 * Filter is paused until the first viewer comes. It's resumed when on-demand mode is disabled
+	 */
+	private void updateOnDemand(AntMediaApplicationAdapter app) {
+		if (filterConfiguration.isOnDemand() && onDemandTimer == -1L) {
+			paused = true;
+			if (vertx != null) {
+				onDemandTimer = vertx.setPeriodic(ON_DEMAND_CHECK_PERIOD_MS, t -> 
+					vertx.executeBlocking(() -> {
+						checkDemand(app);
+						return null;
+					}, false)
+				);
+			}
+			logger.info("Filter:{} is on-demand so it's paused until its outputs have a viewer", filterId);
+		}
+		else if (!filterConfiguration.isOnDemand() && onDemandTimer != -1L) {
+			vertx.cancelTimer(onDemandTimer);
+			onDemandTimer = -1L;
+			paused = false;
+		}
+	}
+
+	/**
+	 * Resumes the on-demand filter if its outputs have a viewer and pauses it if they have not had any viewer for the idle timeout
+	 */
+	public void checkDemand(AntMediaApplicationAdapter app) {
+		FilterConfiguration configuration = filterConfiguration;
+		if (configuration == null || !configuration.isOnDemand()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (hasDemand(app)) {
+			lastDemandTime = now;
+			if (paused) {
+				setPaused(false);
+			}
+		}
+		else if (!paused && now - lastDemandTime >= configuration.getIdleTimeoutMs()) {
+			setPaused(true);
+		}
+	}
+
+	/*
+	 * Outputs and their aliases are in demand if they're watched, forwarded to an endpoint or recorded
+	 */
+	private boolean hasDemand(AntMediaApplicationAdapter app) {
+		Set<String> outputs = new HashSet<>(currentOutStreams.keySet());
+		Map<String, List<String>> outputAliases = filterConfiguration.getOutputAliases();
+		if (outputAliases != null) {
+			outputAliases.values().forEach(outputs::addAll);
+		}
+		for (String streamId : outputs) {
+			Broadcast broadcast = app.getDataStore().get(streamId);
+			if (broadcast != null && (broadcast.getWebRTCViewerCount() + broadcast.getHlsViewerCount() + broadcast.getRtmpViewerCount() 
+					+ broadcast.getDashViewerCount() > 0 || (broadcast.getEndPointList() != null && !broadcast.getEndPointList().isEmpty())
+					|| broadcast.getMp4Enabled() == 1 || broadcast.getWebMEnabled() == 1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized void setPaused(boolean paused) {
+		this.paused = paused;
+		//decoders skip the video until the next key frame after they're resumed
+		applyDecodeFrameIntervals();
+		logger.info("Filter:{} is {}", filterId, paused ? "paused because its outputs have no viewer" : "resumed for the viewers of its outputs");
+	}
+
+	public boolean isPaused() {
+		return paused;
+	}
+
+	/*
+	 * Aliases are forwarded from the custom broadcasts, so the outputs that are the same with an input don't have aliases
+	 */
+	private void updateOutputAliases(AntMediaApplicationAdapter app) {
+		Map<String, List<String>> outputAliases = filterConfiguration.getOutputAliases();
+		for (Map.Entry<String, IFrameListener> entry : currentOutStreams.entrySet()) {
+			String streamId = entry.getKey();
+			List<String> aliases = new ArrayList<>();
+			if (outputAliases != null && outputAliases.get(streamId) != null && entry.getValue() != null) {
+				for (String alias : outputAliases.get(streamId)) {
+					if (currentOutStreams.containsKey(alias) || currentInStreams.contains(alias)) {
+						logger.warn("Alias:{} of output:{} is skipped because it's an input or output of filter:{}", alias, streamId, filterId);
+					}
+					else {
+						aliases.add(alias);
+					}
+				}
+			}
+			
+			OutputAliasForwarder forwarder = aliasForwarders.get(streamId);
+			if (forwarder == null && !aliases.isEmpty()) {
+				forwarder = new OutputAliasForwarder(streamId, app, vertx);
+				aliasForwarders.put(streamId, forwarder);
+			}
+			if (forwarder != null) {
+				forwarder.update(aliases);
+			}
+		}
+	}
+
 	private void startBroadcast(String streamId, IFrameListener customBroadcast, boolean videoEnabled, boolean audioEnabled, AntMediaApplicationAdapter app) {
 		AVCodecParameters videoCodecParameters = new AVCodecParameters();
 		videoCodecParameters.height(filterConfiguration.getVideoOutputHeight());
@@ -572,19 +1284,58 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 		logger.info("Stream notifications triggered for custom broadcast filter output: {}", streamId);
 	}
 
+	/**
+	 * @return number of the outputs of the filter graphs after the configuration with these outputs is applied. 
+	 * Outputs of the filter are not removed in an update
+	 */
+	public synchronized int getOutputStreamCount(List<String> outputStreams) {
+		Set<String> outputs = new HashSet<>(currentOutStreams.keySet());
+		if (outputStreams != null) {
+			outputs.addAll(outputStreams);
+		}
+		return outputs.size();
+	}
+
+	public OutputAliasForwarder getAliasForwarder(String streamId) {
+		return aliasForwarders.get(streamId);
+	}
+
 	public FilterConfiguration getCurrentFilterConfiguration() {
 		return filterConfiguration;
 	}
 
 	public synchronized void close(AntMediaApplicationAdapter app) {
+		if (onDemandTimer != -1L) {
+			vertx.cancelTimer(onDemandTimer);
+			onDemandTimer = -1L;
+		}
 		for(String streamId : currentInStreams) {
 			app.removeFrameListener(streamId, this);
 			app.removePacketListener(streamId, this);
+			if (decodedFrameHub != null) {
+				decodedFrameHub.unsubscribe(streamId, this);
+			}
 		}
+		aliasForwarders.forEach((streamId, forwarder) -> forwarder.stop());
+		aliasForwarders.clear();
+		
 		for (String streamId : filterConfiguration.getOutputStreams()) {
 			app.stopCustomBroadcast(streamId);
 		}
 
+		if (frameQueueWorker != null) {
+			frameQueueWorker.stop();
+			frameQueueWorker = null;
+		}
+		if (audioFrameQueueWorker != null) {
+			audioFrameQueueWorker.stop();
+			audioFrameQueueWorker = null;
+		}
+		if (frameAligner != null) {
+			frameAligner.close();
+			frameAligner = null;
+		}
+
 		if(videoFilterGraph != null) {
 			videoFilterGraph.close();
 			videoFilterGraph = null;
@@ -593,6 +1344,18 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 			audioFilterGraph.close();
 			audioFilterGraph = null;
 		}	
+		if (pendingVideoFilterGraph != null) {
+			pendingVideoFilterGraph.close();
+			pendingVideoFilterGraph = null;
+		}
+		if (pendingAudioFilterGraph != null) {
+			pendingAudioFilterGraph.close();
+			pendingAudioFilterGraph = null;
+		}
+		if (audioMixer != null) {
+			audioMixer.close();
+			audioMixer = null;
+		}
 		//close video decoders
 		videoDecodersMap.forEach((streamId, decoder) -> {
 			decoder.stop();
@@ -606,6 +1369,8 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 		});
 		
 		audioDecodersMap.clear();
+
+		framePool.close();
 	}
 
 	@Override
@@ -621,16 +1386,23 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 				AVPacket tempPacket = new AVPacket();
 				av_packet_ref(tempPacket, packet);
 				
+				VideoDecoder decoder = videoDecodersMap.get(streamId);
 				vertx.executeBlocking(() -> {
-					AVFrame frame = videoDecodersMap.get(streamId).decodeVideoPacket(tempPacket);
+					//all frames ready in the decoder are filtered, frame threaded decoder may have more than one
+					long startTime = System.nanoTime();
+					long[] filterTime = new long[1];
+					int frameCount = decoder.decodeVideoPacket(tempPacket, (id, frame) -> {
+						long filterStartTime = System.nanoTime();
+						onVideoFrame(id, frame);
+						filterTime[0] += System.nanoTime() - filterStartTime;
+					});
+					//frames are filtered in the decode call so filtering time is not included in the decode latency
+					filterMetrics.decodeCompleted(System.nanoTime() - startTime - filterTime[0]);
 					av_packet_unref(tempPacket);
 					tempPacket.close();
-					if(frame != null) 
+					if(frameCount == 0) 
 					{
-						onVideoFrame(streamId, frame);
-					}
-					else {
-						logger.warn("video decoder does not generate video frame for streamId:{}", streamId);
+						logger.debug("video decoder does not generate video frame for streamId:{}", streamId);
 					}
 					return null;
 				});
@@ -650,21 +1422,28 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 
 		if(Boolean.TRUE.equals(decodeStream) || (audioStreamParams != null && audioStreamParams.isHostedInOtherNode())) 
 		{
-			if(audioDecodersMap.containsKey(streamId)) {
+			if (unusedAudioInputs.contains(streamId) || paused) {
+				logger.trace("Audio of streamId:{} is not used in filter:{} or filter is paused so it's not decoded", streamId, filterId);
+			}
+			else if(audioDecodersMap.containsKey(streamId)) {
 				
 				logger.debug("Audio packet is received for streamId:{} pkt pts:{} timebase:{}/{}", streamId, packet.pts(), 
 						audioStreamParams.getTimeBase().num(), audioStreamParams.getTimeBase().den());
 				
 				
 				
-				AVFrame frame = audioDecodersMap.get(streamId).decodeAudioFrame(audioStreamParams.getTimeBase(), packet);
-
-				if(frame != null) {
+				long startTime = System.nanoTime();
+				long[] filterTime = new long[1];
+				int frameCount = audioDecodersMap.get(streamId).decodeAudioPacket(audioStreamParams.getTimeBase(), packet, (id, frame) -> {
 					logger.debug("Audio frame is received for streamId:{} frame pts:{} best effort pts:{}", streamId, frame.pts(), 
 							frame.best_effort_timestamp());
+					long filterStartTime = System.nanoTime();
 					onAudioFrame(streamId, frame);
-				}
-				else {
+					filterTime[0] += System.nanoTime() - filterStartTime;
+				});
+				filterMetrics.decodeCompleted(System.nanoTime() - startTime - filterTime[0]);
+
+				if(frameCount == 0) {
 					logger.warn("audio decoder does not generate audio frame for streamId:{}", streamId);
 				}
 			}
@@ -696,4 +1475,220 @@ public class FilterAdaptor implements IFrameListener, IPacketListener {
 		this.decodeStreamMap = decodeStreamMap;
 	}
 
+	public void setDecodedFrameHub(DecodedFrameHub decodedFrameHub) {
+		this.decodedFrameHub = decodedFrameHub;
+	}
+
+	public DecodedFrameHub getDecodedFrameHub() {
+		return decodedFrameHub;
+	}
+
+	private void measureAudioLevel(String streamId, AVFrame audioFrame) {
+		double level = AudioLevelMeter.getLevelDb(audioFrame);
+		audioLevels.merge(streamId, level, (previous, current) -> previous + (current - previous) * AUDIO_LEVEL_SMOOTHING);
+	}
+
+	/**
+	 * @return smoothed audio levels of the input streams in dBFS. It's empty if audio level metering is not enabled
+	 */
+	public Map<String, Double> getAudioLevels() {
+		return audioLevels;
+	}
+
+	private void stopDecoders(String streamId) {
+		VideoDecoder videoDecoder = videoDecodersMap.remove(streamId);
+		if (videoDecoder != null) {
+			videoDecoder.stop();
+		}
+		AudioDecoder audioDecoder = audioDecodersMap.remove(streamId);
+		if (audioDecoder != null) {
+			audioDecoder.stop();
+		}
+	}
+
+	private int getDecodeFrameInterval(String streamId) {
+		if (unusedVideoInputs.contains(streamId) || paused) {
+			return VideoDecoder.DECODE_NONE;
+		}
+		return filterConfiguration != null ? filterConfiguration.getDecodeFrameInterval(streamId) : VideoDecoder.DECODE_ALL_FRAMES;
+	}
+
+	/*
+	 * @return input streams whose labels are not in the filter text
+	 */
+	private Set<String> getUnusedInputs(String filterText) {
+		Set<String> unusedInputs = new HashSet<>();
+		for (int i = 0; i < currentInStreams.size(); i++) {
+			if (filterText == null || !filterText.contains("[in" + i + "]")) {
+				unusedInputs.add(currentInStreams.get(i));
+			}
+		}
+		return unusedInputs;
+	}
+
+	public Set<String> getUnusedVideoInputs() {
+		return unusedVideoInputs;
+	}
+
+	public Set<String> getUnusedAudioInputs() {
+		return unusedAudioInputs;
+	}
+
+	/*
+	 * Apply the decode frame intervals in the configuration to the running decoders
+	 */
+	private void applyDecodeFrameIntervals() {
+		for (String streamId : currentInStreams) {
+			int frameInterval = getDecodeFrameInterval(streamId);
+			VideoDecoder decoder = videoDecodersMap.get(streamId);
+			if (decoder != null && decoder.getFrameInterval() != frameInterval) {
+				decoder.setFrameInterval(frameInterval);
+			}
+			else if (isDecodedInHub(streamId)) {
+				decodedFrameHub.setFrameInterval(streamId, this, frameInterval);
+			}
+		}
+	}
+
+	/*
+	 * Sets the deblocking of the decoders according to the tile sizes of the inputs in the video filter
+	 * 
+	 * @param videoSourceSizes size of the video inputs by their index in the filter
+	 * @return video filter text with the fast pre-scales of the inputs that are much bigger than their tiles
+	 */
+	private String applyDownscaling(Map<Integer, int[]> videoSourceSizes) {
+		String videoFilter = filterConfiguration.getVideoFilter();
+		boolean downscaleInputs = filterConfiguration.isDownscaleInputs();
+		Map<Integer, int[]> tileSizes = downscaleInputs ? TileDownscaler.getTileSizes(videoFilter) : Map.of();
+		for (int i = 0; i < currentInStreams.size(); i++) {
+			String streamId = currentInStreams.get(i);
+			int loopFilterDiscard = AVDISCARD_DEFAULT;
+			int[] sourceSize = videoSourceSizes.get(i);
+			if (sourceSize != null) {
+				loopFilterDiscard = TileDownscaler.getLoopFilterDiscard(TileDownscaler.getDownscaleRatio(sourceSize[0], sourceSize[1], tileSizes.get(i)));
+			}
+			VideoDecoder decoder = videoDecodersMap.get(streamId);
+			if (decoder != null && decoder.getLoopFilterDiscard() != loopFilterDiscard) {
+				decoder.setLoopFilterDiscard(loopFilterDiscard);
+			}
+			else if (isDecodedInHub(streamId)) {
+				decodedFrameHub.setLoopFilterDiscard(streamId, this, loopFilterDiscard);
+			}
+		}
+		return downscaleInputs ? TileDownscaler.addPreScales(videoFilter, videoSourceSizes) : videoFilter;
+	}
+
+	private boolean isDecodedInHub(String streamId) {
+		return decodedFrameHub != null && Boolean.TRUE.equals(decodeStreamMap.get(streamId));
+	}
+
+	public AudioMixer getAudioMixer() {
+		return audioMixer;
+	}
+
+	public FrameQueueWorker getFrameQueueWorker() {
+		return frameQueueWorker;
+	}
+
+	public FrameQueueWorker getAudioFrameQueueWorker() {
+		return audioFrameQueueWorker;
+	}
+
+	/**
+	 * @return frame queue worker and audio frame queue worker if they exist
+	 */
+	public List<FrameQueueWorker> getFrameQueueWorkers() {
+		List<FrameQueueWorker> workers = new ArrayList<>(2);
+		FrameQueueWorker worker = frameQueueWorker;
+		if (worker != null) {
+			workers.add(worker);
+		}
+		worker = audioFrameQueueWorker;
+		if (worker != null) {
+			workers.add(worker);
+		}
+		return workers;
+	}
+
+	public int getFrameQueueDepth() {
+		int queueDepth = 0;
+		for (FrameQueueWorker worker : getFrameQueueWorkers()) {
+			queueDepth += worker.getQueueDepth();
+		}
+		return queueDepth;
+	}
+
+	public long getDroppedFrameCount() {
+		long droppedFrameCount = 0;
+		for (FrameQueueWorker worker : getFrameQueueWorkers()) {
+			droppedFrameCount += worker.getDroppedFrameCount();
+		}
+		return droppedFrameCount;
+	}
+
+	public FilterGraph getVideoFilterGraph() {
+		return videoFilterGraph;
+	}
+
+	public FilterGraph getAudioFilterGraph() {
+		return audioFilterGraph;
+	}
+
+	public FilterGraph getPendingVideoFilterGraph() {
+		return pendingVideoFilterGraph;
+	}
+
+	public FilterGraph getPendingAudioFilterGraph() {
+		return pendingAudioFilterGraph;
+	}
+
+	public FramePool getFramePool() {
+		return framePool;
+	}
+
+	/*
+	 * Aligner is only used with the frame queue worker. Synchronous mode feeds the graphs in the caller thread
+	 */
+	private void updateFrameAligner(int alignmentLatencyMs) {
+		if (alignmentLatencyMs > 0 && frameQueueWorker != null) {
+			if (frameAligner == null) {
+				frameAligner = new FrameAligner(alignmentLatencyMs, framePool);
+				logger.info("Frame aligner is enabled with {}ms latency for filter:{}", alignmentLatencyMs, filterId);
+			}
+			else {
+				frameAligner.setLatencyMs(alignmentLatencyMs);
+			}
+		}
+		else if (frameAligner != null) {
+			FrameAligner aligner = frameAligner;
+			frameAligner = null;
+			//frames that are waiting are dropped because worker may be using the aligner
+			aligner.close();
+			logger.info("Frame aligner is disabled for filter:{}", filterId);
+		}
+	}
+
+	public FrameAligner getFrameAligner() {
+		return frameAligner;
+	}
+
+	public FrameRateDecimator getFrameRateDecimator() {
+		return frameRateDecimator;
+	}
+
+	public FilterMetrics getFilterMetrics() {
+		return filterMetrics;
+	}
+
+	/**
+	 * @return runtime statistics of the filter
+	 */
+	public FilterStats getStats() {
+		FilterStats stats = filterMetrics.getStats();
+		if (filterConfiguration != null) {
+			stats.setType(filterConfiguration.getType());
+		}
+		return stats;
+	}
+
 }
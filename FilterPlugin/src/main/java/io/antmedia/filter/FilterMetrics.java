@@ -0,0 +1,288 @@
+package io.antmedia.filter;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import io.antmedia.filter.utils.FilterStats;
+
+/**
+ * Collects the runtime metrics of a filter. Counters are updated in the frame paths with
+ * lock free adders and the rates are calculated when the metrics are read by REST or JMX
+ */
+public class FilterMetrics implements FilterMetricsMXBean {
+
+	/**
+	 * Frame rates are calculated over at least this period
+	 */
+	public static final long RATE_WINDOW_MS = 1000;
+
+	/**
+	 * Upper bounds of the latency histogram buckets in ms
+	 */
+	protected static final long[] LATENCY_BUCKETS_MS = {1, 2, 5, 10, 20, 50, 100, 500};
+
+	/*
+	 * Frame counter whose rate is the average since the previous sample. A new sample is taken
+	 * when the rate is read and the last sample is older than RATE_WINDOW_MS
+	 */
+	static class FrameRate {
+		private final LongAdder count = new LongAdder();
+		private long previousSampleTime;
+		private long previousSampleCount;
+		private long lastSampleTime;
+		private long lastSampleCount;
+
+		FrameRate(long now) {
+			previousSampleTime = now;
+			lastSampleTime = now;
+		}
+
+		void increment() {
+			count.increment();
+		}
+
+		synchronized double getFps(long now) {
+			long currentCount = count.sum();
+			if (now - lastSampleTime >= RATE_WINDOW_MS) {
+				previousSampleTime = lastSampleTime;
+				previousSampleCount = lastSampleCount;
+				lastSampleTime = now;
+				lastSampleCount = currentCount;
+			}
+			long elapsed = now - previousSampleTime;
+			return elapsed > 0 ? (currentCount - previousSampleCount) * 1000.0 / elapsed : 0;
+		}
+	}
+
+	static class LatencyHistogram {
+		private final AtomicLongArray buckets = new AtomicLongArray(LATENCY_BUCKETS_MS.length + 1);
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(long nanos) {
+			long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+			int i = 0;
+			while (i < LATENCY_BUCKETS_MS.length && ms >= LATENCY_BUCKETS_MS[i]) {
+				i++;
+			}
+			buckets.incrementAndGet(i);
+			totalNanos.add(nanos);
+			maxNanos.accumulateAndGet(nanos, Math::max);
+		}
+
+		FilterStats.LatencyStats getStats() {
+			FilterStats.LatencyStats stats = new FilterStats.LatencyStats();
+			Map<String, Long> histogram = new LinkedHashMap<>();
+			long count = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				long bucketCount = buckets.get(i);
+				histogram.put(i < LATENCY_BUCKETS_MS.length ? String.valueOf(LATENCY_BUCKETS_MS[i]) : "inf", bucketCount);
+				count += bucketCount;
+			}
+			stats.setHistogram(histogram);
+			stats.setCount(count);
+			stats.setAverageMs(count > 0 ? totalNanos.sum() / (count * 1e6) : 0);
+			stats.setMaxMs(maxNanos.get() / 1e6);
+			return stats;
+		}
+	}
+
+	private final String filterId;
+
+	/*
+	 * Frame queue workers of the filter may be replaced so they're get when metrics are read
+	 */
+	private final Supplier<List<FrameQueueWorker>> frameQueueWorkersSupplier;
+
+	private final Map<String, FrameRate> inputVideoRates = new ConcurrentHashMap<>();
+	private final Map<String, FrameRate> inputAudioRates = new ConcurrentHashMap<>();
+	private final Map<String, FrameRate> outputVideoRates = new ConcurrentHashMap<>();
+	private final Map<String, FrameRate> outputAudioRates = new ConcurrentHashMap<>();
+
+	private final LatencyHistogram filterLatency = new LatencyHistogram();
+	private final LatencyHistogram decodeLatency = new LatencyHistogram();
+	private final AtomicLong graphRebuildCount = new AtomicLong();
+	private final AtomicLong lateFrameCount = new AtomicLong();
+	private final AtomicLong decimatedFrameCount = new AtomicLong();
+
+	/**
+	 * @param frameQueueWorkersSupplier gives the frame queue workers of the filter. It's empty for synchronous filters
+	 */
+	public FilterMetrics(String filterId, Supplier<List<FrameQueueWorker>> frameQueueWorkersSupplier) {
+		this.filterId = filterId;
+		this.frameQueueWorkersSupplier = frameQueueWorkersSupplier;
+	}
+
+	public void inputFrameReceived(String streamId, boolean video) {
+		getFrameRate(video ? inputVideoRates : inputAudioRates, streamId).increment();
+	}
+
+	public void outputFrameSent(String streamId, boolean video) {
+		getFrameRate(video ? outputVideoRates : outputAudioRates, streamId).increment();
+	}
+
+	/**
+	 * @param nanos time spent to push a frame through the filter graph
+	 */
+	public void filterCompleted(long nanos) {
+		filterLatency.record(nanos);
+	}
+
+	/**
+	 * @param nanos time spent to decode a packet
+	 */
+	public void decodeCompleted(long nanos) {
+		decodeLatency.record(nanos);
+	}
+
+	public void graphRebuilt() {
+		graphRebuildCount.incrementAndGet();
+	}
+
+	/**
+	 * Called when a frame arrives after its time in the frame aligner
+	 */
+	public void lateFrameDropped() {
+		lateFrameCount.incrementAndGet();
+	}
+
+	/**
+	 * Called when a frame above the output frame rate is dropped before the filter
+	 */
+	public void frameDecimated() {
+		decimatedFrameCount.incrementAndGet();
+	}
+
+	public void removeInput(String streamId) {
+		inputVideoRates.remove(streamId);
+		inputAudioRates.remove(streamId);
+	}
+
+	private static FrameRate getFrameRate(Map<String, FrameRate> rates, String streamId) {
+		FrameRate rate = rates.get(streamId);
+		if (rate == null) {
+			rate = rates.computeIfAbsent(streamId, key -> new FrameRate(System.currentTimeMillis()));
+		}
+		return rate;
+	}
+
+	private static Map<String, Double> getFps(Map<String, FrameRate> rates) {
+		long now = System.currentTimeMillis();
+		Map<String, Double> fps = new LinkedHashMap<>();
+		rates.forEach((streamId, rate) -> fps.put(streamId, rate.getFps(now)));
+		return fps;
+	}
+
+	@Override
+	public String getFilterId() {
+		return filterId;
+	}
+
+	@Override
+	public Map<String, Double> getInputVideoFps() {
+		return getFps(inputVideoRates);
+	}
+
+	@Override
+	public Map<String, Double> getInputAudioFps() {
+		return getFps(inputAudioRates);
+	}
+
+	@Override
+	public Map<String, Double> getOutputVideoFps() {
+		return getFps(outputVideoRates);
+	}
+
+	@Override
+	public Map<String, Double> getOutputAudioFps() {
+		return getFps(outputAudioRates);
+	}
+
+	@Override
+	public Map<String, Integer> getQueueDepths() {
+		Map<String, Integer> queueDepths = new LinkedHashMap<>();
+		List<FrameQueueWorker> frameQueueWorkers = getFrameQueueWorkers();
+		if (!frameQueueWorkers.isEmpty()) {
+			Set<String> inputs = new HashSet<>(inputVideoRates.keySet());
+			inputs.addAll(inputAudioRates.keySet());
+			for (String streamId : inputs) {
+				int queueDepth = 0;
+				for (FrameQueueWorker frameQueueWorker : frameQueueWorkers) {
+					queueDepth += frameQueueWorker.getQueueDepth(streamId, true) + frameQueueWorker.getQueueDepth(streamId, false);
+				}
+				queueDepths.put(streamId, queueDepth);
+			}
+		}
+		return queueDepths;
+	}
+
+	@Override
+	public long getDroppedFrameCount() {
+		long droppedFrameCount = 0;
+		for (FrameQueueWorker frameQueueWorker : getFrameQueueWorkers()) {
+			droppedFrameCount += frameQueueWorker.getDroppedFrameCount();
+		}
+		return droppedFrameCount;
+	}
+
+	private List<FrameQueueWorker> getFrameQueueWorkers() {
+		List<FrameQueueWorker> frameQueueWorkers = frameQueueWorkersSupplier.get();
+		return frameQueueWorkers != null ? frameQueueWorkers : Collections.emptyList();
+	}
+
+	@Override
+	public long getGraphRebuildCount() {
+		return graphRebuildCount.get();
+	}
+
+	@Override
+	public long getLateFrameCount() {
+		return lateFrameCount.get();
+	}
+
+	@Override
+	public long getDecimatedFrameCount() {
+		return decimatedFrameCount.get();
+	}
+
+	@Override
+	public FilterStats.LatencyStats getFilterLatency() {
+		return filterLatency.getStats();
+	}
+
+	/**
+	 * Decode latency of the streams decoded by the filter itself.
+	 * Streams decoded in {@link DecodedFrameHub} are not measured here because they're shared by the filters
+	 */
+	@Override
+	public FilterStats.LatencyStats getDecodeLatency() {
+		return decodeLatency.getStats();
+	}
+
+	public FilterStats getStats() {
+		FilterStats stats = new FilterStats();
+		stats.setFilterId(filterId);
+		stats.setInputVideoFps(getInputVideoFps());
+		stats.setInputAudioFps(getInputAudioFps());
+		stats.setOutputVideoFps(getOutputVideoFps());
+		stats.setOutputAudioFps(getOutputAudioFps());
+		stats.setQueueDepths(getQueueDepths());
+		stats.setDroppedFrameCount(getDroppedFrameCount());
+		stats.setGraphRebuildCount(getGraphRebuildCount());
+		stats.setLateFrameCount(getLateFrameCount());
+		stats.setDecimatedFrameCount(getDecimatedFrameCount());
+		stats.setFilterLatency(getFilterLatency());
+		stats.setDecodeLatency(getDecodeLatency());
+		return stats;
+	}
+}
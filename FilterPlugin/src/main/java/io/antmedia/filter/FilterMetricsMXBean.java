@@ -0,0 +1,36 @@
+package io.antmedia.filter;
+
+import java.util.Map;
+
+import io.antmedia.filter.utils.FilterStats;
+
+/**
+ * JMX view of the runtime statistics of a filter. Each filter is registered
+ * as "io.antmedia:type=FilterStats,app={appName},filterId={filterId}"
+ */
+public interface FilterMetricsMXBean {
+
+	public String getFilterId();
+
+	public Map<String, Double> getInputVideoFps();
+
+	public Map<String, Double> getInputAudioFps();
+
+	public Map<String, Double> getOutputVideoFps();
+
+	public Map<String, Double> getOutputAudioFps();
+
+	public Map<String, Integer> getQueueDepths();
+
+	public long getDroppedFrameCount();
+
+	public long getGraphRebuildCount();
+
+	public long getLateFrameCount();
+
+	public long getDecimatedFrameCount();
+
+	public FilterStats.LatencyStats getFilterLatency();
+
+	public FilterStats.LatencyStats getDecodeLatency();
+}
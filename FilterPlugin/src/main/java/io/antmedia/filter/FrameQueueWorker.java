@@ -0,0 +1,429 @@
+package io.antmedia.filter;
+
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.antmedia.filter.utils.FilterConfiguration;
+import io.antmedia.filter.utils.FramePool;
+
+/**
+ * Bounded per-input frame queues drained by a single pump thread.
+ *
+ * FilterAdaptor puts the cloned frames of the asynchronous and lastpoint modes into this worker
+ * instead of submitting a blocking task per frame. Each input stream has its own ring for video and audio
+ * so the frame threads of different publishers do not contend with each other. They only share the ring with the pump.
+ * The pump polls the rings in turn, a few frames from each, and notifies the consumer once per batch
+ * so that filter outputs are drained once instead of after every pushed frame.
+ *
+ * When the consumer falls behind, rings do not grow;
+ * frames are dropped or the producer is blocked according to the drop policy in the FilterConfiguration.
+ *
+ * Frames in the queue are owned by the queue. They're freed after they are consumed or dropped.
+ * If a frame pool is given, frames are released to the pool instead of being freed.
+ */
+public class FrameQueueWorker {
+
+	private static final Logger logger = LoggerFactory.getLogger(FrameQueueWorker.class);
+
+	/**
+	 * Maximum number of frames polled from one input ring in a batch. It keeps one busy input from starving the others
+	 */
+	public static final int MAX_FRAMES_PER_INPUT_IN_BATCH = 8;
+
+	public static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	public interface IQueuedFrameConsumer {
+		public void consume(String streamId, AVFrame frame, boolean video);
+
+		/**
+		 * Called after the frames polled in one pass over the inputs are consumed
+		 */
+		public default void batchConsumed() {
+		}
+
+		/**
+		 * Called when there is no frame in the queues before the pump waits for new frames
+		 * 
+		 * @return maximum time in ns to wait for new frames
+		 */
+		public default long idle() {
+			return IDLE_PARK_NANOS;
+		}
+	}
+
+	static class QueuedFrame {
+		String streamId;
+		AVFrame frame;
+		boolean video;
+
+		QueuedFrame(String streamId, AVFrame frame, boolean video) {
+			this.streamId = streamId;
+			this.frame = frame;
+			this.video = video;
+		}
+
+		boolean isKeyFrame() {
+			//audio frames and null(flush) frames are treated as key frames
+			return !video || frame == null || (frame.flags() & Utils.AV_FRAME_FLAG_KEY) != 0;
+		}
+	}
+
+	/*
+	 * Frame ring of a single input. Its lock is only used by the producer of the input and the pump
+	 */
+	static class InputRing {
+		final ArrayDeque<QueuedFrame> queue;
+		final ReentrantLock lock = new ReentrantLock();
+		final Condition notFull = lock.newCondition();
+
+		InputRing(int capacity) {
+			queue = new ArrayDeque<>(capacity);
+		}
+	}
+
+	private final Map<String, InputRing> videoRings = new ConcurrentHashMap<>();
+	private final Map<String, InputRing> audioRings = new ConcurrentHashMap<>();
+
+	private final int capacity;
+	private final String dropPolicy;
+	private final String name;
+	private final IQueuedFrameConsumer consumer;
+	private final FramePool framePool;
+
+	private final AtomicInteger queuedFrameCount = new AtomicInteger();
+	private final AtomicLong droppedFrameCount = new AtomicLong();
+	private final AtomicLong processedFrameCount = new AtomicLong();
+
+	private volatile boolean running = false;
+	private volatile boolean pumpWaiting = false;
+	private volatile Thread workerThread;
+
+	public FrameQueueWorker(String name, int capacity, String dropPolicy, IQueuedFrameConsumer consumer) {
+		this(name, capacity, dropPolicy, consumer, null);
+	}
+
+	/**
+	 * @param name name of the pump thread
+	 * @param capacity capacity of the ring of each input
+	 * @param dropPolicy
+	 * @param consumer
+	 * @param framePool frames are released to this pool if it's not null
+	 */
+	public FrameQueueWorker(String name, int capacity, String dropPolicy, IQueuedFrameConsumer consumer, FramePool framePool) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Frame queue capacity should be positive but it's " + capacity);
+		}
+		this.name = name;
+		this.capacity = capacity;
+		this.dropPolicy = dropPolicy;
+		this.consumer = consumer;
+		this.framePool = framePool;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		Thread thread = new Thread(this::pump, name);
+		thread.setDaemon(true);
+		workerThread = thread;
+		thread.start();
+		logger.info("Frame queue worker:{} is started with capacity:{} per input and drop policy:{}", name, capacity, dropPolicy);
+	}
+
+	/**
+	 * Puts the frame into the ring of the input. The ownership of the frame is transferred to the queue
+	 *
+	 * @param streamId
+	 * @param frame cloned frame, it can be null
+	 * @param video true if it's a video frame
+	 * @return true if frame is queued, false if the frame is dropped
+	 */
+	public boolean offer(String streamId, AVFrame frame, boolean video) {
+		QueuedFrame queuedFrame = new QueuedFrame(streamId, frame, video);
+		if (!running) {
+			free(queuedFrame);
+			droppedFrameCount.incrementAndGet();
+			return false;
+		}
+
+		InputRing ring = (video ? videoRings : audioRings).computeIfAbsent(streamId, k -> new InputRing(capacity));
+		ring.lock.lock();
+		try {
+			if (!running) {
+				free(queuedFrame);
+				droppedFrameCount.incrementAndGet();
+				return false;
+			}
+
+			if (ring.queue.size() >= capacity && !makeRoom(ring, queuedFrame)) {
+				free(queuedFrame);
+				droppedFrameCount.incrementAndGet();
+				return false;
+			}
+
+			ring.queue.addLast(queuedFrame);
+			queuedFrameCount.incrementAndGet();
+		}
+		finally {
+			ring.lock.unlock();
+		}
+
+		if (pumpWaiting) {
+			LockSupport.unpark(workerThread);
+		}
+		return true;
+	}
+
+	/**
+	 * Apply drop policy to have a room for the incoming frame. It should be called with the lock of the ring held
+	 * @return true if there is room for the incoming frame, false if incoming frame should be dropped
+	 */
+	private boolean makeRoom(InputRing ring, QueuedFrame incoming) {
+		if (FilterConfiguration.DROP_POLICY_BLOCK.equals(dropPolicy))
+		{
+			while (running && ring.queue.size() >= capacity) {
+				try {
+					ring.notFull.await(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return running;
+		}
+		else if (FilterConfiguration.DROP_POLICY_DROP_NON_KEY.equals(dropPolicy))
+		{
+			Iterator<QueuedFrame> iterator = ring.queue.iterator();
+			while (iterator.hasNext()) {
+				QueuedFrame queuedFrame = iterator.next();
+				if (!queuedFrame.isKeyFrame()) {
+					iterator.remove();
+					queuedFrameCount.decrementAndGet();
+					free(queuedFrame);
+					droppedFrameCount.incrementAndGet();
+					return true;
+				}
+			}
+			if (!incoming.isKeyFrame()) {
+				return false;
+			}
+		}
+
+		//drop oldest. It's also the fallback for drop-non-key when the queue is full of key frames
+		free(ring.queue.pollFirst());
+		queuedFrameCount.decrementAndGet();
+		droppedFrameCount.incrementAndGet();
+		return true;
+	}
+
+	private void pump() {
+		List<QueuedFrame> batch = new ArrayList<>(MAX_FRAMES_PER_INPUT_IN_BATCH);
+		while (running) {
+			int polledCount = pumpRings(videoRings, batch) + pumpRings(audioRings, batch);
+
+			if (polledCount > 0) {
+				try {
+					consumer.batchConsumed();
+				}
+				catch (Exception e) {
+					logger.error("Error in completing batch in worker:{} {}", name, ExceptionUtils.getStackTrace(e));
+				}
+			}
+			else {
+				long parkNanos = idle();
+				pumpWaiting = true;
+				//check again after setting the flag, producer may have queued a frame before seeing it
+				if (running && queuedFrameCount.get() == 0 && parkNanos > 0) {
+					LockSupport.parkNanos(this, parkNanos);
+				}
+				pumpWaiting = false;
+			}
+		}
+	}
+
+	private long idle() {
+		try {
+			return Math.min(consumer.idle(), IDLE_PARK_NANOS);
+		}
+		catch (Exception e) {
+			logger.error("Error in idle call of worker:{} {}", name, ExceptionUtils.getStackTrace(e));
+			return IDLE_PARK_NANOS;
+		}
+	}
+
+	private int pumpRings(Map<String, InputRing> rings, List<QueuedFrame> batch) {
+		int polledCount = 0;
+		for (InputRing ring : rings.values()) {
+			ring.lock.lock();
+			try {
+				QueuedFrame queuedFrame;
+				while (batch.size() < MAX_FRAMES_PER_INPUT_IN_BATCH && (queuedFrame = ring.queue.pollFirst()) != null) {
+					batch.add(queuedFrame);
+				}
+				if (!batch.isEmpty()) {
+					queuedFrameCount.addAndGet(-batch.size());
+					ring.notFull.signal();
+				}
+			}
+			finally {
+				ring.lock.unlock();
+			}
+
+			for (QueuedFrame queuedFrame : batch) {
+				consume(queuedFrame);
+			}
+			polledCount += batch.size();
+			batch.clear();
+		}
+		return polledCount;
+	}
+
+	private void consume(QueuedFrame queuedFrame) {
+		try {
+			if (running) {
+				consumer.consume(queuedFrame.streamId, queuedFrame.frame, queuedFrame.video);
+				processedFrameCount.incrementAndGet();
+			}
+		}
+		catch (Exception e) {
+			logger.error("Error in consuming frame for stream:{} in worker:{} {}", queuedFrame.streamId, name, ExceptionUtils.getStackTrace(e));
+		}
+		finally {
+			free(queuedFrame);
+		}
+	}
+
+	/**
+	 * Removes the rings of the stream and frees the frames waiting in them.
+	 * It's called when the stream is removed from the filter
+	 */
+	public void removeInput(String streamId) {
+		clear(videoRings.remove(streamId));
+		clear(audioRings.remove(streamId));
+	}
+
+	private void clear(InputRing ring) {
+		if (ring == null) {
+			return;
+		}
+		ring.lock.lock();
+		try {
+			ring.notFull.signalAll();
+			QueuedFrame queuedFrame;
+			while ((queuedFrame = ring.queue.pollFirst()) != null) {
+				queuedFrameCount.decrementAndGet();
+				free(queuedFrame);
+			}
+		}
+		finally {
+			ring.lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the worker and frees the frames waiting in the queue.
+	 * It returns after the pump thread exits, so the filter graphs and the frame pool can be freed after it
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			if (!running) {
+				return;
+			}
+			running = false;
+			thread = workerThread;
+		}
+
+		LockSupport.unpark(thread);
+		if (thread != null && thread != Thread.currentThread()) {
+			//pump may be in a native call of a graph, so it should not be left running even if this thread is interrupted
+			boolean interrupted = false;
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		videoRings.values().forEach(this::clear);
+		audioRings.values().forEach(this::clear);
+		logger.info("Frame queue worker:{} is stopped. Processed frames:{} dropped frames:{}", name, processedFrameCount.get(), droppedFrameCount.get());
+	}
+
+	private void free(QueuedFrame queuedFrame) {
+		if (queuedFrame != null && queuedFrame.frame != null) {
+			if (framePool != null) {
+				framePool.release(queuedFrame.frame);
+			}
+			else {
+				av_frame_free(queuedFrame.frame);
+			}
+			queuedFrame.frame = null;
+		}
+	}
+
+	/**
+	 * @return total number of frames waiting in the rings of all inputs
+	 */
+	public int getQueueDepth() {
+		return queuedFrameCount.get();
+	}
+
+	public int getQueueDepth(String streamId, boolean video) {
+		InputRing ring = (video ? videoRings : audioRings).get(streamId);
+		if (ring == null) {
+			return 0;
+		}
+		ring.lock.lock();
+		try {
+			return ring.queue.size();
+		}
+		finally {
+			ring.lock.unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public String getDropPolicy() {
+		return dropPolicy;
+	}
+
+	public long getDroppedFrameCount() {
+		return droppedFrameCount.get();
+	}
+
+	public long getProcessedFrameCount() {
+		return processedFrameCount.get();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+}
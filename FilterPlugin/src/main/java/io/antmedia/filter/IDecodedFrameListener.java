@@ -0,0 +1,11 @@
+package io.antmedia.filter;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+
+/**
+ * Receives the frames of the VideoDecoder and AudioDecoder.
+ * Frame is owned by the decoder and it's only valid in the call. Reference or copy it to keep it
+ */
+public interface IDecodedFrameListener {
+	public void onDecodedFrame(String streamId, AVFrame frame);
+}
@@ -0,0 +1,135 @@
+package io.antmedia.filter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.antmedia.AntMediaApplicationAdapter;
+import io.antmedia.muxer.MuxAdaptor;
+import io.antmedia.rest.model.Result;
+import io.vertx.core.Vertx;
+
+/**
+ * Publishes the encoded output of a filter under other stream ids without encoding it again.
+ * Packets of the output are restreamed to the local RTMP server for each alias, so the aliases
+ * are regular streams with their own ids and access policies while the output is encoded only once.
+ *
+ * Mux adaptor of the output may not be ready right after the output is started,
+ * so the aliases are retried periodically until they're started.
+ */
+public class OutputAliasForwarder {
+
+	private static final Logger logger = LoggerFactory.getLogger(OutputAliasForwarder.class);
+
+	public static final long RETRY_PERIOD_MS = 1000;
+
+	public static final int MAX_RETRY_COUNT = 10;
+
+	private final String streamId;
+	private final AntMediaApplicationAdapter app;
+	private final Vertx vertx;
+
+	private final Set<String> aliases = new LinkedHashSet<>();
+	private final Set<String> startedAliases = new LinkedHashSet<>();
+
+	private int retryCount = 0;
+	private long retryTimerId = -1;
+	private boolean stopped = false;
+
+	/**
+	 * @param streamId id of the filter output that is encoded
+	 */
+	public OutputAliasForwarder(String streamId, AntMediaApplicationAdapter app, Vertx vertx) {
+		this.streamId = streamId;
+		this.app = app;
+		this.vertx = vertx;
+	}
+
+	/**
+	 * Starts the new aliases and stops the ones that are not in the list anymore
+	 */
+	public synchronized void update(List<String> aliasList) {
+		Set<String> requested = aliasList != null ? new LinkedHashSet<>(aliasList) : new LinkedHashSet<>();
+		requested.remove(streamId);
+
+		for (String alias : new ArrayList<>(startedAliases)) {
+			if (!requested.contains(alias)) {
+				stopAlias(alias);
+			}
+		}
+		aliases.clear();
+		aliases.addAll(requested);
+
+		retryCount = 0;
+		startPendingAliases();
+	}
+
+	private void startPendingAliases() {
+		if (stopped) {
+			return;
+		}
+		MuxAdaptor muxAdaptor = app.getMuxAdaptor(streamId);
+		boolean pending = false;
+		for (String alias : aliases) {
+			if (startedAliases.contains(alias)) {
+				continue;
+			}
+			Result result = muxAdaptor != null ? muxAdaptor.startRtmpStreaming(getAliasUrl(alias), 0) : null;
+			if (result != null && result.isSuccess()) {
+				startedAliases.add(alias);
+				logger.info("Output:{} is forwarded to alias:{}", streamId, alias);
+			}
+			else {
+				pending = true;
+			}
+		}
+
+		if (pending && retryTimerId == -1) {
+			if (retryCount < MAX_RETRY_COUNT) {
+				retryCount++;
+				retryTimerId = vertx.setTimer(RETRY_PERIOD_MS, timerId -> retry());
+			}
+			else {
+				logger.warn("Aliases of output:{} cannot be started. Mux adaptor is {}", streamId, muxAdaptor != null ? "available" : "not available");
+			}
+		}
+	}
+
+	private synchronized void retry() {
+		retryTimerId = -1;
+		startPendingAliases();
+	}
+
+	private void stopAlias(String alias) {
+		MuxAdaptor muxAdaptor = app.getMuxAdaptor(streamId);
+		if (muxAdaptor != null) {
+			muxAdaptor.stopRtmpStreaming(getAliasUrl(alias), 0);
+		}
+		startedAliases.remove(alias);
+		logger.info("Forwarding of output:{} to alias:{} is stopped", streamId, alias);
+	}
+
+	public synchronized void stop() {
+		stopped = true;
+		if (retryTimerId != -1) {
+			vertx.cancelTimer(retryTimerId);
+			retryTimerId = -1;
+		}
+		for (String alias : new ArrayList<>(startedAliases)) {
+			stopAlias(alias);
+		}
+		aliases.clear();
+	}
+
+	public String getAliasUrl(String alias) {
+		return "rtmp://127.0.0.1:" + app.getServerSettings().getRtmpPort() + "/" + app.getScope().getName() + "/" + alias;
+	}
+
+	public synchronized List<String> getStartedAliases() {
+		return new ArrayList<>(startedAliases);
+	}
+}
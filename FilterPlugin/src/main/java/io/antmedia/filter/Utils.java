@@ -28,6 +28,11 @@ public class Utils {
 		TIME_BASE_FOR_MS.den(1000);
 	}
 	
+	/*
+	 * AV_FRAME_FLAG_KEY is a macro in frame.h so it's not available in javacpp presets
+	 */
+	public static final int AV_FRAME_FLAG_KEY = 1 << 1;
+	
 	
 
 	public static void save(AVFrame frame, String name) {
@@ -1,11 +1,15 @@
 package io.antmedia.filter;
 
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_DEFAULT;
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_NONREF;
 import static org.bytedeco.ffmpeg.global.avcodec.AV_CODEC_ID_H264;
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
 import static org.bytedeco.ffmpeg.global.avcodec.av_packet_free;
 import static org.bytedeco.ffmpeg.global.avcodec.av_packet_rescale_ts;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_alloc_context3;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_find_decoder;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_find_decoder_by_name;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_flush_buffers;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_free_context;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_open2;
 import static org.bytedeco.ffmpeg.global.avcodec.avcodec_parameters_to_context;
@@ -36,6 +40,27 @@ import io.antmedia.statistic.GPUUtils;
 
 public class VideoDecoder {
 	static Logger logger = LoggerFactory.getLogger(VideoDecoder.class);
+
+	/**
+	 * Frame interval value to decode all frames
+	 */
+	public static final int DECODE_ALL_FRAMES = 1;
+
+	/**
+	 * Frame interval value to decode only the key frames
+	 */
+	public static final int DECODE_KEY_FRAMES_ONLY = 0;
+
+	/**
+	 * Frame interval value to decode no frames. It's used for the inputs whose video is not used, like camera-off participants
+	 */
+	public static final int DECODE_NONE = -1;
+
+	/*
+	 * FF_THREAD_SLICE of avcodec.h, it's not in the presets
+	 */
+	private static final int FF_THREAD_SLICE = 2;
+
 	private AVCodecContext videoContext;
 	private String streamId;
 	private AVFrame decodedFrame;
@@ -44,6 +69,21 @@ public class VideoDecoder {
 	
 	private AVRational decoderTimeBase;
 
+	/*
+	 * 1 decodes all frames, 0 decodes key frames only, -1 decodes nothing, N returns every Nth decoded frame
+	 */
+	private int frameInterval = DECODE_ALL_FRAMES;
+	private long decodedFrameIndex = 0;
+	private boolean waitingForKeyFrame = false;
+	private long skippedPacketCount = 0;
+
+	private boolean budgetRegistered = false;
+
+	/*
+	 * skip_loop_filter of the decoder, see TileDownscaler
+	 */
+	private int loopFilterDiscard = AVDISCARD_DEFAULT;
+
 	
 	public VideoDecoder(String streamId, StreamParametersInfo streamParameters) {
 		this.streamId = streamId;
@@ -99,12 +139,93 @@ public class VideoDecoder {
 		if(!running) {
 			stop();
 		}
+		else {
+			DecoderBudget.getInstance().register();
+			budgetRegistered = true;
+		}
 	}
 	
 	public void setDecoderTimeBase(AVRational decoderTimeBase) {
 		this.decoderTimeBase = decoderTimeBase;
 	}
 
+	/**
+	 * Sets which frames are decoded. It's used for the low priority inputs like small tiles of an MCU room
+	 * 
+	 * @param frameInterval {@link #DECODE_ALL_FRAMES}, {@link #DECODE_KEY_FRAMES_ONLY}, {@link #DECODE_NONE} or N to return every Nth decoded frame.
+	 * Non-reference frames are not decoded for N > 1. It saves almost nothing for the WebRTC H.264 streams because all of their frames are 
+	 * reference frames, so only the filtering of the frames that are not returned is saved.
+	 * Decoder is opened again with slice threading for {@link #DECODE_KEY_FRAMES_ONLY} because a frame threaded decoder 
+	 * returns a key frame only after it gets the next thread count - 1 key frames
+	 */
+	public synchronized void setFrameInterval(int frameInterval) {
+		if (frameInterval < DECODE_NONE) {
+			throw new IllegalArgumentException("Frame interval cannot be less than " + DECODE_NONE + " but it's " + frameInterval);
+		}
+		if (this.frameInterval <= DECODE_KEY_FRAMES_ONLY && frameInterval > DECODE_KEY_FRAMES_ONLY) {
+			//references of the next non-key frames were not decoded
+			waitingForKeyFrame = true;
+		}
+		boolean threadingChanged = (this.frameInterval == DECODE_KEY_FRAMES_ONLY) != (frameInterval == DECODE_KEY_FRAMES_ONLY);
+		this.frameInterval = frameInterval;
+		if (threadingChanged && isRunning()) {
+			reopenDecoder();
+		}
+		decodedFrameIndex = 0;
+		if (videoContext != null) {
+			videoContext.skip_frame(frameInterval > DECODE_ALL_FRAMES ? AVDISCARD_NONREF : AVDISCARD_DEFAULT);
+			if (frameInterval == DECODE_NONE) {
+				//buffered frames would be stale when decoding is resumed
+				avcodec_flush_buffers(videoContext);
+			}
+		}
+		logger.info("Frame interval is set to {} for streamId:{}", frameInterval, streamId);
+	}
+
+	public int getFrameInterval() {
+		return frameInterval;
+	}
+
+	/*
+	 * Opens a new context with the same codec for the threading of the frame interval. Old context is kept if the new one cannot be opened
+	 */
+	private void reopenDecoder() {
+		AVCodecContext currentContext = videoContext;
+		if (openDecoder(currentContext.codec(), streamParameters.getCodecParameters())) {
+			avcodec_free_context(currentContext);
+			videoContext.skip_loop_filter(loopFilterDiscard);
+			waitingForKeyFrame = true;
+			logger.info("Video decoder is opened again with thread type:{} for streamId:{}", videoContext.thread_type(), streamId);
+		}
+		else {
+			videoContext = currentContext;
+			logger.warn("Video decoder cannot be opened again for streamId:{} so it keeps its threading", streamId);
+		}
+	}
+
+	/**
+	 * Sets which frames are decoded without deblocking. It's used for the inputs that are scaled down a lot 
+	 * because the blocking artifacts are not visible after scaling
+	 * 
+	 * @param loopFilterDiscard AVDISCARD_DEFAULT to deblock all frames, AVDISCARD_NONREF to skip the non-reference frames 
+	 * or AVDISCARD_ALL to skip all frames
+	 */
+	public synchronized void setLoopFilterDiscard(int loopFilterDiscard) {
+		this.loopFilterDiscard = loopFilterDiscard;
+		if (videoContext != null) {
+			videoContext.skip_loop_filter(loopFilterDiscard);
+		}
+		logger.info("Loop filter discard is set to {} for streamId:{}", loopFilterDiscard, streamId);
+	}
+
+	public int getLoopFilterDiscard() {
+		return loopFilterDiscard;
+	}
+
+	public long getSkippedPacketCount() {
+		return skippedPacketCount;
+	}
+
 	public boolean openDecoder(AVCodec codec, AVCodecParameters par) {
 		videoContext = avcodec_alloc_context3(codec);
 		if (videoContext == null) {
@@ -120,7 +241,11 @@ public class VideoDecoder {
 			return false;
 		}
 
-		videoContext.thread_count(6);
+		videoContext.thread_count(DecoderBudget.getInstance().getThreadCount(par.width(), par.height()));
+		if (frameInterval == DECODE_KEY_FRAMES_ONLY) {
+			//frame threading delays the output by a frame per thread and only the key frames are sent to the decoder
+			videoContext.thread_type(FF_THREAD_SLICE);
+		}
 
 		// Open video codec
 		if ((ret = avcodec_open2(videoContext, codec, (AVDictionary) null)) < 0) {
@@ -136,12 +261,64 @@ public class VideoDecoder {
 		return true;
 	}
 	
+	/**
+	 * Decodes the packet and returns one frame. If the decoder has more frames ready, they are returned in the next calls.
+	 * Use {@link #decodeVideoPacket(AVPacket, IDecodedFrameListener)} to get all frames without delay
+	 */
 	public synchronized AVFrame decodeVideoPacket(AVPacket pkt) {
-		
+		if (!sendPacket(pkt)) {
+			return null;
+		}
+		return receiveFrame();
+	}
+
+	/**
+	 * Decodes the packet and gives all the frames that the decoder has ready to the listener.
+	 * Frame threaded decoding may have several frames ready after a packet and
+	 * receiving only one of them per packet makes the latency grow
+	 * 
+	 * @return number of frames given to the listener
+	 */
+	public synchronized int decodeVideoPacket(AVPacket pkt, IDecodedFrameListener listener) {
+		if (!sendPacket(pkt)) {
+			return 0;
+		}
+		return receiveFrames(listener);
+	}
+
+	/**
+	 * Drains the frames buffered in the decoder and gives them to the listener.
+	 * Decoder can be used after flush and it starts decoding from the next key frame
+	 * 
+	 * @return number of frames given to the listener
+	 */
+	public synchronized int flush(IDecodedFrameListener listener) {
+		if (!isRunning()) {
+			return 0;
+		}
+		avcodec_send_packet(videoContext, null);
+		int frameCount = receiveFrames(listener);
+		avcodec_flush_buffers(videoContext);
+		waitingForKeyFrame = true;
+		logger.info("Video decoder is flushed for streamId:{} and {} frames are drained", streamId, frameCount);
+		return frameCount;
+	}
+
+	/*
+	 * @return false if the packet is not sent to the decoder
+	 */
+	private boolean sendPacket(AVPacket pkt) {
 		if (!isRunning()) {
 			logger.error("Video decoder is not running for streamId: {}" , streamId);
-			return null;
+			return false;
+		}
+
+		boolean keyPacket = (pkt.flags() & AV_PKT_FLAG_KEY) != 0;
+		if (frameInterval == DECODE_NONE || (!keyPacket && (frameInterval == DECODE_KEY_FRAMES_ONLY || waitingForKeyFrame))) {
+			skippedPacketCount++;
+			return false;
 		}
+		waitingForKeyFrame = false;
 		logger.debug("Video packet is received for streamId:{} pkt pts:{} timebase:{}/{} target timebase: {}/{}", streamId, pkt.pts(), 
 				streamParameters.getTimeBase().num(), streamParameters.getTimeBase().den(), decoderTimeBase.num(), decoderTimeBase.den());
 		
@@ -153,25 +330,49 @@ public class VideoDecoder {
 		
 		int ret = avcodec_send_packet(videoContext, pkt);
 		if (ret < 0) {
-			logger.error("Cannot send video packet for decoding for stream: {}", streamId);
+			logger.error("Cannot send video packet for decoding for stream: {} error: {}", streamId, Utils.getErrorDefinition(ret));
 		}
+		return true;
+	}
 
-		ret = avcodec_receive_frame(videoContext, decodedFrame);
-		
-		if (ret == AVERROR_EAGAIN() || ret == AVERROR_EOF()) {
-			logger.debug("Video decoder is not ready to decode the packet for streamId: {} ret: {}" , streamId, Utils.getErrorDefinition(ret));
-			return null;
-		}
-		else if (ret < 0) {
-			logger.error("Decode video frame error: {}" , Utils.getErrorDefinition(ret));
-			return null;
+	private int receiveFrames(IDecodedFrameListener listener) {
+		int frameCount = 0;
+		AVFrame frame;
+		while ((frame = receiveFrame()) != null) {
+			listener.onDecodedFrame(streamId, frame);
+			frameCount++;
 		}
+		return frameCount;
+	}
+
+	/*
+	 * @return next frame according to the frame interval or null if decoder has no frame ready
+	 */
+	private AVFrame receiveFrame() {
+		while (true) {
+			int ret = avcodec_receive_frame(videoContext, decodedFrame);
+
+			if (ret == AVERROR_EAGAIN() || ret == AVERROR_EOF()) {
+				logger.debug("Video decoder is not ready to decode the packet for streamId: {} ret: {}" , streamId, Utils.getErrorDefinition(ret));
+				return null;
+			}
+			else if (ret < 0) {
+				logger.error("Decode video frame error: {}" , Utils.getErrorDefinition(ret));
+				return null;
+			}
 
-		return decodedFrame;
+			if (frameInterval <= DECODE_ALL_FRAMES || (decodedFrameIndex++ % frameInterval) == 0) {
+				return decodedFrame;
+			}
+		}
 	}
 	
 	public synchronized void stop()  {
 		running = false;
+		if (budgetRegistered) {
+			DecoderBudget.getInstance().unregister();
+			budgetRegistered = false;
+		}
 		synchronized (org.bytedeco.ffmpeg.presets.avcodec.class) {
 			releaseUnsafe();
 		}
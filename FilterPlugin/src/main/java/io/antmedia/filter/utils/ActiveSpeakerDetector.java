@@ -0,0 +1,79 @@
+package io.antmedia.filter.utils;
+
+import java.util.Map;
+
+/**
+ * Finds the active speaker of a room from the audio levels of the streams.
+ *
+ * The loudest stream becomes the active speaker if it's louder than the speech threshold and
+ * it stays the loudest for the hold time. So the layout does not switch for short noises or for each word of the other speakers.
+ */
+public class ActiveSpeakerDetector {
+
+	public static final double DEFAULT_SPEECH_THRESHOLD_DB = -50;
+
+	public static final long DEFAULT_HOLD_TIME_MS = 1500;
+
+	private final double speechThresholdDb;
+	private final long holdTimeMs;
+
+	private String activeSpeaker;
+	private String candidate;
+	private long candidateSince;
+
+	public ActiveSpeakerDetector() {
+		this(DEFAULT_SPEECH_THRESHOLD_DB, DEFAULT_HOLD_TIME_MS);
+	}
+
+	public ActiveSpeakerDetector(double speechThresholdDb, long holdTimeMs) {
+		this.speechThresholdDb = speechThresholdDb;
+		this.holdTimeMs = holdTimeMs;
+	}
+
+	/**
+	 * @param levels audio levels of the streams in dBFS
+	 * @param now current time in ms
+	 * @return true if the active speaker is changed
+	 */
+	public synchronized boolean update(Map<String, Double> levels, long now) {
+		String loudest = null;
+		double loudestLevel = speechThresholdDb;
+		for (Map.Entry<String, Double> entry : levels.entrySet()) {
+			if (entry.getValue() > loudestLevel) {
+				loudest = entry.getKey();
+				loudestLevel = entry.getValue();
+			}
+		}
+
+		if (activeSpeaker != null && !levels.containsKey(activeSpeaker)) {
+			//active speaker left the room
+			activeSpeaker = null;
+		}
+
+		if (loudest == null || loudest.equals(activeSpeaker)) {
+			candidate = null;
+			return false;
+		}
+
+		if (!loudest.equals(candidate)) {
+			candidate = loudest;
+			candidateSince = now;
+		}
+
+		if (activeSpeaker == null || now - candidateSince >= holdTimeMs) {
+			activeSpeaker = loudest;
+			candidate = null;
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized String getActiveSpeaker() {
+		return activeSpeaker;
+	}
+
+	public synchronized void setActiveSpeaker(String activeSpeaker) {
+		this.activeSpeaker = activeSpeaker;
+		this.candidate = null;
+	}
+}
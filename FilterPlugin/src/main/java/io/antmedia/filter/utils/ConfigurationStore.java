@@ -0,0 +1,142 @@
+package io.antmedia.filter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Keeps the configurations of the plugin in a JSON file of the application, so that they survive the restarts.
+ *
+ * Configurations are grouped by their type and they're not saved to the DataStore, so they do not show up in the broadcast list of the application.
+ * Each node of a cluster has its own file, so it restores only the configurations that are created on it.
+ * File is written to a temporary file first and then moved, so a crash during a write does not corrupt it.
+ */
+public class ConfigurationStore {
+
+	/**
+	 * Type of the filter configurations
+	 */
+	public static final String FILTER_TYPE = "filterConfiguration";
+
+	/**
+	 * Type of the MCU rooms
+	 */
+	public static final String MCU_ROOM_TYPE = "mcuRoomConfiguration";
+
+	/**
+	 * Name of the file in the WEB-INF directory of the application
+	 */
+	public static final String FILE_NAME = "filter-plugin-configurations.json";
+
+	private static final Logger logger = LoggerFactory.getLogger(ConfigurationStore.class);
+
+	private static final Type RECORDS_TYPE = new TypeToken<LinkedHashMap<String, LinkedHashMap<String, JsonElement>>>() {}.getType();
+
+	private final File file;
+	private final Gson gson = new Gson();
+
+	/*
+	 * Configurations in JSON by their type and id
+	 */
+	private Map<String, Map<String, JsonElement>> records;
+
+	public ConfigurationStore(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Saves or updates the configuration
+	 */
+	public synchronized boolean save(String type, String id, Object configuration) {
+		getRecords().computeIfAbsent(type, k -> new LinkedHashMap<>()).put(id, gson.toJsonTree(configuration));
+		return write();
+	}
+
+	public synchronized boolean delete(String type, String id) {
+		Map<String, JsonElement> configurations = getRecords().get(type);
+		if (configurations == null || configurations.remove(id) == null) {
+			return false;
+		}
+		return write();
+	}
+
+	/**
+	 * @return configurations of the type
+	 */
+	public synchronized <T> List<T> load(String type, Class<T> configurationClass) {
+		List<T> configurations = new ArrayList<>();
+		Map<String, JsonElement> records = getRecords().get(type);
+		if (records == null) {
+			return configurations;
+		}
+		for (Map.Entry<String, JsonElement> record : records.entrySet()) {
+			try {
+				T configuration = gson.fromJson(record.getValue(), configurationClass);
+				if (configuration != null) {
+					configurations.add(configuration);
+				}
+			}
+			catch (JsonParseException e) {
+				logger.warn("Configuration:{} of type:{} cannot be parsed: {}", record.getKey(), type, e.getMessage());
+			}
+		}
+		return configurations;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private Map<String, Map<String, JsonElement>> getRecords() {
+		if (records == null) {
+			records = read();
+		}
+		return records;
+	}
+
+	private Map<String, Map<String, JsonElement>> read() {
+		if (file.exists()) {
+			try {
+				Map<String, Map<String, JsonElement>> saved = gson.fromJson(Files.readString(file.toPath(), StandardCharsets.UTF_8), RECORDS_TYPE);
+				if (saved != null) {
+					return saved;
+				}
+			}
+			catch (IOException | JsonParseException e) {
+				logger.error("Configurations cannot be read from {} {}", file.getAbsolutePath(), ExceptionUtils.getStackTrace(e));
+			}
+		}
+		return new LinkedHashMap<>();
+	}
+
+	private boolean write() {
+		try {
+			File directory = file.getAbsoluteFile().getParentFile();
+			Files.createDirectories(directory.toPath());
+			File tempFile = new File(directory, file.getName() + ".tmp");
+			Files.writeString(tempFile.toPath(), gson.toJson(records), StandardCharsets.UTF_8);
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		}
+		catch (IOException e) {
+			logger.error("Configurations cannot be written to {} {}", file.getAbsolutePath(), ExceptionUtils.getStackTrace(e));
+		}
+		return false;
+	}
+}
@@ -6,6 +6,7 @@ import static org.bytedeco.ffmpeg.global.avfilter.avfilter_inout_alloc;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
 import org.bytedeco.ffmpeg.avfilter.AVFilter;
@@ -115,4 +116,12 @@ public class Filter {
 	public AVFilterContext getFilterContext() {
 		return filterContext;
 	}
+
+	/**
+	 * @return true if the other filter creates the same filter context
+	 */
+	public boolean isEquivalent(Filter other) {
+		return other != null && filterName.equals(other.filterName) && label.equals(other.label) 
+				&& Objects.equals(filterArgs, other.filterArgs) && pixelFormat == other.pixelFormat;
+	}
 }
\ No newline at end of file
@@ -1,12 +1,20 @@
 package io.antmedia.filter.utils;
 
 import java.util.List;
+import java.util.Map;
 
 public class FilterConfiguration {
 	public static final String ASYNCHRONOUS = "asynchronous";
 	public static final String SYNCHRONOUS = "synchronous";
 	public static final String LASTPOINT = "lastpoint";
 
+	public static final String DROP_POLICY_DROP_OLDEST = "drop-oldest";
+	public static final String DROP_POLICY_DROP_NON_KEY = "drop-non-key";
+	public static final String DROP_POLICY_BLOCK = "block";
+
+	public static final String PLACEMENT_LOCAL = "local";
+	public static final String PLACEMENT_MOST_INPUTS = "most-inputs";
+
 	/**
 	 * The id of the filter
 	 */
@@ -59,6 +67,108 @@ public class FilterConfiguration {
 	 */
 	private int videoOutputBitrate = 1500;
 	
+	/**
+	 * Capacity of the frame queue of each input that feeds the filter graph in asynchronous and lastpoint modes
+	 */
+	private int frameQueueCapacity = 120;
+	
+	/**
+	 * What to do when the frame queue is full: drop-oldest | drop-non-key | block
+	 */
+	private String frameDropPolicy = DROP_POLICY_DROP_OLDEST;
+	
+	/**
+	 * If it's true, the running filter graph keeps working while the updated graph is being started
+	 * and it's replaced when the updated graph produces its first frame. It's used in asynchronous and lastpoint modes
+	 */
+	private boolean graphHotSwap = true;
+	
+	/**
+	 * Decoded frame interval of the input streams that are decoded in the plugin. Key is the stream id.
+	 * 1 decodes all frames, 0 decodes key frames only, N decodes every Nth frame.
+	 * It's used for the low priority inputs like the thumbnails in a crowded MCU layout. Default is 1
+	 */
+	private Map<String, Integer> decodeFrameIntervals;
+	
+	/**
+	 * Measure the audio levels of the input streams. MCU uses them to find the active speaker
+	 */
+	private boolean audioLevelMetering = false;
+	
+	/**
+	 * Latency of the frame aligner in ms. If it's positive, frames of the inputs are fed to the filter graph 
+	 * in timestamp order after waiting this long for the other inputs and the late frames are dropped. 
+	 * It's used in asynchronous and lastpoint modes. Default is 0 which feeds the frames as they're received
+	 */
+	private int alignmentLatencyMs = 0;
+	
+	/**
+	 * Give the filtered video frames with negative linesize, e.g. the output of vflip, to the outputs without copying them.
+	 * Enable it if the consumers of the outputs support negative linesize. Default is false which copies them to a buffer with positive linesize
+	 */
+	private boolean passNegativeLinesize = false;
+	
+	/**
+	 * Other stream ids that publish the same output. Key is a stream id in the output streams.
+	 * The output is encoded once and its packets are forwarded to the aliases, e.g. to publish an MCU mix 
+	 * under several ids with different access policies
+	 */
+	private Map<String, List<String>> outputAliases;
+	
+	/**
+	 * Filter the video and audio in separate threads in asynchronous and lastpoint modes, so a heavy video filter 
+	 * does not delay the audio. Default is false which processes the video and audio in the same thread
+	 */
+	private boolean separateGraphThreads = false;
+
+	/**
+	 * Decode and scale the inputs that are much bigger than their tiles in the video filter with less cost.
+	 * Deblocking is skipped in the decoder and a fast bilinear pre-scale is inserted before the scale of the tile. Default is false
+	 */
+	private boolean downscaleInputs = false;
+
+	/**
+	 * Mix the audio in Java instead of the audio filter graph if the audio filter only mixes the inputs with amix or copies one with acopy.
+	 * It's used in asynchronous and lastpoint types. Default is false
+	 */
+	private boolean audioMixer = false;
+
+	/**
+	 * Linear gains of the input streams in the audio mixer, e.g. {"stream1":0.5}. Gain of the other inputs is 1
+	 */
+	private Map<String, Double> audioGains;
+
+	/**
+	 * Node that runs the filter in cluster mode: local | most-inputs.
+	 * most-inputs forwards the create request to the node that hosts most of the input streams, so the remote streams
+	 * are not pulled and decoded on this node. Default is local which runs the filter on the node that receives the request
+	 */
+	private String placement = PLACEMENT_LOCAL;
+
+	/**
+	 * Pause the filter until its outputs have a viewer, an endpoint or a recording. Inputs are not decoded and the filter graph 
+	 * is not fed while it's paused, so the output encoders have nothing to encode. Default is false which runs the filter all the time
+	 */
+	private boolean onDemand = false;
+
+	/**
+	 * Filter is paused again when its outputs have no viewer for this long in on-demand mode
+	 */
+	private int idleTimeoutMs = 30000;
+
+	/**
+	 * Save the filter to the configuration file of the application so that it's created again after a restart as soon as its inputs are streaming.
+	 * MCU does not save the filters of the rooms because it saves the rooms. Default is false
+	 */
+	private boolean persistent = false;
+
+	/**
+	 * Target frame rate of the video of each input. Frames above this rate are dropped before they're copied and fed to the filter graph,
+	 * so the CPU usage follows the output frame rate instead of the input frame rate. It's used in asynchronous and lastpoint modes.
+	 * Default is 0 which feeds all frames
+	 */
+	private int outputFps = 0;
+
 	public List<String> getInputStreams() {
 		return inputStreams;
 	}
@@ -138,4 +248,148 @@ public class FilterConfiguration {
 	public void setVideoOutputBitrate(int videoOutputBitrate) {
 		this.videoOutputBitrate = videoOutputBitrate;
 	}
+
+	public int getFrameQueueCapacity() {
+		return frameQueueCapacity;
+	}
+
+	public void setFrameQueueCapacity(int frameQueueCapacity) {
+		this.frameQueueCapacity = frameQueueCapacity;
+	}
+
+	public String getFrameDropPolicy() {
+		return frameDropPolicy;
+	}
+
+	public void setFrameDropPolicy(String frameDropPolicy) {
+		this.frameDropPolicy = frameDropPolicy;
+	}
+
+	public boolean isGraphHotSwap() {
+		return graphHotSwap;
+	}
+
+	public void setGraphHotSwap(boolean graphHotSwap) {
+		this.graphHotSwap = graphHotSwap;
+	}
+
+	public Map<String, Integer> getDecodeFrameIntervals() {
+		return decodeFrameIntervals;
+	}
+
+	public void setDecodeFrameIntervals(Map<String, Integer> decodeFrameIntervals) {
+		this.decodeFrameIntervals = decodeFrameIntervals;
+	}
+
+	/**
+	 * @return decode frame interval of the stream, 1 if it's not set
+	 */
+	public int getDecodeFrameInterval(String streamId) {
+		Integer interval = decodeFrameIntervals != null ? decodeFrameIntervals.get(streamId) : null;
+		return interval != null && interval >= 0 ? interval : 1;
+	}
+
+	public boolean isAudioLevelMetering() {
+		return audioLevelMetering;
+	}
+
+	public void setAudioLevelMetering(boolean audioLevelMetering) {
+		this.audioLevelMetering = audioLevelMetering;
+	}
+
+	public int getAlignmentLatencyMs() {
+		return alignmentLatencyMs;
+	}
+
+	public void setAlignmentLatencyMs(int alignmentLatencyMs) {
+		this.alignmentLatencyMs = alignmentLatencyMs;
+	}
+
+	public boolean isPassNegativeLinesize() {
+		return passNegativeLinesize;
+	}
+
+	public void setPassNegativeLinesize(boolean passNegativeLinesize) {
+		this.passNegativeLinesize = passNegativeLinesize;
+	}
+
+	public Map<String, List<String>> getOutputAliases() {
+		return outputAliases;
+	}
+
+	public void setOutputAliases(Map<String, List<String>> outputAliases) {
+		this.outputAliases = outputAliases;
+	}
+
+	public boolean isSeparateGraphThreads() {
+		return separateGraphThreads;
+	}
+
+	public void setSeparateGraphThreads(boolean separateGraphThreads) {
+		this.separateGraphThreads = separateGraphThreads;
+	}
+
+	public boolean isDownscaleInputs() {
+		return downscaleInputs;
+	}
+
+	public void setDownscaleInputs(boolean downscaleInputs) {
+		this.downscaleInputs = downscaleInputs;
+	}
+
+	public boolean isAudioMixer() {
+		return audioMixer;
+	}
+
+	public void setAudioMixer(boolean audioMixer) {
+		this.audioMixer = audioMixer;
+	}
+
+	public Map<String, Double> getAudioGains() {
+		return audioGains;
+	}
+
+	public void setAudioGains(Map<String, Double> audioGains) {
+		this.audioGains = audioGains;
+	}
+
+	public String getPlacement() {
+		return placement;
+	}
+
+	public void setPlacement(String placement) {
+		this.placement = placement;
+	}
+
+	public boolean isOnDemand() {
+		return onDemand;
+	}
+
+	public void setOnDemand(boolean onDemand) {
+		this.onDemand = onDemand;
+	}
+
+	public int getIdleTimeoutMs() {
+		return idleTimeoutMs;
+	}
+
+	public void setIdleTimeoutMs(int idleTimeoutMs) {
+		this.idleTimeoutMs = idleTimeoutMs;
+	}
+
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	public void setPersistent(boolean persistent) {
+		this.persistent = persistent;
+	}
+
+	public int getOutputFps() {
+		return outputFps;
+	}
+
+	public void setOutputFps(int outputFps) {
+		this.outputFps = outputFps;
+	}
 }
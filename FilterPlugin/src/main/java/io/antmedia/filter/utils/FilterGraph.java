@@ -8,27 +8,20 @@ import static org.bytedeco.ffmpeg.global.avfilter.avfilter_graph_config;
 import static org.bytedeco.ffmpeg.global.avfilter.avfilter_graph_parse;
 import static org.bytedeco.ffmpeg.global.avutil.AVERROR_EOF;
 import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_copy;
 import static org.bytedeco.ffmpeg.global.avutil.av_frame_ref;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_move_ref;
 import static org.bytedeco.ffmpeg.global.avutil.av_frame_unref;
-import static org.bytedeco.ffmpeg.global.avutil.av_image_fill_arrays;
-import static org.bytedeco.ffmpeg.global.avutil.av_image_get_buffer_size;
-import static org.bytedeco.ffmpeg.global.swscale.SWS_ACCURATE_RND;
-import static org.bytedeco.ffmpeg.global.swscale.SWS_BILINEAR;
-import static org.bytedeco.ffmpeg.global.swscale.sws_freeContext;
-import static org.bytedeco.ffmpeg.global.swscale.sws_getCachedContext;
-import static org.bytedeco.ffmpeg.global.swscale.sws_scale;
 import static org.bytedeco.ffmpeg.presets.avutil.AVERROR_EAGAIN;
 import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
 
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.bytedeco.ffmpeg.avfilter.AVFilterGraph;
 import org.bytedeco.ffmpeg.avfilter.AVFilterInOut;
 import org.bytedeco.ffmpeg.avutil.AVFrame;
-import org.bytedeco.ffmpeg.swscale.SwsContext;
-import org.bytedeco.javacpp.BytePointer;
-import org.bytedeco.javacpp.DoublePointer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +34,12 @@ import io.antmedia.filter.Utils;
 public class FilterGraph {
 	private static final Logger logger = LoggerFactory.getLogger(FilterGraph.class);
 
+	/**
+	 * Variable in the filter description that is replaced with the start pts of the graph in ms. Sources in the graph like color 
+	 * start at 0 but the inputs continue from the pts of the previous graph, so such sources are shifted with it
+	 */
+	public static final String START_PTS_VARIABLE = "$START_PTS";
+
 	AVFilterInOut listOfOutputs;
 	AVFilterInOut listOfInputs;
 	
@@ -50,9 +49,23 @@ public class FilterGraph {
 	AVFilterGraph filterGraph = new AVFilterGraph();
 	AVFrame filterOutputFrame = new AVFrame();
 	
-	protected SwsContext swsCtx = null; 
-	protected AVFrame picture;
-	private BytePointer pictureBufptr;
+	/*
+	 * Frame returned in sync mode. It's valid until the next call
+	 */
+	AVFrame syncOutputFrame;
+	
+	/*
+	 * Pictures of the outputs that frames with negative linesize are copied into. Key is the output stream id
+	 */
+	private Map<String, AVFrame> pictures = new HashMap<>();
+	
+	private volatile boolean passNegativeLinesize = false;
+
+	/*
+	 * pictures are taken from this pool. FilterAdaptor sets its own pool, otherwise graph uses a private one
+	 */
+	private FramePool framePool;
+	private boolean ownFramePool = false;
 
 	private Object lock = new Object();
 	private boolean initiated = false;
@@ -65,11 +78,28 @@ public class FilterGraph {
 
 
 	public FilterGraph(String filterDescription, Map<String, Filter> sourceFiltersMap, Map<String, Filter> sinkFiltersMap) {
+		this(filterDescription, sourceFiltersMap, sinkFiltersMap, true, 0);
+	}
+
+	/**
+	 * @param startPts pts in ms that the inputs start from, e.g. current pts of the graph that is replaced. 
+	 * It's the value of {@link #START_PTS_VARIABLE} in the description
+	 */
+	public FilterGraph(String filterDescription, Map<String, Filter> sourceFiltersMap, Map<String, Filter> sinkFiltersMap, long startPts) {
+		this(filterDescription, sourceFiltersMap, sinkFiltersMap, true, startPts);
+	}
+	
+	/**
+	 * @param configure false to parse the description without configuring the graph. Such a graph is not initiated
+	 */
+	protected FilterGraph(String filterDescription, Map<String, Filter> sourceFiltersMap, Map<String, Filter> sinkFiltersMap, boolean configure, long startPts) {
 		this.sourceFiltersMap = sourceFiltersMap;
 		this.sinkFiltersMap = sinkFiltersMap;
 		this.filterDescription = filterDescription;
+		this.currentPts = startPts;
 		
 		filterOutputFrame = av_frame_alloc();
+		syncOutputFrame = av_frame_alloc();
 		filterGraph = avfilter_graph_alloc();
 		
 		Filter prev = null;
@@ -98,7 +128,7 @@ public class FilterGraph {
 		}
 		
 		int ret;
-		if ((ret = avfilter_graph_parse(filterGraph, filterDescription, listOfInputs, listOfOutputs, null)) < 0) {
+		if ((ret = avfilter_graph_parse(filterGraph, filterDescription.replace(START_PTS_VARIABLE, Long.toString(startPts)), listOfInputs, listOfOutputs, null)) < 0) {
 			
 			String errorDefinition = Utils.getErrorDefinition(ret);
 			int nullCharIndex = errorDefinition.indexOf('\0');
@@ -106,6 +136,10 @@ public class FilterGraph {
 			logger.error("error avfilter_graph_parse: {}", this.initializationError);
 			return;
 		}
+		
+		if (!configure) {
+			return;
+		}
 
 		if ((ret = avfilter_graph_config(filterGraph, null)) < 0) {
 			String errorDefinition = Utils.getErrorDefinition(ret);
@@ -117,46 +151,68 @@ public class FilterGraph {
 		setInitiated(true);
 	}
 	
-	public synchronized void prepareFrame(AVFrame frame) 
+	/**
+	 * Parses the description with the given source and sink filters to check its syntax, filters, options and labels.
+	 * Graph is not configured, so the errors that depend on the frame formats are not detected
+	 * 
+	 * @return null if the description is parsed successfully, otherwise the error
+	 */
+	public static String validate(String filterDescription, Map<String, Filter> sourceFiltersMap, Map<String, Filter> sinkFiltersMap) {
+		FilterGraph graph = new FilterGraph(filterDescription, sourceFiltersMap, sinkFiltersMap, false, 0);
+		String error = graph.getInitializationError();
+		graph.close();
+		return error;
+	}
+	
+	/**
+	 * Gets the picture of the output from the pool if it's not allocated yet or the frame size or format is changed.
+	 * Each output has its own picture so that the outputs with different sizes don't reallocate it for every frame
+	 * 
+	 * @return picture of the output that has the same size and format with the frame or null if it cannot be allocated
+	 */
+	public AVFrame prepareFrame(String outStreamId, AVFrame frame) 
 	{
-		if (picture == null || picture.width() != frame.width() || picture.height() != frame.height() || picture.format() != frame.format()) {
-			if (picture != null) {
-				freeSwsResources();
+		synchronized(lock) {
+			AVFrame picture = pictures.get(outStreamId);
+			if (picture == null || picture.width() != frame.width() || picture.height() != frame.height() || picture.format() != frame.format()) {
+				if (picture != null) {
+					releasePicture(outStreamId);
+				}
+				picture = getFramePool().acquireVideoFrame(frame.width(), frame.height(), frame.format());
+				if (picture == null) {
+					logger.error("Cannot allocate the picture of output:{} for {}x{} format:{}", outStreamId, frame.width(), frame.height(), frame.format());
+					return null;
+				}
+				pictures.put(outStreamId, picture);
 			}
-			
-			picture = av_frame_alloc();
-			int size = av_image_get_buffer_size(frame.format(), frame.width(), frame.height(), 32);
-			pictureBufptr = new BytePointer(size);
-	
-			// Assign appropriate parts of buffer to image planes in picture_rgb
-			// Note that picture_rgb is an AVFrame, but AVFrame is a superset of AVPicture
-			av_image_fill_arrays(picture.data(), picture.linesize(), pictureBufptr, frame.format(), frame.width(), frame.height(), 32);
-			picture.format(frame.format());
-			picture.width(frame.width());
-			picture.height(frame.height());
+			return picture;
 		}
 	}
 	
-	
-	
-	public synchronized AVFrame resetIfRequired(AVFrame frame) {
-		
-		if (frame.linesize(0) < 0) 
-		{
-			prepareFrame(frame);
-			swsCtx = sws_getCachedContext(swsCtx, frame.width(), frame.height(), frame.format(),
-					frame.width(), frame.height(), frame.format(),
-					SWS_BILINEAR|SWS_ACCURATE_RND, null, null, (DoublePointer)null);
-	
-			sws_scale(swsCtx, frame.data(), frame.linesize(),
-					0, frame.height(), picture.data(), picture.linesize());
-	
+	/**
+	 * Filters like vflip give frames with negative linesize by moving the data pointers instead of copying the pixels.
+	 * If the consumers of the outputs support negative linesize, the frame is returned as is. 
+	 * Otherwise it's copied line by line to the cached picture of the output which is valid until the next frame of the output
+	 * 
+	 * @return the frame itself or the picture of the output that has positive linesize
+	 */
+	public AVFrame resetIfRequired(String outStreamId, AVFrame frame) {
+		if (frame.linesize(0) >= 0 || passNegativeLinesize) {
+			return frame;
+		}
+		synchronized(lock) {
+			AVFrame picture = prepareFrame(outStreamId, frame);
+			if (picture == null) {
+				return frame;
+			}
+			int ret = av_frame_copy(picture, frame);
+			if (ret < 0) {
+				logger.error("Cannot copy the frame with negative linesize for output:{} error:{}", outStreamId, Utils.getErrorDefinition(ret));
+				return frame;
+			}
 			picture.pts(frame.pts());
-			
 			return picture;
 		}
-		return frame;
-		
 	}
 	
 	/**
@@ -167,16 +223,43 @@ public class FilterGraph {
 	 * @return filtered AVFrame if sync is true, return null if synch is false
 	 */
 	public AVFrame doFilter(String streamId, AVFrame frame, boolean sync) {
+		return doFilter(streamId, frame, sync, false);
+	}
+	
+	/**
+	 * 
+	 * @param streamId
+	 * @param frame
+	 * @param sync
+	 * @param keepReference true to keep the frame data and pts as is so that it can be fed to another graph
+	 * @return filtered AVFrame if sync is true, return null if synch is false
+	 */
+	public AVFrame doFilter(String streamId, AVFrame frame, boolean sync, boolean keepReference) {
+		synchronized(lock) {
+			if (!pushFrame(streamId, frame, keepReference)) {
+				return null;
+			}
+			return pullFrames(streamId, sync);
+		}
+	}
+	
+	/**
+	 * Pushes the frame into the source filter of the stream without draining the outputs.
+	 * It's used with {@link #drainOutputs()} to feed several frames before draining
+	 * 
+	 * @param streamId
+	 * @param frame
+	 * @param keepReference true to keep the frame data and pts as is so that it can be fed to another graph
+	 * @return true if frame is pushed
+	 */
+	public boolean pushFrame(String streamId, AVFrame frame, boolean keepReference) {
 		synchronized(lock) {
 			
 			if (!isInitiated()) 
 			{
 				logger.warn("Filter graph is not initated yet for stream:{}", streamId);
-				return null;
+				return false;
 			}
-						
-			int ret;
-			
 			
 			Filter sourceFilter = sourceFiltersMap.get(streamId);
 			// TODO this check is for such a case:
@@ -184,73 +267,96 @@ public class FilterGraph {
 			// but frame for streamX comes the previous filtergraph
 			if(sourceFilter == null) {
 				logger.warn("Source filter is null so no filter will applied to stream:{}", streamId);
-				return null;
+				return false;
 			}
 			
 			if(sourceFilter.isFirstFrame && frame != null) {
 				sourceFilter.offset = currentPts - frame.pts();
 				sourceFilter.isFirstFrame = false;
 			}
+			long orgPts = 0;
 			if (frame != null) {
+				orgPts = frame.pts();
 				long allignedPts = frame.pts() + sourceFilter.offset;
 				frame.pts(allignedPts);
 				
 				currentPts = Math.max(allignedPts, currentPts);
 			}
 			
+			int flags = AV_BUFFERSRC_FLAG_PUSH;
+			if (keepReference) {
+				flags |= AV_BUFFERSRC_FLAG_KEEP_REF;
+			}
+			
 			/* push the decoded frame into the filtergraph */
-			if ((ret = av_buffersrc_add_frame_flags(sourceFiltersMap.get(streamId).filterContext, frame, AV_BUFFERSRC_FLAG_PUSH)) < 0) {
+			int ret = av_buffersrc_add_frame_flags(sourceFilter.filterContext, frame, flags);
+			if (keepReference && frame != null) {
+				frame.pts(orgPts);
+			}
+			if (ret < 0) {
 				logger.error("Error while feeding the filtergraph {}", ret);
-				return null;
+				return false;
 			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Gets the filtered frames of all outputs and sends them to the listener
+	 */
+	public void drainOutputs() {
+		synchronized(lock) {
+			if (isInitiated()) {
+				pullFrames(null, false);
+			}
+		}
+	}
+	
+	/*
+	 * In sync mode, frame of the output whose id is the same with the input is returned 
+	 * and the frames of the other outputs are sent to the listener in the same call
+	 */
+	private AVFrame pullFrames(String streamId, boolean sync) {
+		int ret;
+		boolean syncOutputReceived = false;
+		for (Map.Entry<String, Filter> sink : sinkFiltersMap.entrySet()) 
+		{
+			String outStreamId = sink.getKey();
+			boolean syncOutput = sync && outStreamId.equals(streamId);
+			// get filtered frame for each output
+			while(true) {
+				ret = av_buffersink_get_frame(sink.getValue().filterContext, filterOutputFrame);
 
-			for (String outStreamId : sinkFiltersMap.keySet()) 
-			{
-				// get filtered frame for each output
-				while(true) {
-					ret = av_buffersink_get_frame(sinkFiltersMap.get(outStreamId).filterContext, filterOutputFrame);
-
-					
-					if (ret < 0) 
-					{
-						if (ret != AVERROR_EAGAIN() && ret != AVERROR_EOF()) {
-							logger.error("Error in filter for av_buffersink_get_frame return:{} ", Utils.getErrorDefinition(ret));
-						}
-						break;
-						
+				
+				if (ret < 0) 
+				{
+					if (ret != AVERROR_EAGAIN() && ret != AVERROR_EOF()) {
+						logger.error("Error in filter for av_buffersink_get_frame return:{} ", Utils.getErrorDefinition(ret));
 					}
-					else {
-						if (sync) 
-						{
-							//TODO: There may be some memory leak in this usage
-							//TODO: What if there are more than one output streams
-							if(streamId.equals(outStreamId)) {
-								if (filterOutputFrame.linesize(0) < 0) 
-								{
-									return resetIfRequired(filterOutputFrame);
-								}
-								else {
-									return filterOutputFrame;
-								}
-								
-							}
-						}
-						else {
-							if (filterOutputFrame.linesize(0) < 0) {
-								AVFrame tmpFrame = resetIfRequired(filterOutputFrame);
-								listener.onFilteredFrame(outStreamId, tmpFrame);
-							}
-							else {
-								listener.onFilteredFrame(outStreamId, filterOutputFrame);
-							}
-							logger.debug("Filtered frame is sent to listener for streamId: {} and for filter config:{}", outStreamId, filterDescription);
-						}
+					break;
+					
+				}
+				else if (syncOutput) 
+				{
+					//keep it to return after the other outputs are delivered. Remaining frames are received in the next call
+					av_frame_unref(syncOutputFrame);
+					av_frame_move_ref(syncOutputFrame, filterOutputFrame);
+					syncOutputReceived = true;
+					break;
+				}
+				else {
+					if (listener != null) {
+						listener.onFilteredFrame(outStreamId, resetIfRequired(outStreamId, filterOutputFrame));
+						logger.debug("Filtered frame is sent to listener for streamId: {} and for filter config:{}", outStreamId, filterDescription);
 					}
-					av_frame_unref(filterOutputFrame);
 				}
+				av_frame_unref(filterOutputFrame);
 			}
 		}
 		
+		if (syncOutputReceived) {
+			return resetIfRequired(streamId, syncOutputFrame);
+		}
 		return null;
 	}
 
@@ -262,23 +368,21 @@ public class FilterGraph {
 		return listener;
 	}
 	
-	public void freeSwsResources() {
-		if (swsCtx != null) {
-			sws_freeContext(swsCtx);
-			swsCtx.close();
-			swsCtx = null;
-		}
-
-		if (pictureBufptr != null) {
-			//we don't free with av_free because we keep it on java side(not using malloc)
-			pictureBufptr.close();
-			pictureBufptr = null;
+	public void releasePicture(String outStreamId) {
+		synchronized(lock) {
+			AVFrame picture = pictures.remove(outStreamId);
+			if (picture != null) {
+				//buffer of the picture returns to the pool as well
+				getFramePool().release(picture);
+			}
 		}
-		if (picture != null) {
-			av_frame_free(picture);
-			picture.close();
-			picture = null;
+	}
+	
+	private void releasePictures() {
+		for (AVFrame picture : pictures.values()) {
+			getFramePool().release(picture);
 		}
+		pictures.clear();
 	}
 
 	public void close() {
@@ -290,12 +394,20 @@ public class FilterGraph {
 
 			av_frame_free(filterOutputFrame);
 			filterOutputFrame = null;
+			
+			if (syncOutputFrame != null) {
+				av_frame_free(syncOutputFrame);
+				syncOutputFrame = null;
+			}
 
 			sourceFiltersMap.clear();
 			sinkFiltersMap.clear();
 			
-			freeSwsResources();
+			releasePictures();
 			
+			if (ownFramePool) {
+				framePool.close();
+			}
 		}
 	}
 
@@ -315,8 +427,59 @@ public class FilterGraph {
 		this.initiated = initiated;
 	}
 
-	public AVFrame getPicture() {
-		return picture;
+	public AVFrame getPicture(String outStreamId) {
+		synchronized(lock) {
+			return pictures.get(outStreamId);
+		}
+	}
+	
+	public boolean isPassNegativeLinesize() {
+		return passNegativeLinesize;
+	}
+
+	/**
+	 * @param passNegativeLinesize true to give the frames with negative linesize to the listener and the sync caller without copying
+	 */
+	public void setPassNegativeLinesize(boolean passNegativeLinesize) {
+		this.passNegativeLinesize = passNegativeLinesize;
+	}
+
+	public boolean hasSource(String streamId) {
+		return sourceFiltersMap.containsKey(streamId);
+	}
+	
+	/**
+	 * @return true if the graph is created with the same description and the equivalent source and sink filters
+	 */
+	public boolean isEquivalent(String filterDescription, Map<String, Filter> sourceFiltersMap, Map<String, Filter> sinkFiltersMap) {
+		return this.filterDescription.equals(filterDescription) 
+				&& isEquivalent(this.sourceFiltersMap, sourceFiltersMap)
+				&& isEquivalent(this.sinkFiltersMap, sinkFiltersMap);
+	}
+	
+	private static boolean isEquivalent(Map<String, Filter> filters, Map<String, Filter> otherFilters) {
+		if (filters.size() != otherFilters.size()) {
+			return false;
+		}
+		for (Map.Entry<String, Filter> entry : filters.entrySet()) {
+			if (!entry.getValue().isEquivalent(otherFilters.get(entry.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public synchronized FramePool getFramePool() {
+		if (framePool == null) {
+			framePool = new FramePool();
+			ownFramePool = true;
+		}
+		return framePool;
+	}
+
+	public synchronized void setFramePool(FramePool framePool) {
+		this.framePool = framePool;
+		this.ownFramePool = false;
 	}
 
 	public String getInitializationError() {
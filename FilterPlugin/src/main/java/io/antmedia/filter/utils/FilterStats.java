@@ -0,0 +1,181 @@
+package io.antmedia.filter.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runtime statistics of a filter. It's returned by the /v2/filters/{id}/stats REST method
+ */
+public class FilterStats {
+
+	/**
+	 * Latency distribution of an operation. Histogram keys are the upper bounds of the buckets in ms,
+	 * e.g. "5" is the count of the operations that took between 2ms and 5ms. The last bucket is "inf"
+	 */
+	public static class LatencyStats {
+		private long count;
+		private double averageMs;
+		private double maxMs;
+		private Map<String, Long> histogram = new LinkedHashMap<>();
+
+		public long getCount() {
+			return count;
+		}
+
+		public void setCount(long count) {
+			this.count = count;
+		}
+
+		public double getAverageMs() {
+			return averageMs;
+		}
+
+		public void setAverageMs(double averageMs) {
+			this.averageMs = averageMs;
+		}
+
+		public double getMaxMs() {
+			return maxMs;
+		}
+
+		public void setMaxMs(double maxMs) {
+			this.maxMs = maxMs;
+		}
+
+		public Map<String, Long> getHistogram() {
+			return histogram;
+		}
+
+		public void setHistogram(Map<String, Long> histogram) {
+			this.histogram = histogram;
+		}
+	}
+
+	private String filterId;
+	private String type;
+	private Map<String, Double> inputVideoFps = new LinkedHashMap<>();
+	private Map<String, Double> inputAudioFps = new LinkedHashMap<>();
+	private Map<String, Double> outputVideoFps = new LinkedHashMap<>();
+	private Map<String, Double> outputAudioFps = new LinkedHashMap<>();
+	private Map<String, Integer> queueDepths = new LinkedHashMap<>();
+	private long droppedFrameCount;
+	private long graphRebuildCount;
+	private long lateFrameCount;
+	private long decimatedFrameCount;
+	private LatencyStats filterLatency;
+	private LatencyStats decodeLatency;
+
+	public String getFilterId() {
+		return filterId;
+	}
+
+	public void setFilterId(String filterId) {
+		this.filterId = filterId;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public Map<String, Double> getInputVideoFps() {
+		return inputVideoFps;
+	}
+
+	public void setInputVideoFps(Map<String, Double> inputVideoFps) {
+		this.inputVideoFps = inputVideoFps;
+	}
+
+	public Map<String, Double> getInputAudioFps() {
+		return inputAudioFps;
+	}
+
+	public void setInputAudioFps(Map<String, Double> inputAudioFps) {
+		this.inputAudioFps = inputAudioFps;
+	}
+
+	public Map<String, Double> getOutputVideoFps() {
+		return outputVideoFps;
+	}
+
+	public void setOutputVideoFps(Map<String, Double> outputVideoFps) {
+		this.outputVideoFps = outputVideoFps;
+	}
+
+	public Map<String, Double> getOutputAudioFps() {
+		return outputAudioFps;
+	}
+
+	public void setOutputAudioFps(Map<String, Double> outputAudioFps) {
+		this.outputAudioFps = outputAudioFps;
+	}
+
+	/**
+	 * @return number of video and audio frames waiting in the frame queue of each input.
+	 * It's empty for synchronous filters
+	 */
+	public Map<String, Integer> getQueueDepths() {
+		return queueDepths;
+	}
+
+	public void setQueueDepths(Map<String, Integer> queueDepths) {
+		this.queueDepths = queueDepths;
+	}
+
+	public long getDroppedFrameCount() {
+		return droppedFrameCount;
+	}
+
+	public void setDroppedFrameCount(long droppedFrameCount) {
+		this.droppedFrameCount = droppedFrameCount;
+	}
+
+	public long getGraphRebuildCount() {
+		return graphRebuildCount;
+	}
+
+	public void setGraphRebuildCount(long graphRebuildCount) {
+		this.graphRebuildCount = graphRebuildCount;
+	}
+
+	/**
+	 * @return number of the frames dropped in the frame aligner because they arrived after their time
+	 */
+	public long getLateFrameCount() {
+		return lateFrameCount;
+	}
+
+	public void setLateFrameCount(long lateFrameCount) {
+		this.lateFrameCount = lateFrameCount;
+	}
+
+	/**
+	 * @return number of the frames dropped before the filter because they're above the output frame rate
+	 */
+	public long getDecimatedFrameCount() {
+		return decimatedFrameCount;
+	}
+
+	public void setDecimatedFrameCount(long decimatedFrameCount) {
+		this.decimatedFrameCount = decimatedFrameCount;
+	}
+
+	public LatencyStats getFilterLatency() {
+		return filterLatency;
+	}
+
+	public void setFilterLatency(LatencyStats filterLatency) {
+		this.filterLatency = filterLatency;
+	}
+
+	public LatencyStats getDecodeLatency() {
+		return decodeLatency;
+	}
+
+	public void setDecodeLatency(LatencyStats decodeLatency) {
+		this.decodeLatency = decodeLatency;
+	}
+}
@@ -0,0 +1,193 @@
+package io.antmedia.filter.utils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validates the filter descriptions once and caches the results.
+ *
+ * A description is parsed against dummy source filters for the input labels it uses and dummy sink filters for the outputs,
+ * so a bad filter is rejected before the filter registers its input listeners and creates its outputs.
+ * Templates are cached by the description, media type and the number of inputs and outputs.
+ * MCU rooms are created with the same few texts, so they're validated only once.
+ *
+ * FFmpeg graphs cannot be copied, so each filter still builds its own graph with the real input formats.
+ */
+public class FilterTemplateRegistry {
+
+	private static final Logger logger = LoggerFactory.getLogger(FilterTemplateRegistry.class);
+
+	public static final int MAX_TEMPLATE_COUNT = 512;
+
+	private static final Pattern INPUT_LABEL = Pattern.compile("\\[in(\\d{1,9})\\]");
+	private static final Pattern OUTPUT_LABEL = Pattern.compile("\\[out(\\d{1,9})\\]");
+
+	private static final String DUMMY_VIDEO_SOURCE_ARGS = "video_size=640x360:pix_fmt=0:time_base=1/1000:pixel_aspect=1/1";
+	private static final String DUMMY_AUDIO_SOURCE_ARGS = "sample_fmt=fltp:time_base=1/48000:sample_rate=48000:channel_layout=stereo";
+
+	record TemplateKey(String filterDescription, boolean video, int inputCount, int outputCount) {}
+
+	/**
+	 * Validated filter description
+	 */
+	public static class FilterTemplate {
+		private final String filterDescription;
+		private final boolean video;
+		private final Set<Integer> inputIndexes;
+		private final Set<Integer> outputIndexes;
+		private final String error;
+
+		FilterTemplate(String filterDescription, boolean video, Set<Integer> inputIndexes, Set<Integer> outputIndexes, String error) {
+			this.filterDescription = filterDescription;
+			this.video = video;
+			this.inputIndexes = Collections.unmodifiableSet(inputIndexes);
+			this.outputIndexes = Collections.unmodifiableSet(outputIndexes);
+			this.error = error;
+		}
+
+		public String getFilterDescription() {
+			return filterDescription;
+		}
+
+		public boolean isVideo() {
+			return video;
+		}
+
+		/**
+		 * @return indexes of the [inN] labels in the description
+		 */
+		public Set<Integer> getInputIndexes() {
+			return inputIndexes;
+		}
+
+		/**
+		 * @return indexes of the [outN] labels in the description
+		 */
+		public Set<Integer> getOutputIndexes() {
+			return outputIndexes;
+		}
+
+		public boolean isValid() {
+			return error == null;
+		}
+
+		/**
+		 * @return the reason if the description is not valid, null otherwise
+		 */
+		public String getError() {
+			return error;
+		}
+	}
+
+	private final Map<TemplateKey, FilterTemplate> templates = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<TemplateKey, FilterTemplate> eldest) {
+			return size() > MAX_TEMPLATE_COUNT;
+		}
+	};
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * @param video true for a video filter, false for an audio filter
+	 * @param inputCount number of the input streams of the filter
+	 * @param outputCount number of the output streams of the filter
+	 * @return the cached template or the template that is validated now
+	 */
+	public FilterTemplate getTemplate(String filterDescription, boolean video, int inputCount, int outputCount) {
+		TemplateKey key = new TemplateKey(filterDescription, video, inputCount, outputCount);
+		FilterTemplate template;
+		synchronized (templates) {
+			template = templates.get(key);
+		}
+		if (template != null) {
+			hitCount.incrementAndGet();
+			return template;
+		}
+
+		//validated outside of the lock so that the other templates are not blocked
+		missCount.incrementAndGet();
+		template = validate(filterDescription, video, inputCount, outputCount);
+		synchronized (templates) {
+			templates.put(key, template);
+		}
+		return template;
+	}
+
+	private FilterTemplate validate(String filterDescription, boolean video, int inputCount, int outputCount) {
+		if (filterDescription == null || filterDescription.isBlank()) {
+			return new FilterTemplate(filterDescription, video, new TreeSet<>(), new TreeSet<>(), "Filter description is empty");
+		}
+
+		Set<Integer> inputIndexes = getLabelIndexes(INPUT_LABEL, filterDescription);
+		Set<Integer> outputIndexes = getLabelIndexes(OUTPUT_LABEL, filterDescription);
+
+		//parser leaves the labels without a filter open, so they're checked here.
+		//Sinks are created for all outputs as the filter does, so all of them should be in the description
+		String error = null;
+		Integer missingInput = inputIndexes.stream().filter(index -> index >= inputCount).findFirst().orElse(null);
+		Integer missingOutput = null;
+		for (int index = 0; index < outputCount && missingOutput == null; index++) {
+			if (!outputIndexes.contains(index)) {
+				missingOutput = index;
+			}
+		}
+		if (missingInput != null) {
+			error = "There is no input stream for [in" + missingInput + "]";
+		}
+		else if (missingOutput != null) {
+			error = "There is no [out" + missingOutput + "] label for output stream " + missingOutput;
+		}
+		else {
+			Map<String, Filter> sourceFiltersMap = new LinkedHashMap<>();
+			for (int index : inputIndexes) {
+				sourceFiltersMap.put("in" + index, new Filter(video ? "buffer" : "abuffer", video ? DUMMY_VIDEO_SOURCE_ARGS : DUMMY_AUDIO_SOURCE_ARGS, "in" + index));
+			}
+			Map<String, Filter> sinkFiltersMap = new LinkedHashMap<>();
+			for (int index = 0; index < outputCount; index++) {
+				sinkFiltersMap.put("out" + index, new Filter(video ? "buffersink" : "abuffersink", null, "out" + index));
+			}
+			error = FilterGraph.validate(filterDescription, sourceFiltersMap, sinkFiltersMap);
+		}
+
+		if (error != null) {
+			logger.warn("{} filter is not valid: {} Reason: {}", video ? "Video" : "Audio", filterDescription, error);
+		}
+		return new FilterTemplate(filterDescription, video, inputIndexes, outputIndexes, error);
+	}
+
+	private static Set<Integer> getLabelIndexes(Pattern pattern, String filterDescription) {
+		Set<Integer> indexes = new TreeSet<>();
+		Matcher matcher = pattern.matcher(filterDescription);
+		while (matcher.find()) {
+			indexes.add(Integer.parseInt(matcher.group(1)));
+		}
+		return indexes;
+	}
+
+	public int getTemplateCount() {
+		synchronized (templates) {
+			return templates.size();
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+}
@@ -0,0 +1,307 @@
+package io.antmedia.filter.utils;
+
+import static org.bytedeco.ffmpeg.global.avutil.av_rescale_q;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.antmedia.filter.Utils;
+
+/**
+ * Jitter buffer in front of the source filters of the filter graphs.
+ *
+ * Timestamps of each input are mapped to a common timeline whose origin is the arrival time of the first frame.
+ * Offset of an input is set with its first frame, so the frames of an input keep their own pacing regardless
+ * of the arrival jitter. Video and audio of a stream share the same offset to keep them in sync.
+ *
+ * Frames are released in timestamp order across the inputs when the timeline reaches their timestamp plus the latency.
+ * Frames arriving after that point are late and they're dropped, so the graph is fed with a fixed latency
+ * instead of waiting for the slowest input. If an input keeps being late or its timestamps jump forward,
+ * its offset is calculated again.
+ *
+ * Timestamps of the released frames are the aligned timestamps in their own time base.
+ * It's thread safe. Video and audio frames can be released together or separately by the frame queue workers of the filter.
+ */
+public class FrameAligner {
+
+	private static final Logger logger = LoggerFactory.getLogger(FrameAligner.class);
+
+	/**
+	 * Offset of an input is calculated again if this number of consecutive frames are late
+	 */
+	public static final int RESYNC_LATE_FRAME_COUNT = 10;
+
+	/**
+	 * Offset of an input is calculated again if its frame is ahead of the timeline more than this.
+	 * It happens if the timestamps of the input jump forward
+	 */
+	public static final long MAX_EARLY_MS = 2000;
+
+	public interface IAlignedFrameListener {
+		public void onAlignedFrame(String streamId, AVFrame frame, boolean video);
+	}
+
+	/*
+	 * Offset of a stream in ms is shared by its video and audio
+	 */
+	static class InputState {
+		long offsetMs;
+		long lastVideoPtsMs = Long.MIN_VALUE;
+		long lastAudioPtsMs = Long.MIN_VALUE;
+		int lateVideoFrameCount;
+		int lateAudioFrameCount;
+	}
+
+	record AlignedFrame(String streamId, AVFrame frame, boolean video, long ptsMs, long sequence) {}
+
+	private final FramePool framePool;
+	private long latencyMs;
+
+	private static final Comparator<AlignedFrame> FRAME_ORDER = (f1, f2) ->
+		f1.ptsMs != f2.ptsMs ? Long.compare(f1.ptsMs, f2.ptsMs) : Long.compare(f1.sequence, f2.sequence);
+
+	private final Map<String, InputState> inputs = new HashMap<>();
+	/*
+	 * Video and audio frames are kept separately so that they can be released to different threads
+	 */
+	private final PriorityQueue<AlignedFrame> videoFrames = new PriorityQueue<>(FRAME_ORDER);
+	private final PriorityQueue<AlignedFrame> audioFrames = new PriorityQueue<>(FRAME_ORDER);
+
+	/*
+	 * Wall clock time in ms that is the origin of the common timeline
+	 */
+	private long timelineOrigin = -1;
+	private long sequence = 0;
+	private long lateFrameCount = 0;
+	private long resyncCount = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param latencyMs time that a frame waits in the aligner for the frames of the other inputs
+	 * @param framePool references of the frames are taken from this pool
+	 */
+	public FrameAligner(long latencyMs, FramePool framePool) {
+		this.latencyMs = latencyMs;
+		this.framePool = framePool;
+	}
+
+	/**
+	 * Adds the frame to the aligner. A reference of the frame is kept, so caller keeps owning the frame
+	 *
+	 * @param timeBase time base of the frame pts
+	 * @param now wall clock time in ms
+	 * @return false if the frame is late and dropped
+	 */
+	public synchronized boolean offer(String streamId, AVFrame frame, boolean video, AVRational timeBase, long now) {
+		if (closed) {
+			return false;
+		}
+		if (timelineOrigin < 0) {
+			timelineOrigin = now;
+		}
+		long timelineMs = now - timelineOrigin;
+		long ptsMs = av_rescale_q(frame.pts(), timeBase, Utils.TIME_BASE_FOR_MS);
+
+		InputState input = inputs.get(streamId);
+		if (input == null) {
+			input = new InputState();
+			input.offsetMs = timelineMs - ptsMs;
+			inputs.put(streamId, input);
+		}
+
+		long alignedPtsMs = ptsMs + input.offsetMs;
+		long lastPtsMs = video ? input.lastVideoPtsMs : input.lastAudioPtsMs;
+
+		if (alignedPtsMs > timelineMs + MAX_EARLY_MS) {
+			resync(streamId, input, timelineMs, ptsMs, lastPtsMs, "timestamp jumped forward");
+			alignedPtsMs = ptsMs + input.offsetMs;
+		}
+		else if (alignedPtsMs + latencyMs < timelineMs || alignedPtsMs <= lastPtsMs) {
+			int lateCount = video ? ++input.lateVideoFrameCount : ++input.lateAudioFrameCount;
+			if (lateCount < RESYNC_LATE_FRAME_COUNT) {
+				lateFrameCount++;
+				logger.debug("Late {} frame of stream:{} is dropped. Aligned pts:{} timeline:{}", video ? "video" : "audio", streamId, alignedPtsMs, timelineMs);
+				return false;
+			}
+			resync(streamId, input, timelineMs, ptsMs, lastPtsMs, "frames are late");
+			alignedPtsMs = ptsMs + input.offsetMs;
+		}
+
+		if (video) {
+			input.lastVideoPtsMs = alignedPtsMs;
+			input.lateVideoFrameCount = 0;
+		}
+		else {
+			input.lastAudioPtsMs = alignedPtsMs;
+			input.lateAudioFrameCount = 0;
+		}
+
+		AVFrame alignedFrame = framePool.acquire(frame);
+		alignedFrame.pts(frame.pts() + av_rescale_q(input.offsetMs, Utils.TIME_BASE_FOR_MS, timeBase));
+		(video ? videoFrames : audioFrames).add(new AlignedFrame(streamId, alignedFrame, video, alignedPtsMs, sequence++));
+		return true;
+	}
+
+	/*
+	 * Maps the frame to the current point of the timeline without going back from the last frame of the input
+	 */
+	private void resync(String streamId, InputState input, long timelineMs, long ptsMs, long lastPtsMs, String reason) {
+		long alignedPtsMs = lastPtsMs != Long.MIN_VALUE ? Math.max(timelineMs, lastPtsMs + 1) : timelineMs;
+		input.offsetMs = alignedPtsMs - ptsMs;
+		input.lateVideoFrameCount = 0;
+		input.lateAudioFrameCount = 0;
+		resyncCount++;
+		logger.info("Stream:{} is aligned again because {}", streamId, reason);
+	}
+
+	/**
+	 * Gives the video and audio frames whose time has come to the listener in timestamp order.
+	 * Listener is called outside of the lock of the aligner and frames are released to the pool after it returns
+	 *
+	 * @param now wall clock time in ms
+	 * @return number of the released frames
+	 */
+	public int release(long now, IAlignedFrameListener listener) {
+		List<AlignedFrame> dueFrames = new ArrayList<>();
+		synchronized (this) {
+			long timelineMs = now - timelineOrigin;
+			PriorityQueue<AlignedFrame> queue;
+			while ((queue = getNextQueue()) != null && queue.peek().ptsMs + latencyMs <= timelineMs) {
+				dueFrames.add(queue.poll());
+			}
+		}
+		return release(dueFrames, listener);
+	}
+
+	/**
+	 * Gives the video or audio frames whose time has come to the listener in timestamp order.
+	 * It's used when the video and audio graphs are fed in different threads
+	 *
+	 * @param now wall clock time in ms
+	 * @return number of the released frames
+	 */
+	public int release(long now, boolean video, IAlignedFrameListener listener) {
+		List<AlignedFrame> dueFrames = new ArrayList<>();
+		synchronized (this) {
+			long timelineMs = now - timelineOrigin;
+			PriorityQueue<AlignedFrame> queue = video ? videoFrames : audioFrames;
+			AlignedFrame alignedFrame;
+			while ((alignedFrame = queue.peek()) != null && alignedFrame.ptsMs + latencyMs <= timelineMs) {
+				dueFrames.add(queue.poll());
+			}
+		}
+		return release(dueFrames, listener);
+	}
+
+	private int release(List<AlignedFrame> dueFrames, IAlignedFrameListener listener) {
+		for (AlignedFrame alignedFrame : dueFrames) {
+			try {
+				listener.onAlignedFrame(alignedFrame.streamId, alignedFrame.frame, alignedFrame.video);
+			}
+			catch (Exception e) {
+				logger.error("Error in feeding aligned frame of stream:{} {}", alignedFrame.streamId, ExceptionUtils.getStackTrace(e));
+			}
+			finally {
+				framePool.release(alignedFrame.frame);
+			}
+		}
+		return dueFrames.size();
+	}
+
+	/*
+	 * @return the queue whose first frame is the next one in timestamp order, null if there is no frame
+	 */
+	private PriorityQueue<AlignedFrame> getNextQueue() {
+		AlignedFrame video = videoFrames.peek();
+		AlignedFrame audio = audioFrames.peek();
+		if (video == null || audio == null) {
+			return video != null ? videoFrames : (audio != null ? audioFrames : null);
+		}
+		return FRAME_ORDER.compare(video, audio) <= 0 ? videoFrames : audioFrames;
+	}
+
+	/**
+	 * @param now wall clock time in ms
+	 * @return time in ms until the next frame is released, -1 if there is no frame
+	 */
+	public synchronized long getTimeToNextRelease(long now) {
+		PriorityQueue<AlignedFrame> queue = getNextQueue();
+		return queue != null ? getTimeToRelease(queue.peek(), now) : -1;
+	}
+
+	/**
+	 * @param now wall clock time in ms
+	 * @return time in ms until the next video or audio frame is released, -1 if there is no frame
+	 */
+	public synchronized long getTimeToNextRelease(long now, boolean video) {
+		AlignedFrame alignedFrame = (video ? videoFrames : audioFrames).peek();
+		return alignedFrame != null ? getTimeToRelease(alignedFrame, now) : -1;
+	}
+
+	private long getTimeToRelease(AlignedFrame alignedFrame, long now) {
+		return Math.max(0, alignedFrame.ptsMs + latencyMs - (now - timelineOrigin));
+	}
+
+	/**
+	 * Removes the frames and the offset of the stream. It's called when the stream is removed from the filter
+	 */
+	public synchronized void removeInput(String streamId) {
+		inputs.remove(streamId);
+		removeFrames(videoFrames, streamId);
+		removeFrames(audioFrames, streamId);
+	}
+
+	private void removeFrames(PriorityQueue<AlignedFrame> queue, String streamId) {
+		Iterator<AlignedFrame> iterator = queue.iterator();
+		while (iterator.hasNext()) {
+			AlignedFrame alignedFrame = iterator.next();
+			if (alignedFrame.streamId.equals(streamId)) {
+				iterator.remove();
+				framePool.release(alignedFrame.frame);
+			}
+		}
+	}
+
+	public synchronized void close() {
+		closed = true;
+		AlignedFrame alignedFrame;
+		while ((alignedFrame = videoFrames.poll()) != null) {
+			framePool.release(alignedFrame.frame);
+		}
+		while ((alignedFrame = audioFrames.poll()) != null) {
+			framePool.release(alignedFrame.frame);
+		}
+		inputs.clear();
+	}
+
+	public synchronized void setLatencyMs(long latencyMs) {
+		this.latencyMs = latencyMs;
+	}
+
+	public synchronized long getLatencyMs() {
+		return latencyMs;
+	}
+
+	public synchronized int getQueuedFrameCount() {
+		return videoFrames.size() + audioFrames.size();
+	}
+
+	public synchronized long getLateFrameCount() {
+		return lateFrameCount;
+	}
+
+	public synchronized long getResyncCount() {
+		return resyncCount;
+	}
+}
@@ -0,0 +1,281 @@
+package io.antmedia.filter.utils;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_INPUT_BUFFER_PADDING_SIZE;
+import static org.bytedeco.ffmpeg.global.avutil.av_buffer_pool_get;
+import static org.bytedeco.ffmpeg.global.avutil.av_buffer_pool_init;
+import static org.bytedeco.ffmpeg.global.avutil.av_buffer_pool_uninit;
+import static org.bytedeco.ffmpeg.global.avutil.av_channel_layout_copy;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_clone;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_copy;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_copy_props;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_get_buffer;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_ref;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_unref;
+import static org.bytedeco.ffmpeg.global.avutil.av_image_fill_arrays;
+import static org.bytedeco.ffmpeg.global.avutil.av_image_get_buffer_size;
+import static org.bytedeco.ffmpeg.global.avutil.av_samples_fill_arrays;
+import static org.bytedeco.ffmpeg.global.avutil.av_samples_get_buffer_size;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.bytedeco.ffmpeg.avutil.AVBufferPool;
+import org.bytedeco.ffmpeg.avutil.AVBufferRef;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.avutil.Alloc_long;
+import org.bytedeco.javacpp.IntPointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.antmedia.filter.Utils;
+
+/**
+ * Reusable native frame pool for the frames that are copied before filtering.
+ *
+ * AVFrame structures are kept after they are released and given back in the next acquire.
+ * If the source frame is reference counted, the acquired frame just references its buffers.
+ * Otherwise, data is copied into a buffer taken from the AVBufferPool of the frame geometry
+ * which is (width, height, pix_fmt) for video and (sample_fmt, channels, nb_samples) for audio.
+ *
+ * It's thread safe. Frames can be acquired and released in different threads.
+ */
+public class FramePool {
+
+	private static final Logger logger = LoggerFactory.getLogger(FramePool.class);
+
+	public static final int DEFAULT_MAX_POOLED_FRAMES = 256;
+
+	private static final int IMAGE_ALIGN = 32;
+
+	record FrameKey(int width, int height, int format, int channels, int nbSamples) {}
+
+	private final ConcurrentLinkedDeque<AVFrame> pooledFrames = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger pooledFrameCount = new AtomicInteger();
+	private final Map<FrameKey, AVBufferPool> bufferPools = new ConcurrentHashMap<>();
+	private final int maxPooledFrames;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong copiedFrameCount = new AtomicLong();
+
+	private volatile boolean closed = false;
+
+	/*
+	 * Buffer pools are created and used under the read lock and they're uninitialized under the write lock,
+	 * so a pool is not created after close or used while it's being uninitialized
+	 */
+	private final ReadWriteLock bufferPoolLock = new ReentrantReadWriteLock();
+
+	public FramePool() {
+		this(DEFAULT_MAX_POOLED_FRAMES);
+	}
+
+	public FramePool(int maxPooledFrames) {
+		this.maxPooledFrames = maxPooledFrames;
+	}
+
+	/**
+	 * Replacement of av_frame_clone. Returned frame should be given back with {@link #release(AVFrame)}
+	 *
+	 * @param source
+	 * @return a new frame having same data and properties with the source frame
+	 */
+	public AVFrame acquire(AVFrame source) {
+		if (closed) {
+			return av_frame_clone(source);
+		}
+
+		AVFrame frame = pollFrame();
+		int ret;
+		if (source.buf(0) != null) {
+			ret = av_frame_ref(frame, source);
+		}
+		else {
+			ret = copyToPooledBuffer(frame, source);
+		}
+
+		if (ret < 0) {
+			logger.warn("Frame cannot be taken from pool. Error:{} Falling back to clone", Utils.getErrorDefinition(ret));
+			release(frame);
+			return av_frame_clone(source);
+		}
+		return frame;
+	}
+
+	/**
+	 * Returns a video frame whose planes are allocated from the buffer pool of the given geometry
+	 */
+	public AVFrame acquireVideoFrame(int width, int height, int format) {
+		AVFrame frame = pollFrame();
+		frame.width(width);
+		frame.height(height);
+		frame.format(format);
+
+		if (allocatePooledBuffer(frame) < 0) {
+			release(frame);
+			return null;
+		}
+		return frame;
+	}
+
+	/**
+	 * Gives the frame back to the pool. Its buffers are unreferenced so that they return to their buffer pools
+	 */
+	public void release(AVFrame frame) {
+		if (frame == null) {
+			return;
+		}
+		av_frame_unref(frame);
+
+		if (!closed && pooledFrameCount.incrementAndGet() <= maxPooledFrames) {
+			pooledFrames.offerFirst(frame);
+		}
+		else {
+			if (!closed) {
+				pooledFrameCount.decrementAndGet();
+			}
+			av_frame_free(frame);
+			frame.close();
+		}
+	}
+
+	private AVFrame pollFrame() {
+		AVFrame frame = pooledFrames.pollFirst();
+		if (frame != null) {
+			pooledFrameCount.decrementAndGet();
+			hitCount.incrementAndGet();
+			return frame;
+		}
+		missCount.incrementAndGet();
+		return av_frame_alloc();
+	}
+
+	private int copyToPooledBuffer(AVFrame frame, AVFrame source) {
+		frame.format(source.format());
+		frame.width(source.width());
+		frame.height(source.height());
+		frame.nb_samples(source.nb_samples());
+		if (source.nb_samples() > 0) {
+			int ret = av_channel_layout_copy(frame.ch_layout(), source.ch_layout());
+			if (ret < 0) {
+				return ret;
+			}
+		}
+
+		int ret = allocatePooledBuffer(frame);
+		if (ret < 0) {
+			return ret;
+		}
+
+		ret = av_frame_copy(frame, source);
+		if (ret < 0) {
+			return ret;
+		}
+		copiedFrameCount.incrementAndGet();
+		return av_frame_copy_props(frame, source);
+	}
+
+	private int allocatePooledBuffer(AVFrame frame) {
+		boolean audio = frame.nb_samples() > 0;
+		int channels = audio ? frame.ch_layout().nb_channels() : 0;
+		FrameKey key = new FrameKey(frame.width(), frame.height(), frame.format(), channels, frame.nb_samples());
+
+		int size;
+		if (audio) {
+			size = av_samples_get_buffer_size((IntPointer)null, channels, frame.nb_samples(), frame.format(), 0);
+		}
+		else {
+			size = av_image_get_buffer_size(frame.format(), frame.width(), frame.height(), IMAGE_ALIGN);
+		}
+		if (size < 0) {
+			return size;
+		}
+
+		AVBufferRef bufferRef;
+		bufferPoolLock.readLock().lock();
+		try {
+			if (closed) {
+				//frames acquired by the tasks that are still running after close get their own buffers
+				return av_frame_get_buffer(frame, 0);
+			}
+			AVBufferPool bufferPool = bufferPools.computeIfAbsent(key, k ->
+				av_buffer_pool_init(size + (long)AV_INPUT_BUFFER_PADDING_SIZE, (Alloc_long)null)
+			);
+			bufferRef = av_buffer_pool_get(bufferPool);
+		}
+		finally {
+			bufferPoolLock.readLock().unlock();
+		}
+		if (bufferRef == null) {
+			return -1;
+		}
+		frame.buf(0, bufferRef);
+
+		int ret;
+		if (audio) {
+			ret = av_samples_fill_arrays(frame.data(), frame.linesize(), bufferRef.data(), channels, frame.nb_samples(), frame.format(), 0);
+			frame.extended_data(frame.data());
+		}
+		else {
+			ret = av_image_fill_arrays(frame.data(), frame.linesize(), bufferRef.data(), frame.format(), frame.width(), frame.height(), IMAGE_ALIGN);
+		}
+		return ret;
+	}
+
+	/**
+	 * Frees the pooled frames. Buffer pools are freed when the buffers in use are released
+	 */
+	public void close() {
+		bufferPoolLock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			bufferPools.values().forEach(bufferPool -> av_buffer_pool_uninit(bufferPool));
+			bufferPools.clear();
+		}
+		finally {
+			bufferPoolLock.writeLock().unlock();
+		}
+
+		AVFrame frame;
+		while ((frame = pooledFrames.pollFirst()) != null) {
+			av_frame_free(frame);
+			frame.close();
+		}
+		pooledFrameCount.set(0);
+		logger.info("Frame pool is closed. Hit:{} miss:{} copied frames:{}", hitCount.get(), missCount.get(), copiedFrameCount.get());
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getCopiedFrameCount() {
+		return copiedFrameCount.get();
+	}
+
+	public int getPooledFrameCount() {
+		return pooledFrameCount.get();
+	}
+
+	public int getBufferPoolCount() {
+		return bufferPools.size();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+}
@@ -0,0 +1,73 @@
+package io.antmedia.filter.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Drops the video frames of the inputs that are above the target frame rate before they're copied and fed to the filter graph.
+ *
+ * It's done in front of the graph instead of with the fps filter in the graph, so the frames that will be dropped
+ * are not copied, queued or pushed to the source filters and the CPU usage follows the output frame rate instead of the input frame rate.
+ *
+ * A frame of an input is accepted if its timestamp reaches the due time of the next frame, with a quarter of the frame interval tolerance
+ * for the timestamp rounding. Due time moves one frame interval for each accepted frame, so the long term rate is the target rate
+ * even if the input rate is not a multiple of it. If the timestamps of an input jump backward or more than a frame interval forward,
+ * e.g. after a gap, the input is synced again with its current frame.
+ *
+ * It's thread safe.
+ */
+public class FrameRateDecimator {
+
+	private volatile int targetFps;
+
+	/*
+	 * Due time of the next frame of each input in ms
+	 */
+	private final Map<String, Double> nextFrameTimes = new ConcurrentHashMap<>();
+
+	/**
+	 * @param targetFps target frame rate of each input. 0 accepts all frames
+	 */
+	public FrameRateDecimator(int targetFps) {
+		this.targetFps = targetFps;
+	}
+
+	/**
+	 * @param ptsMs timestamp of the frame in ms
+	 * @return true if the frame should be fed to the filter, false if it should be dropped
+	 */
+	public boolean accept(String streamId, long ptsMs) {
+		int fps = targetFps;
+		if (fps <= 0) {
+			return true;
+		}
+
+		double interval = 1000.0 / fps;
+		Double next = nextFrameTimes.get(streamId);
+		if (next != null && ptsMs < next - interval / 4 && ptsMs >= next - 2 * interval) {
+			return false;
+		}
+
+		boolean resync = next == null || ptsMs > next + interval || ptsMs < next - 2 * interval;
+		nextFrameTimes.put(streamId, (resync ? ptsMs : next) + interval);
+		return true;
+	}
+
+	public void removeInput(String streamId) {
+		nextFrameTimes.remove(streamId);
+	}
+
+	public int getTargetFps() {
+		return targetFps;
+	}
+
+	/**
+	 * Inputs are synced again with their next frames if the rate is changed
+	 */
+	public void setTargetFps(int targetFps) {
+		if (this.targetFps != targetFps) {
+			this.targetFps = targetFps;
+			nextFrameTimes.clear();
+		}
+	}
+}
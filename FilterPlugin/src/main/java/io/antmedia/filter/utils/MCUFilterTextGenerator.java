@@ -1,20 +1,143 @@
 package io.antmedia.filter.utils;
 
-import org.apache.commons.lang3.exception.ExceptionUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.antmedia.plugin.MCUManager;
-
 public class MCUFilterTextGenerator {
-	
+
 	private static Logger logger = LoggerFactory.getLogger(MCUFilterTextGenerator.class);
-	
+
+	/**
+	 * All streams have the same tile size
+	 */
+	public static final String LAYOUT_GRID = "grid";
+
+	/**
+	 * Focused stream(active speaker) is big on the top, other streams are small tiles in a row at the bottom
+	 */
+	public static final String LAYOUT_SPEAKER_FOCUS = "speaker-focus";
+
+	/**
+	 * Focused stream(active speaker) is full frame, other streams are small tiles on the bottom right corner
+	 */
+	public static final String LAYOUT_PIP = "pip";
+
+	public static final int OUTPUT_WIDTH = 720;
+	public static final int OUTPUT_HEIGHT = 480;
+
+	/**
+	 * Maximum number of small tiles on the focused stream in picture in picture layout.
+	 * Other streams are not in the video but their audio is mixed
+	 */
+	public static final int MAX_PIP_TILES = 6;
+
+	private static final int PIP_COLUMNS = 3;
+
+	/**
+	 * Source of the tiles of the participants whose video is off. It replaces the input label of the tile,
+	 * so the input is not used in the filter and it's not decoded.
+	 * It starts at the start pts of the graph in the ms time base of the inputs, so the layout does not pull the frames 
+	 * from 0 to catch up with the inputs when the graph is rebuilt
+	 */
+	public static final String PLACEHOLDER_SOURCE = "color=c=0x303030:s=320x240:r=20,settb=1/1000,setpts=PTS+" + FilterGraph.START_PTS_VARIABLE + ",";
+
+	private static final int MAX_CACHED_TEMPLATES = 256;
+
+	private static final Pattern INPUT_LABEL_PATTERN = Pattern.compile("\\[in(\\d+)\\]");
+
+	/*
+	 * Generated filter texts by layout, stream count and output size.
+	 * Input labels in the templates are slots and they're bound to the inputs when the filter text is requested
+	 */
+	private static final Map<String, LayoutTemplate> templateCache = new ConcurrentHashMap<>();
+
+	/**
+	 * Filter text split at its input labels so that the inputs can be placed in the slots without generating the text again
+	 */
+	static class LayoutTemplate {
+		final String text;
+		final String[] segments;
+		final int[] slots;
+
+		LayoutTemplate(String text) {
+			this.text = text;
+			List<String> segmentList = new ArrayList<>();
+			List<Integer> slotList = new ArrayList<>();
+			Matcher matcher = INPUT_LABEL_PATTERN.matcher(text);
+			int start = 0;
+			while (matcher.find()) {
+				segmentList.add(text.substring(start, matcher.start()));
+				slotList.add(Integer.parseInt(matcher.group(1)));
+				start = matcher.end();
+			}
+			segmentList.add(text.substring(start));
+			segments = segmentList.toArray(new String[0]);
+			slots = slotList.stream().mapToInt(Integer::intValue).toArray();
+		}
+
+		/**
+		 * @param inputOfSlot input index to be placed in each slot
+		 */
+		String bind(int[] inputOfSlot) {
+			StringBuilder filter = new StringBuilder(text.length() + 16);
+			for (int i = 0; i < slots.length; i++) {
+				filter.append(segments[i]).append("[in").append(inputOfSlot[slots[i]]).append(']');
+			}
+			filter.append(segments[segments.length - 1]);
+			return filter.toString();
+		}
+	}
+
+	/**
+	 * Creates the audio filter that mixes only the given inputs, e.g. inputs of the participants who are not muted
+	 * 
+	 * @param audioOff audioOff[i] is true if the audio of the input i is not mixed. 
+	 * First input is used if all of them are off to keep the output audio going
+	 */
+	public static String createAudioFilter(boolean[] audioOff) {
+		List<Integer> inputs = getActiveInputs(audioOff);
+		if (inputs.size() == audioOff.length) {
+			return createAudioFilter(audioOff.length);
+		}
+		if (inputs.size() == 1) {
+			return "[in" + inputs.get(0) + "]acopy[out0]";
+		}
+		StringBuilder filter = new StringBuilder();
+		for (int input : inputs) {
+			filter.append("[in").append(input).append(']');
+		}
+		filter.append("amix=inputs=").append(inputs.size()).append("[out0]");
+		return filter.toString();
+	}
+
+	/*
+	 * @return inputs that are not off. It returns the first input if all of them are off
+	 */
+	private static List<Integer> getActiveInputs(boolean[] off) {
+		List<Integer> inputs = new ArrayList<>();
+		for (int i = 0; i < off.length; i++) {
+			if (!off[i]) {
+				inputs.add(i);
+			}
+		}
+		if (inputs.isEmpty()) {
+			inputs.add(0);
+		}
+		return inputs;
+	}
+
 	public static String createAudioFilter(int streamCount) {
 		if(streamCount == 1) {
 			return "[in0]acopy[out0]";
 		}
-		
+
 		String filter = "";
         for (int i = 0; i < streamCount; i++) {
             filter += "[in" + i + "]";
@@ -25,23 +148,112 @@ public class MCUFilterTextGenerator {
 	}
 
 	public static String createVideoFilter(int streamCount) {
-			
-		int width = 360;
-		int height = 240;
-		String color = "black";
-		int margin = 3;
-		
+		return createVideoFilter(LAYOUT_GRID, streamCount, 0, OUTPUT_WIDTH, OUTPUT_HEIGHT);
+	}
+
+	/**
+	 * Creates the video filter text of the layout. Filter texts are generated once for each layout,
+	 * stream count and output size and then they're served from the cache
+	 *
+	 * @param layout {@link #LAYOUT_GRID}, {@link #LAYOUT_SPEAKER_FOCUS} or {@link #LAYOUT_PIP}. Grid is used for unknown layouts
+	 * @param streamCount number of inputs
+	 * @param focusIndex index of the input that is focused, it's not used in grid layout
+	 * @param outputWidth
+	 * @param outputHeight
+	 * @return filter text that uses [in0]...[inN] as inputs and [out0] as output
+	 */
+	public static String createVideoFilter(String layout, int streamCount, int focusIndex, int outputWidth, int outputHeight) {
 		if(streamCount == 1) {
 			return "[in0]copy[out0]";
 		}
 
+		if (!isValidLayout(layout)) {
+			layout = LAYOUT_GRID;
+		}
+
+		String key = layout + ":" + streamCount + ":" + outputWidth + "x" + outputHeight;
+		LayoutTemplate template = templateCache.get(key);
+		if (template == null) {
+			if (templateCache.size() >= MAX_CACHED_TEMPLATES) {
+				templateCache.clear();
+			}
+			template = new LayoutTemplate(generateVideoFilter(layout, streamCount, outputWidth, outputHeight));
+			templateCache.put(key, template);
+			logger.info("generated filter:{} for layout:{}", template.text, key);
+		}
+
+		if (LAYOUT_GRID.equals(layout) || focusIndex <= 0 || focusIndex >= streamCount) {
+			return template.text;
+		}
+
+		//focused input is in the first slot and the others keep their order
+		int[] inputOfSlot = new int[streamCount];
+		inputOfSlot[0] = focusIndex;
+		for (int slot = 1, input = 0; slot < streamCount; input++) {
+			if (input != focusIndex) {
+				inputOfSlot[slot++] = input;
+			}
+		}
+		return template.bind(inputOfSlot);
+	}
+
+	/**
+	 * Creates the video filter text of the layout in which the tiles of the inputs whose video is off are placeholders
+	 * 
+	 * @param videoOff videoOff[i] is true if the video of the input i is off. 
+	 * First input is used if all of them are off because the output is driven by the input frames
+	 * @see #createVideoFilter(String, int, int, int, int)
+	 */
+	public static String createVideoFilter(String layout, int focusIndex, boolean[] videoOff, int outputWidth, int outputHeight) {
+		String filter = createVideoFilter(layout, videoOff.length, focusIndex, outputWidth, outputHeight);
+		List<Integer> activeInputs = getActiveInputs(videoOff);
+		for (int i = 0; i < videoOff.length; i++) {
+			if (!activeInputs.contains(i)) {
+				filter = filter.replace("[in" + i + "]", PLACEHOLDER_SOURCE);
+			}
+		}
+		return filter;
+	}
+
+	public static boolean isValidLayout(String layout) {
+		return LAYOUT_GRID.equals(layout) || LAYOUT_SPEAKER_FOCUS.equals(layout) || LAYOUT_PIP.equals(layout);
+	}
+
+	public static int getCachedTemplateCount() {
+		return templateCache.size();
+	}
+
+	private static String generateVideoFilter(String layout, int streamCount, int outputWidth, int outputHeight) {
+		if (LAYOUT_SPEAKER_FOCUS.equals(layout)) {
+			return createSpeakerFocusFilter(streamCount, outputWidth, outputHeight);
+		}
+		else if (LAYOUT_PIP.equals(layout)) {
+			return createPipFilter(streamCount, outputWidth, outputHeight);
+		}
+		return createGridFilter(streamCount, outputWidth, outputHeight);
+	}
+
+	private static int even(int value) {
+		return value & ~1;
+	}
+
+	private static String tile(int slot, int width, int height, int margin, String label) {
+		return "[in" + slot + "]scale=" + (width-2*margin) + ":" + (height-2*margin) + ":force_original_aspect_ratio=decrease"
+				+ ",pad=" + width + ":" + height + ":(ow-iw)/2:(oh-ih)/2:color=black[" + label + "];";
+	}
+
+	private static String createGridFilter(int streamCount, int outputWidth, int outputHeight) {
+		String color = "black";
+		int margin = 3;
+
 		String filter = "";
 		int columns = (int) Math.ceil(Math.sqrt((double)streamCount));
 		int rows = (int) Math.ceil((double)streamCount/columns);
 		int lastRowColumns = streamCount - (rows - 1) * columns;
-		
-		width = Math.min(360, 720/columns);
-		height = 240*width/360;
+
+		int width = Math.min(outputWidth/2, outputWidth/columns);
+		int height = outputHeight*width/outputWidth;
+		String outputPad = ",pad=" + outputWidth + ":" + outputHeight + ":(ow-iw)/2:(oh-ih)/2[out0]";
 
 		for (int i = 0; i < streamCount; i++) {
 			filter += "[in" + i + "]scale="+(width-2*margin)+":"+(height-2*margin)+":force_original_aspect_ratio=decrease";
@@ -56,7 +268,7 @@ public class MCUFilterTextGenerator {
 				filter += "[s" + total + "]";
 				total++;
 			}
-			String outLabel = rows == 1 ? ",pad=720:480:(ow-iw)/2:(oh-ih)/2[out0]" : "[l" + i + "];";
+			String outLabel = rows == 1 ? outputPad : "[l" + i + "];";
 			filter += "hstack=inputs="+j+outLabel;
 		}
 
@@ -68,11 +280,65 @@ public class MCUFilterTextGenerator {
 			for (int i = 0; i < rows; i++) {
 				filter += "[l" + i + "]";
 			}
-			filter += "vstack=inputs=" + rows + ",pad=720:480:(ow-iw)/2:(oh-ih)/2[out0]";
+			filter += "vstack=inputs=" + rows + outputPad;
 		}
-		
-		logger.info("generated filter:{}", filter);
 
 		return filter;
 	}
+
+	/*
+	 * Focused stream takes the top 3/4 of the output and the other streams are in a row at the bottom.
+	 * Small tiles are scaled down much more than the grid tiles
+	 */
+	private static String createSpeakerFocusFilter(int streamCount, int outputWidth, int outputHeight) {
+		int focusHeight = even(outputHeight * 3 / 4);
+		int stripHeight = outputHeight - focusHeight;
+		int tileCount = streamCount - 1;
+		int tileWidth = even(Math.min(outputWidth / tileCount, stripHeight * 3 / 2));
+		int margin = tileWidth >= 60 ? 2 : 1;
+
+		StringBuilder filter = new StringBuilder();
+		filter.append(tile(0, outputWidth, focusHeight, 0, "f"));
+		for (int i = 1; i < streamCount; i++) {
+			filter.append(tile(i, tileWidth, stripHeight, margin, "s" + i));
+		}
+		for (int i = 1; i < streamCount; i++) {
+			filter.append("[s").append(i).append(']');
+		}
+		if (tileCount > 1) {
+			filter.append("hstack=inputs=").append(tileCount).append(',');
+		}
+		else {
+			filter.append("null,");
+		}
+		filter.append("pad=").append(outputWidth).append(':').append(stripHeight).append(":(ow-iw)/2:0[strip];");
+		filter.append("[f][strip]vstack=inputs=2[out0]");
+		return filter.toString();
+	}
+
+	/*
+	 * Focused stream is full frame and the others are overlaid on the bottom right corner.
+	 * Streams after MAX_PIP_TILES are not used in the video
+	 */
+	private static String createPipFilter(int streamCount, int outputWidth, int outputHeight) {
+		int tileWidth = even(outputWidth / 4);
+		int tileHeight = even(outputHeight / 4);
+		int margin = 8;
+		int tileCount = Math.min(streamCount - 1, MAX_PIP_TILES);
+
+		StringBuilder filter = new StringBuilder();
+		filter.append(tile(0, outputWidth, outputHeight, 0, "b0"));
+		for (int i = 1; i <= tileCount; i++) {
+			filter.append(tile(i, tileWidth, tileHeight, 0, "p" + i));
+		}
+		for (int i = 1; i <= tileCount; i++) {
+			int column = (i - 1) % PIP_COLUMNS;
+			int row = (i - 1) / PIP_COLUMNS;
+			int x = outputWidth - (column + 1) * (tileWidth + margin);
+			int y = outputHeight - (row + 1) * (tileHeight + margin);
+			filter.append("[b").append(i - 1).append("][p").append(i).append("]overlay=").append(x).append(':').append(y);
+			filter.append(i == tileCount ? "[out0]" : "[b" + i + "];");
+		}
+		return filter.toString();
+	}
 }
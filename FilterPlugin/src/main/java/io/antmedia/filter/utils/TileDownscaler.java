@@ -0,0 +1,111 @@
+package io.antmedia.filter.utils;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_ALL;
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_DEFAULT;
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_NONREF;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reduces the cost of the inputs that are scaled down to small tiles, e.g. 1080p streams in a crowded MCU layout.
+ *
+ * Tile size of an input is taken from the scale filter right after its label, like "[in0]scale=354:234".
+ * For the inputs that are much bigger than their tiles
+ * <ul>
+ * <li>the decoder skips the deblocking, whose effect is not visible after scaling down</li>
+ * <li>a fast bilinear scale to twice the tile size is inserted before the scale of the tile,
+ * so the scale in the filter text works on a small frame</li>
+ * </ul>
+ *
+ * H.264 and VP8 decoders do not support lowres decoding, so the decoder still outputs full size frames.
+ */
+public class TileDownscaler {
+
+	/**
+	 * Deblocking of the non-reference frames is skipped if the input is at least this many times bigger than its tile
+	 */
+	public static final int SKIP_NONREF_LOOP_FILTER_RATIO = 2;
+
+	/**
+	 * Deblocking of all frames is skipped if the input is at least this many times bigger than its tile
+	 */
+	public static final int SKIP_ALL_LOOP_FILTER_RATIO = 4;
+
+	/**
+	 * Fast pre-scale is inserted if the input is at least this many times bigger than its tile
+	 */
+	public static final int PRE_SCALE_RATIO = 4;
+
+	private static final Pattern TILE_SCALE_PATTERN = Pattern.compile("\\[in(\\d+)\\]scale=(\\d+):(\\d+)");
+
+	private TileDownscaler() {
+	}
+
+	/**
+	 * @return tile sizes as {width, height} by the input index. Inputs that are not scaled first are not in the map
+	 */
+	public static Map<Integer, int[]> getTileSizes(String filterText) {
+		Map<Integer, int[]> tileSizes = new HashMap<>();
+		if (filterText != null) {
+			Matcher matcher = TILE_SCALE_PATTERN.matcher(filterText);
+			while (matcher.find()) {
+				tileSizes.put(Integer.parseInt(matcher.group(1)), new int[] {Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3))});
+			}
+		}
+		return tileSizes;
+	}
+
+	/**
+	 * @return how many times the source is bigger than the tile in its smaller ratio, 1 if it's not scaled down
+	 */
+	public static int getDownscaleRatio(int sourceWidth, int sourceHeight, int[] tileSize) {
+		if (tileSize == null || tileSize[0] <= 0 || tileSize[1] <= 0) {
+			return 1;
+		}
+		return Math.max(1, Math.min(sourceWidth / tileSize[0], sourceHeight / tileSize[1]));
+	}
+
+	/**
+	 * @return skip_loop_filter value of the decoder for the downscale ratio
+	 */
+	public static int getLoopFilterDiscard(int downscaleRatio) {
+		if (downscaleRatio >= SKIP_ALL_LOOP_FILTER_RATIO) {
+			return AVDISCARD_ALL;
+		}
+		else if (downscaleRatio >= SKIP_NONREF_LOOP_FILTER_RATIO) {
+			return AVDISCARD_NONREF;
+		}
+		return AVDISCARD_DEFAULT;
+	}
+
+	/**
+	 * Inserts a fast bilinear scale to twice the tile size before the tile scale of the inputs that are much bigger than their tiles.
+	 * Pre-scale keeps the aspect ratio of the input, so the tile scale fits it into the tile as before
+	 *
+	 * @param sourceSizes source sizes as {width, height} by the input index
+	 * @return filter text with the pre-scales
+	 */
+	public static String addPreScales(String filterText, Map<Integer, int[]> sourceSizes) {
+		if (filterText == null) {
+			return null;
+		}
+		Matcher matcher = TILE_SCALE_PATTERN.matcher(filterText);
+		StringBuilder text = new StringBuilder(filterText.length() + 128);
+		while (matcher.find()) {
+			int input = Integer.parseInt(matcher.group(1));
+			int[] tileSize = {Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3))};
+			int[] sourceSize = sourceSizes.get(input);
+			String replacement = matcher.group();
+			if (sourceSize != null && getDownscaleRatio(sourceSize[0], sourceSize[1], tileSize) >= PRE_SCALE_RATIO) {
+				replacement = "[in" + input + "]scale=" + (2 * tileSize[0]) + ":" + (2 * tileSize[1])
+						+ ":force_original_aspect_ratio=increase:force_divisible_by=2:flags=fast_bilinear,scale=" + tileSize[0] + ":" + tileSize[1];
+			}
+			matcher.appendReplacement(text, Matcher.quoteReplacement(replacement));
+		}
+		matcher.appendTail(text);
+		return text.toString();
+	}
+}
@@ -1,33 +1,229 @@
 package io.antmedia.plugin;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.LaxRedirectStrategy;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
 import org.springframework.stereotype.Component;
 
+import com.google.gson.Gson;
+
 import io.antmedia.AntMediaApplicationAdapter;
 import io.antmedia.AppSettings;
 import io.antmedia.EncoderSettings;
 import io.antmedia.datastore.db.types.Broadcast;
+import io.antmedia.filter.DecodedFrameHub;
+import io.antmedia.filter.JWTFilter;
+import io.antmedia.filter.TokenFilterManager;
+import io.antmedia.filter.utils.ConfigurationStore;
 import io.antmedia.filter.FilterAdaptor;
+import io.antmedia.filter.FilterMetrics;
 import io.antmedia.filter.utils.FilterConfiguration;
+import io.antmedia.filter.utils.FilterStats;
+import io.antmedia.filter.utils.FilterTemplateRegistry;
+import io.antmedia.filter.utils.FilterTemplateRegistry.FilterTemplate;
 import io.antmedia.muxer.IAntMediaStreamHandler;
+import io.antmedia.plugin.api.IStreamListener;
 import io.antmedia.rest.model.Result;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
 
 @Component(value="filters.manager")
-public class FiltersManager {
+public class FiltersManager implements ApplicationContextAware, IStreamListener {
 
 	public static final String BEAN_NAME = "filters.manager";
+
+	/**
+	 * Filters of a batch that are not created or updated in this time return an error.
+	 * The ones that have not started are cancelled and the ones that are still being created are reported with {@link #BATCH_PENDING_MESSAGE}
+	 */
+	public static final long BATCH_TIMEOUT_MS = 30000;
+
+	/**
+	 * Message prefix of the batch results whose filters are still being created after the timeout. They show up in the filter list when they're created
+	 */
+	public static final String BATCH_PENDING_MESSAGE = "pending";
+
+	private long batchTimeoutMs = BATCH_TIMEOUT_MS;
 	private Map<String, FilterAdaptor> filterList = new ConcurrentHashMap<>();
 	
+	/*
+	 * Decodes the input streams once even if they are used in several filters
+	 */
+	private DecodedFrameHub decodedFrameHub;
+	
 	private static Logger logger = LoggerFactory.getLogger(FiltersManager.class);
 
+	/*
+	 * Validated filter descriptions. Filters are checked here before they start listening to the inputs
+	 */
+	private FilterTemplateRegistry templateRegistry = new FilterTemplateRegistry();
+
+	/*
+	 * JMX names of the filter metrics. They're unregistered when the filters are deleted
+	 */
+	private Map<String, ObjectName> metricsObjectNames = new ConcurrentHashMap<>();
+
+	/*
+	 * Saves the persistent filters to a file of the application so that they're restored after a restart
+	 */
+	private volatile ConfigurationStore configurationStore;
+
+	/*
+	 * Saved filters that are waiting for their inputs to be restored
+	 */
+	private Map<String, FilterConfiguration> pendingRestores = new ConcurrentHashMap<>();
+	private AntMediaApplicationAdapter restoreAppAdaptor;
+
+
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+		AntMediaApplicationAdapter app = (AntMediaApplicationAdapter) applicationContext.getBean(AntMediaApplicationAdapter.BEAN_NAME);
+		//application starts without waiting for the filters
+		app.getVertx().executeBlocking(() -> {
+			restoreFilters(app);
+			return null;
+		}, false);
+	}
+
+	/**
+	 * Loads the filters saved by this node and creates them in parallel as soon as all of their inputs are streaming
+	 */
+	public void restoreFilters(AntMediaApplicationAdapter app) {
+		ConfigurationStore store = getConfigurationStore(app);
+		if (store == null) {
+			return;
+		}
+		List<FilterConfiguration> filterConfigurations = store.load(ConfigurationStore.FILTER_TYPE, FilterConfiguration.class);
+		logger.info("{} saved filters will be restored as soon as their inputs are streaming", filterConfigurations.size());
+		if (filterConfigurations.isEmpty()) {
+			return;
+		}
+		restoreAppAdaptor = app;
+		for (FilterConfiguration filterConfiguration : filterConfigurations) {
+			if (filterConfiguration.getFilterId() != null && !filterList.containsKey(filterConfiguration.getFilterId())) {
+				pendingRestores.put(filterConfiguration.getFilterId(), filterConfiguration);
+			}
+		}
+		app.addStreamListener(this);
+		restorePendingFilters(app, null);
+	}
+
+	/*
+	 * Creates the waiting filters whose inputs are all streaming in the worker threads
+	 */
+	private void restorePendingFilters(AntMediaApplicationAdapter app, String startedStreamId) {
+		for (FilterConfiguration filterConfiguration : pendingRestores.values()) {
+			if ((startedStreamId == null || filterConfiguration.getInputStreams().contains(startedStreamId))
+					&& isStreaming(filterConfiguration.getInputStreams(), app, startedStreamId)
+					&& pendingRestores.remove(filterConfiguration.getFilterId(), filterConfiguration)) 
+			{
+				app.getVertx().executeBlocking(() -> {
+					Result result = createFilter(filterConfiguration, app);
+					if (result.isSuccess()) {
+						logger.info("Filter:{} is restored", filterConfiguration.getFilterId());
+					}
+					else {
+						logger.warn("Filter:{} cannot be restored: {}. It will be tried again when its inputs start", filterConfiguration.getFilterId(), result.getMessage());
+						pendingRestores.putIfAbsent(filterConfiguration.getFilterId(), filterConfiguration);
+					}
+					return null;
+				}, false);
+			}
+		}
+	}
+
+	private boolean isStreaming(List<String> streamIds, AntMediaApplicationAdapter app, String startedStreamId) {
+		for (String streamId : streamIds) {
+			if (streamId.equals(startedStreamId)) {
+				continue;
+			}
+			Broadcast broadcast = app.getDataStore().get(streamId);
+			if (broadcast == null || !IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING.equals(broadcast.getStatus())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void streamStarted(Broadcast broadcast) {
+		AntMediaApplicationAdapter app = restoreAppAdaptor;
+		if (app != null && !pendingRestores.isEmpty()) {
+			restorePendingFilters(app, broadcast.getStreamId());
+		}
+	}
+
+	@Override
+	public void joinedTheRoom(String roomId, String streamId) {
+		//No need to implement for filters
+	}
+
+	@Override
+	public void leftTheRoom(String roomId, String streamId) {
+		//No need to implement for filters
+	}
+
+	/**
+	 * @return store of the saved configurations or null if the application does not have a scope
+	 */
+	public ConfigurationStore getConfigurationStore(AntMediaApplicationAdapter app) {
+		if (configurationStore == null) {
+			synchronized (this) {
+				File file = configurationStore == null ? getConfigurationFile(app) : null;
+				if (file != null) {
+					configurationStore = new ConfigurationStore(file);
+				}
+			}
+		}
+		return configurationStore;
+	}
+
+	/**
+	 * @return file in the WEB-INF directory of the application. Each node of a cluster has its own file
+	 */
+	public File getConfigurationFile(AntMediaApplicationAdapter app) {
+		if (app.getScope() == null) {
+			return null;
+		}
+		return new File(IAntMediaStreamHandler.WEBAPPS_PATH + app.getScope().getName() + "/WEB-INF", ConfigurationStore.FILE_NAME);
+	}
+
+	public Map<String, FilterConfiguration> getPendingRestores() {
+		return pendingRestores;
+	}
+
 
 	/**
 	 * Creates or updates the filter 
@@ -35,6 +231,16 @@ public class FiltersManager {
 	 * @param appAdaptor
 	 */
 	public Result createFilter(FilterConfiguration filterConfiguration, AntMediaApplicationAdapter appAdaptor) 
+	{
+		return createFilter(filterConfiguration, appAdaptor, streamId -> appAdaptor.getDataStore().get(streamId));
+	}
+
+	/**
+	 * Creates or updates the filter with the input broadcasts that are already fetched
+	 * 
+	 * @param broadcastResolver gives the broadcast of the input stream id
+	 */
+	public Result createFilter(FilterConfiguration filterConfiguration, AntMediaApplicationAdapter appAdaptor, Function<String, Broadcast> broadcastResolver) 
 	{
 		final boolean defaultDecodeStreamValue;
 		AppSettings appSettings = appAdaptor.getAppSettings();
@@ -48,10 +254,11 @@ public class FiltersManager {
 		}
 				
 		Map<String, Boolean> decodeStreamMap = new ConcurrentHashMap<>();
+		Map<String, Integer> inputCountByOrigin = new LinkedHashMap<>();
 		
 		for(String streamId : filterConfiguration.getInputStreams()) 
 		{
-   			Broadcast broadcast = appAdaptor.getDataStore().get(streamId);
+   			Broadcast broadcast = broadcastResolver.apply(streamId);
    			if(broadcast == null || !IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING.equals(broadcast.getStatus())
    					|| StringUtils.isBlank(broadcast.getOriginAdress())) 
    			{
@@ -61,6 +268,7 @@ public class FiltersManager {
    						streamId, status, originAddress);
    				return new Result(false, "Input stream ID: "+ streamId +" is not actively streaming");
    			}
+   			inputCountByOrigin.merge(broadcast.getOriginAdress(), 1, Integer::sum);
    			
    			//if origin stream is not in this instance, we are going to decode stream locally
    			if (!StringUtils.equals(appAdaptor.getServerSettings().getHostAddress(), broadcast.getOriginAdress())) 
@@ -89,19 +297,269 @@ public class FiltersManager {
 		}
 		
 		String filterId = filterConfiguration.getFilterId();
+		Result validationResult = validateFilters(filterConfiguration, filterId != null ? filterList.get(filterId) : null);
+		if (!validationResult.isSuccess()) {
+			return validationResult;
+		}
+
 		if (filterId == null || filterId.isBlank()) {
 			filterId = RandomStringUtils.randomAlphanumeric(12);
 			filterConfiguration.setFilterId(filterId);
 		}
 		
+		//filter that is already running here is updated here, otherwise there would be another copy of it on the placement node
+		if (FilterConfiguration.PLACEMENT_MOST_INPUTS.equals(filterConfiguration.getPlacement()) && appAdaptor.isClusterMode()
+				&& !hasFilter(filterId)) 
+		{
+			String hostAddress = appAdaptor.getServerSettings().getHostAddress();
+			String placementNode = getPlacementNode(inputCountByOrigin, hostAddress);
+			if (!StringUtils.equals(hostAddress, placementNode)) 
+			{
+				logger.info("Node {} hosts most of the input streams of filter:{}. Create request is forwarded to it", placementNode, filterId);
+				//placement node creates the filter itself and does not forward it again. Configuration of the caller is not changed
+				Gson gson = new Gson();
+				FilterConfiguration forwardedConfiguration = gson.fromJson(gson.toJson(filterConfiguration), FilterConfiguration.class);
+				forwardedConfiguration.setPlacement(FilterConfiguration.PLACEMENT_LOCAL);
+				Result result = forwardCreateRequest(forwardedConfiguration, placementNode, appAdaptor);
+				if (result.isSuccess()) {
+					//this node does not keep the forwarded filters, so the other calls for the filter should be sent to the placement node
+					result.setMessage("Filter:" + filterId + " is created on node " + placementNode);
+				}
+				return result;
+			}
+		}
+		
 		logger.info("Creating filter with id: {} and input streams: {} and this:{}", filterId, filterConfiguration.getInputStreams(), this.hashCode());
 		FilterAdaptor filterAdaptor = getFilterAdaptor(filterId);
 		//Always update the decode stream map because it may be changed
 		filterAdaptor.setDecodeStreamMap(decodeStreamMap);
+		filterAdaptor.setDecodedFrameHub(getDecodedFrameHub(appAdaptor));
+		pendingRestores.remove(filterId);
+		
+		Result result = filterAdaptor.createOrUpdateFilter(filterConfiguration, appAdaptor);
+		//metrics of a filter that cannot be created would not be unregistered
+		if (result.isSuccess()) {
+			registerMetrics(filterAdaptor, filterId, appAdaptor);
+		}
+		ConfigurationStore store = getConfigurationStore(appAdaptor);
+		if (result.isSuccess() && filterConfiguration.isPersistent() && store != null) {
+			store.save(ConfigurationStore.FILTER_TYPE, filterId, filterConfiguration);
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Creates or updates the filters concurrently in the worker threads and waits for their results.
+	 * It blocks the caller for up to the batch timeout, so it should not be called in an event loop thread
+	 * 
+	 * @return results of the filters in the same order. Data id of a result is the id of the filter
+	 */
+	public List<Result> createFilters(List<FilterConfiguration> filterConfigurations, AntMediaApplicationAdapter appAdaptor) 
+	{
+		return createFiltersAsync(filterConfigurations, appAdaptor).toCompletionStage().toCompletableFuture().join();
+	}
+
+	/**
+	 * Creates or updates the filters concurrently in the worker threads. The DataStore does not have a query for a list of stream ids, 
+	 * so each input broadcast is fetched once for the batch instead of once for each filter that uses it
+	 * 
+	 * @return future of the results of the filters in the same order. It's completed when all filters are created or the batch timeout expires. 
+	 * Data id of a result is the id of the filter
+	 */
+	public Future<List<Result>> createFiltersAsync(List<FilterConfiguration> filterConfigurations, AntMediaApplicationAdapter appAdaptor) 
+	{
+		Map<String, Broadcast> broadcasts = new HashMap<>();
+		for (FilterConfiguration filterConfiguration : filterConfigurations) {
+			if (filterConfiguration != null && filterConfiguration.getInputStreams() != null) {
+				for (String streamId : filterConfiguration.getInputStreams()) {
+					if (!broadcasts.containsKey(streamId)) {
+						broadcasts.put(streamId, appAdaptor.getDataStore().get(streamId));
+					}
+				}
+			}
+		}
+
+		List<Future<Result>> futures = new ArrayList<>();
+		//an item is either started by its task or cancelled after the timeout
+		List<AtomicBoolean> startedFlags = new ArrayList<>();
+		Set<String> filterIds = new HashSet<>();
+		for (FilterConfiguration filterConfiguration : filterConfigurations) 
+		{
+			if (filterConfiguration == null || filterConfiguration.getInputStreams() == null || filterConfiguration.getOutputStreams() == null) {
+				futures.add(Future.succeededFuture(new Result(false, "Filter does not have input or output streams")));
+			}
+			else if (filterConfiguration.getFilterId() != null && !filterIds.add(filterConfiguration.getFilterId())) {
+				futures.add(Future.succeededFuture(new Result(false, filterConfiguration.getFilterId(), "Filter id is repeated in the batch")));
+			}
+			else {
+				AtomicBoolean started = new AtomicBoolean(false);
+				startedFlags.add(started);
+				futures.add(appAdaptor.getVertx().executeBlocking(() -> {
+					if (!started.compareAndSet(false, true)) {
+						return new Result(false, filterConfiguration.getFilterId(), "Filter is cancelled");
+					}
+					Result result = createFilter(filterConfiguration, appAdaptor, broadcasts::get);
+					if (StringUtils.isBlank(result.getDataId())) {
+						result.setDataId(filterConfiguration.getFilterId());
+					}
+					return result;
+				}, false));
+				continue;
+			}
+			startedFlags.add(null);
+		}
+		
+		Promise<List<Result>> promise = Promise.promise();
+		long timerId = appAdaptor.getVertx().setTimer(batchTimeoutMs, id -> 
+			promise.tryComplete(collectBatchResults(filterConfigurations, futures, startedFlags))
+		);
+		Future.join(futures).onComplete(ar -> {
+			appAdaptor.getVertx().cancelTimer(timerId);
+			promise.tryComplete(collectBatchResults(filterConfigurations, futures, startedFlags));
+		});
+		return promise.future();
+	}
+
+	/*
+	 * Filters that are not completed yet are cancelled if they have not started, otherwise they're reported as pending
+	 */
+	private List<Result> collectBatchResults(List<FilterConfiguration> filterConfigurations, List<Future<Result>> futures, List<AtomicBoolean> startedFlags) 
+	{
+		List<Result> results = new ArrayList<>();
+		for (int i = 0; i < futures.size(); i++) {
+			FilterConfiguration filterConfiguration = filterConfigurations.get(i);
+			String filterId = filterConfiguration != null ? filterConfiguration.getFilterId() : null;
+			Future<Result> future = futures.get(i);
+			if (future.succeeded()) {
+				results.add(future.result());
+			}
+			else if (future.failed()) {
+				logger.error("Filter:{} in the batch is not created: {}", filterId, ExceptionUtils.getStackTrace(future.cause()));
+				results.add(new Result(false, filterId, "Filter is not created: " + future.cause().getMessage()));
+			}
+			else if (startedFlags.get(i).compareAndSet(false, true)) {
+				logger.warn("Filter:{} in the batch is cancelled because it's not started in {}ms", filterId, batchTimeoutMs);
+				results.add(new Result(false, filterId, "Filter is not started in " + batchTimeoutMs + "ms so it's cancelled"));
+			}
+			else {
+				//task cannot be stopped, so the filter may still be created
+				logger.warn("Filter:{} in the batch is still being created after {}ms", filterId, batchTimeoutMs);
+				results.add(new Result(false, filterId, BATCH_PENDING_MESSAGE + ": Filter is still being created after " + batchTimeoutMs 
+						+ "ms. It shows up in the filter list when it's created"));
+			}
+		}
+		return results;
+	}
+
+	public void setBatchTimeoutMs(long batchTimeoutMs) {
+		this.batchTimeoutMs = batchTimeoutMs;
+	}
+
+	/**
+	 * Deletes the filters
+	 * 
+	 * @return results of the filters in the same order
+	 */
+	public List<Result> deleteFilters(List<String> filterIds, AntMediaApplicationAdapter app) {
+		List<Result> results = new ArrayList<>();
+		for (String filterId : filterIds) {
+			results.add(new Result(filterId != null && delete(filterId, app), filterId, null));
+		}
+		return results;
+	}
+
+	/*
+	 * Checks the frame queue settings and the video and audio filter texts with the template registry
+	 */
+	private Result validateFilters(FilterConfiguration filterConfiguration, FilterAdaptor currentFilterAdaptor) {
+		if (filterConfiguration.getFrameQueueCapacity() <= 0) {
+			return new Result(false, "Frame queue capacity should be positive but it's " + filterConfiguration.getFrameQueueCapacity());
+		}
+		String dropPolicy = filterConfiguration.getFrameDropPolicy();
+		if (!FilterConfiguration.DROP_POLICY_DROP_OLDEST.equals(dropPolicy) && !FilterConfiguration.DROP_POLICY_DROP_NON_KEY.equals(dropPolicy)
+				&& !FilterConfiguration.DROP_POLICY_BLOCK.equals(dropPolicy)) {
+			return new Result(false, "Frame drop policy is not valid: " + dropPolicy + ". It should be one of " + FilterConfiguration.DROP_POLICY_DROP_OLDEST 
+					+ ", " + FilterConfiguration.DROP_POLICY_DROP_NON_KEY + ", " + FilterConfiguration.DROP_POLICY_BLOCK);
+		}
 		
-		return filterAdaptor.createOrUpdateFilter(filterConfiguration, appAdaptor);
+		int inputCount = filterConfiguration.getInputStreams().size();
+		int outputCount = currentFilterAdaptor != null ? currentFilterAdaptor.getOutputStreamCount(filterConfiguration.getOutputStreams()) 
+				: filterConfiguration.getOutputStreams().size();
+		
+		if (filterConfiguration.isVideoEnabled()) {
+			FilterTemplate template = templateRegistry.getTemplate(filterConfiguration.getVideoFilter(), true, inputCount, outputCount);
+			if (!template.isValid()) {
+				return new Result(false, "Video filter is not valid: " + filterConfiguration.getVideoFilter() + ". Reason: " + template.getError());
+			}
+		}
+		if (filterConfiguration.isAudioEnabled()) {
+			FilterTemplate template = templateRegistry.getTemplate(filterConfiguration.getAudioFilter(), false, inputCount, outputCount);
+			if (!template.isValid()) {
+				return new Result(false, "Audio filter is not valid: " + filterConfiguration.getAudioFilter() + ". Reason: " + template.getError());
+			}
+		}
+		return new Result(true);
 	}
 	
+	/**
+	 * Finds the node that hosts most of the input streams. This node is preferred if it hosts as many of them as the others
+	 * 
+	 * @param inputCountByOrigin number of the input streams by their origin addresses
+	 * @param hostAddress address of this node
+	 * @return address of the node that should run the filter
+	 */
+	public String getPlacementNode(Map<String, Integer> inputCountByOrigin, String hostAddress) {
+		String placementNode = hostAddress;
+		int maxInputCount = inputCountByOrigin.getOrDefault(hostAddress, 0);
+		for (Map.Entry<String, Integer> entry : inputCountByOrigin.entrySet()) {
+			if (entry.getValue() > maxInputCount) {
+				maxInputCount = entry.getValue();
+				placementNode = entry.getKey();
+			}
+		}
+		return placementNode;
+	}
+	
+	/**
+	 * Sends the create request to the filter REST endpoint of the other node in the cluster
+	 * 
+	 * @return result of the other node
+	 */
+	public Result forwardCreateRequest(FilterConfiguration filterConfiguration, String ip, AntMediaApplicationAdapter appAdaptor) {
+		Result result = new Result(false, "Create request cannot be forwarded to " + ip);
+		try (CloseableHttpClient client = HttpClients.custom().setRedirectStrategy(new LaxRedirectStrategy()).build()) 
+		{
+			String url = "http://" + ip + ":" + appAdaptor.getServerSettings().getDefaultHttpPort() 
+					+ "/" + appAdaptor.getScope().getName() + "/rest/v2/filters/create";
+			
+			String jwtToken = JWTFilter.generateJwtToken(appAdaptor.getAppSettings().getClusterCommunicationKey(), 
+					System.currentTimeMillis() + 5000);
+			
+			Gson gson = new Gson();
+			HttpUriRequest post = RequestBuilder.post().setUri(url)
+					.setHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+					.setHeader(TokenFilterManager.TOKEN_HEADER_FOR_NODE_COMMUNICATION, jwtToken)
+					.setEntity(new StringEntity(gson.toJson(filterConfiguration), ContentType.APPLICATION_JSON))
+					.build();
+			
+			try (CloseableHttpResponse response = client.execute(post)) 
+			{
+				String content = EntityUtils.toString(response.getEntity());
+				Result remoteResult = gson.fromJson(content, Result.class);
+				if (remoteResult != null) {
+					result = remoteResult;
+				}
+				if (!result.isSuccess()) {
+					logger.error("Error in forwarding create request of filter:{} to {} with response {}", filterConfiguration.getFilterId(), ip, content);
+				}
+			}
+		} 
+		catch (Exception e) {
+			logger.error(ExceptionUtils.getStackTrace(e));
+		}
+		return result;
+	}
 	
 	public FilterAdaptor getFilterAdaptor(String filterId) {
 		return filterList.computeIfAbsent(filterId, key -> new FilterAdaptor(filterId));
@@ -130,19 +588,88 @@ public class FiltersManager {
 	 * @return
 	 */
 	public boolean delete(String id, AntMediaApplicationAdapter app) {
-		boolean result = false;
+		boolean result = pendingRestores.remove(id) != null;
 		FilterAdaptor filterAdaptor = filterList.get(id);
 		if(filterAdaptor != null) {
 			filterList.remove(id);
 			filterAdaptor.close(app);
+			unregisterMetrics(id);
 			result = true;
 		}
+		ConfigurationStore store = app != null ? getConfigurationStore(app) : null;
+		if (result && store != null) {
+			store.delete(ConfigurationStore.FILTER_TYPE, id);
+		}
 		return result;
 	}
 
+	public synchronized DecodedFrameHub getDecodedFrameHub(AntMediaApplicationAdapter app) {
+		if (decodedFrameHub == null) {
+			decodedFrameHub = new DecodedFrameHub(app);
+		}
+		return decodedFrameHub;
+	}
+
+	public FilterTemplateRegistry getTemplateRegistry() {
+		return templateRegistry;
+	}
+
 	public boolean hasFilter(String filterId) {
 		return filterList.containsKey(filterId);
 	}
+
+	/**
+	 * @return adaptor of the filter or null if there is no filter with the id. Unlike {@link #getFilterAdaptor(String)}, it does not create one
+	 */
+	public FilterAdaptor findFilterAdaptor(String filterId) {
+		return filterList.get(filterId);
+	}
+
+	/**
+	 * @return runtime statistics of the filter or null if there is no filter with the id
+	 */
+	public FilterStats getFilterStats(String filterId) {
+		FilterAdaptor filterAdaptor = filterList.get(filterId);
+		return filterAdaptor != null ? filterAdaptor.getStats() : null;
+	}
+
+	/*
+	 * Registers the metrics of the filter to the platform MBean server so that they can be monitored with JMX
+	 */
+	private void registerMetrics(FilterAdaptor filterAdaptor, String filterId, AntMediaApplicationAdapter appAdaptor) {
+		FilterMetrics filterMetrics = filterAdaptor.getFilterMetrics();
+		if (filterMetrics == null || metricsObjectNames.containsKey(filterId)) {
+			return;
+		}
+		String appName = appAdaptor.getAppSettings() != null ? appAdaptor.getAppSettings().getAppName() : null;
+		try {
+			ObjectName objectName = new ObjectName("io.antmedia:type=FilterStats,app=" + ObjectName.quote(String.valueOf(appName)) 
+					+ ",filterId=" + ObjectName.quote(filterId));
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			if (!mBeanServer.isRegistered(objectName)) {
+				mBeanServer.registerMBean(filterMetrics, objectName);
+			}
+			metricsObjectNames.put(filterId, objectName);
+		} 
+		catch (JMException e) {
+			logger.warn("Metrics of filter:{} cannot be registered to JMX: {}", filterId, e.getMessage());
+		}
+	}
+
+	private void unregisterMetrics(String filterId) {
+		ObjectName objectName = metricsObjectNames.remove(filterId);
+		if (objectName != null) {
+			try {
+				MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+				if (mBeanServer.isRegistered(objectName)) {
+					mBeanServer.unregisterMBean(objectName);
+				}
+			} 
+			catch (JMException e) {
+				logger.warn("Metrics of filter:{} cannot be unregistered from JMX: {}", filterId, e.getMessage());
+			}
+		}
+	}
 	
 	
 }
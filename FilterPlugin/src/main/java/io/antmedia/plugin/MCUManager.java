@@ -1,14 +1,16 @@
 package io.antmedia.plugin;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.lang3.RandomUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +22,9 @@ import org.springframework.stereotype.Component;
 import io.antmedia.AntMediaApplicationAdapter;
 import io.antmedia.datastore.db.DataStore;
 import io.antmedia.datastore.db.types.Broadcast;
+import io.antmedia.filter.FilterAdaptor;
+import io.antmedia.filter.utils.ActiveSpeakerDetector;
+import io.antmedia.filter.utils.ConfigurationStore;
 import io.antmedia.filter.utils.FilterConfiguration;
 import io.antmedia.filter.utils.MCUFilterTextGenerator;
 import io.antmedia.muxer.IAntMediaStreamHandler;
@@ -31,22 +36,157 @@ import io.antmedia.websocket.WebSocketConstants;
 public class MCUManager implements ApplicationContextAware, IStreamListener{
 	public static final String BEAN_NAME = "filters.mcu";
 
-	private Queue<String> conferenceRoomsUpdated = new ConcurrentLinkedQueue<>(); //room to change availibility map
+	/**
+	 * Room membership is synced with the DataStore in this period to get the participants in the other nodes
+	 * of the cluster and the missed events
+	 */
 	public static final long CONFERENCE_INFO_POLL_PERIOD_MS = 5000;
+
+	/**
+	 * Rooms that have recent joins or members that are not streaming yet are synced in each poll.
+	 * All rooms are synced in this period to get the missed events without querying each room in each poll
+	 */
+	public static final long ROOM_RECONCILE_PERIOD_MS = 60000;
+	private long lastRoomReconcileTime = 0;
+
+	/**
+	 * Join and leave events in this window are applied with a single filter update
+	 */
+	public static final long ROOM_UPDATE_DEBOUNCE_MS = 200;
+
+	/*
+	 * Request time of the first event waiting for the debounced update of each room
+	 */
+	private Map<String, Long> pendingRoomUpdates = new ConcurrentHashMap<>();
+	private long roomUpdateDebounceMs = ROOM_UPDATE_DEBOUNCE_MS;
 	public static final String MERGED_SUFFIX = "Merged";
 	private long roomUpdateTimer = -1L;
 	private ApplicationContext applicationContext;
 	private AntMediaApplicationAdapter appAdaptor;
 	private FiltersManager filtersManager;
 	private String pluginType = FilterConfiguration.ASYNCHRONOUS;
+	/*
+	 * Merged streams of the rooms are produced only while they're watched
+	 */
+	private boolean onDemandOutputs = false;
 	private static Logger logger = LoggerFactory.getLogger(MCUManager.class);
 	private Queue<String> roomsHasCustomFilters = new ConcurrentLinkedQueue<>();
 	private Map<String, RoomConfig> rooms = new ConcurrentHashMap<>();
+	/*
+	 * Broadcasts of the streams that are streaming. They're tracked with the stream events and the member syncs 
+	 * so that the filter updates do not get each member from the DataStore
+	 */
+	private Map<String, Broadcast> streamingBroadcasts = new ConcurrentHashMap<>();
+	
+	public static final long ACTIVE_SPEAKER_CHECK_PERIOD_MS = 500;
+	private long activeSpeakerTimer = -1L;
+	private volatile MCUSettings mcuSettings = new MCUSettings();
+
+	/**
+	 * Settings of the filters of all MCU rooms. Defaults keep the behavior of the generic filters. 
+	 * alignmentLatencyMs:150, outputFps:30 and the others enabled suit the large rooms
+	 */
+	public static class MCUSettings {
+		/**
+		 * Audio of the participants is mixed in Java instead of the amix filter
+		 */
+		private boolean audioMixer = false;
+		/**
+		 * Frames of the participants are mixed with this latency so that the jitter of an input 
+		 * does not stall or duplicate the frames in the layout. 0 disables the alignment
+		 */
+		private int alignmentLatencyMs = 0;
+		/**
+		 * Frame rate of the participants fed to the layout. Frames of the high frame rate cameras above this are dropped before the filter. 
+		 * 0 keeps all frames
+		 */
+		private int outputFps = 0;
+		/**
+		 * Participants are scaled down to their tile sizes when they're decoded
+		 */
+		private boolean downscaleInputs = false;
+		/**
+		 * Video and audio of the rooms are filtered in separate threads, so the heavy video mixing does not delay the audio
+		 */
+		private boolean separateGraphThreads = false;
+
+		public boolean isAudioMixer() {
+			return audioMixer;
+		}
+
+		public void setAudioMixer(boolean audioMixer) {
+			this.audioMixer = audioMixer;
+		}
+
+		public int getAlignmentLatencyMs() {
+			return alignmentLatencyMs;
+		}
+
+		public void setAlignmentLatencyMs(int alignmentLatencyMs) {
+			this.alignmentLatencyMs = alignmentLatencyMs;
+		}
+
+		public int getOutputFps() {
+			return outputFps;
+		}
+
+		public void setOutputFps(int outputFps) {
+			this.outputFps = outputFps;
+		}
+
+		public boolean isDownscaleInputs() {
+			return downscaleInputs;
+		}
+
+		public void setDownscaleInputs(boolean downscaleInputs) {
+			this.downscaleInputs = downscaleInputs;
+		}
+
+		public boolean isSeparateGraphThreads() {
+			return separateGraphThreads;
+		}
+
+		public void setSeparateGraphThreads(boolean separateGraphThreads) {
+			this.separateGraphThreads = separateGraphThreads;
+		}
+	}
 	
+	/*
+	 * Settings of the room that are saved to the configuration file. Members and media states are not saved 
+	 * because they're synced from the DataStore
+	 */
+	static class SavedRoom {
+		String roomId;
+		boolean videoEnabled;
+		boolean audioEnabled;
+		String layout;
+		boolean customFilter;
+	}
+
 	public static class RoomConfig {
 		String roomId;
 		boolean videoEnabled;
 		boolean audioEnabled;
+		volatile String layout = MCUFilterTextGenerator.LAYOUT_GRID;
+		ActiveSpeakerDetector speakerDetector = new ActiveSpeakerDetector();
+		/*
+		 * Participants whose camera is off or who are muted. Their tracks are not decoded until they resume
+		 */
+		Set<String> videoOffStreams = ConcurrentHashMap.newKeySet();
+		Set<String> audioOffStreams = ConcurrentHashMap.newKeySet();
+		/*
+		 * Participants of the room in the join order. It's null until it's loaded from the DataStore
+		 */
+		volatile CopyOnWriteArrayList<String> members;
+		/*
+		 * Join times of the participants that may not be active in the DataStore yet
+		 */
+		Map<String, Long> recentJoins = new ConcurrentHashMap<>();
+		/*
+		 * Members that are left out of the last filter update because they're not streaming yet
+		 */
+		volatile Set<String> waitingStreams = ConcurrentHashMap.newKeySet();
+		LayoutUpdateStats layoutUpdateStats = new LayoutUpdateStats();
 
 		public RoomConfig(String roomId, boolean videoEnabled, boolean audioEnabled) {
 			this.roomId = roomId;
@@ -54,6 +194,42 @@ public class MCUManager implements ApplicationContextAware, IStreamListener{
 			this.audioEnabled = audioEnabled;
 		}
 		
+		boolean isSpeakerLayout() {
+			return !MCUFilterTextGenerator.LAYOUT_GRID.equals(layout);
+		}
+	}
+
+	/**
+	 * Time from the first join/leave or layout event to the filter update that applies it
+	 */
+	public static class LayoutUpdateStats {
+		private long updateCount;
+		private long lastTimeToLayoutMs;
+		private long maxTimeToLayoutMs;
+		private long totalTimeToLayoutMs;
+
+		synchronized void add(long timeToLayoutMs) {
+			updateCount++;
+			lastTimeToLayoutMs = timeToLayoutMs;
+			maxTimeToLayoutMs = Math.max(maxTimeToLayoutMs, timeToLayoutMs);
+			totalTimeToLayoutMs += timeToLayoutMs;
+		}
+
+		public synchronized long getUpdateCount() {
+			return updateCount;
+		}
+
+		public synchronized long getLastTimeToLayoutMs() {
+			return lastTimeToLayoutMs;
+		}
+
+		public synchronized long getMaxTimeToLayoutMs() {
+			return maxTimeToLayoutMs;
+		}
+
+		public synchronized long getAverageTimeToLayoutMs() {
+			return updateCount > 0 ? totalTimeToLayoutMs / updateCount : 0;
+		}
 	}
 	
 
@@ -64,30 +240,104 @@ public class MCUManager implements ApplicationContextAware, IStreamListener{
 		AntMediaApplicationAdapter app = getApplication();
 		app.addStreamListener(this);
 
-		roomUpdateTimer = getApplication().getVertx().setPeriodic(CONFERENCE_INFO_POLL_PERIOD_MS , t->{
+		roomUpdateTimer = getApplication().getVertx().setPeriodic(CONFERENCE_INFO_POLL_PERIOD_MS , t->
+			getApplication().getVertx().executeBlocking(l -> {
+				syncRoomMembers();
+				l.complete();
+			}, null)
+		);
+
+		activeSpeakerTimer = getApplication().getVertx().setPeriodic(ACTIVE_SPEAKER_CHECK_PERIOD_MS, t -> checkActiveSpeakers());
+
+		getApplication().getVertx().executeBlocking(() -> {
+			restoreRooms();
+			return null;
+		}, false);
+	}
+
+	/**
+	 * Adds the rooms saved by this node. Their filters are created when their members are synced
+	 */
+	public void restoreRooms() {
+		ConfigurationStore store = getConfigurationStore();
+		if (store == null) {
+			return;
+		}
+		for (SavedRoom savedRoom : store.load(ConfigurationStore.MCU_ROOM_TYPE, SavedRoom.class)) {
+			RoomConfig roomConfig = new RoomConfig(savedRoom.roomId, savedRoom.videoEnabled, savedRoom.audioEnabled);
+			if (MCUFilterTextGenerator.isValidLayout(savedRoom.layout)) {
+				roomConfig.layout = savedRoom.layout;
+			}
+			if (savedRoom.roomId == null || rooms.putIfAbsent(savedRoom.roomId, roomConfig) != null) {
+				continue;
+			}
+			if (savedRoom.customFilter) {
+				customFilterAdded(savedRoom.roomId);
+			}
+			logger.info("MCU room:{} is restored", savedRoom.roomId);
+			triggerUpdate(savedRoom.roomId, false);
+		}
+	}
+
+	private void saveRoom(String roomId) {
+		RoomConfig roomConfig = rooms.get(roomId);
+		ConfigurationStore store = getConfigurationStore();
+		if (roomConfig != null && store != null) {
+			SavedRoom savedRoom = new SavedRoom();
+			savedRoom.roomId = roomId;
+			savedRoom.videoEnabled = roomConfig.videoEnabled;
+			savedRoom.audioEnabled = roomConfig.audioEnabled;
+			savedRoom.layout = roomConfig.layout;
+			savedRoom.customFilter = roomsHasCustomFilters.contains(roomId);
+			store.save(ConfigurationStore.MCU_ROOM_TYPE, roomId, savedRoom);
+		}
+	}
+
+	private ConfigurationStore getConfigurationStore() {
+		AntMediaApplicationAdapter app = getApplication();
+		return app != null ? getFiltersManager().getConfigurationStore(app) : null;
+	}
 
-			Iterator<String> iterator = conferenceRoomsUpdated.iterator(); 
-			while (iterator.hasNext()) {
-				updateRoomFilter(iterator.next());
-				iterator.remove();
+	/**
+	 * Updates the filter of the rooms that have speaker layouts if their active speakers change
+	 */
+	public void checkActiveSpeakers() {
+		long now = System.currentTimeMillis();
+		for (RoomConfig roomConfig : rooms.values()) 
+		{
+			//filter may be deleted at any time, so its adaptor is read once without creating a new one
+			FilterAdaptor filterAdaptor = roomConfig.isSpeakerLayout() ? getFiltersManager().findFilterAdaptor(roomConfig.roomId) : null;
+			if (filterAdaptor != null) 
+			{
+				Map<String, Double> audioLevels = filterAdaptor.getAudioLevels();
+				if (roomConfig.speakerDetector.update(audioLevels, now)) {
+					logger.info("Active speaker is {} in room:{}", roomConfig.speakerDetector.getActiveSpeaker(), roomConfig.roomId);
+					triggerUpdate(roomConfig.roomId, true);
+				}
 			}
-		});
+		}
 	}
 
 	public void customFilterAdded(String roomId) {
 		if (!roomsHasCustomFilters.contains(roomId)) 
 		{
 			roomsHasCustomFilters.add(roomId);
+			saveRoom(roomId);
 		}
 	}
 
+	public boolean hasCustomFilter(String roomId) {
+		return roomsHasCustomFilters.contains(roomId);
+	}
+
 	public boolean customFilterRemoved(String roomId) {
 		roomsHasCustomFilters.remove(roomId);
+		saveRoom(roomId);
 		return updateRoomFilter(roomId);
 	}
 
 	public AntMediaApplicationAdapter getApplication() {
-		if(appAdaptor == null) {
+		if(appAdaptor == null && applicationContext != null) {
 			appAdaptor = (AntMediaApplicationAdapter) applicationContext.getBean(AntMediaApplicationAdapter.BEAN_NAME);
 		}
 		return appAdaptor;
@@ -115,11 +365,11 @@ public class MCUManager implements ApplicationContextAware, IStreamListener{
 			try 
 			{
 				RoomConfig roomConfig = rooms.get(roomId);
-				List<String> streams = new ArrayList<>();
-				List<Broadcast> broadcastList = datastore.getActiveSubtracks(roomId, null);
-				for (Broadcast broadcast : broadcastList) {
-					streams.add(broadcast.getStreamId());
+				if (roomConfig == null) {
+					logger.debug("Room:{} is not an MCU room of this node", roomId);
+					return false;
 				}
+				List<String> streams = getStreamingMembers(roomConfig, datastore);
 				
 
 				//
@@ -131,13 +381,34 @@ public class MCUManager implements ApplicationContextAware, IStreamListener{
 					List<String> outputStreams = new ArrayList<>();
 					outputStreams.add(roomId+MERGED_SUFFIX);
 					filterConfiguration.setOutputStreams(outputStreams);
-					filterConfiguration.setVideoFilter(MCUFilterTextGenerator.createVideoFilter(streams.size()));
-					filterConfiguration.setAudioFilter(MCUFilterTextGenerator.createAudioFilter(streams.size()));
+					int focusIndex = 0;
+					if (roomConfig.isSpeakerLayout()) {
+						focusIndex = Math.max(0, streams.indexOf(roomConfig.speakerDetector.getActiveSpeaker()));
+					}
+					boolean[] videoOff = new boolean[streams.size()];
+					boolean[] audioOff = new boolean[streams.size()];
+					for (int i = 0; i < streams.size(); i++) {
+						videoOff[i] = roomConfig.videoOffStreams.contains(streams.get(i));
+						audioOff[i] = roomConfig.audioOffStreams.contains(streams.get(i));
+					}
+					filterConfiguration.setVideoFilter(MCUFilterTextGenerator.createVideoFilter(roomConfig.layout, focusIndex, videoOff,
+							MCUFilterTextGenerator.OUTPUT_WIDTH, MCUFilterTextGenerator.OUTPUT_HEIGHT));
+					filterConfiguration.setAudioFilter(MCUFilterTextGenerator.createAudioFilter(audioOff));
 					filterConfiguration.setVideoEnabled(roomConfig.videoEnabled);
 					filterConfiguration.setAudioEnabled(roomConfig.audioEnabled);
 					filterConfiguration.setType(pluginType);
+					filterConfiguration.setAudioLevelMetering(roomConfig.isSpeakerLayout());
+					MCUSettings settings = mcuSettings;
+					filterConfiguration.setAlignmentLatencyMs(settings.getAlignmentLatencyMs());
+					filterConfiguration.setOutputFps(settings.getOutputFps());
+					filterConfiguration.setSeparateGraphThreads(settings.isSeparateGraphThreads() && roomConfig.videoEnabled && roomConfig.audioEnabled);
+					filterConfiguration.setDownscaleInputs(settings.isDownscaleInputs());
+					filterConfiguration.setAudioMixer(settings.isAudioMixer());
+					filterConfiguration.setOnDemand(onDemandOutputs);
+					//rooms are saved instead of their filters
+					filterConfiguration.setPersistent(false);
 	
-					result = getFiltersManager().createFilter(filterConfiguration, getApplication()).isSuccess();
+					result = getFiltersManager().createFilter(filterConfiguration, getApplication(), streamId -> getStreamingBroadcast(streamId, datastore)).isSuccess();
 				}
 				else 
 				{
@@ -164,41 +435,192 @@ public class MCUManager implements ApplicationContextAware, IStreamListener{
 		return result;
 	}
 
-	private void roomHasChange(String roomId) {
-		DataStore datastore = getApplication().getDataStore();
-		Broadcast room = datastore.get(roomId);
+	/*
+	 * Members are loaded from the DataStore once and then they're updated with the join and leave events
+	 */
+	private List<String> getRoomMembers(RoomConfig roomConfig) {
+		CopyOnWriteArrayList<String> members = roomConfig.members;
+		if (members == null) {
+			members = new CopyOnWriteArrayList<>(getActiveSubtracks(roomConfig.roomId));
+			roomConfig.members = members;
+		}
+		return members;
+	}
 
-		if ((room == null || rooms.containsKey(roomId))
-				&& !conferenceRoomsUpdated.contains(roomId))
-		{
-			conferenceRoomsUpdated.add(roomId);
+	/*
+	 * Members that joined but are not streaming yet would fail the whole filter update, 
+	 * so they're left out until they start
+	 */
+	private List<String> getStreamingMembers(RoomConfig roomConfig, DataStore datastore) {
+		List<String> streams = new ArrayList<>();
+		Set<String> waitingStreams = ConcurrentHashMap.newKeySet();
+		for (String streamId : getRoomMembers(roomConfig)) {
+			if (getStreamingBroadcast(streamId, datastore) != null) {
+				streams.add(streamId);
+			}
+			else {
+				waitingStreams.add(streamId);
+			}
+		}
+		if (!waitingStreams.isEmpty()) {
+			logger.info("Streams:{} of room:{} are not streaming yet. They're added when they start", waitingStreams, roomConfig.roomId);
+		}
+		roomConfig.waitingStreams = waitingStreams;
+		return streams;
+	}
+
+	/*
+	 * Streams that are not tracked yet, e.g. they started before the room was loaded, are received from the DataStore once
+	 * 
+	 * @return broadcast of the stream or null if it's not streaming
+	 */
+	private Broadcast getStreamingBroadcast(String streamId, DataStore datastore) {
+		Broadcast broadcast = streamingBroadcasts.get(streamId);
+		if (broadcast == null) {
+			broadcast = datastore.get(streamId);
+			if (!isStreaming(broadcast)) {
+				return null;
+			}
+			streamingBroadcasts.put(streamId, broadcast);
 		}
+		return broadcast;
 	}
 
+	private static boolean isStreaming(Broadcast broadcast) {
+		return broadcast != null && IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING.equals(broadcast.getStatus())
+				&& !StringUtils.isBlank(broadcast.getOriginAdress());
+	}
+
+	private List<String> getActiveSubtracks(String roomId) {
+		List<String> streams = new ArrayList<>();
+		for (Broadcast broadcast : getApplication().getDataStore().getActiveSubtracks(roomId, null)) {
+			streams.add(broadcast.getStreamId());
+			if (isStreaming(broadcast)) {
+				streamingBroadcasts.put(broadcast.getStreamId(), broadcast);
+			}
+		}
+		return streams;
+	}
+
+	/**
+	 * Syncs the cached members of the MCU rooms with the DataStore and updates the filters of the rooms that have changed.
+	 * Only the rooms that have recent joins are synced, except that all rooms are synced every {@link #ROOM_RECONCILE_PERIOD_MS}.
+	 * Members that are not streaming yet are added with their start events or in the reconcile if they start on another node.
+	 * Participants that joined recently are kept even if they're not active in the DataStore yet
+	 */
+	public void syncRoomMembers() {
+		long now = System.currentTimeMillis();
+		boolean reconcile = now - lastRoomReconcileTime >= ROOM_RECONCILE_PERIOD_MS;
+		if (reconcile) {
+			lastRoomReconcileTime = now;
+		}
+		for (RoomConfig roomConfig : rooms.values()) 
+		{
+			CopyOnWriteArrayList<String> members = roomConfig.members;
+			if (members == null || (!reconcile && roomConfig.recentJoins.isEmpty())) {
+				continue;
+			}
+			roomConfig.recentJoins.values().removeIf(joinTime -> now - joinTime > CONFERENCE_INFO_POLL_PERIOD_MS);
+
+			List<String> activeStreams = getActiveSubtracks(roomConfig.roomId);
+			boolean changed = members.removeIf(streamId -> !activeStreams.contains(streamId) && !roomConfig.recentJoins.containsKey(streamId));
+			for (String streamId : activeStreams) {
+				changed |= members.addIfAbsent(streamId) || roomConfig.waitingStreams.contains(streamId);
+			}
+			//members that finished on another node are not received with the stream events
+			streamingBroadcasts.entrySet().removeIf(entry -> roomConfig.roomId.equals(entry.getValue().getMainTrackStreamId()) 
+					&& !activeStreams.contains(entry.getKey()));
+			if (changed) {
+				logger.info("Members of room:{} are synced with the datastore", roomConfig.roomId);
+				triggerUpdate(roomConfig.roomId, true);
+			}
+		}
+	}
 
 	@Override
 	public void joinedTheRoom(String roomId, String streamId) {
-		 triggerUpdate(roomId, false);
-		
+		RoomConfig roomConfig = rooms.get(roomId);
+		if (roomConfig != null) {
+			roomConfig.recentJoins.put(streamId, System.currentTimeMillis());
+			CopyOnWriteArrayList<String> members = roomConfig.members;
+			if (members != null) {
+				members.addIfAbsent(streamId);
+			}
+			triggerUpdate(roomId, true);
+		}
+		else {
+			//room is not cached, e.g. it's removed. Its filter is deleted in the update if the room does not exist anymore
+			triggerUpdate(roomId, false);
+		}
 	}
 	
+	/**
+	 * Schedules the filter update of the room. Updates requested in {@link #ROOM_UPDATE_DEBOUNCE_MS} 
+	 * are coalesced into one update
+	 * 
+	 * @param immediately true if the cached members of the room are up to date. 
+	 * Otherwise members are loaded from the DataStore in the update
+	 */
 	public void triggerUpdate(String roomId, boolean immediately) {
-		if(immediately) {
-			getApplication().getVertx().executeBlocking( l-> {
-				updateRoomFilter(roomId);
-			}, null);
+		if (!immediately) {
+			RoomConfig roomConfig = rooms.get(roomId);
+			if (roomConfig != null) {
+				roomConfig.members = null;
+			}
 		}
-		else {
-			roomHasChange(roomId);
-			//call again after the period time to not encounter any problem
-			getApplication().getVertx().setTimer(CONFERENCE_INFO_POLL_PERIOD_MS, id -> {
-				roomHasChange(roomId);
-			});
+
+		if (pendingRoomUpdates.putIfAbsent(roomId, System.currentTimeMillis()) == null) 
+		{
+			getApplication().getVertx().setTimer(roomUpdateDebounceMs, id -> 
+				getApplication().getVertx().executeBlocking(l -> {
+					runPendingUpdate(roomId);
+					l.complete();
+				}, null)
+			);
+		}
+	}
+
+	private void runPendingUpdate(String roomId) {
+		//events received during the update schedule a new one
+		Long requestTime = pendingRoomUpdates.remove(roomId);
+		boolean result = updateRoomFilter(roomId);
+		RoomConfig roomConfig = rooms.get(roomId);
+		if (result && requestTime != null && roomConfig != null) {
+			long timeToLayout = System.currentTimeMillis() - requestTime;
+			roomConfig.layoutUpdateStats.add(timeToLayout);
+			logger.info("Filter of room:{} is updated in {}ms", roomId, timeToLayout);
 		}
 	}
 
+	public LayoutUpdateStats getLayoutUpdateStats(String roomId) {
+		RoomConfig roomConfig = rooms.get(roomId);
+		return roomConfig != null ? roomConfig.layoutUpdateStats : null;
+	}
+
+	public List<String> getCachedRoomMembers(String roomId) {
+		RoomConfig roomConfig = rooms.get(roomId);
+		return roomConfig != null ? roomConfig.members : null;
+	}
+
+	public void setRoomUpdateDebounceMs(long roomUpdateDebounceMs) {
+		this.roomUpdateDebounceMs = roomUpdateDebounceMs;
+	}
+
 	@Override
 	public void leftTheRoom(String roomId, String streamId) {
+		RoomConfig roomConfig = rooms.get(roomId);
+		if (roomConfig != null) {
+			roomConfig.videoOffStreams.remove(streamId);
+			roomConfig.audioOffStreams.remove(streamId);
+			roomConfig.recentJoins.remove(streamId);
+			//stream may finish on another node without an event here, so it's received from the DataStore if it joins again
+			streamingBroadcasts.remove(streamId);
+			List<String> members = roomConfig.members;
+			if (members != null) {
+				members.remove(streamId);
+			}
+		}
+
 		//since this is left event roomFilter should be available
 		if(getFiltersManager().hasFilter(roomId)) {
 			triggerUpdate(roomId, true);
@@ -208,25 +630,145 @@ public class MCUManager implements ApplicationContextAware, IStreamListener{
 
 	@Override
 	public void streamStarted(Broadcast broadcast) {
-		//No need to implement for MCU
+		if (isStreaming(broadcast)) {
+			streamingBroadcasts.put(broadcast.getStreamId(), broadcast);
+		}
+		//members that joined before they started streaming are added to the filter now
+		for (RoomConfig roomConfig : rooms.values()) {
+			if (roomConfig.waitingStreams.contains(broadcast.getStreamId())) {
+				logger.info("Stream:{} of room:{} started streaming", broadcast.getStreamId(), roomConfig.roomId);
+				triggerUpdate(roomConfig.roomId, true);
+			}
+		}
 	}
 
 	@Override
 	public void streamFinished(Broadcast broadcast) {
-		//No need to implement for MCU
+		streamingBroadcasts.remove(broadcast.getStreamId());
 	}
 
 	public void setPluginType(String type) {
 		this.pluginType = type;
 	}
 
+	/**
+	 * Sets the on-demand mode of the merged streams and updates the filters of the existing rooms
+	 */
+	public void setOnDemandOutputs(boolean onDemandOutputs) {
+		if (this.onDemandOutputs == onDemandOutputs) {
+			return;
+		}
+		this.onDemandOutputs = onDemandOutputs;
+		for (String roomId : rooms.keySet()) {
+			triggerUpdate(roomId, true);
+		}
+	}
+
+	public boolean isOnDemandOutputs() {
+		return onDemandOutputs;
+	}
+
+	/**
+	 * Sets the settings of the MCU filters and updates the filters of the existing rooms
+	 * 
+	 * @return false if a setting is not valid
+	 */
+	public boolean setMCUSettings(MCUSettings mcuSettings) {
+		if (mcuSettings == null || mcuSettings.getAlignmentLatencyMs() < 0 || mcuSettings.getOutputFps() < 0) {
+			return false;
+		}
+		this.mcuSettings = mcuSettings;
+		for (String roomId : rooms.keySet()) {
+			triggerUpdate(roomId, true);
+		}
+		return true;
+	}
+
+	public MCUSettings getMCUSettings() {
+		return mcuSettings;
+	}
+
 	public void addCustomRoom(String roomId, boolean videoEnabled, boolean audioEnabled) {
-		rooms.put(roomId, new RoomConfig(roomId, videoEnabled, audioEnabled));	
+		addCustomRoom(roomId, videoEnabled, audioEnabled, MCUFilterTextGenerator.LAYOUT_GRID);
+	}
+
+	/**
+	 * @param layout grid | speaker-focus | pip
+	 */
+	public void addCustomRoom(String roomId, boolean videoEnabled, boolean audioEnabled, String layout) {
+		RoomConfig roomConfig = new RoomConfig(roomId, videoEnabled, audioEnabled);
+		if (MCUFilterTextGenerator.isValidLayout(layout)) {
+			roomConfig.layout = layout;
+		}
+		rooms.put(roomId, roomConfig);	
+		saveRoom(roomId);
 		triggerUpdate(roomId, false);
 	}
 
+	/**
+	 * Changes the layout of the MCU room. Filter texts of the layouts are cached, so switching layouts is cheap
+	 * 
+	 * @param layout grid | speaker-focus | pip
+	 * @return false if the room is not an MCU room or the layout is not known
+	 */
+	public boolean setRoomLayout(String roomId, String layout) {
+		RoomConfig roomConfig = rooms.get(roomId);
+		if (roomConfig == null || !MCUFilterTextGenerator.isValidLayout(layout)) {
+			return false;
+		}
+		roomConfig.layout = layout;
+		saveRoom(roomId);
+		triggerUpdate(roomId, true);
+		return true;
+	}
+
+	public String getRoomLayout(String roomId) {
+		RoomConfig roomConfig = rooms.get(roomId);
+		return roomConfig != null ? roomConfig.layout : null;
+	}
+
+	/**
+	 * Sets the media state of the participant. Video of the participant whose camera is off is not decoded and 
+	 * a placeholder tile is used instead. Audio of the muted participant is not mixed
+	 * 
+	 * @return false if the room is not an MCU room
+	 */
+	public boolean setParticipantMediaState(String roomId, String streamId, boolean videoEnabled, boolean audioEnabled) {
+		RoomConfig roomConfig = rooms.get(roomId);
+		if (roomConfig == null) {
+			return false;
+		}
+		boolean changed = videoEnabled ? roomConfig.videoOffStreams.remove(streamId) : roomConfig.videoOffStreams.add(streamId);
+		changed |= audioEnabled ? roomConfig.audioOffStreams.remove(streamId) : roomConfig.audioOffStreams.add(streamId);
+
+		if (changed) {
+			logger.info("Media state of stream:{} in room:{} is video:{} audio:{}", streamId, roomId, videoEnabled, audioEnabled);
+			triggerUpdate(roomId, true);
+		}
+		return true;
+	}
+
+	public boolean isParticipantVideoEnabled(String roomId, String streamId) {
+		RoomConfig roomConfig = rooms.get(roomId);
+		return roomConfig == null || !roomConfig.videoOffStreams.contains(streamId);
+	}
+
+	public boolean isParticipantAudioEnabled(String roomId, String streamId) {
+		RoomConfig roomConfig = rooms.get(roomId);
+		return roomConfig == null || !roomConfig.audioOffStreams.contains(streamId);
+	}
+
+	public String getActiveSpeaker(String roomId) {
+		RoomConfig roomConfig = rooms.get(roomId);
+		return roomConfig != null ? roomConfig.speakerDetector.getActiveSpeaker() : null;
+	}
+
 	public void removeCustomRoom(String roomId) {
 		rooms.remove(roomId);	
 		getFiltersManager().delete(roomId, appAdaptor);
+		ConfigurationStore store = getConfigurationStore();
+		if (store != null) {
+			store.delete(ConfigurationStore.MCU_ROOM_TYPE, roomId);
+		}
 	}
 }
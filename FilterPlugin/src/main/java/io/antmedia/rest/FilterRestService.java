@@ -10,6 +10,7 @@ import org.springframework.web.context.WebApplicationContext;
 
 import io.antmedia.AntMediaApplicationAdapter;
 import io.antmedia.filter.utils.FilterConfiguration;
+import io.antmedia.filter.utils.FilterStats;
 import io.antmedia.plugin.FiltersManager;
 import io.antmedia.plugin.MCUManager;
 import io.antmedia.rest.model.Result;
@@ -26,6 +27,8 @@ import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 
@@ -40,6 +43,8 @@ public class FilterRestService {
 
 
 	@Operation(summary = "Creates or update the filter",
+	           description = "If the placement of a new filter is most-inputs in cluster mode, it may be created on the node that hosts most of its inputs. "
+	           		+ "That node is written in the message of the result and the filter is not kept on this node, so list, stats, update and delete calls of the filter should be sent to that node",
 	           responses = {@ApiResponse(responseCode = "200", description = "Filter created or updated")})
 	@POST
 	@Path("/create")
@@ -49,6 +54,35 @@ public class FilterRestService {
 	    return getFiltersManager().createFilter(filterConfiguration, getAppAdaptor());
 	}
 
+	@Operation(summary = "Creates or updates the filters in the list concurrently",
+	           responses = {@ApiResponse(responseCode = "200", description = "Results of the filters in the same order. Data id of a result is the id of the filter")})
+	@POST
+	@Path("/batch/create")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public void createBatch(@Parameter(description="Filter objects with the updates") List<FilterConfiguration> filterConfigurations, 
+			@Suspended AsyncResponse asyncResponse) {
+	    //request thread is not blocked while the filters are created
+	    getFiltersManager().createFiltersAsync(filterConfigurations, getAppAdaptor()).onComplete(ar -> {
+	        if (ar.succeeded()) {
+	            asyncResponse.resume(ar.result());
+	        }
+	        else {
+	            asyncResponse.resume(ar.cause());
+	        }
+	    });
+	}
+
+	@Operation(summary = "Deletes the filters in the list",
+	           responses = {@ApiResponse(responseCode = "200", description = "Results of the filters in the same order")})
+	@POST
+	@Path("/batch/delete")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public List<Result> deleteBatch(@Parameter(description="Filter ids for deleting filters") List<String> filterIds) {
+	    return getFiltersManager().deleteFilters(filterIds, getAppAdaptor());
+	}
+
 	@Operation(summary = "Returns the list of filters effective in the application",
 	           responses = {@ApiResponse(responseCode = "200", description = "List of filters returned")})
 	@GET
@@ -71,6 +105,16 @@ public class FilterRestService {
 	    return new Result(getFiltersManager().delete(id, getAppAdaptor()));
 	}
 
+	@Operation(summary = "Returns the runtime statistics of the filter: frame rates of the inputs and outputs, filter and decode latencies, queue depths, dropped frames and graph rebuilds",
+	           responses = {@ApiResponse(responseCode = "200", description = "Statistics of the filter. It's null if there is no filter with the id")})
+	@GET
+	@Path("/{id}/stats")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public FilterStats getFilterStats(@Parameter(description="Filter id") @PathParam("id") String id) {
+	    return getFiltersManager().getFilterStats(id);
+	}
+
 	@Operation(summary = "Creates MCU for the roomo in the parameter",
 	           responses = {@ApiResponse(responseCode = "200", description = "MCU filter created for room")})
 	@POST
@@ -79,13 +123,54 @@ public class FilterRestService {
 	@Consumes(MediaType.APPLICATION_JSON)
 	public Result createMCU(@Parameter(description="Room Id") @PathParam("roomId") String roomId, 
 							@Parameter(description="Video enabled") @QueryParam("videoEnabled") boolean videoEnabled, 
-							@Parameter(description="Audio enabled") @QueryParam("audioEnabled") boolean audioEnabled) {
+							@Parameter(description="Audio enabled") @QueryParam("audioEnabled") boolean audioEnabled,
+							@Parameter(description="Layout of the room: grid (default) | speaker-focus | pip") @QueryParam("layout") String layout) {
 	    ApplicationContext appCtx = (ApplicationContext) servletContext.getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
 	    MCUManager mcuManager = (MCUManager) appCtx.getBean(MCUManager.BEAN_NAME);
-	    mcuManager.addCustomRoom(roomId, videoEnabled, audioEnabled);
+	    mcuManager.addCustomRoom(roomId, videoEnabled, audioEnabled, layout);
 	    return new Result(true);
 	}
 
+	@Operation(summary = "Changes the layout of the MCU room",
+	           responses = {@ApiResponse(responseCode = "200", description = "Layout of the MCU room changed")})
+	@PUT
+	@Path("/room-mcu-filter/{roomId}/layout")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public Result setMCULayout(@Parameter(description="Room Id") @PathParam("roomId") String roomId, 
+							@Parameter(description="Layout of the room: grid | speaker-focus | pip") @QueryParam("layout") String layout) {
+	    ApplicationContext appCtx = (ApplicationContext) servletContext.getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
+	    MCUManager mcuManager = (MCUManager) appCtx.getBean(MCUManager.BEAN_NAME);
+	    return new Result(mcuManager.setRoomLayout(roomId, layout));
+	}
+
+	@Operation(summary = "Sets the media state of a participant in the MCU room. Camera-off participants are placeholder tiles and muted participants are not mixed",
+	           responses = {@ApiResponse(responseCode = "200", description = "Media state of the participant set")})
+	@PUT
+	@Path("/room-mcu-filter/{roomId}/media-state")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public Result setMCUParticipantMediaState(@Parameter(description="Room Id") @PathParam("roomId") String roomId, 
+							@Parameter(description="Stream Id of the participant") @QueryParam("streamId") String streamId, 
+							@Parameter(description="Video enabled") @QueryParam("videoEnabled") boolean videoEnabled, 
+							@Parameter(description="Audio enabled") @QueryParam("audioEnabled") boolean audioEnabled) {
+	    ApplicationContext appCtx = (ApplicationContext) servletContext.getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
+	    MCUManager mcuManager = (MCUManager) appCtx.getBean(MCUManager.BEAN_NAME);
+	    return new Result(mcuManager.setParticipantMediaState(roomId, streamId, videoEnabled, audioEnabled));
+	}
+
+	@Operation(summary = "Returns the time from the join/leave events to the filter updates of the MCU room",
+	           responses = {@ApiResponse(responseCode = "200", description = "Layout update stats of the MCU room. It's null if room is not an MCU room")})
+	@GET
+	@Path("/room-mcu-filter/{roomId}/layout-stats")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public MCUManager.LayoutUpdateStats getMCULayoutUpdateStats(@Parameter(description="Room Id") @PathParam("roomId") String roomId) {
+	    ApplicationContext appCtx = (ApplicationContext) servletContext.getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
+	    MCUManager mcuManager = (MCUManager) appCtx.getBean(MCUManager.BEAN_NAME);
+	    return mcuManager.getLayoutUpdateStats(roomId);
+	}
+
 	@Operation(summary = "Deletes MCU filter for non MCU room",
 	           responses = {@ApiResponse(responseCode = "200", description = "MCU filter deleted for room")})
 	@DELETE
@@ -112,6 +197,46 @@ public class FilterRestService {
 	    return new Result(true);
 	}
 
+	@Operation(summary = "Set whether the merged streams of the MCU rooms are produced only while they're watched",
+	           responses = {@ApiResponse(responseCode = "200", description = "MCU on-demand mode set")})
+	@PUT
+	@Path("/mcu-on-demand")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public Result setMCUOnDemand(@Parameter(description="Pause the MCU filter of the room while its merged stream has no viewer") @QueryParam("enabled") boolean enabled) {
+	    ApplicationContext appCtx = (ApplicationContext) servletContext.getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
+	    MCUManager mcuManager = (MCUManager) appCtx.getBean(MCUManager.BEAN_NAME);
+	    mcuManager.setOnDemandOutputs(enabled);
+	    return new Result(true);
+	}
+
+	@Operation(summary = "Set the audio mixer, alignment, frame rate, downscaling and thread settings of the MCU filters",
+	           responses = {@ApiResponse(responseCode = "200", description = "MCU settings set")})
+	@PUT
+	@Path("/mcu-settings")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public Result setMCUSettings(@Parameter(description="Settings of the MCU filters. They're applied to the existing rooms as well") MCUManager.MCUSettings mcuSettings) {
+	    ApplicationContext appCtx = (ApplicationContext) servletContext.getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
+	    MCUManager mcuManager = (MCUManager) appCtx.getBean(MCUManager.BEAN_NAME);
+	    if (!mcuManager.setMCUSettings(mcuSettings)) {
+	        return new Result(false, "Alignment latency and output fps cannot be negative");
+	    }
+	    return new Result(true);
+	}
+
+	@Operation(summary = "Returns the settings of the MCU filters",
+	           responses = {@ApiResponse(responseCode = "200", description = "MCU settings")})
+	@GET
+	@Path("/mcu-settings")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public MCUManager.MCUSettings getMCUSettings() {
+	    ApplicationContext appCtx = (ApplicationContext) servletContext.getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
+	    MCUManager mcuManager = (MCUManager) appCtx.getBean(MCUManager.BEAN_NAME);
+	    return mcuManager.getMCUSettings();
+	}
+
 	@Operation(summary = "Set a filter specific to the MCU room",
 	           responses = {@ApiResponse(responseCode = "200", description = "Custom MCU filter set")})
 	@PUT
@@ -0,0 +1,125 @@
+package io.antmedia.test;
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_FLTP;
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_S16;
+import static org.bytedeco.ffmpeg.global.avutil.av_channel_layout_default;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_get_buffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.ShortPointer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.AudioLevelMeter;
+import io.antmedia.filter.utils.ActiveSpeakerDetector;
+
+public class ActiveSpeakerDetectorUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	@Test
+	public void testActiveSpeaker() {
+		ActiveSpeakerDetector detector = new ActiveSpeakerDetector(-50, 1000);
+		Map<String, Double> levels = new HashMap<>();
+		levels.put("stream1", -80.0);
+		levels.put("stream2", -90.0);
+
+		//nobody speaks
+		assertFalse(detector.update(levels, 0));
+		assertNull(detector.getActiveSpeaker());
+
+		//first speaker is active immediately
+		levels.put("stream1", -20.0);
+		assertTrue(detector.update(levels, 100));
+		assertEquals("stream1", detector.getActiveSpeaker());
+
+		//louder speaker should hold the hold time
+		levels.put("stream2", -10.0);
+		assertFalse(detector.update(levels, 200));
+		assertFalse(detector.update(levels, 900));
+		assertEquals("stream1", detector.getActiveSpeaker());
+		assertTrue(detector.update(levels, 1200));
+		assertEquals("stream2", detector.getActiveSpeaker());
+
+		//short noise does not change the speaker
+		levels.put("stream1", -5.0);
+		assertFalse(detector.update(levels, 1300));
+		levels.put("stream1", -80.0);
+		assertFalse(detector.update(levels, 1400));
+		levels.put("stream1", -5.0);
+		assertFalse(detector.update(levels, 2300));
+		assertEquals("stream2", detector.getActiveSpeaker());
+
+		//active speaker leaves the room
+		levels.remove("stream2");
+		assertTrue(detector.update(levels, 2400));
+		assertEquals("stream1", detector.getActiveSpeaker());
+	}
+
+	@Test
+	public void testAudioLevel() {
+		AVFrame frame = av_frame_alloc();
+		frame.format(AV_SAMPLE_FMT_FLTP);
+		frame.nb_samples(960);
+		av_channel_layout_default(frame.ch_layout(), 2);
+		assertEquals(0, av_frame_get_buffer(frame, 0));
+
+		FloatPointer samples = new FloatPointer(frame.data(0));
+		for (int i = 0; i < 960; i++) {
+			samples.put(i, 0);
+		}
+		assertEquals(AudioLevelMeter.SILENCE_DB, AudioLevelMeter.getLevelDb(frame), 0.01);
+
+		//full scale square wave is 0 dBFS
+		for (int i = 0; i < 960; i++) {
+			samples.put(i, i % 2 == 0 ? 1.0f : -1.0f);
+		}
+		assertEquals(0, AudioLevelMeter.getLevelDb(frame), 0.01);
+
+		for (int i = 0; i < 960; i++) {
+			samples.put(i, 0.1f);
+		}
+		assertEquals(-20, AudioLevelMeter.getLevelDb(frame), 0.01);
+		av_frame_free(frame);
+
+		frame = av_frame_alloc();
+		frame.format(AV_SAMPLE_FMT_S16);
+		frame.nb_samples(960);
+		av_channel_layout_default(frame.ch_layout(), 2);
+		assertEquals(0, av_frame_get_buffer(frame, 0));
+		ShortPointer shortSamples = new ShortPointer(frame.data(0));
+		for (int i = 0; i < 960; i++) {
+			//second channel is silent
+			shortSamples.put(2 * i, (short)3277);
+			shortSamples.put(2 * i + 1, (short)0);
+		}
+		assertEquals(-20, AudioLevelMeter.getLevelDb(frame), 0.01);
+		av_frame_free(frame);
+	}
+}
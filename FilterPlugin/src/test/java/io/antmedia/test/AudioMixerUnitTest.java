@@ -0,0 +1,244 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.ShortPointer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.AudioMixer;
+
+public class AudioMixerUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	private static final int SAMPLE_RATE = 48000;
+	private static final int FRAME_SIZE = 960;
+
+	/*
+	 * first samples of the channels of the mixed frames and their pts
+	 */
+	private List<float[]> mixedSamples = new ArrayList<>();
+	private List<Long> mixedPts = new ArrayList<>();
+
+	private AudioMixer createMixer(int channelCount) {
+		return new AudioMixer("room", SAMPLE_RATE, channelCount, (streamId, frame) -> {
+			assertEquals("room", streamId);
+			assertEquals(avutil.AV_SAMPLE_FMT_FLTP, frame.format());
+			assertEquals(FRAME_SIZE, frame.nb_samples());
+			float[] samples = new float[channelCount];
+			for (int i = 0; i < channelCount; i++) {
+				samples[i] = new FloatPointer(frame.data(i)).get(FRAME_SIZE / 2);
+			}
+			mixedSamples.add(samples);
+			mixedPts.add(frame.pts());
+		});
+	}
+
+	private AVFrame createFrame(int format, int channelCount, float value) {
+		AVFrame frame = avutil.av_frame_alloc();
+		frame.format(format);
+		frame.nb_samples(FRAME_SIZE);
+		frame.sample_rate(SAMPLE_RATE);
+		avutil.av_channel_layout_default(frame.ch_layout(), channelCount);
+		assertEquals(0, avutil.av_frame_get_buffer(frame, 0));
+		if (format == avutil.AV_SAMPLE_FMT_FLTP) {
+			for (int channel = 0; channel < channelCount; channel++) {
+				FloatPointer samples = new FloatPointer(frame.data(channel));
+				for (int i = 0; i < FRAME_SIZE; i++) {
+					samples.put(i, value * (channel + 1));
+				}
+			}
+		}
+		else if (format == avutil.AV_SAMPLE_FMT_S16) {
+			ShortPointer samples = new ShortPointer(frame.data(0));
+			for (int i = 0; i < FRAME_SIZE * channelCount; i++) {
+				samples.put(i, (short) (value * 32768));
+			}
+		}
+		return frame;
+	}
+
+	@Test
+	public void testMixFilter() {
+		assertTrue(AudioMixer.isMixFilter("[in0][in1][in2]amix=inputs=3[out0]"));
+		assertTrue(AudioMixer.isMixFilter("[in1]acopy[out0]"));
+		assertFalse(AudioMixer.isMixFilter("[in0]volume=2[out0]"));
+		assertFalse(AudioMixer.isMixFilter("[in0]asplit=2[out0][out1]"));
+		assertFalse(AudioMixer.isMixFilter(null));
+	}
+
+	@Test
+	public void testMixWithGains() {
+		AudioMixer mixer = createMixer(2);
+		mixer.setInputs(List.of("stream1", "stream2"), Map.of("stream2", 0.5));
+
+		AVFrame stereo = createFrame(avutil.AV_SAMPLE_FMT_FLTP, 2, 0.1f);
+		AVFrame mono = createFrame(avutil.AV_SAMPLE_FMT_S16, 1, 0.2f);
+
+		stereo.pts(48000);
+		mixer.push("stream1", stereo, avutil.av_make_q(1, SAMPLE_RATE));
+		//other input has not sent audio yet, so it's not waited
+		assertEquals(1, mixedSamples.size());
+		assertEquals(0.1f, mixedSamples.get(0)[0], 0.001f);
+		assertEquals(0.2f, mixedSamples.get(0)[1], 0.001f);
+
+		//mono input is copied to both channels with its gain
+		mixer.push("stream2", mono, avutil.av_make_q(1, SAMPLE_RATE));
+		assertEquals(1, mixedSamples.size());
+		mixer.push("stream1", stereo, avutil.av_make_q(1, SAMPLE_RATE));
+		assertEquals(2, mixedSamples.size());
+		assertEquals(0.1f + 0.1f, mixedSamples.get(1)[0], 0.001f);
+		assertEquals(0.2f + 0.1f, mixedSamples.get(1)[1], 0.001f);
+
+		//pts continues from the first frame
+		assertEquals(List.of(48000L, 48000L + FRAME_SIZE), mixedPts);
+
+		//stalled input does not stop the mix
+		for (int i = 0; i < 10; i++) {
+			mixer.push("stream1", stereo, avutil.av_make_q(1, SAMPLE_RATE));
+		}
+		assertTrue(mixedSamples.size() > 2);
+		assertEquals(0.1f, mixedSamples.get(mixedSamples.size() - 1)[0], 0.001f);
+
+		mixer.close();
+		avutil.av_frame_free(stereo);
+		avutil.av_frame_free(mono);
+	}
+
+	@Test
+	public void testNormalization() {
+		AudioMixer mixer = createMixer(1);
+		mixer.setInputs(List.of("stream1", "stream2"), null);
+
+		AVFrame loud = createFrame(avutil.AV_SAMPLE_FMT_FLTP, 1, 0.8f);
+		AVFrame quiet = createFrame(avutil.AV_SAMPLE_FMT_FLTP, 1, 0.1f);
+
+		//mix is 1.6 and it's lowered without clipping
+		mixer.push("stream1", loud, avutil.av_make_q(1, SAMPLE_RATE));
+		mixer.push("stream2", loud, avutil.av_make_q(1, SAMPLE_RATE));
+		mixer.push("stream1", loud, avutil.av_make_q(1, SAMPLE_RATE));
+		mixer.push("stream2", loud, avutil.av_make_q(1, SAMPLE_RATE));
+		assertEquals(AudioMixer.NORMALIZATION_PEAK / 1.6f, mixer.getNormalizationGain(), 0.001f);
+		assertEquals(AudioMixer.NORMALIZATION_PEAK, mixedSamples.get(mixedSamples.size() - 1)[0], 0.001f);
+
+		//level goes up slowly after the loud frames
+		float gain = mixer.getNormalizationGain();
+		mixer.push("stream1", quiet, avutil.av_make_q(1, SAMPLE_RATE));
+		mixer.push("stream2", quiet, avutil.av_make_q(1, SAMPLE_RATE));
+		assertTrue(mixer.getNormalizationGain() > gain);
+		assertTrue(mixer.getNormalizationGain() < 1);
+
+		mixer.close();
+		avutil.av_frame_free(loud);
+		avutil.av_frame_free(quiet);
+	}
+
+	@Test
+	public void testInputsAreUpdated() {
+		AudioMixer mixer = createMixer(1);
+		mixer.setInputs(List.of("stream1", "stream2"), null);
+
+		AVFrame frame = createFrame(avutil.AV_SAMPLE_FMT_FLTP, 1, 0.1f);
+		mixer.push("stream1", frame, avutil.av_make_q(1, SAMPLE_RATE));
+		mixer.push("stream2", frame, avutil.av_make_q(1, SAMPLE_RATE));
+		mixer.push("stream1", frame, avutil.av_make_q(1, SAMPLE_RATE));
+		//stream1 waits for stream2
+		mixer.push("stream1", frame, avutil.av_make_q(1, SAMPLE_RATE));
+		assertEquals(2, mixedSamples.size());
+		assertEquals(FRAME_SIZE, mixer.getBufferedSampleCount("stream1"));
+
+		//remaining input keeps its samples, removed input is not mixed
+		mixer.setInputs(List.of("stream1"), null);
+		assertEquals(FRAME_SIZE, mixer.getBufferedSampleCount("stream1"));
+		int count = mixedSamples.size();
+		mixer.push("stream2", frame, avutil.av_make_q(1, SAMPLE_RATE));
+		assertEquals(count, mixedSamples.size());
+
+		mixer.close();
+		avutil.av_frame_free(frame);
+	}
+
+	@Test
+	public void testResampling() {
+		AudioMixer mixer = createMixer(1);
+		mixer.setInputs(List.of("stream1"), null);
+
+		//960 samples in 16kHz are 60ms, so they're resampled to about 3 frames in 48kHz
+		AVFrame frame = createFrame(avutil.AV_SAMPLE_FMT_FLTP, 1, 0.1f);
+		frame.sample_rate(16000);
+		for (int i = 0; i < 5; i++) {
+			frame.pts(i * 60L);
+			mixer.push("stream1", frame, avutil.av_make_q(1, 1000));
+		}
+		assertTrue(mixedSamples.size() >= 12);
+		assertEquals(0.1f, mixedSamples.get(mixedSamples.size() - 1)[0], 0.001f);
+
+		mixer.close();
+		avutil.av_frame_free(frame);
+	}
+
+	@Test
+	public void testMixFollowsInputsAfterGap() {
+		AudioMixer mixer = createMixer(1);
+		mixer.setInputs(List.of("stream1", "stream2"), null);
+		AVFrame frame = createFrame(avutil.AV_SAMPLE_FMT_FLTP, 1, 0.1f);
+
+		for (int i = 0; i < 3; i++) {
+			frame.pts(i * FRAME_SIZE);
+			mixer.push("stream1", frame, avutil.av_make_q(1, SAMPLE_RATE));
+		}
+		assertEquals(List.of(0L, (long)FRAME_SIZE, 2L * FRAME_SIZE), mixedPts);
+
+		//nothing is mixed for a second, e.g. the filter is paused, then the mix continues from the pts of the input
+		frame.pts(3 * FRAME_SIZE + SAMPLE_RATE);
+		mixer.push("stream1", frame, avutil.av_make_q(1, SAMPLE_RATE));
+		assertEquals(3L * FRAME_SIZE + SAMPLE_RATE, (long)mixedPts.get(3));
+
+		//gap of a single input does not move the mix while the other input is mixed
+		long pts = 4L * FRAME_SIZE + SAMPLE_RATE;
+		for (int i = 0; i < 10; i++, pts += FRAME_SIZE) {
+			frame.pts(pts);
+			mixer.push("stream2", frame, avutil.av_make_q(1, SAMPLE_RATE));
+		}
+		frame.pts(pts);
+		mixer.push("stream1", frame, avutil.av_make_q(1, SAMPLE_RATE));
+		frame.pts(pts);
+		mixer.push("stream2", frame, avutil.av_make_q(1, SAMPLE_RATE));
+		assertTrue(mixedPts.size() > 8);
+		for (int i = 1; i < mixedPts.size(); i++) {
+			if (i != 3) {
+				assertEquals(mixedPts.get(i - 1) + FRAME_SIZE, (long)mixedPts.get(i));
+			}
+		}
+
+		mixer.close();
+		avutil.av_frame_free(frame);
+	}
+}
@@ -0,0 +1,85 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.utils.ConfigurationStore;
+import io.antmedia.filter.utils.FilterConfiguration;
+
+public class ConfigurationStoreUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	@Test
+	public void testSaveLoadDelete() throws Exception {
+		File file = new File(Files.createTempDirectory("filter-plugin").toFile(), ConfigurationStore.FILE_NAME);
+		file.deleteOnExit();
+
+		ConfigurationStore store = new ConfigurationStore(file);
+		FilterConfiguration filterConfiguration = new FilterConfiguration();
+		filterConfiguration.setFilterId("filter1");
+		filterConfiguration.setInputStreams(Arrays.asList("stream1"));
+		filterConfiguration.setVideoFilter("[in0]vflip[out0]");
+		assertTrue(store.save(ConfigurationStore.FILTER_TYPE, "filter1", filterConfiguration));
+		assertTrue(file.exists());
+
+		//update does not duplicate the configuration
+		filterConfiguration.setVideoFilter("[in0]hflip[out0]");
+		assertTrue(store.save(ConfigurationStore.FILTER_TYPE, "filter1", filterConfiguration));
+
+		//configurations are read from the file after a restart
+		ConfigurationStore restartedStore = new ConfigurationStore(file);
+		List<FilterConfiguration> filterConfigurations = restartedStore.load(ConfigurationStore.FILTER_TYPE, FilterConfiguration.class);
+		assertEquals(1, filterConfigurations.size());
+		assertEquals("[in0]hflip[out0]", filterConfigurations.get(0).getVideoFilter());
+		assertEquals(Arrays.asList("stream1"), filterConfigurations.get(0).getInputStreams());
+
+		//other types are not loaded
+		assertTrue(restartedStore.load(ConfigurationStore.MCU_ROOM_TYPE, FilterConfiguration.class).isEmpty());
+
+		assertTrue(restartedStore.delete(ConfigurationStore.FILTER_TYPE, "filter1"));
+		assertFalse(restartedStore.delete(ConfigurationStore.FILTER_TYPE, "filter1"));
+		assertTrue(new ConfigurationStore(file).load(ConfigurationStore.FILTER_TYPE, FilterConfiguration.class).isEmpty());
+	}
+
+	@Test
+	public void testCorruptedFile() throws Exception {
+		File file = File.createTempFile("filter-plugin", ".json");
+		file.deleteOnExit();
+		Files.writeString(file.toPath(), "{not json");
+
+		//corrupted file does not stop the application and it's replaced with the next save
+		ConfigurationStore store = new ConfigurationStore(file);
+		assertTrue(store.load(ConfigurationStore.FILTER_TYPE, FilterConfiguration.class).isEmpty());
+		FilterConfiguration filterConfiguration = new FilterConfiguration();
+		filterConfiguration.setFilterId("filter1");
+		assertTrue(store.save(ConfigurationStore.FILTER_TYPE, "filter1", filterConfiguration));
+		assertEquals(1, new ConfigurationStore(file).load(ConfigurationStore.FILTER_TYPE, FilterConfiguration.class).size());
+	}
+}
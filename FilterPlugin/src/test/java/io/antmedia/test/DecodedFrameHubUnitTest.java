@@ -0,0 +1,268 @@
+package io.antmedia.test;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_ALL;
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_DEFAULT;
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_NONREF;
+import static org.bytedeco.ffmpeg.global.avcodec.AV_CODEC_ID_H264;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_unref;
+import static org.bytedeco.ffmpeg.global.avformat.av_read_frame;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_close_input;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_find_stream_info;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_open_input;
+import static org.bytedeco.ffmpeg.global.avutil.AVMEDIA_TYPE_VIDEO;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.awaitility.Awaitility;
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.AntMediaApplicationAdapter;
+import io.antmedia.filter.DecodedFrameHub;
+import io.antmedia.filter.Utils;
+import io.antmedia.filter.VideoDecoder;
+import io.antmedia.plugin.api.IFrameListener;
+import io.antmedia.plugin.api.StreamParametersInfo;
+import io.vertx.core.Vertx;
+
+public class DecodedFrameHubUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		}
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		}
+	};
+
+	private static Vertx vertx;
+
+	@AfterClass
+	public static void afterClass() {
+		vertx.close();
+	}
+
+	@BeforeClass
+	public static void beforeClass() {
+		vertx = Vertx.vertx();
+	}
+
+	private StreamParametersInfo createVideoStreamInfo() {
+		AVCodecParameters videoCodecParameters = new AVCodecParameters();
+		videoCodecParameters.width(640);
+		videoCodecParameters.height(360);
+		videoCodecParameters.codec_id(AV_CODEC_ID_H264);
+		videoCodecParameters.codec_type(AVMEDIA_TYPE_VIDEO);
+		videoCodecParameters.format(AV_PIX_FMT_YUV420P);
+		videoCodecParameters.codec_tag(0);
+
+		StreamParametersInfo streamParams = new StreamParametersInfo();
+		streamParams.setEnabled(true);
+		streamParams.setTimeBase(Utils.TIME_BASE_FOR_MS);
+		streamParams.setCodecParameters(videoCodecParameters);
+		return streamParams;
+	}
+
+	@Test
+	public void testSubscribeAndUnsubscribe() {
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		DecodedFrameHub hub = new DecodedFrameHub(app);
+		String streamId = "stream1";
+
+		IFrameListener subscriber1 = mock(IFrameListener.class);
+		IFrameListener subscriber2 = mock(IFrameListener.class);
+
+		hub.subscribe(streamId, subscriber1);
+		hub.subscribe(streamId, subscriber2);
+		//same subscriber is not added twice
+		hub.subscribe(streamId, subscriber2);
+
+		//stream is registered once for all subscribers
+		verify(app, times(1)).addPacketListener(streamId, hub);
+		assertTrue(hub.isDecoding(streamId));
+		assertEquals(2, hub.getSubscriberCount(streamId));
+
+		StreamParametersInfo videoStreamInfo = createVideoStreamInfo();
+		hub.setVideoStreamInfo(streamId, videoStreamInfo);
+		verify(subscriber1).setVideoStreamInfo(streamId, videoStreamInfo);
+		verify(subscriber2).setVideoStreamInfo(streamId, videoStreamInfo);
+
+		//late subscriber gets the stream info
+		IFrameListener subscriber3 = mock(IFrameListener.class);
+		hub.subscribe(streamId, subscriber3);
+		verify(subscriber3).setVideoStreamInfo(streamId, videoStreamInfo);
+		verify(subscriber3, never()).setAudioStreamInfo(eq(streamId), any());
+
+		hub.unsubscribe(streamId, subscriber1);
+		hub.unsubscribe(streamId, subscriber2);
+		verify(app, never()).removePacketListener(streamId, hub);
+		assertEquals(1, hub.getSubscriberCount(streamId));
+
+		hub.unsubscribe(streamId, subscriber3);
+		verify(app, times(1)).removePacketListener(streamId, hub);
+		assertFalse(hub.isDecoding(streamId));
+		assertEquals(0, hub.getSubscriberCount(streamId));
+
+		//stream info of a stream without subscriber is ignored
+		hub.setVideoStreamInfo(streamId, videoStreamInfo);
+		verify(subscriber1, times(1)).setVideoStreamInfo(streamId, videoStreamInfo);
+	}
+
+	@Test
+	public void testDecodeOnceForAllSubscribers() {
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.getVertx()).thenReturn(vertx);
+		DecodedFrameHub hub = new DecodedFrameHub(app);
+		String streamId = "stream1";
+
+		IFrameListener subscriber1 = mock(IFrameListener.class);
+		IFrameListener subscriber2 = mock(IFrameListener.class);
+		List<Long> deliveredPts = new ArrayList<>();
+		doAnswer(invocation -> {
+			deliveredPts.add(invocation.getArgument(1, AVFrame.class).pts());
+			return null;
+		}).when(subscriber1).onVideoFrame(eq(streamId), any());
+		hub.subscribe(streamId, subscriber1);
+		hub.subscribe(streamId, subscriber2);
+		hub.setVideoStreamInfo(streamId, createVideoStreamInfo());
+
+		AVFormatContext inputFormatContext = new AVFormatContext(null);
+		int ret = avformat_open_input(inputFormatContext, "src/test/resources/test_video_360p.ts", null, null);
+		assertTrue(Utils.getErrorDefinition(ret), ret >= 0);
+		ret = avformat_find_stream_info(inputFormatContext, (AVDictionary) null);
+		assertTrue(Utils.getErrorDefinition(ret), ret >= 0);
+
+		AVPacket pkt = avcodec.av_packet_alloc();
+		int packetCount = 0;
+		while (packetCount < 100 && av_read_frame(inputFormatContext, pkt) == 0)
+		{
+			if (inputFormatContext.streams(pkt.stream_index()).codecpar().codec_type() == AVMEDIA_TYPE_VIDEO) {
+				hub.onVideoPacket(streamId, pkt);
+				packetCount++;
+			}
+			av_packet_unref(pkt);
+		}
+		avformat_close_input(inputFormatContext);
+		//frames waiting in the decoder are delivered after the frames of the queued packets
+		hub.writeTrailer(streamId);
+
+		int decodedPacketCount = packetCount;
+		Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> hub.getDecodedVideoFrameCount() == decodedPacketCount);
+		assertEquals(decodedPacketCount, deliveredPts.size());
+		for (int i = 1; i < deliveredPts.size(); i++) {
+			assertTrue(deliveredPts.get(i) > deliveredPts.get(i - 1));
+		}
+
+		//each decoded frame is delivered to both subscribers
+		verify(subscriber1, atLeastOnce()).onVideoFrame(eq(streamId), any());
+		verify(subscriber2, atLeastOnce()).onVideoFrame(eq(streamId), any());
+
+		hub.unsubscribe(streamId, subscriber1);
+		hub.unsubscribe(streamId, subscriber2);
+		verify(app, times(1)).removePacketListener(streamId, hub);
+	}
+
+	@Test
+	public void testFrameInterval() {
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		DecodedFrameHub hub = new DecodedFrameHub(app);
+		String streamId = "stream1";
+
+		IFrameListener thumbnail = mock(IFrameListener.class);
+		IFrameListener everyThird = mock(IFrameListener.class);
+		IFrameListener allFrames = mock(IFrameListener.class);
+
+		IFrameListener paused = mock(IFrameListener.class);
+		hub.subscribe(streamId, paused, VideoDecoder.DECODE_NONE);
+		assertEquals(VideoDecoder.DECODE_NONE, hub.getFrameInterval(streamId));
+
+		hub.subscribe(streamId, thumbnail, VideoDecoder.DECODE_KEY_FRAMES_ONLY);
+		assertEquals(VideoDecoder.DECODE_KEY_FRAMES_ONLY, hub.getFrameInterval(streamId));
+
+		hub.subscribe(streamId, everyThird, 3);
+		assertEquals(3, hub.getFrameInterval(streamId));
+
+		//stream is decoded for the subscriber that needs the most frames
+		hub.subscribe(streamId, allFrames);
+		assertEquals(VideoDecoder.DECODE_ALL_FRAMES, hub.getFrameInterval(streamId));
+
+		hub.unsubscribe(streamId, allFrames);
+		assertEquals(3, hub.getFrameInterval(streamId));
+
+		hub.setFrameInterval(streamId, everyThird, VideoDecoder.DECODE_KEY_FRAMES_ONLY);
+		assertEquals(VideoDecoder.DECODE_KEY_FRAMES_ONLY, hub.getFrameInterval(streamId));
+
+		//interval is applied to the decoder created later
+		hub.setVideoStreamInfo(streamId, createVideoStreamInfo());
+		hub.subscribe(streamId, everyThird, 2);
+		assertEquals(2, hub.getFrameInterval(streamId));
+
+		hub.unsubscribe(streamId, thumbnail);
+		hub.unsubscribe(streamId, everyThird);
+		assertEquals(VideoDecoder.DECODE_NONE, hub.getFrameInterval(streamId));
+
+		hub.unsubscribe(streamId, paused);
+		assertEquals(VideoDecoder.DECODE_ALL_FRAMES, hub.getFrameInterval(streamId));
+	}
+
+	@Test
+	public void testLoopFilterDiscard() {
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		DecodedFrameHub hub = new DecodedFrameHub(app);
+		String streamId = "stream1";
+
+		IFrameListener smallTile = mock(IFrameListener.class);
+		IFrameListener bigTile = mock(IFrameListener.class);
+
+		hub.subscribe(streamId, smallTile);
+		hub.setLoopFilterDiscard(streamId, smallTile, AVDISCARD_ALL);
+		assertEquals(AVDISCARD_ALL, hub.getLoopFilterDiscard(streamId));
+
+		//deblocking is skipped only as much as all subscribers allow
+		hub.subscribe(streamId, bigTile);
+		assertEquals(AVDISCARD_DEFAULT, hub.getLoopFilterDiscard(streamId));
+		hub.setLoopFilterDiscard(streamId, bigTile, AVDISCARD_NONREF);
+		assertEquals(AVDISCARD_NONREF, hub.getLoopFilterDiscard(streamId));
+
+		hub.unsubscribe(streamId, bigTile);
+		assertEquals(AVDISCARD_ALL, hub.getLoopFilterDiscard(streamId));
+
+		hub.unsubscribe(streamId, smallTile);
+		assertEquals(AVDISCARD_DEFAULT, hub.getLoopFilterDiscard(streamId));
+	}
+
+}
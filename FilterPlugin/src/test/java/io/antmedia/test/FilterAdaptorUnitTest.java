@@ -1,6 +1,10 @@
 package io.antmedia.test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
@@ -13,17 +17,23 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.awaitility.Awaitility;
 import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
 import org.bytedeco.ffmpeg.avutil.AVChannelLayout;
 import org.bytedeco.ffmpeg.avutil.AVFrame;
@@ -37,16 +47,25 @@ import org.junit.rules.TestRule;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 import org.mockito.Mockito;
+import org.red5.server.api.scope.IScope;
 
 import io.antmedia.AntMediaApplicationAdapter;
+import io.antmedia.datastore.db.DataStore;
+import io.antmedia.datastore.db.InMemoryDataStore;
+import io.antmedia.datastore.db.types.Broadcast;
+import io.antmedia.filter.AudioMixer;
 import io.antmedia.filter.FilterAdaptor;
+import io.antmedia.filter.FrameQueueWorker;
+import io.antmedia.filter.OutputAliasForwarder;
 import io.antmedia.filter.Utils;
 import io.antmedia.filter.utils.FilterConfiguration;
 import io.antmedia.filter.utils.FilterGraph;
 import io.antmedia.filter.utils.IFilteredFrameListener;
+import io.antmedia.muxer.MuxAdaptor;
 import io.antmedia.plugin.api.IFrameListener;
 import io.antmedia.plugin.api.StreamParametersInfo;
 import io.antmedia.rest.model.Result;
+import io.antmedia.settings.ServerSettings;
 import io.vertx.core.Vertx;
 
 public class FilterAdaptorUnitTest {
@@ -100,7 +119,7 @@ public class FilterAdaptorUnitTest {
 		FilterGraph filterGraph = mock(FilterGraph.class);
 
 		filterAdaptor.onVideoFrame(streamId, frame);
-		verify(filterGraph, never()).doFilter(streamId, frame, false);
+		verify(filterGraph, never()).pushFrame(eq(streamId), any(), anyBoolean());
 		
 		filterAdaptor.setVideoFilterGraphForTest(filterGraph);
 		when(filterGraph.isInitiated()).thenReturn(true);
@@ -113,7 +132,7 @@ public class FilterAdaptorUnitTest {
 		
 		filterAdaptor.onVideoFrame(streamId, frame);
 		//check that it's working
-		verify(filterGraph, timeout(3000)).doFilter(eq(streamId), any(), Mockito.anyBoolean());
+		verify(filterGraph, timeout(3000)).pushFrame(eq(streamId), any(), Mockito.anyBoolean());
 		
 		//it should not throw exception
 		filterAdaptor.onVideoFrame(streamId, null);
@@ -145,17 +164,17 @@ public class FilterAdaptorUnitTest {
 		FilterGraph filterGraph = mock(FilterGraph.class);
 
 		filterAdaptor.onVideoFrame(streamId, frame);
-		verify(filterGraph, never()).doFilter(streamId, frame, false);
+		verify(filterGraph, never()).pushFrame(eq(streamId), any(), anyBoolean());
 
 		filterAdaptor.setVideoFilterGraphForTest(filterGraph);
 
 		filterAdaptor.onVideoFrame(streamId, frame);
-		verify(filterGraph, never()).doFilter(streamId, frame, false);
+		verify(filterGraph, never()).pushFrame(eq(streamId), any(), anyBoolean());
 
 		when(filterGraph.isInitiated()).thenReturn(true);
 
 		filterAdaptor.onVideoFrame(streamId, frame);
-		verify(filterGraph, never()).doFilter(streamId, frame, false);
+		verify(filterGraph, never()).pushFrame(eq(streamId), any(), anyBoolean());
 
 		when(filterGraph.getListener()).thenReturn(mock(IFilteredFrameListener.class));
 
@@ -165,7 +184,7 @@ public class FilterAdaptorUnitTest {
 		filterAdaptor.setVideoStreamInfo(streamId, vsi);
 		
 		filterAdaptor.onVideoFrame(streamId, frame);
-		verify(filterGraph, timeout(3000)).doFilter(eq(streamId), any(), Mockito.anyBoolean());
+		verify(filterGraph, timeout(3000)).pushFrame(eq(streamId), any(), Mockito.anyBoolean());
 	}
 	
 	
@@ -192,22 +211,22 @@ public class FilterAdaptorUnitTest {
 		FilterGraph filterGraph = mock(FilterGraph.class);
 
 		filterAdaptor.onAudioFrame(streamId, frame);
-		verify(filterGraph, never()).doFilter(streamId, frame, false);
+		verify(filterGraph, never()).pushFrame(eq(streamId), any(), anyBoolean());
 
 		filterAdaptor.setAudioFilterGraphForTest(filterGraph);
 
 		filterAdaptor.onAudioFrame(streamId, frame);
-		verify(filterGraph, never()).doFilter(streamId, frame, false);
+		verify(filterGraph, never()).pushFrame(eq(streamId), any(), anyBoolean());
 
 		when(filterGraph.isInitiated()).thenReturn(true);
 
 		filterAdaptor.onAudioFrame(streamId, frame);
-		verify(filterGraph, never()).doFilter(streamId, frame, false);
+		verify(filterGraph, never()).pushFrame(eq(streamId), any(), anyBoolean());
 
 		when(filterGraph.getListener()).thenReturn(mock(IFilteredFrameListener.class));
 
 		filterAdaptor.onAudioFrame(streamId, frame);
-		verify(filterGraph, timeout(3000)).doFilter(eq(streamId), any(), anyBoolean());
+		verify(filterGraph, timeout(3000)).pushFrame(eq(streamId), any(), anyBoolean());
 	}
 	
 	@Test
@@ -275,6 +294,16 @@ public class FilterAdaptorUnitTest {
 		conf.setOutputStreams(Arrays.asList(output1));
 		
 		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+
+		//inputs whose labels are not in the filter text are neither decoded nor fed to the graph
+		List<String> inputs = Arrays.asList(stream1, stream2, stream3);
+		for (int i = 0; i < inputs.size(); i++) {
+			assertEquals(!videoFilter.contains("[in" + i + "]"), filterAdaptor.getUnusedVideoInputs().contains(inputs.get(i)));
+			assertEquals(!audioFilter.contains("[in" + i + "]"), filterAdaptor.getUnusedAudioInputs().contains(inputs.get(i)));
+		}
+
+		//each enabled graph is built once
+		assertEquals((videoEnabled ? 1 : 0) + (audioEnabled ? 1 : 0), filterAdaptor.getStats().getGraphRebuildCount());
 		
 		filterAdaptor.close(app);
 		
@@ -283,6 +312,46 @@ public class FilterAdaptorUnitTest {
 		
 	}
 
+	@Test
+	public void testInputWaitingForStreamInfo() {
+		FilterAdaptor filterAdaptor = spy(new FilterAdaptor(RandomStringUtils.randomAlphanumeric(12)));
+		filterAdaptor.setDecodeStreamMap(new ConcurrentHashMap<>());
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.createCustomBroadcast(anyString(), anyInt(), anyInt())).thenReturn(mock(IFrameListener.class));
+
+		String stream1 = "inStream1";
+		String stream2 = "inStream2";
+		filterAdaptor.setVideoStreamInfo(stream1, getStreamInfo());
+		filterAdaptor.setAudioStreamInfo(stream1, getStreamInfo());
+
+		FilterConfiguration conf = new FilterConfiguration();
+		conf.setVideoEnabled(true);
+		conf.setAudioEnabled(true);
+		conf.setVideoFilter("[in0][in1]hstack=inputs=2[out0]");
+		conf.setAudioFilter("[in0][in1]amix=inputs=2[out0]");
+		conf.setInputStreams(Arrays.asList(stream1, stream2));
+		conf.setOutputStreams(Arrays.asList("outStream1"));
+
+		//second input has joined but it has not started publishing yet
+		assertFalse(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		verify(filterAdaptor, times(1)).update();
+
+		filterAdaptor.setVideoStreamInfo(stream2, getStreamInfo());
+		verify(filterAdaptor, times(2)).update();
+		assertTrue(filterAdaptor.getVideoFilterGraph().isInitiated());
+
+		filterAdaptor.setAudioStreamInfo(stream2, getStreamInfo());
+		verify(filterAdaptor, times(3)).update();
+		assertTrue(filterAdaptor.getAudioFilterGraph().isInitiated());
+
+		//stream info updates of the inputs in the graph do not update the filter
+		filterAdaptor.setVideoStreamInfo(stream1, getStreamInfo());
+		verify(filterAdaptor, times(3)).update();
+
+		filterAdaptor.close(app);
+	}
+
 	public StreamParametersInfo getStreamInfo() {
 		StreamParametersInfo si = new StreamParametersInfo();
 		AVCodecParameters codecParams = new AVCodecParameters();
@@ -389,4 +458,512 @@ public class FilterAdaptorUnitTest {
 		filterAdaptor.onAudioFrame(streamId, null);
 		
 	}
+
+	@Test
+	public void testHotSwapUpdate() {
+		Map<String, Boolean> decodeStreamMap = new ConcurrentHashMap<>();
+
+		FilterAdaptor filterAdaptor = spy(new FilterAdaptor(RandomStringUtils.randomAlphanumeric(12)));
+		filterAdaptor.setDecodeStreamMap(decodeStreamMap);
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		IFrameListener outputListener = mock(IFrameListener.class);
+		when(app.createCustomBroadcast(anyString(), anyInt(), anyInt())).thenReturn(outputListener);
+
+		String stream1 = "inStream1";
+		String stream2 = "inStream2";
+		filterAdaptor.setVideoStreamInfo(stream1, getStreamInfo());
+		filterAdaptor.setAudioStreamInfo(stream1, getStreamInfo());
+		filterAdaptor.setVideoStreamInfo(stream2, getStreamInfo());
+		filterAdaptor.setAudioStreamInfo(stream2, getStreamInfo());
+
+		FilterConfiguration conf = new FilterConfiguration();
+		conf.setAudioEnabled(false);
+		conf.setAudioFilter("[in0]anull[out0]");
+		conf.setVideoEnabled(true);
+		conf.setVideoFilter("[in0]vflip[out0]");
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1)));
+		conf.setOutputStreams(Arrays.asList("outStream1"));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+
+		FilterGraph firstGraph = filterAdaptor.getVideoFilterGraph();
+		assertNotNull(firstGraph);
+		assertNull(filterAdaptor.getPendingVideoFilterGraph());
+
+		//same configuration does not rebuild the graph
+		conf = new FilterConfiguration();
+		conf.setAudioEnabled(false);
+		conf.setAudioFilter("[in0]anull[out0]");
+		conf.setVideoEnabled(true);
+		conf.setVideoFilter("[in0]vflip[out0]");
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1)));
+		conf.setOutputStreams(Arrays.asList("outStream1"));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		assertSame(firstGraph, filterAdaptor.getVideoFilterGraph());
+		assertNull(filterAdaptor.getPendingVideoFilterGraph());
+
+		//new input is added, running graph is kept until the new graph produces a frame
+		conf = new FilterConfiguration();
+		conf.setAudioEnabled(false);
+		conf.setAudioFilter("[in0]anull[out0]");
+		conf.setVideoEnabled(true);
+		conf.setVideoFilter("[in0][in1]vstack=inputs=2[out0]");
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1, stream2)));
+		conf.setOutputStreams(Arrays.asList("outStream1"));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+
+		FilterGraph pendingGraph = filterAdaptor.getPendingVideoFilterGraph();
+		assertNotNull(pendingGraph);
+		assertSame(firstGraph, filterAdaptor.getVideoFilterGraph());
+		assertTrue(firstGraph.isInitiated());
+
+		AVFrame frame = avutil.av_frame_alloc();
+		frame.width(640);
+		frame.height(360);
+		frame.format(avutil.AV_PIX_FMT_YUV420P);
+		assertEquals(0, avutil.av_frame_get_buffer(frame, 32));
+
+		for (int i = 0; i < 10; i++) {
+			frame.pts(i * 40L);
+			filterAdaptor.onVideoFrame(stream1, frame);
+			filterAdaptor.onVideoFrame(stream2, frame);
+		}
+
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> filterAdaptor.getPendingVideoFilterGraph() == null);
+		assertSame(pendingGraph, filterAdaptor.getVideoFilterGraph());
+		assertFalse(firstGraph.isInitiated());
+		verify(outputListener, Mockito.atLeastOnce()).onVideoFrame(eq("outStream1"), any());
+
+		filterAdaptor.close(app);
+		avutil.av_frame_free(frame);
+	}
+
+	@Test
+	public void testAlignedInputs() {
+		Map<String, Boolean> decodeStreamMap = new ConcurrentHashMap<>();
+
+		FilterAdaptor filterAdaptor = new FilterAdaptor(RandomStringUtils.randomAlphanumeric(12));
+		filterAdaptor.setDecodeStreamMap(decodeStreamMap);
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		IFrameListener outputListener = mock(IFrameListener.class);
+		when(app.createCustomBroadcast(anyString(), anyInt(), anyInt())).thenReturn(outputListener);
+
+		String stream1 = "inStream1";
+		String stream2 = "inStream2";
+		filterAdaptor.setVideoStreamInfo(stream1, getStreamInfo());
+		filterAdaptor.setAudioStreamInfo(stream1, getStreamInfo());
+		filterAdaptor.setVideoStreamInfo(stream2, getStreamInfo());
+		filterAdaptor.setAudioStreamInfo(stream2, getStreamInfo());
+
+		FilterConfiguration conf = new FilterConfiguration();
+		conf.setAudioEnabled(false);
+		conf.setAudioFilter("[in0]anull[out0]");
+		conf.setVideoEnabled(true);
+		conf.setVideoFilter("[in0][in1]vstack=inputs=2[out0]");
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1, stream2)));
+		conf.setOutputStreams(Arrays.asList("outStream1"));
+		conf.setAlignmentLatencyMs(100);
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		assertNotNull(filterAdaptor.getFrameAligner());
+
+		AVFrame frame = avutil.av_frame_alloc();
+		frame.width(640);
+		frame.height(360);
+		frame.format(avutil.AV_PIX_FMT_YUV420P);
+		assertEquals(0, avutil.av_frame_get_buffer(frame, 32));
+
+		//inputs have different timestamps but they're mixed after they're aligned
+		for (int i = 0; i < 10; i++) {
+			frame.pts(i * 40L);
+			filterAdaptor.onVideoFrame(stream1, frame);
+			frame.pts(500000 + i * 40L);
+			filterAdaptor.onVideoFrame(stream2, frame);
+		}
+		//frame that is older than the last frame of the input is dropped
+		frame.pts(0);
+		filterAdaptor.onVideoFrame(stream1, frame);
+
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> filterAdaptor.getFrameAligner().getQueuedFrameCount() == 0);
+		verify(outputListener, Mockito.timeout(5000).atLeastOnce()).onVideoFrame(eq("outStream1"), any());
+		assertEquals(1, filterAdaptor.getStats().getLateFrameCount());
+
+		//aligner is removed when the latency is not set
+		conf = new FilterConfiguration();
+		conf.setAudioEnabled(false);
+		conf.setAudioFilter("[in0]anull[out0]");
+		conf.setVideoEnabled(true);
+		conf.setVideoFilter("[in0][in1]vstack=inputs=2[out0]");
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1, stream2)));
+		conf.setOutputStreams(Arrays.asList("outStream1"));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		assertNull(filterAdaptor.getFrameAligner());
+
+		filterAdaptor.close(app);
+		avutil.av_frame_free(frame);
+	}
+
+	@Test
+	public void testOutputAliases() {
+		FilterAdaptor filterAdaptor = new FilterAdaptor(RandomStringUtils.randomAlphanumeric(12));
+		filterAdaptor.setDecodeStreamMap(new ConcurrentHashMap<>());
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.getVertx()).thenReturn(vertx);
+		when(app.createCustomBroadcast(anyString(), anyInt(), anyInt())).thenReturn(mock(IFrameListener.class));
+		ServerSettings serverSettings = mock(ServerSettings.class);
+		when(serverSettings.getRtmpPort()).thenReturn(1935);
+		when(app.getServerSettings()).thenReturn(serverSettings);
+		IScope scope = mock(IScope.class);
+		when(scope.getName()).thenReturn("LiveApp");
+		when(app.getScope()).thenReturn(scope);
+
+		String stream1 = "inStream1";
+		filterAdaptor.setVideoStreamInfo(stream1, getStreamInfo());
+		filterAdaptor.setAudioStreamInfo(stream1, getStreamInfo());
+
+		FilterConfiguration conf = new FilterConfiguration();
+		conf.setAudioEnabled(false);
+		conf.setAudioFilter("[in0]anull[out0]");
+		conf.setVideoEnabled(true);
+		conf.setVideoFilter("[in0]null[out0]");
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1)));
+		conf.setOutputStreams(Arrays.asList("mix"));
+		Map<String, List<String>> aliases = new HashMap<>();
+		//input stream can not be an alias
+		aliases.put("mix", Arrays.asList("mix-public", "mix-vip", stream1));
+		conf.setOutputAliases(aliases);
+
+		//mux adaptor of the output is not ready yet so the aliases are retried
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		OutputAliasForwarder forwarder = filterAdaptor.getAliasForwarder("mix");
+		assertNotNull(forwarder);
+		assertTrue(forwarder.getStartedAliases().isEmpty());
+
+		MuxAdaptor muxAdaptor = mock(MuxAdaptor.class);
+		when(muxAdaptor.startRtmpStreaming(anyString(), anyInt())).thenReturn(new Result(true));
+		when(app.getMuxAdaptor("mix")).thenReturn(muxAdaptor);
+
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> forwarder.getStartedAliases().size() == 2);
+		verify(muxAdaptor).startRtmpStreaming("rtmp://127.0.0.1:1935/LiveApp/mix-public", 0);
+		verify(muxAdaptor).startRtmpStreaming("rtmp://127.0.0.1:1935/LiveApp/mix-vip", 0);
+		//output is encoded once
+		verify(app, times(1)).createCustomBroadcast(anyString(), anyInt(), anyInt());
+
+		//removed alias is stopped
+		aliases.put("mix", Arrays.asList("mix-public"));
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1)));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		verify(muxAdaptor).stopRtmpStreaming("rtmp://127.0.0.1:1935/LiveApp/mix-vip", 0);
+		assertEquals(Arrays.asList("mix-public"), forwarder.getStartedAliases());
+		verify(muxAdaptor, times(1)).startRtmpStreaming("rtmp://127.0.0.1:1935/LiveApp/mix-public", 0);
+
+		filterAdaptor.close(app);
+		verify(muxAdaptor).stopRtmpStreaming("rtmp://127.0.0.1:1935/LiveApp/mix-public", 0);
+		assertTrue(forwarder.getStartedAliases().isEmpty());
+	}
+
+	@Test
+	public void testSeparateGraphThreads() throws InterruptedException {
+		FilterAdaptor filterAdaptor = spy(new FilterAdaptor(RandomStringUtils.randomAlphanumeric(12)));
+		filterAdaptor.setDecodeStreamMap(new ConcurrentHashMap<>());
+
+		doReturn(new Result(true)).when(filterAdaptor).update();
+		doNothing().when(filterAdaptor).rescaleFramePtsToMs(any(), any(), any());
+		FilterConfiguration filterConf = new FilterConfiguration();
+		filterConf.setInputStreams(new ArrayList<>());
+		filterConf.setOutputStreams(new ArrayList<>());
+		filterConf.setSeparateGraphThreads(true);
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.getVertx()).thenReturn(vertx);
+
+		filterAdaptor.createOrUpdateFilter(filterConf, app);
+		assertNotNull(filterAdaptor.getAudioFrameQueueWorker());
+		assertEquals(2, filterAdaptor.getFrameQueueWorkers().size());
+
+		String streamId = "stream1";
+		StreamParametersInfo vsi = new StreamParametersInfo();
+		vsi.setCodecParameters(new AVCodecParameters());
+		vsi.setTimeBase(Utils.TIME_BASE_FOR_MS);
+		filterAdaptor.setVideoStreamInfo(streamId, vsi);
+
+		//video graph is stuck in a heavy filter
+		CountDownLatch videoLatch = new CountDownLatch(1);
+		FilterGraph videoGraph = mock(FilterGraph.class);
+		when(videoGraph.isInitiated()).thenReturn(true);
+		when(videoGraph.getListener()).thenReturn(mock(IFilteredFrameListener.class));
+		when(videoGraph.pushFrame(anyString(), any(), anyBoolean())).thenAnswer(invocation -> {
+			videoLatch.await(10, TimeUnit.SECONDS);
+			return true;
+		});
+		filterAdaptor.setVideoFilterGraphForTest(videoGraph);
+
+		List<String> audioThreads = new ArrayList<>();
+		FilterGraph audioGraph = mock(FilterGraph.class);
+		when(audioGraph.isInitiated()).thenReturn(true);
+		when(audioGraph.getListener()).thenReturn(mock(IFilteredFrameListener.class));
+		when(audioGraph.pushFrame(anyString(), any(), anyBoolean())).thenAnswer(invocation -> {
+			audioThreads.add(Thread.currentThread().getName());
+			return true;
+		});
+		filterAdaptor.setAudioFilterGraphForTest(audioGraph);
+
+		filterAdaptor.onVideoFrame(streamId, new AVFrame());
+		verify(videoGraph, timeout(3000)).pushFrame(eq(streamId), any(), anyBoolean());
+
+		//audio is filtered while video thread is busy
+		for (int i = 0; i < 5; i++) {
+			filterAdaptor.onAudioFrame(streamId, new AVFrame());
+		}
+		verify(audioGraph, timeout(3000).times(5)).pushFrame(eq(streamId), any(), anyBoolean());
+		assertTrue(audioThreads.stream().allMatch(name -> name.startsWith("filter-audio-worker-")));
+		videoLatch.countDown();
+
+		//audio shares the thread of video when it's disabled
+		filterConf.setInputStreams(new ArrayList<>());
+		filterConf.setSeparateGraphThreads(false);
+		filterAdaptor.createOrUpdateFilter(filterConf, app);
+		assertNull(filterAdaptor.getAudioFrameQueueWorker());
+		assertEquals(1, filterAdaptor.getFrameQueueWorkers().size());
+
+		filterAdaptor.onAudioFrame(streamId, new AVFrame());
+		verify(audioGraph, timeout(3000).times(6)).pushFrame(eq(streamId), any(), anyBoolean());
+		assertTrue(audioThreads.get(5).startsWith("filter-worker-"));
+
+		filterAdaptor.close(app);
+	}
+
+	@Test
+	public void testFrameQueueSettingsUpdate() {
+		FilterAdaptor filterAdaptor = spy(new FilterAdaptor(RandomStringUtils.randomAlphanumeric(12)));
+		filterAdaptor.setDecodeStreamMap(new ConcurrentHashMap<>());
+
+		doReturn(new Result(true)).when(filterAdaptor).update();
+		FilterConfiguration filterConf = new FilterConfiguration();
+		filterConf.setInputStreams(new ArrayList<>());
+		filterConf.setOutputStreams(new ArrayList<>());
+		filterConf.setSeparateGraphThreads(true);
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.getVertx()).thenReturn(vertx);
+
+		filterAdaptor.createOrUpdateFilter(filterConf, app);
+		FrameQueueWorker videoWorker = filterAdaptor.getFrameQueueWorker();
+		FrameQueueWorker audioWorker = filterAdaptor.getAudioFrameQueueWorker();
+
+		//workers are kept if the queue settings are not changed
+		filterAdaptor.createOrUpdateFilter(filterConf, app);
+		assertSame(videoWorker, filterAdaptor.getFrameQueueWorker());
+		assertSame(audioWorker, filterAdaptor.getAudioFrameQueueWorker());
+
+		filterConf.setFrameQueueCapacity(30);
+		filterAdaptor.createOrUpdateFilter(filterConf, app);
+		assertFalse(videoWorker.isRunning());
+		assertFalse(audioWorker.isRunning());
+		assertEquals(30, filterAdaptor.getFrameQueueWorker().getCapacity());
+		assertEquals(30, filterAdaptor.getAudioFrameQueueWorker().getCapacity());
+		assertTrue(filterAdaptor.getFrameQueueWorker().isRunning());
+		assertTrue(filterAdaptor.getAudioFrameQueueWorker().isRunning());
+
+		videoWorker = filterAdaptor.getFrameQueueWorker();
+		filterConf.setFrameDropPolicy(FilterConfiguration.DROP_POLICY_DROP_NON_KEY);
+		filterAdaptor.createOrUpdateFilter(filterConf, app);
+		assertFalse(videoWorker.isRunning());
+		assertEquals(FilterConfiguration.DROP_POLICY_DROP_NON_KEY, filterAdaptor.getFrameQueueWorker().getDropPolicy());
+		assertEquals(FilterConfiguration.DROP_POLICY_DROP_NON_KEY, filterAdaptor.getAudioFrameQueueWorker().getDropPolicy());
+
+		filterAdaptor.close(app);
+	}
+
+	@Test
+	public void testAudioMixer() {
+		FilterAdaptor filterAdaptor = new FilterAdaptor(RandomStringUtils.randomAlphanumeric(12));
+		filterAdaptor.setDecodeStreamMap(new ConcurrentHashMap<>());
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.createCustomBroadcast(anyString(), anyInt(), anyInt())).thenReturn(mock(IFrameListener.class));
+
+		String stream1 = "inStream1";
+		String stream2 = "inStream2";
+		for (String streamId : Arrays.asList(stream1, stream2)) {
+			filterAdaptor.setVideoStreamInfo(streamId, getStreamInfo());
+			filterAdaptor.setAudioStreamInfo(streamId, getStreamInfo());
+		}
+
+		FilterConfiguration conf = new FilterConfiguration();
+		conf.setVideoEnabled(false);
+		conf.setVideoFilter("[in0][in1]hstack=inputs=2[out0]");
+		conf.setAudioEnabled(true);
+		conf.setAudioFilter("[in0][in1]amix=inputs=2[out0]");
+		conf.setAudioMixer(true);
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1, stream2)));
+		conf.setOutputStreams(Arrays.asList("room"));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+
+		//audio is mixed without a graph
+		AudioMixer mixer = filterAdaptor.getAudioMixer();
+		assertNotNull(mixer);
+		assertNull(filterAdaptor.getAudioFilterGraph());
+		assertEquals(16000, mixer.getSampleRate());
+		assertEquals(2, mixer.getChannelCount());
+
+		AVFrame frame = avutil.av_frame_alloc();
+		frame.format(avutil.AV_SAMPLE_FMT_FLTP);
+		frame.nb_samples(320);
+		frame.sample_rate(16000);
+		avutil.av_channel_layout_default(frame.ch_layout(), 2);
+		assertEquals(0, avutil.av_frame_get_buffer(frame, 0));
+		for (int i = 0; i < 5; i++) {
+			frame.pts(i * 20L);
+			filterAdaptor.onAudioFrame(stream1, frame);
+			filterAdaptor.onAudioFrame(stream2, frame);
+		}
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> mixer.getMixedFrameCount() >= 5);
+
+		//participant leaves and the mixer is updated without a graph
+		conf.setAudioFilter("[in0]acopy[out0]");
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1)));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		assertSame(mixer, filterAdaptor.getAudioMixer());
+		assertNull(filterAdaptor.getAudioFilterGraph());
+
+		//graph is used for the other audio filters
+		conf.setAudioFilter("[in0]volume=0.5[out0]");
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1)));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		assertNull(filterAdaptor.getAudioMixer());
+		assertNotNull(filterAdaptor.getAudioFilterGraph());
+
+		filterAdaptor.close(app);
+		avutil.av_frame_free(frame);
+	}
+
+	@Test
+	public void testOnDemand() throws Exception {
+		FilterAdaptor filterAdaptor = new FilterAdaptor(RandomStringUtils.randomAlphanumeric(12));
+		filterAdaptor.setDecodeStreamMap(new ConcurrentHashMap<>());
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.getVertx()).thenReturn(vertx);
+		when(app.createCustomBroadcast(anyString(), anyInt(), anyInt())).thenReturn(mock(IFrameListener.class));
+		DataStore dataStore = new InMemoryDataStore("test");
+		when(app.getDataStore()).thenReturn(dataStore);
+
+		Broadcast output = new Broadcast();
+		output.setStreamId("room");
+		dataStore.save(output);
+
+		String stream1 = "inStream1";
+		filterAdaptor.setVideoStreamInfo(stream1, getStreamInfo());
+
+		FilterConfiguration conf = new FilterConfiguration();
+		conf.setVideoEnabled(true);
+		conf.setVideoFilter("[in0]vflip[out0]");
+		conf.setAudioEnabled(false);
+		conf.setOnDemand(true);
+		conf.setIdleTimeoutMs(0);
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1)));
+		conf.setOutputStreams(Arrays.asList("room"));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+
+		//nobody watches the output yet
+		assertTrue(filterAdaptor.isPaused());
+		filterAdaptor.checkDemand(app);
+		assertTrue(filterAdaptor.isPaused());
+
+		AVFrame frame = avutil.av_frame_alloc();
+		frame.format(avutil.AV_PIX_FMT_YUV420P);
+		frame.width(360);
+		frame.height(240);
+		assertEquals(0, avutil.av_frame_get_buffer(frame, 32));
+		frame.pts(0);
+		assertSame(frame, filterAdaptor.onVideoFrame(stream1, frame));
+		//frame is not fed to the filter
+		assertFalse(filterAdaptor.getStats().getInputVideoFps().containsKey(stream1));
+		//lastpoint filter does not give the input to the next listeners
+		conf.setType(FilterConfiguration.LASTPOINT);
+		assertNull(filterAdaptor.onVideoFrame(stream1, frame));
+		conf.setType(FilterConfiguration.ASYNCHRONOUS);
+
+		//first viewer resumes the filter
+		output.setWebRTCViewerCount(1);
+		dataStore.save(output);
+		filterAdaptor.checkDemand(app);
+		assertFalse(filterAdaptor.isPaused());
+
+		//filter is paused again after the idle timeout
+		output.setWebRTCViewerCount(0);
+		dataStore.save(output);
+		filterAdaptor.checkDemand(app);
+		assertTrue(filterAdaptor.isPaused());
+
+		//recording of the output is a demand as well
+		output.setMp4Enabled(1);
+		dataStore.save(output);
+		Awaitility.await().atMost(FilterAdaptor.ON_DEMAND_CHECK_PERIOD_MS * 3, TimeUnit.MILLISECONDS).until(() -> !filterAdaptor.isPaused());
+
+		//filter runs all the time when on-demand mode is disabled
+		output.setMp4Enabled(0);
+		dataStore.save(output);
+		conf.setOnDemand(false);
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1)));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		filterAdaptor.checkDemand(app);
+		assertFalse(filterAdaptor.isPaused());
+
+		filterAdaptor.close(app);
+		avutil.av_frame_free(frame);
+	}
+
+	@Test
+	public void testOutputFps() {
+		FilterAdaptor filterAdaptor = new FilterAdaptor(RandomStringUtils.randomAlphanumeric(12));
+		filterAdaptor.setDecodeStreamMap(new ConcurrentHashMap<>());
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		IFrameListener outputListener = mock(IFrameListener.class);
+		when(app.createCustomBroadcast(anyString(), anyInt(), anyInt())).thenReturn(outputListener);
+
+		String stream1 = "inStream1";
+		filterAdaptor.setVideoStreamInfo(stream1, getStreamInfo());
+
+		FilterConfiguration conf = new FilterConfiguration();
+		conf.setVideoEnabled(true);
+		conf.setVideoFilter("[in0]vflip[out0]");
+		conf.setAudioEnabled(false);
+		conf.setOutputFps(30);
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1)));
+		conf.setOutputStreams(Arrays.asList("outStream1"));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		assertEquals(30, filterAdaptor.getFrameRateDecimator().getTargetFps());
+
+		AVFrame frame = avutil.av_frame_alloc();
+		frame.width(640);
+		frame.height(360);
+		frame.format(avutil.AV_PIX_FMT_YUV420P);
+		assertEquals(0, avutil.av_frame_get_buffer(frame, 32));
+
+		//half of the 60fps input is dropped before the frame queue
+		for (int i = 0; i < 60; i++) {
+			frame.pts(Math.round(i * 1000 / 60.0));
+			assertEquals(frame, filterAdaptor.onVideoFrame(stream1, frame));
+		}
+		assertEquals(30, filterAdaptor.getStats().getDecimatedFrameCount());
+		verify(outputListener, Mockito.timeout(5000).times(30)).onVideoFrame(eq("outStream1"), any());
+
+		//all frames are fed when the output rate is not set
+		conf.setOutputFps(0);
+		conf.setInputStreams(new ArrayList<>(Arrays.asList(stream1)));
+		assertTrue(filterAdaptor.createOrUpdateFilter(conf, app).isSuccess());
+		for (int i = 60; i < 70; i++) {
+			frame.pts(Math.round(i * 1000 / 60.0));
+			filterAdaptor.onVideoFrame(stream1, frame);
+		}
+		assertEquals(30, filterAdaptor.getStats().getDecimatedFrameCount());
+		verify(outputListener, Mockito.timeout(5000).times(40)).onVideoFrame(eq("outStream1"), any());
+
+		filterAdaptor.close(app);
+		avutil.av_frame_free(frame);
+	}
 }
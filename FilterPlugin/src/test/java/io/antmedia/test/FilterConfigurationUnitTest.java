@@ -1,9 +1,14 @@
 package io.antmedia.test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 
@@ -90,4 +95,44 @@ public class FilterConfigurationUnitTest {
         filterConfig.setVideoOutputBitrate(videoOutputBitrate);
         assertEquals(videoOutputBitrate, filterConfig.getVideoOutputBitrate());
     }
+
+    @Test
+    public void testGetSetFrameQueue() {
+        FilterConfiguration filterConfig = new FilterConfiguration();
+        assertEquals(120, filterConfig.getFrameQueueCapacity());
+        assertEquals(FilterConfiguration.DROP_POLICY_DROP_OLDEST, filterConfig.getFrameDropPolicy());
+
+        filterConfig.setFrameQueueCapacity(30);
+        filterConfig.setFrameDropPolicy(FilterConfiguration.DROP_POLICY_DROP_NON_KEY);
+        assertEquals(30, filterConfig.getFrameQueueCapacity());
+        assertEquals(FilterConfiguration.DROP_POLICY_DROP_NON_KEY, filterConfig.getFrameDropPolicy());
+    }
+
+    @Test
+    public void testGetSetGraphHotSwap() {
+        FilterConfiguration filterConfig = new FilterConfiguration();
+        assertTrue(filterConfig.isGraphHotSwap());
+
+        filterConfig.setGraphHotSwap(false);
+        assertFalse(filterConfig.isGraphHotSwap());
+    }
+
+    @Test
+    public void testGetSetDecodeFrameIntervals() {
+        FilterConfiguration filterConfig = new FilterConfiguration();
+        assertNull(filterConfig.getDecodeFrameIntervals());
+        assertEquals(1, filterConfig.getDecodeFrameInterval("stream1"));
+
+        Map<String, Integer> intervals = new HashMap<>();
+        intervals.put("stream1", 0);
+        intervals.put("stream2", 3);
+        intervals.put("stream3", -2);
+        filterConfig.setDecodeFrameIntervals(intervals);
+        assertEquals(intervals, filterConfig.getDecodeFrameIntervals());
+        assertEquals(0, filterConfig.getDecodeFrameInterval("stream1"));
+        assertEquals(3, filterConfig.getDecodeFrameInterval("stream2"));
+        //invalid and missing values fall back to decoding all frames
+        assertEquals(1, filterConfig.getDecodeFrameInterval("stream3"));
+        assertEquals(1, filterConfig.getDecodeFrameInterval("stream4"));
+    }
 }
@@ -3,10 +3,13 @@ import static org.bytedeco.ffmpeg.global.avfilter.avfilter_graph_alloc;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -22,6 +25,8 @@ import org.mockito.Mockito;
 
 import io.antmedia.filter.utils.Filter;
 import io.antmedia.filter.utils.FilterGraph;
+import io.antmedia.filter.utils.FramePool;
+import io.antmedia.filter.utils.IFilteredFrameListener;
 
 public class FilterGraphUnitTest {
 
@@ -110,43 +115,170 @@ public class FilterGraphUnitTest {
 		frame.height(360);
 		frame.format(avutil.AV_PIX_FMT_YUV420P);
 		
-		graph.prepareFrame(frame);
+		graph.prepareFrame("output0", frame);
 		
-		assertNotNull(graph.getPicture());
-		assertEquals(480, graph.getPicture().width());
-		assertEquals(360, graph.getPicture().height());
-		assertEquals(avutil.AV_PIX_FMT_YUV420P, graph.getPicture().format());
+		assertNotNull(graph.getPicture("output0"));
+		assertEquals(480, graph.getPicture("output0").width());
+		assertEquals(360, graph.getPicture("output0").height());
+		assertEquals(avutil.AV_PIX_FMT_YUV420P, graph.getPicture("output0").format());
 		
 		
 		frame.width(240);
-		graph.prepareFrame(frame);
-		Mockito.verify(graph).freeSwsResources();
-		assertNotNull(graph.getPicture());
-		assertEquals(240, graph.getPicture().width());
-		assertEquals(360, graph.getPicture().height());
-		assertEquals(avutil.AV_PIX_FMT_YUV420P, graph.getPicture().format());
+		graph.prepareFrame("output0", frame);
+		Mockito.verify(graph).releasePicture("output0");
+		assertNotNull(graph.getPicture("output0"));
+		assertEquals(240, graph.getPicture("output0").width());
+		assertEquals(360, graph.getPicture("output0").height());
+		assertEquals(avutil.AV_PIX_FMT_YUV420P, graph.getPicture("output0").format());
 		
 		frame.height(240);
-		graph.prepareFrame(frame);
-		Mockito.verify(graph, Mockito.times(2)).freeSwsResources();
-		assertNotNull(graph.getPicture());
-		assertEquals(240, graph.getPicture().width());
-		assertEquals(240, graph.getPicture().height());
-		assertEquals(avutil.AV_PIX_FMT_YUV420P, graph.getPicture().format());
+		graph.prepareFrame("output0", frame);
+		Mockito.verify(graph, Mockito.times(2)).releasePicture("output0");
+		assertNotNull(graph.getPicture("output0"));
+		assertEquals(240, graph.getPicture("output0").width());
+		assertEquals(240, graph.getPicture("output0").height());
+		assertEquals(avutil.AV_PIX_FMT_YUV420P, graph.getPicture("output0").format());
 		
 		
 		frame.format(avutil.AV_PIX_FMT_YUYV422);
-		graph.prepareFrame(frame);
-		Mockito.verify(graph, Mockito.times(3)).freeSwsResources();
-		assertNotNull(graph.getPicture());
-		assertEquals(240, graph.getPicture().width());
-		assertEquals(240, graph.getPicture().height());
-		assertEquals(avutil.AV_PIX_FMT_YUYV422, graph.getPicture().format());
+		graph.prepareFrame("output0", frame);
+		Mockito.verify(graph, Mockito.times(3)).releasePicture("output0");
+		assertNotNull(graph.getPicture("output0"));
+		assertEquals(240, graph.getPicture("output0").width());
+		assertEquals(240, graph.getPicture("output0").height());
+		assertEquals(avutil.AV_PIX_FMT_YUYV422, graph.getPicture("output0").format());
 		
-		graph.prepareFrame(frame);
-		Mockito.verify(graph, Mockito.times(3)).freeSwsResources();
+		graph.prepareFrame("output0", frame);
+		Mockito.verify(graph, Mockito.times(3)).releasePicture("output0");
 		
+		//another output with a different size has its own picture
+		frame.width(480);
+		frame.format(avutil.AV_PIX_FMT_YUV420P);
+		AVFrame picture = graph.prepareFrame("output1", frame);
+		assertEquals(480, picture.width());
+		assertEquals(240, graph.getPicture("output0").width());
+		
+		assertEquals(picture, graph.prepareFrame("output1", frame));
+		Mockito.verify(graph, Mockito.never()).releasePicture("output1");
 		
+		graph.close();
+	}
+	
+	@Test
+	public void testPictureAllocationFailure() {
+		FilterGraph graph = createFilterGraph("[in0]vflip[out0]", 1, 1);
+		FramePool framePool = Mockito.mock(FramePool.class);
+		Mockito.when(framePool.acquireVideoFrame(Mockito.anyInt(), Mockito.anyInt(), Mockito.anyInt())).thenReturn(null);
+		graph.setFramePool(framePool);
+
+		AVFrame frame = new AVFrame();
+		frame.width(360);
+		frame.height(360);
+		frame.format(avutil.AV_PIX_FMT_YUV420P);
+		frame.linesize(0, -360);
+
+		assertNull(graph.prepareFrame("output0", frame));
+		assertNull(graph.getPicture("output0"));
+		//frame is given as is like the copy errors
+		assertEquals(frame, graph.resetIfRequired("output0", frame));
+		assertNull(graph.getPicture("output0"));
+
+		graph.close();
+	}
+
+	@Test
+	public void testNegativeLinesize() {
+		Map<String, Filter> sourceFiltersMap = new LinkedHashMap<String, Filter>();
+		sourceFiltersMap.put("stream0", new Filter("buffer", "video_size=360x360:pix_fmt=0:time_base=1/20:pixel_aspect=1/1", "in0"));
+
+		Map<String, Filter> sinkFiltersMap = new LinkedHashMap<String, Filter>();
+		sinkFiltersMap.put("output0", new Filter("buffersink", null, "out0"));
+
+		FilterGraph graph = new FilterGraph("[in0]vflip[out0]", sourceFiltersMap, sinkFiltersMap);
+		assertTrue(graph.isInitiated());
+		
+		List<Integer> linesizes = new ArrayList<>();
+		List<Integer> firstLumaValues = new ArrayList<>();
+		List<AVFrame> frames = new ArrayList<>();
+		graph.setListener((streamId, filteredFrame) -> {
+			linesizes.add(filteredFrame.linesize(0));
+			firstLumaValues.add(filteredFrame.data(0).get(0) & 0xFF);
+			frames.add(filteredFrame);
+		});
+
+		AVFrame frame = avutil.av_frame_alloc();
+		frame.width(360);
+		frame.height(360);
+		frame.format(avutil.AV_PIX_FMT_YUV420P);
+		assertEquals(0, avutil.av_frame_get_buffer(frame, 32));
+		assertEquals(0, avutil.av_frame_make_writable(frame));
+		//first line is 10 and the last line is 200, so the first line of the flipped frame is 200
+		for (int i = 0; i < frame.height(); i++) {
+			for (int j = 0; j < frame.width(); j++) {
+				frame.data(0).put((long)i * frame.linesize(0) + j, (byte)(i == frame.height() - 1 ? 200 : 10));
+			}
+		}
+
+		for (int i = 0; i < 3; i++) {
+			frame.pts(i);
+			graph.doFilter("stream0", frame, false, true);
+		}
+
+		assertEquals(3, linesizes.size());
+		for (int i = 0; i < 3; i++) {
+			assertTrue(linesizes.get(i) > 0);
+			assertEquals(200, (int)firstLumaValues.get(i));
+		}
+		//picture of the output is reused for the flipped frames
+		assertEquals(frames.get(0), frames.get(1));
+		assertEquals(frames.get(0), graph.getPicture("output0"));
+		
+		//flipped frames are given as is if the consumer supports negative linesize
+		graph.setPassNegativeLinesize(true);
+		frame.pts(3);
+		graph.doFilter("stream0", frame, false, true);
+		assertEquals(4, linesizes.size());
+		assertTrue(linesizes.get(3) < 0);
+		assertEquals(200, (int)firstLumaValues.get(3));
+
+		graph.close();
+		avutil.av_frame_free(frame);
+	}
+
+	@Test
+	public void testSyncModeDeliversAllOutputs() {
+		Map<String, Filter> sourceFiltersMap = new LinkedHashMap<String, Filter>();
+		sourceFiltersMap.put("stream0", new Filter("buffer", "video_size=360x360:pix_fmt=0:time_base=1/20:pixel_aspect=1/1", "in0"));
+
+		//first output has the same id with the input so it's returned, second one is sent to listener
+		Map<String, Filter> sinkFiltersMap = new LinkedHashMap<String, Filter>();
+		sinkFiltersMap.put("stream0", new Filter("buffersink", null, "out0"));
+		sinkFiltersMap.put("overlay0", new Filter("buffersink", null, "out1"));
+
+		FilterGraph graph = new FilterGraph("[in0]split[a][b];[b]scale=180:180[out1];[a]null[out0]", sourceFiltersMap, sinkFiltersMap);
+		assertTrue(graph.isInitiated());
+
+		IFilteredFrameListener listener = Mockito.mock(IFilteredFrameListener.class);
+		graph.setListener(listener);
+
+		AVFrame frame = avutil.av_frame_alloc();
+		frame.width(360);
+		frame.height(360);
+		frame.format(avutil.AV_PIX_FMT_YUV420P);
+		assertEquals(0, avutil.av_frame_get_buffer(frame, 32));
+
+		for (int i = 0; i < 5; i++) {
+			frame.pts(i);
+			AVFrame filteredFrame = graph.doFilter("stream0", frame, true, true);
+			assertNotNull(filteredFrame);
+			assertEquals(360, filteredFrame.width());
+		}
+
+		Mockito.verify(listener, Mockito.times(5)).onFilteredFrame(Mockito.eq("overlay0"), Mockito.any());
+		Mockito.verify(listener, Mockito.never()).onFilteredFrame(Mockito.eq("stream0"), Mockito.any());
+
+		graph.close();
+		avutil.av_frame_free(frame);
 	}
 
 }
@@ -22,20 +22,31 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.awaitility.Awaitility;
 import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
 import org.bytedeco.ffmpeg.avcodec.AVPacket;
@@ -66,7 +77,9 @@ import io.antmedia.datastore.db.InMemoryDataStore;
 import io.antmedia.datastore.db.types.Broadcast;
 import io.antmedia.datastore.db.types.BroadcastUpdate;
 import io.antmedia.filter.FilterAdaptor;
+import io.antmedia.filter.FilterMetrics;
 import io.antmedia.filter.Utils;
+import io.antmedia.filter.utils.ConfigurationStore;
 import io.antmedia.filter.utils.FilterConfiguration;
 import io.antmedia.muxer.IAntMediaStreamHandler;
 import io.antmedia.plugin.FiltersManager;
@@ -74,7 +87,9 @@ import io.antmedia.plugin.api.IFrameListener;
 import io.antmedia.plugin.api.StreamParametersInfo;
 import io.antmedia.rest.model.Result;
 import io.antmedia.settings.ServerSettings;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
 
 
 
@@ -178,6 +193,370 @@ public class FilterManagerUnitTest {
 
 	}
 
+	@Test
+	public void testInvalidFilterIsRejectedBeforeCreation() {
+		FiltersManager filtersManager = spy(new FiltersManager());
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.getAppSettings()).thenReturn(new AppSettings());
+		DataStore dataStore = new InMemoryDataStore("test");
+		when(app.getDataStore()).thenReturn(dataStore);
+		ServerSettings serverSettings = new ServerSettings();
+		when(app.getServerSettings()).thenReturn(serverSettings);
+
+		Broadcast broadcast = new Broadcast();
+		try {
+			broadcast.setStreamId("stream1");
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+		broadcast.setUpdateTime(System.currentTimeMillis());
+		broadcast.setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
+		broadcast.setOriginAdress(serverSettings.getHostAddress());
+		dataStore.save(broadcast);
+
+		String filterString = "{\"filterId\":\"filter1\",\"inputStreams\":[\"stream1\"],\"outputStreams\":[\"stream2\"],\"videoFilter\":\"[in0]notafilter[out0]\",\"audioFilter\":\"[in0]acopy[out0]\",\"videoEnabled\":\"true\",\"audioEnabled\":\"true\"}";
+		FilterConfiguration filterConfiguration = new Gson().fromJson(filterString, FilterConfiguration.class);
+
+		Result result = filtersManager.createFilter(filterConfiguration, app);
+		assertFalse(result.isSuccess());
+		assertTrue(result.getMessage().startsWith("Video filter is not valid"));
+		//filter is not created, so it does not listen to the inputs
+		verify(filtersManager, Mockito.never()).getFilterAdaptor(Mockito.anyString());
+		assertFalse(filtersManager.hasFilter("filter1"));
+
+		//audio filter is checked as well
+		filterConfiguration.setVideoFilter("[in0]vflip[out0]");
+		filterConfiguration.setAudioFilter("[in1]acopy[out0]");
+		result = filtersManager.createFilter(filterConfiguration, app);
+		assertFalse(result.isSuccess());
+		assertTrue(result.getMessage().startsWith("Audio filter is not valid"));
+
+		//frame queue settings are checked before the filter is changed
+		filterConfiguration.setAudioFilter("[in0]acopy[out0]");
+		filterConfiguration.setFrameQueueCapacity(0);
+		result = filtersManager.createFilter(filterConfiguration, app);
+		assertFalse(result.isSuccess());
+		assertTrue(result.getMessage().startsWith("Frame queue capacity should be positive"));
+
+		filterConfiguration.setFrameQueueCapacity(30);
+		filterConfiguration.setFrameDropPolicy("drop-newest");
+		result = filtersManager.createFilter(filterConfiguration, app);
+		assertFalse(result.isSuccess());
+		assertTrue(result.getMessage().startsWith("Frame drop policy is not valid"));
+		verify(filtersManager, Mockito.never()).getFilterAdaptor(Mockito.anyString());
+
+		//same texts are not validated again
+		filterConfiguration.setAudioFilter("[in1]acopy[out0]");
+		filterConfiguration.setFrameDropPolicy(FilterConfiguration.DROP_POLICY_DROP_OLDEST);
+		long missCount = filtersManager.getTemplateRegistry().getMissCount();
+		filtersManager.createFilter(filterConfiguration, app);
+		assertEquals(missCount, filtersManager.getTemplateRegistry().getMissCount());
+	}
+
+	@Test
+	public void testMetricsAreRegisteredForCreatedFilters() throws Exception {
+		FiltersManager filtersManager = spy(new FiltersManager());
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		AppSettings appSettings = new AppSettings();
+		appSettings.setAppName("metricsApp");
+		when(app.getAppSettings()).thenReturn(appSettings);
+		DataStore dataStore = new InMemoryDataStore("test");
+		when(app.getDataStore()).thenReturn(dataStore);
+		ServerSettings serverSettings = new ServerSettings();
+		when(app.getServerSettings()).thenReturn(serverSettings);
+
+		Broadcast broadcast = new Broadcast();
+		broadcast.setStreamId("stream1");
+		broadcast.setUpdateTime(System.currentTimeMillis());
+		broadcast.setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
+		broadcast.setOriginAdress(serverSettings.getHostAddress());
+		dataStore.save(broadcast);
+
+		FilterAdaptor filterAdaptor = Mockito.mock(FilterAdaptor.class);
+		Mockito.when(filterAdaptor.getFilterMetrics()).thenReturn(new FilterMetrics("metricsFilter", () -> null));
+		Mockito.doReturn(filterAdaptor).when(filtersManager).getFilterAdaptor("metricsFilter");
+		Mockito.when(filterAdaptor.createOrUpdateFilter(Mockito.any(), Mockito.any())).thenReturn(new Result(false, "cannot be created"));
+
+		String filterString = "{\"filterId\":\"metricsFilter\",\"inputStreams\":[\"stream1\"],\"outputStreams\":[\"stream2\"],\"videoFilter\":\"[in0]vflip[out0]\",\"videoEnabled\":\"true\",\"audioEnabled\":\"false\",\"persistent\":false}";
+		FilterConfiguration filterConfiguration = new Gson().fromJson(filterString, FilterConfiguration.class);
+
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName("io.antmedia:type=FilterStats,app=" + ObjectName.quote("metricsApp") 
+				+ ",filterId=" + ObjectName.quote("metricsFilter"));
+
+		//metrics of the filter that cannot be created are not left in JMX
+		assertFalse(filtersManager.createFilter(filterConfiguration, app).isSuccess());
+		assertFalse(mBeanServer.isRegistered(objectName));
+
+		Mockito.when(filterAdaptor.createOrUpdateFilter(Mockito.any(), Mockito.any())).thenReturn(new Result(true));
+		assertTrue(filtersManager.createFilter(filterConfiguration, app).isSuccess());
+		assertTrue(mBeanServer.isRegistered(objectName));
+		mBeanServer.unregisterMBean(objectName);
+	}
+
+	@Test
+	public void testCreateRequestIsForwardedToNodeWithMostInputs() {
+		FiltersManager filtersManager = spy(new FiltersManager());
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.getAppSettings()).thenReturn(new AppSettings());
+		when(app.isClusterMode()).thenReturn(true);
+		DataStore dataStore = new InMemoryDataStore("test");
+		when(app.getDataStore()).thenReturn(dataStore);
+		ServerSettings serverSettings = new ServerSettings();
+		when(app.getServerSettings()).thenReturn(serverSettings);
+
+		String remoteNode = "10.0.0.2";
+		String[][] streams = {{"stream1", serverSettings.getHostAddress()}, {"stream2", remoteNode}, {"stream3", remoteNode}};
+		for (String[] stream : streams) {
+			Broadcast broadcast = new Broadcast();
+			try {
+				broadcast.setStreamId(stream[0]);
+			} catch (Exception e) {
+				e.printStackTrace();
+				fail(e.getMessage());
+			}
+			broadcast.setUpdateTime(System.currentTimeMillis());
+			broadcast.setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
+			broadcast.setOriginAdress(stream[1]);
+			dataStore.save(broadcast);
+		}
+
+		doReturn(new Result(true)).when(filtersManager).forwardCreateRequest(any(), eq(remoteNode), any());
+
+		String filterString = "{\"filterId\":\"filter1\",\"inputStreams\":[\"stream1\",\"stream2\",\"stream3\"],\"outputStreams\":[\"output1\"],\"videoFilter\":\"[in0][in1][in2]hstack=inputs=3[out0]\",\"videoEnabled\":\"true\",\"audioEnabled\":\"false\",\"placement\":\"most-inputs\"}";
+		FilterConfiguration filterConfiguration = new Gson().fromJson(filterString, FilterConfiguration.class);
+
+		Result result = filtersManager.createFilter(filterConfiguration, app);
+		assertTrue(result.isSuccess());
+		assertTrue(result.getMessage().contains(remoteNode));
+		//remote node should not forward it again
+		verify(filtersManager).forwardCreateRequest(Mockito.argThat(conf -> "filter1".equals(conf.getFilterId()) 
+				&& FilterConfiguration.PLACEMENT_LOCAL.equals(conf.getPlacement())), eq(remoteNode), eq(app));
+		//configuration of the caller is not changed
+		assertEquals(FilterConfiguration.PLACEMENT_MOST_INPUTS, filterConfiguration.getPlacement());
+		verify(filtersManager, Mockito.never()).getFilterAdaptor(Mockito.anyString());
+		assertFalse(filtersManager.hasFilter("filter1"));
+
+		//filter that is running on this node is updated here instead of creating another copy on the remote node
+		FilterAdaptor filterAdaptor = Mockito.mock(FilterAdaptor.class);
+		Mockito.when(filterAdaptor.createOrUpdateFilter(Mockito.any(), Mockito.any())).thenReturn(new Result(true));
+		doReturn(filterAdaptor).when(filtersManager).getFilterAdaptor("filter1");
+		doReturn(true).when(filtersManager).hasFilter("filter1");
+		assertTrue(filtersManager.createFilter(filterConfiguration, app).isSuccess());
+		verify(filtersManager, Mockito.times(1)).forwardCreateRequest(any(), any(), any());
+		verify(filterAdaptor).createOrUpdateFilter(filterConfiguration, app);
+
+		//this node is preferred when it hosts as many inputs as the other node
+		Map<String, Integer> inputCountByOrigin = new LinkedHashMap<>();
+		inputCountByOrigin.put(remoteNode, 1);
+		inputCountByOrigin.put("10.0.0.1", 1);
+		assertEquals("10.0.0.1", filtersManager.getPlacementNode(inputCountByOrigin, "10.0.0.1"));
+		inputCountByOrigin.put("10.0.0.3", 2);
+		assertEquals("10.0.0.3", filtersManager.getPlacementNode(inputCountByOrigin, "10.0.0.1"));
+		assertEquals(remoteNode, filtersManager.getPlacementNode(Map.of(remoteNode, 1), "10.0.0.1"));
+	}
+
+	@Test
+	public void testFiltersAreRestoredWhenInputsStart() throws Exception {
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.getAppSettings()).thenReturn(new AppSettings());
+		DataStore dataStore = new InMemoryDataStore("test");
+		when(app.getDataStore()).thenReturn(dataStore);
+		ServerSettings serverSettings = new ServerSettings();
+		when(app.getServerSettings()).thenReturn(serverSettings);
+		Vertx vertx = Vertx.vertx();
+		when(app.getVertx()).thenReturn(vertx);
+
+		Broadcast[] inputs = new Broadcast[2];
+		for (int i = 0; i < inputs.length; i++) {
+			inputs[i] = new Broadcast();
+			inputs[i].setStreamId("stream" + (i + 1));
+			inputs[i].setUpdateTime(System.currentTimeMillis());
+			inputs[i].setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
+			inputs[i].setOriginAdress(serverSettings.getHostAddress());
+			dataStore.save(inputs[i]);
+		}
+
+		FilterAdaptor filterAdaptor = Mockito.mock(FilterAdaptor.class);
+		Mockito.when(filterAdaptor.createOrUpdateFilter(Mockito.any(), Mockito.any())).thenReturn(new Result(true));
+		File configurationFile = new File(Files.createTempDirectory("filter-plugin").toFile(), ConfigurationStore.FILE_NAME);
+		configurationFile.deleteOnExit();
+
+		//filter is saved when it's created
+		FiltersManager filtersManager = spy(new FiltersManager());
+		Mockito.doReturn(filterAdaptor).when(filtersManager).getFilterAdaptor(Mockito.anyString());
+		Mockito.doReturn(configurationFile).when(filtersManager).getConfigurationFile(app);
+		String transientFilterString = "{\"filterId\":\"filter2\",\"inputStreams\":[\"stream1\",\"stream2\"],\"outputStreams\":[\"output1\"],\"videoFilter\":\"[in0][in1]hstack=inputs=2[out0]\",\"videoEnabled\":\"true\",\"audioEnabled\":\"false\"}";
+		String filterString = transientFilterString.replace("filter2", "filter1").replace("}", ",\"persistent\":true}");
+		assertTrue(filtersManager.createFilter(new Gson().fromJson(filterString, FilterConfiguration.class), app).isSuccess());
+		assertEquals(1, filtersManager.getConfigurationStore(app).load(ConfigurationStore.FILTER_TYPE, FilterConfiguration.class).size());
+
+		//filters are not saved by default
+		assertTrue(filtersManager.createFilter(new Gson().fromJson(transientFilterString, FilterConfiguration.class), app).isSuccess());
+		assertEquals(1, filtersManager.getConfigurationStore(app).load(ConfigurationStore.FILTER_TYPE, FilterConfiguration.class).size());
+
+		//server restarts and the inputs are not streaming yet
+		for (Broadcast input : inputs) {
+			input.setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_FINISHED);
+			dataStore.save(input);
+		}
+		FiltersManager restartedFiltersManager = spy(new FiltersManager());
+		Mockito.doReturn(filterAdaptor).when(restartedFiltersManager).getFilterAdaptor(Mockito.anyString());
+		Mockito.doReturn(configurationFile).when(restartedFiltersManager).getConfigurationFile(app);
+		restartedFiltersManager.restoreFilters(app);
+		verify(app).addStreamListener(restartedFiltersManager);
+		assertTrue(restartedFiltersManager.getPendingRestores().containsKey("filter1"));
+		assertEquals(1, restartedFiltersManager.getPendingRestores().size());
+
+		//filter waits for all of its inputs
+		inputs[0].setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
+		dataStore.save(inputs[0]);
+		restartedFiltersManager.streamStarted(inputs[0]);
+		assertTrue(restartedFiltersManager.getPendingRestores().containsKey("filter1"));
+		verify(restartedFiltersManager, Mockito.never()).getFilterAdaptor(Mockito.anyString());
+
+		inputs[1].setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
+		dataStore.save(inputs[1]);
+		restartedFiltersManager.streamStarted(inputs[1]);
+		verify(restartedFiltersManager, Mockito.timeout(5000)).getFilterAdaptor("filter1");
+		assertTrue(restartedFiltersManager.getPendingRestores().isEmpty());
+
+		//filter that is deleted before its inputs start is not restored again
+		for (Broadcast input : inputs) {
+			input.setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_FINISHED);
+			dataStore.save(input);
+		}
+		FiltersManager anotherRestartedFiltersManager = spy(new FiltersManager());
+		Mockito.doReturn(configurationFile).when(anotherRestartedFiltersManager).getConfigurationFile(app);
+		anotherRestartedFiltersManager.restoreFilters(app);
+		assertTrue(anotherRestartedFiltersManager.getPendingRestores().containsKey("filter1"));
+		assertTrue(anotherRestartedFiltersManager.delete("filter1", app));
+		assertTrue(anotherRestartedFiltersManager.getPendingRestores().isEmpty());
+		assertTrue(anotherRestartedFiltersManager.getConfigurationStore(app).load(ConfigurationStore.FILTER_TYPE, FilterConfiguration.class).isEmpty());
+
+		vertx.close();
+	}
+
+	@Test
+	public void testBatchCreateAndDelete() throws Exception {
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.getAppSettings()).thenReturn(new AppSettings());
+		DataStore dataStore = spy(new InMemoryDataStore("test"));
+		when(app.getDataStore()).thenReturn(dataStore);
+		ServerSettings serverSettings = new ServerSettings();
+		when(app.getServerSettings()).thenReturn(serverSettings);
+		Vertx vertx = Vertx.vertx();
+		when(app.getVertx()).thenReturn(vertx);
+
+		for (String streamId : Arrays.asList("stream1", "stream2")) {
+			Broadcast broadcast = new Broadcast();
+			broadcast.setStreamId(streamId);
+			broadcast.setUpdateTime(System.currentTimeMillis());
+			broadcast.setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
+			broadcast.setOriginAdress(serverSettings.getHostAddress());
+			dataStore.save(broadcast);
+		}
+
+		FiltersManager filtersManager = spy(new FiltersManager());
+		FilterAdaptor filterAdaptor = Mockito.mock(FilterAdaptor.class);
+		Mockito.doReturn(filterAdaptor).when(filtersManager).getFilterAdaptor(Mockito.anyString());
+		Mockito.when(filterAdaptor.createOrUpdateFilter(Mockito.any(), Mockito.any())).thenAnswer(invocation -> new Result(true));
+
+		Gson gson = new Gson();
+		String filterString = "{\"filterId\":\"FILTER_ID\",\"inputStreams\":[\"stream1\",\"stream2\"],\"outputStreams\":[\"FILTER_ID_out\"],\"videoFilter\":\"[in0][in1]hstack=inputs=2[out0]\",\"videoEnabled\":\"true\",\"audioEnabled\":\"false\",\"persistent\":false}";
+		List<FilterConfiguration> filterConfigurations = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			filterConfigurations.add(gson.fromJson(filterString.replace("FILTER_ID", "filter" + i), FilterConfiguration.class));
+		}
+		//input that is not streaming
+		filterConfigurations.add(gson.fromJson(filterString.replace("FILTER_ID", "filter10").replace("stream2", "stream3"), FilterConfiguration.class));
+		//repeated id
+		filterConfigurations.add(gson.fromJson(filterString.replace("FILTER_ID", "filter0"), FilterConfiguration.class));
+
+		List<Result> results = filtersManager.createFilters(filterConfigurations, app);
+		assertEquals(12, results.size());
+		for (int i = 0; i < 10; i++) {
+			assertTrue(results.get(i).isSuccess());
+			assertEquals("filter" + i, results.get(i).getDataId());
+		}
+		assertFalse(results.get(10).isSuccess());
+		assertEquals("filter10", results.get(10).getDataId());
+		assertTrue(results.get(10).getMessage().contains("stream3"));
+		assertFalse(results.get(11).isSuccess());
+		assertEquals("filter0", results.get(11).getDataId());
+		verify(filterAdaptor, Mockito.times(10)).createOrUpdateFilter(Mockito.any(), Mockito.eq(app));
+
+		//each input is fetched once for the batch
+		verify(dataStore, Mockito.times(1)).get("stream1");
+		verify(dataStore, Mockito.times(1)).get("stream2");
+		verify(dataStore, Mockito.times(1)).get("stream3");
+
+		List<Result> deleteResults = filtersManager.deleteFilters(Arrays.asList("filter0", "unknown"), app);
+		assertEquals(2, deleteResults.size());
+		assertEquals("filter0", deleteResults.get(0).getDataId());
+		assertFalse(deleteResults.get(1).isSuccess());
+
+		vertx.close();
+	}
+
+	@Test
+	public void testBatchTimeout() throws Exception {
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		when(app.getAppSettings()).thenReturn(new AppSettings());
+		DataStore dataStore = new InMemoryDataStore("test");
+		when(app.getDataStore()).thenReturn(dataStore);
+		ServerSettings serverSettings = new ServerSettings();
+		when(app.getServerSettings()).thenReturn(serverSettings);
+		//single worker runs the slow filter while the other one waits
+		Vertx vertx = Vertx.vertx(new VertxOptions().setWorkerPoolSize(1));
+		when(app.getVertx()).thenReturn(vertx);
+
+		Broadcast broadcast = new Broadcast();
+		broadcast.setStreamId("stream1");
+		broadcast.setUpdateTime(System.currentTimeMillis());
+		broadcast.setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
+		broadcast.setOriginAdress(serverSettings.getHostAddress());
+		dataStore.save(broadcast);
+
+		FiltersManager filtersManager = spy(new FiltersManager());
+		filtersManager.setBatchTimeoutMs(300);
+		FilterAdaptor filterAdaptor = Mockito.mock(FilterAdaptor.class);
+		Mockito.doReturn(filterAdaptor).when(filtersManager).getFilterAdaptor(Mockito.anyString());
+		Mockito.when(filterAdaptor.createOrUpdateFilter(Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			Thread.sleep(1000);
+			return new Result(true);
+		});
+
+		Gson gson = new Gson();
+		String filterString = "{\"filterId\":\"FILTER_ID\",\"inputStreams\":[\"stream1\"],\"outputStreams\":[\"FILTER_ID_out\"],\"videoFilter\":\"[in0]vflip[out0]\",\"videoEnabled\":\"true\",\"audioEnabled\":\"false\"}";
+		List<FilterConfiguration> filterConfigurations = new ArrayList<>();
+		filterConfigurations.add(gson.fromJson(filterString.replace("FILTER_ID", "slow"), FilterConfiguration.class));
+		filterConfigurations.add(gson.fromJson(filterString.replace("FILTER_ID", "waiting"), FilterConfiguration.class));
+
+		//caller is not blocked while the filters are created
+		Future<List<Result>> future = filtersManager.createFiltersAsync(filterConfigurations, app);
+		assertFalse(future.isComplete());
+		List<Result> results = future.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+		assertEquals(2, results.size());
+		//running filter is reported as pending and the waiting one is cancelled
+		assertFalse(results.get(0).isSuccess());
+		assertEquals("slow", results.get(0).getDataId());
+		assertTrue(results.get(0).getMessage().startsWith(FiltersManager.BATCH_PENDING_MESSAGE));
+		assertFalse(results.get(1).isSuccess());
+		assertEquals("waiting", results.get(1).getDataId());
+		assertFalse(results.get(1).getMessage().startsWith(FiltersManager.BATCH_PENDING_MESSAGE));
+
+		Thread.sleep(1500);
+		verify(filterAdaptor, Mockito.times(1)).createOrUpdateFilter(Mockito.argThat(conf -> "slow".equals(conf.getFilterId())), Mockito.eq(app));
+		verify(filterAdaptor, Mockito.times(1)).createOrUpdateFilter(Mockito.any(), Mockito.any());
+
+		vertx.close();
+	}
+
 	/**
 	 * This test crashes the JVM before the fix
 	 */
@@ -0,0 +1,150 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.awaitility.Awaitility;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.FilterMetrics;
+import io.antmedia.filter.FrameQueueWorker;
+import io.antmedia.filter.utils.FilterStats;
+
+public class FilterMetricsUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	@Test
+	public void testFrameRates() {
+		FilterMetrics filterMetrics = new FilterMetrics("filter1", () -> null);
+
+		long startTime = System.currentTimeMillis();
+		for (int i = 0; i < 30; i++) {
+			filterMetrics.inputFrameReceived("stream1", true);
+			filterMetrics.inputFrameReceived("stream1", false);
+			filterMetrics.outputFrameSent("output1", true);
+		}
+		Awaitility.await().pollDelay(FilterMetrics.RATE_WINDOW_MS, TimeUnit.MILLISECONDS).until(() -> true);
+		long elapsed = System.currentTimeMillis() - startTime;
+
+		double fps = filterMetrics.getInputVideoFps().get("stream1");
+		assertTrue("fps: " + fps, fps > 0 && fps <= 30 * 1000.0 / elapsed);
+		assertEquals(filterMetrics.getInputVideoFps().get("stream1"), filterMetrics.getInputAudioFps().get("stream1"), 1);
+		assertNotNull(filterMetrics.getOutputVideoFps().get("output1"));
+		assertTrue(filterMetrics.getOutputAudioFps().isEmpty());
+
+		//no frame in the next window
+		Awaitility.await().pollDelay(FilterMetrics.RATE_WINDOW_MS, TimeUnit.MILLISECONDS).until(() -> true);
+		filterMetrics.getInputVideoFps();
+		Awaitility.await().pollDelay(FilterMetrics.RATE_WINDOW_MS, TimeUnit.MILLISECONDS).until(() -> true);
+		assertEquals(0, filterMetrics.getInputVideoFps().get("stream1"), 0.001);
+
+		filterMetrics.removeInput("stream1");
+		assertNull(filterMetrics.getInputVideoFps().get("stream1"));
+		assertNull(filterMetrics.getInputAudioFps().get("stream1"));
+	}
+
+	@Test
+	public void testLatencyHistogram() {
+		FilterMetrics filterMetrics = new FilterMetrics("filter1", () -> null);
+
+		FilterStats.LatencyStats stats = filterMetrics.getFilterLatency();
+		assertEquals(0, stats.getCount());
+		assertEquals(0, stats.getAverageMs(), 0.001);
+
+		filterMetrics.filterCompleted(TimeUnit.MICROSECONDS.toNanos(500));
+		filterMetrics.filterCompleted(TimeUnit.MILLISECONDS.toNanos(3));
+		filterMetrics.filterCompleted(TimeUnit.MILLISECONDS.toNanos(4));
+		filterMetrics.filterCompleted(TimeUnit.SECONDS.toNanos(1));
+
+		stats = filterMetrics.getFilterLatency();
+		assertEquals(4, stats.getCount());
+		assertEquals(1, (long) stats.getHistogram().get("1"));
+		assertEquals(2, (long) stats.getHistogram().get("5"));
+		assertEquals(0, (long) stats.getHistogram().get("10"));
+		assertEquals(1, (long) stats.getHistogram().get("inf"));
+		assertEquals(1000, stats.getMaxMs(), 0.001);
+		assertEquals(1007.5 / 4, stats.getAverageMs(), 0.001);
+
+		assertEquals(0, filterMetrics.getDecodeLatency().getCount());
+		filterMetrics.decodeCompleted(TimeUnit.MILLISECONDS.toNanos(15));
+		assertEquals(1, (long) filterMetrics.getDecodeLatency().getHistogram().get("20"));
+	}
+
+	@Test
+	public void testQueueDepthsAndDroppedFrames() {
+		FrameQueueWorker worker = mock(FrameQueueWorker.class);
+		when(worker.getQueueDepth("stream1", true)).thenReturn(3);
+		when(worker.getQueueDepth("stream1", false)).thenReturn(2);
+		when(worker.getDroppedFrameCount()).thenReturn(7L);
+
+		FilterMetrics syncFilterMetrics = new FilterMetrics("filter1", () -> null);
+		syncFilterMetrics.inputFrameReceived("stream1", true);
+		assertTrue(syncFilterMetrics.getQueueDepths().isEmpty());
+		assertEquals(0, syncFilterMetrics.getDroppedFrameCount());
+
+		FilterMetrics filterMetrics = new FilterMetrics("filter1", () -> List.of(worker));
+		filterMetrics.inputFrameReceived("stream1", true);
+		filterMetrics.inputFrameReceived("stream2", false);
+		filterMetrics.graphRebuilt();
+
+		FilterStats stats = filterMetrics.getStats();
+		assertEquals("filter1", stats.getFilterId());
+		assertEquals(5, (int) stats.getQueueDepths().get("stream1"));
+		assertEquals(0, (int) stats.getQueueDepths().get("stream2"));
+		assertEquals(7, stats.getDroppedFrameCount());
+		assertEquals(1, stats.getGraphRebuildCount());
+	}
+
+	@Test
+	public void testJMX() throws Exception {
+		FilterMetrics filterMetrics = new FilterMetrics("filter1", () -> null);
+		filterMetrics.inputFrameReceived("stream1", true);
+		filterMetrics.filterCompleted(TimeUnit.MILLISECONDS.toNanos(3));
+
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName("io.antmedia:type=FilterStats,app=test,filterId=filter1");
+		mBeanServer.registerMBean(filterMetrics, objectName);
+		try {
+			assertEquals("filter1", mBeanServer.getAttribute(objectName, "FilterId"));
+			assertEquals(0L, mBeanServer.getAttribute(objectName, "DroppedFrameCount"));
+			assertNotNull(mBeanServer.getAttribute(objectName, "InputVideoFps"));
+
+			CompositeData filterLatency = (CompositeData) mBeanServer.getAttribute(objectName, "FilterLatency");
+			assertEquals(1L, filterLatency.get("count"));
+		}
+		finally {
+			mBeanServer.unregisterMBean(objectName);
+		}
+	}
+}
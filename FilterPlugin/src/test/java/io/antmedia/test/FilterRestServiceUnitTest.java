@@ -1,6 +1,8 @@
 package io.antmedia.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Map;
@@ -19,6 +21,7 @@ import io.antmedia.AntMediaApplicationAdapter;
 import io.antmedia.datastore.db.InMemoryDataStore;
 import io.antmedia.filter.FilterAdaptor;
 import io.antmedia.filter.utils.FilterConfiguration;
+import io.antmedia.filter.utils.FilterStats;
 import io.antmedia.plugin.FiltersManager;
 import io.antmedia.rest.FilterRestService;
 import io.antmedia.rest.model.Result;
@@ -81,6 +84,31 @@ public class FilterRestServiceUnitTest {
 		assertTrue(result.isSuccess());
 		
 	}
+
+	@Test
+	public void testGetFilterStats() {
+		FilterRestService filterService = new FilterRestService();
+
+		ServletContext servletContext = Mockito.mock(ServletContext.class);
+		ApplicationContext appCtx = Mockito.mock(ApplicationContext.class);
+		Mockito.when(servletContext.getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE)).thenReturn(appCtx);
+		FiltersManager filtersManger = new FiltersManager();
+		Mockito.when(appCtx.getBean(FiltersManager.BEAN_NAME)).thenReturn(filtersManger);
+		filterService.setServletContext(servletContext);
+
+		assertNull(filterService.getFilterStats("filter1"));
+
+		FilterAdaptor filterAdaptor = filtersManger.getFilterAdaptor("filter1");
+		FilterConfiguration filterConfiguration = new FilterConfiguration();
+		filterConfiguration.setType(FilterConfiguration.LASTPOINT);
+		filterAdaptor.setFilterConfiguration(filterConfiguration);
+		filterAdaptor.getFilterMetrics().inputFrameReceived("stream1", true);
+
+		FilterStats stats = filterService.getFilterStats("filter1");
+		assertEquals("filter1", stats.getFilterId());
+		assertEquals(FilterConfiguration.LASTPOINT, stats.getType());
+		assertTrue(stats.getInputVideoFps().containsKey("stream1"));
+	}
 	
 	
 
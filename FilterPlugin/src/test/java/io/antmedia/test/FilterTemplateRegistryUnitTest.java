@@ -0,0 +1,108 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.utils.FilterTemplateRegistry;
+import io.antmedia.filter.utils.FilterTemplateRegistry.FilterTemplate;
+
+public class FilterTemplateRegistryUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	@Test
+	public void testValidFilters() {
+		FilterTemplateRegistry registry = new FilterTemplateRegistry();
+
+		FilterTemplate template = registry.getTemplate("[in0]vflip[out0]", true, 1, 1);
+		assertTrue(template.isValid());
+		assertNull(template.getError());
+		assertEquals(Set.of(0), template.getInputIndexes());
+		assertEquals(Set.of(0), template.getOutputIndexes());
+
+		//unused inputs are allowed
+		template = registry.getTemplate("[in1]acopy[out0]", false, 2, 1);
+		assertTrue(template.isValid());
+		assertEquals(Set.of(1), template.getInputIndexes());
+
+		template = registry.getTemplate("[in0][in1]hstack=inputs=2,split=2[out0][out1]", true, 2, 2);
+		assertTrue(template.isValid());
+		assertEquals(Set.of(0, 1), template.getInputIndexes());
+		assertEquals(Set.of(0, 1), template.getOutputIndexes());
+	}
+
+	@Test
+	public void testInvalidFilters() {
+		FilterTemplateRegistry registry = new FilterTemplateRegistry();
+
+		FilterTemplate template = registry.getTemplate("[in0]notafilter[out0]", true, 1, 1);
+		assertFalse(template.isValid());
+		assertNotNull(template.getError());
+
+		//there is no stream for in1
+		template = registry.getTemplate("[in0][in1]hstack=inputs=2[out0]", true, 1, 1);
+		assertFalse(template.isValid());
+
+		//out1 is not used in the text
+		assertFalse(registry.getTemplate("[in0]vflip[out0]", true, 1, 2).isValid());
+
+		//video filter in an audio graph
+		assertFalse(registry.getTemplate("[in0]vflip[out0]", false, 1, 1).isValid());
+
+		assertFalse(registry.getTemplate("", true, 1, 1).isValid());
+		assertFalse(registry.getTemplate(null, true, 1, 1).isValid());
+	}
+
+	@Test
+	public void testTemplatesAreCached() {
+		FilterTemplateRegistry registry = new FilterTemplateRegistry();
+
+		FilterTemplate template = registry.getTemplate("[in0]vflip[out0]", true, 1, 1);
+		assertEquals(0, registry.getHitCount());
+		assertEquals(1, registry.getMissCount());
+
+		assertSame(template, registry.getTemplate("[in0]vflip[out0]", true, 1, 1));
+		assertEquals(1, registry.getHitCount());
+		assertEquals(1, registry.getTemplateCount());
+
+		//invalid ones are cached as well
+		FilterTemplate invalid = registry.getTemplate("[in0]notafilter[out0]", true, 1, 1);
+		assertSame(invalid, registry.getTemplate("[in0]notafilter[out0]", true, 1, 1));
+
+		//input count is a part of the key
+		registry.getTemplate("[in0]vflip[out0]", true, 2, 1);
+		assertEquals(3, registry.getTemplateCount());
+		assertEquals(3, registry.getMissCount());
+
+		for (int i = 0; i < FilterTemplateRegistry.MAX_TEMPLATE_COUNT + 10; i++) {
+			registry.getTemplate("[in0]scale=" + (i + 2) + ":2[out0]", true, 1, 1);
+		}
+		assertEquals(FilterTemplateRegistry.MAX_TEMPLATE_COUNT, registry.getTemplateCount());
+	}
+}
@@ -0,0 +1,214 @@
+package io.antmedia.test;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_get_buffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.Utils;
+import io.antmedia.filter.utils.FrameAligner;
+import io.antmedia.filter.utils.FramePool;
+
+public class FrameAlignerUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	private FramePool framePool;
+	private AVFrame frame;
+
+	/*
+	 * released frames as "streamId:pts"
+	 */
+	private List<String> releasedFrames = new ArrayList<>();
+
+	@Before
+	public void before() {
+		framePool = new FramePool();
+		frame = av_frame_alloc();
+		frame.width(16);
+		frame.height(16);
+		frame.format(AV_PIX_FMT_YUV420P);
+		av_frame_get_buffer(frame, 32);
+	}
+
+	@After
+	public void after() {
+		av_frame_free(frame);
+		framePool.close();
+	}
+
+	private boolean offer(FrameAligner aligner, String streamId, long pts, long now) {
+		frame.pts(pts);
+		return aligner.offer(streamId, frame, true, Utils.TIME_BASE_FOR_MS, now);
+	}
+
+	private int release(FrameAligner aligner, long now) {
+		return aligner.release(now, (streamId, alignedFrame, video) -> releasedFrames.add(streamId + ":" + alignedFrame.pts()));
+	}
+
+	@Test
+	public void testFramesAreReleasedInOrderAfterLatency() {
+		FrameAligner aligner = new FrameAligner(100, framePool);
+
+		//stream1 starts at pts 1000, stream2 starts at pts 0 and its frames arrive with jitter
+		assertTrue(offer(aligner, "stream1", 1000, 10000));
+		assertTrue(offer(aligner, "stream2", 0, 10000));
+		assertTrue(offer(aligner, "stream1", 1040, 10040));
+		assertTrue(offer(aligner, "stream1", 1080, 10080));
+		assertTrue(offer(aligner, "stream2", 40, 10090));
+		assertEquals(5, aligner.getQueuedFrameCount());
+
+		//frames wait for the latency
+		assertEquals(0, release(aligner, 10099));
+		assertEquals(1, aligner.getTimeToNextRelease(10099));
+
+		//frames of both inputs are mapped to the arrival time of their first frames, which is 0 in the timeline
+		assertEquals(2, release(aligner, 10100));
+		assertEquals(2, release(aligner, 10140));
+		assertEquals(40, aligner.getTimeToNextRelease(10140));
+		assertEquals(1, release(aligner, 10180));
+		assertEquals(List.of("stream1:0", "stream2:0", "stream1:40", "stream2:40", "stream1:80"), releasedFrames);
+		assertEquals(-1, aligner.getTimeToNextRelease(10180));
+		assertEquals(0, aligner.getLateFrameCount());
+		aligner.close();
+	}
+
+	@Test
+	public void testLateFramesAreDropped() {
+		FrameAligner aligner = new FrameAligner(100, framePool);
+
+		assertTrue(offer(aligner, "stream1", 0, 10000));
+		//in latency budget
+		assertTrue(offer(aligner, "stream1", 40, 10140));
+		//after its time
+		assertFalse(offer(aligner, "stream1", 80, 10181));
+		assertEquals(1, aligner.getLateFrameCount());
+
+		//pts should increase
+		release(aligner, 10200);
+		assertFalse(offer(aligner, "stream1", 40, 10200));
+		assertEquals(2, aligner.getLateFrameCount());
+
+		//input is aligned again if it keeps being late
+		long pts = 120;
+		for (int i = 3; i < FrameAligner.RESYNC_LATE_FRAME_COUNT; i++) {
+			assertFalse(offer(aligner, "stream1", pts, 10000 + pts + 500));
+			pts += 40;
+		}
+		assertEquals(0, aligner.getResyncCount());
+		assertTrue(offer(aligner, "stream1", pts, 10000 + pts + 500));
+		assertEquals(1, aligner.getResyncCount());
+		assertEquals(FrameAligner.RESYNC_LATE_FRAME_COUNT - 1, aligner.getLateFrameCount());
+
+		//next frames are in time after resync
+		assertTrue(offer(aligner, "stream1", pts + 40, 10000 + pts + 540));
+		aligner.close();
+	}
+
+	@Test
+	public void testTimestampJump() {
+		FrameAligner aligner = new FrameAligner(100, framePool);
+
+		assertTrue(offer(aligner, "stream1", 0, 10000));
+		assertTrue(offer(aligner, "stream1", 100000, 10040));
+		assertEquals(1, aligner.getResyncCount());
+
+		//frame after the jump is released with the latency instead of waiting 100 seconds
+		assertEquals(2, release(aligner, 10140));
+		assertEquals(List.of("stream1:0", "stream1:40"), releasedFrames);
+		aligner.close();
+	}
+
+	@Test
+	public void testAudioTimeBase() {
+		FrameAligner aligner = new FrameAligner(100, framePool);
+		AVRational audioTimeBase = new AVRational().num(1).den(48000);
+
+		assertTrue(offer(aligner, "stream1", 5000, 10000));
+		//audio of the stream shares the offset of the video, which maps pts 5000ms to 0
+		frame.pts(5000 * 48);
+		assertTrue(aligner.offer("stream1", frame, false, audioTimeBase, 10010));
+		frame.pts(5020 * 48);
+		assertTrue(aligner.offer("stream1", frame, false, audioTimeBase, 10020));
+
+		List<Long> audioPts = new ArrayList<>();
+		aligner.release(10200, (streamId, alignedFrame, video) -> {
+			if (!video) {
+				audioPts.add(alignedFrame.pts());
+			}
+		});
+		assertEquals(List.of(0L, 20L * 48), audioPts);
+		aligner.close();
+	}
+
+	@Test
+	public void testRemoveInputAndClose() {
+		FrameAligner aligner = new FrameAligner(100, framePool);
+
+		assertTrue(offer(aligner, "stream1", 0, 10000));
+		assertTrue(offer(aligner, "stream2", 0, 10000));
+		assertTrue(offer(aligner, "stream2", 40, 10040));
+
+		aligner.removeInput("stream2");
+		assertEquals(1, aligner.getQueuedFrameCount());
+
+		aligner.close();
+		assertEquals(0, aligner.getQueuedFrameCount());
+		assertFalse(offer(aligner, "stream1", 40, 10040));
+		assertEquals(0, release(aligner, 20000));
+	}
+
+	@Test
+	public void testVideoAndAudioAreReleasedSeparately() {
+		FrameAligner aligner = new FrameAligner(100, framePool);
+
+		assertTrue(offer(aligner, "stream1", 0, 10000));
+		assertTrue(offer(aligner, "stream1", 40, 10040));
+		frame.pts(20);
+		assertTrue(aligner.offer("stream1", frame, false, Utils.TIME_BASE_FOR_MS, 10020));
+		assertEquals(20, aligner.getTimeToNextRelease(10100, false));
+		assertEquals(0, aligner.getTimeToNextRelease(10100, true));
+
+		//audio frames are not released with the video
+		List<Boolean> releasedTypes = new ArrayList<>();
+		assertEquals(2, aligner.release(10140, true, (streamId, alignedFrame, video) -> releasedTypes.add(video)));
+		assertEquals(List.of(true, true), releasedTypes);
+		assertEquals(1, aligner.getQueuedFrameCount());
+		assertEquals(-1, aligner.getTimeToNextRelease(10140, true));
+
+		assertEquals(1, aligner.release(10140, false, (streamId, alignedFrame, video) -> releasedTypes.add(video)));
+		assertEquals(List.of(true, true, false), releasedTypes);
+		assertEquals(-1, aligner.getTimeToNextRelease(10140));
+		aligner.close();
+	}
+}
@@ -0,0 +1,205 @@
+package io.antmedia.test;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_FLTP;
+import static org.bytedeco.ffmpeg.global.avutil.av_channel_layout_default;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_get_buffer;
+import static org.bytedeco.ffmpeg.global.avutil.av_image_fill_arrays;
+import static org.bytedeco.ffmpeg.global.avutil.av_image_get_buffer_size;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.BytePointer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.utils.FramePool;
+
+public class FramePoolUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	@Test
+	public void testAcquireReferenceCountedFrame() {
+		FramePool framePool = new FramePool();
+
+		AVFrame source = av_frame_alloc();
+		source.width(64);
+		source.height(32);
+		source.format(AV_PIX_FMT_YUV420P);
+		source.pts(100);
+		assertEquals(0, av_frame_get_buffer(source, 32));
+		source.data(0).put(0, (byte)7);
+
+		AVFrame frame = framePool.acquire(source);
+		assertEquals(64, frame.width());
+		assertEquals(32, frame.height());
+		assertEquals(100, frame.pts());
+		//it references the same buffer, no copy
+		assertEquals(source.data(0).address(), frame.data(0).address());
+		assertEquals(0, framePool.getCopiedFrameCount());
+		assertEquals(0, framePool.getHitCount());
+		assertEquals(1, framePool.getMissCount());
+
+		framePool.release(frame);
+		assertNull(frame.buf(0));
+		assertEquals(1, framePool.getPooledFrameCount());
+
+		AVFrame frame2 = framePool.acquire(source);
+		assertEquals(1, framePool.getHitCount());
+		assertEquals(1, framePool.getMissCount());
+		assertEquals(0, framePool.getPooledFrameCount());
+
+		framePool.release(frame2);
+		av_frame_free(source);
+		framePool.close();
+		assertEquals(0, framePool.getPooledFrameCount());
+	}
+
+	@Test
+	public void testAcquireNonReferenceCountedVideoFrame() {
+		FramePool framePool = new FramePool();
+
+		int size = av_image_get_buffer_size(AV_PIX_FMT_YUV420P, 64, 32, 32);
+		BytePointer data = new BytePointer(size);
+		data.put(0, (byte)9);
+
+		AVFrame source = av_frame_alloc();
+		av_image_fill_arrays(source.data(), source.linesize(), data, AV_PIX_FMT_YUV420P, 64, 32, 32);
+		source.width(64);
+		source.height(32);
+		source.format(AV_PIX_FMT_YUV420P);
+		source.pts(200);
+
+		AVFrame frame = framePool.acquire(source);
+		assertNotNull(frame.buf(0));
+		assertTrue(source.data(0).address() != frame.data(0).address());
+		assertEquals(9, frame.data(0).get(0));
+		assertEquals(200, frame.pts());
+		assertEquals(1, framePool.getCopiedFrameCount());
+		assertEquals(1, framePool.getBufferPoolCount());
+
+		framePool.release(frame);
+
+		//same geometry uses the same buffer pool
+		frame = framePool.acquire(source);
+		assertEquals(9, frame.data(0).get(0));
+		assertEquals(1, framePool.getBufferPoolCount());
+		assertEquals(1, framePool.getHitCount());
+		framePool.release(frame);
+
+		//different geometry has its own buffer pool
+		frame = framePool.acquireVideoFrame(32, 32, AV_PIX_FMT_YUV420P);
+		assertEquals(32, frame.width());
+		assertEquals(2, framePool.getBufferPoolCount());
+		framePool.release(frame);
+
+		av_frame_free(source);
+		data.close();
+		framePool.close();
+	}
+
+	@Test
+	public void testAcquireNonReferenceCountedAudioFrame() {
+		FramePool framePool = new FramePool();
+
+		AVFrame buffered = av_frame_alloc();
+		buffered.format(AV_SAMPLE_FMT_FLTP);
+		buffered.nb_samples(1024);
+		av_channel_layout_default(buffered.ch_layout(), 2);
+		assertEquals(0, av_frame_get_buffer(buffered, 0));
+		buffered.data(1).put(0, (byte)5);
+
+		//same planes without buffer reference
+		AVFrame source = av_frame_alloc();
+		source.format(AV_SAMPLE_FMT_FLTP);
+		source.nb_samples(1024);
+		av_channel_layout_default(source.ch_layout(), 2);
+		source.data(0, buffered.data(0));
+		source.data(1, buffered.data(1));
+		source.linesize(0, buffered.linesize(0));
+		source.extended_data(source.data());
+
+		AVFrame frame = framePool.acquire(source);
+		assertNotNull(frame.buf(0));
+		assertEquals(1024, frame.nb_samples());
+		assertEquals(2, frame.ch_layout().nb_channels());
+		assertEquals(5, frame.data(1).get(0));
+		assertEquals(1, framePool.getCopiedFrameCount());
+
+		framePool.release(frame);
+		av_frame_free(source);
+		av_frame_free(buffered);
+		framePool.close();
+	}
+
+	@Test
+	public void testMaxPooledFrames() {
+		FramePool framePool = new FramePool(1);
+
+		AVFrame frame1 = framePool.acquireVideoFrame(16, 16, AV_PIX_FMT_YUV420P);
+		AVFrame frame2 = framePool.acquireVideoFrame(16, 16, AV_PIX_FMT_YUV420P);
+		assertEquals(2, framePool.getMissCount());
+
+		framePool.release(frame1);
+		framePool.release(frame2);
+		assertEquals(1, framePool.getPooledFrameCount());
+
+		framePool.close();
+	}
+
+	@Test
+	public void testAcquireAfterClose() throws Exception {
+		FramePool framePool = new FramePool();
+		AVFrame frameInUse = framePool.acquireVideoFrame(16, 16, AV_PIX_FMT_YUV420P);
+		framePool.close();
+		//second close does nothing
+		framePool.close();
+
+		//tasks that are still running after close get frames with their own buffers and no buffer pool is created
+		AVFrame frame = framePool.acquireVideoFrame(32, 32, AV_PIX_FMT_YUV420P);
+		assertNotNull(frame);
+		assertNotNull(frame.buf(0));
+		assertEquals(32, frame.width());
+		framePool.release(frame);
+		assertEquals(0, framePool.getPooledFrameCount());
+
+		//buffer of a frame acquired before close is still valid and it's freed when it's released
+		assertNotNull(frameInUse.data(0));
+		framePool.release(frameInUse);
+
+		//acquire and close in parallel
+		for (int i = 0; i < 20; i++) {
+			FramePool pool = new FramePool();
+			Thread acquireThread = new Thread(() -> {
+				for (int j = 0; j < 50; j++) {
+					pool.release(pool.acquireVideoFrame(16 + j * 2, 16, AV_PIX_FMT_YUV420P));
+				}
+			});
+			acquireThread.start();
+			pool.close();
+			acquireThread.join();
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package io.antmedia.test;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.awaitility.Awaitility;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.FrameQueueWorker;
+import io.antmedia.filter.Utils;
+import io.antmedia.filter.utils.FilterConfiguration;
+
+public class FrameQueueWorkerUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	private AVFrame createFrame(long pts, boolean keyFrame) {
+		AVFrame frame = av_frame_alloc();
+		frame.pts(pts);
+		if (keyFrame) {
+			frame.flags(frame.flags() | Utils.AV_FRAME_FLAG_KEY);
+		}
+		return frame;
+	}
+
+	@Test
+	public void testFramesAreConsumedInOrder() {
+		List<Long> consumedPts = new ArrayList<>();
+		FrameQueueWorker worker = new FrameQueueWorker("test-worker", 10, FilterConfiguration.DROP_POLICY_DROP_OLDEST,
+				(streamId, frame, video) -> consumedPts.add(frame.pts()));
+		worker.start();
+
+		for (int i = 0; i < 5; i++) {
+			assertTrue(worker.offer("stream1", createFrame(i, false), true));
+		}
+
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> worker.getProcessedFrameCount() == 5);
+		assertEquals(List.of(0L, 1L, 2L, 3L, 4L), consumedPts);
+		assertEquals(0, worker.getDroppedFrameCount());
+		assertEquals(0, worker.getQueueDepth());
+
+		worker.stop();
+		assertFalse(worker.isRunning());
+
+		//frame should be dropped after stop
+		assertFalse(worker.offer("stream1", createFrame(5, false), true));
+		assertEquals(1, worker.getDroppedFrameCount());
+	}
+
+	@Test
+	public void testDropOldest() throws InterruptedException {
+		CountDownLatch blockConsumer = new CountDownLatch(1);
+		List<Long> consumedPts = new ArrayList<>();
+		FrameQueueWorker worker = new FrameQueueWorker("test-worker", 2, FilterConfiguration.DROP_POLICY_DROP_OLDEST,
+				(streamId, frame, video) -> {
+					awaitQuietly(blockConsumer);
+					consumedPts.add(frame.pts());
+				});
+		worker.start();
+
+		//first frame is taken by the worker and it waits in consumer
+		worker.offer("stream1", createFrame(0, true), true);
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> worker.getQueueDepth() == 0);
+
+		worker.offer("stream1", createFrame(1, true), true);
+		worker.offer("stream1", createFrame(2, false), true);
+		worker.offer("stream1", createFrame(3, false), true);
+
+		assertEquals(2, worker.getQueueDepth());
+		assertEquals(1, worker.getDroppedFrameCount());
+
+		blockConsumer.countDown();
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> worker.getProcessedFrameCount() == 3);
+		assertEquals(List.of(0L, 2L, 3L), consumedPts);
+
+		worker.stop();
+	}
+
+	@Test
+	public void testStopWaitsForConsumer() throws InterruptedException {
+		CountDownLatch blockConsumer = new CountDownLatch(1);
+		CountDownLatch consumerStarted = new CountDownLatch(1);
+		FrameQueueWorker worker = new FrameQueueWorker("test-worker", 2, FilterConfiguration.DROP_POLICY_DROP_OLDEST,
+				(streamId, frame, video) -> {
+					consumerStarted.countDown();
+					awaitQuietly(blockConsumer);
+				});
+		worker.start();
+		worker.offer("stream1", createFrame(0, true), true);
+		assertTrue(consumerStarted.await(5, TimeUnit.SECONDS));
+
+		//graphs are freed after stop, so it should not return while the pump is in the consumer
+		Thread stopThread = new Thread(worker::stop);
+		stopThread.start();
+		stopThread.join(1500);
+		assertTrue(stopThread.isAlive());
+
+		blockConsumer.countDown();
+		stopThread.join(5000);
+		assertFalse(stopThread.isAlive());
+	}
+
+	@Test
+	public void testDropNonKey() {
+		CountDownLatch blockConsumer = new CountDownLatch(1);
+		List<Long> consumedPts = new ArrayList<>();
+		FrameQueueWorker worker = new FrameQueueWorker("test-worker", 2, FilterConfiguration.DROP_POLICY_DROP_NON_KEY,
+				(streamId, frame, video) -> {
+					awaitQuietly(blockConsumer);
+					consumedPts.add(frame.pts());
+				});
+		worker.start();
+
+		worker.offer("stream1", createFrame(0, true), true);
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> worker.getQueueDepth() == 0);
+
+		worker.offer("stream1", createFrame(1, true), true);
+		worker.offer("stream1", createFrame(2, false), true);
+		//non-key frame 2 in the queue is dropped
+		assertTrue(worker.offer("stream1", createFrame(3, true), true));
+		//queue is full of key frames so incoming non-key frame is dropped
+		assertFalse(worker.offer("stream1", createFrame(4, false), true));
+
+		assertEquals(2, worker.getDroppedFrameCount());
+
+		blockConsumer.countDown();
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> worker.getProcessedFrameCount() == 3);
+		assertEquals(List.of(0L, 1L, 3L), consumedPts);
+
+		worker.stop();
+	}
+
+	@Test
+	public void testBlock() throws InterruptedException {
+		CountDownLatch blockConsumer = new CountDownLatch(1);
+		FrameQueueWorker worker = new FrameQueueWorker("test-worker", 1, FilterConfiguration.DROP_POLICY_BLOCK,
+				(streamId, frame, video) -> awaitQuietly(blockConsumer));
+		worker.start();
+
+		worker.offer("stream1", createFrame(0, true), true);
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> worker.getQueueDepth() == 0);
+		worker.offer("stream1", createFrame(1, true), true);
+
+		CountDownLatch offered = new CountDownLatch(1);
+		Thread producer = new Thread(() -> {
+			worker.offer("stream1", createFrame(2, true), true);
+			offered.countDown();
+		});
+		producer.start();
+
+		//producer should be blocked because queue is full
+		assertFalse(offered.await(500, TimeUnit.MILLISECONDS));
+
+		blockConsumer.countDown();
+		assertTrue(offered.await(5, TimeUnit.SECONDS));
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> worker.getProcessedFrameCount() == 3);
+		assertEquals(0, worker.getDroppedFrameCount());
+
+		worker.stop();
+	}
+
+	@Test
+	public void testInvalidCapacity() {
+		try {
+			new FrameQueueWorker("test-worker", 0, FilterConfiguration.DROP_POLICY_DROP_OLDEST, (streamId, frame, video) -> {});
+			fail("It should throw exception");
+		}
+		catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void testRemoveInput() {
+		CountDownLatch blockConsumer = new CountDownLatch(1);
+		FrameQueueWorker worker = new FrameQueueWorker("test-worker", 10, FilterConfiguration.DROP_POLICY_DROP_OLDEST,
+				(streamId, frame, video) -> awaitQuietly(blockConsumer));
+		worker.start();
+
+		worker.offer("stream1", createFrame(0, true), true);
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> worker.getQueueDepth() == 0);
+
+		worker.offer("stream1", createFrame(1, true), true);
+		worker.offer("stream1", createFrame(1, true), false);
+		worker.offer("stream2", createFrame(1, true), true);
+		assertEquals(3, worker.getQueueDepth());
+		assertEquals(1, worker.getQueueDepth("stream1", true));
+		assertEquals(1, worker.getQueueDepth("stream1", false));
+
+		worker.removeInput("stream1");
+		assertEquals(1, worker.getQueueDepth());
+		assertEquals(0, worker.getQueueDepth("stream1", true));
+		assertEquals(1, worker.getQueueDepth("stream2", true));
+
+		blockConsumer.countDown();
+		worker.stop();
+	}
+
+	@Test
+	public void testMultipleInputsThroughput() throws InterruptedException {
+		for (int inputCount : new int[] {4, 9, 16}) {
+			feedInputs(inputCount, 500);
+		}
+	}
+
+	/*
+	 * Each input is fed by its own thread as each publisher does. Frame order should be kept for each input
+	 */
+	private void feedInputs(int inputCount, int frameCountPerInput) throws InterruptedException {
+		Map<String, List<Long>> consumedPts = new ConcurrentHashMap<>();
+		AtomicInteger batchCount = new AtomicInteger();
+		FrameQueueWorker worker = new FrameQueueWorker("test-worker", 16, FilterConfiguration.DROP_POLICY_BLOCK,
+				new FrameQueueWorker.IQueuedFrameConsumer() {
+					@Override
+					public void consume(String streamId, AVFrame frame, boolean video) {
+						consumedPts.computeIfAbsent(streamId, k -> new ArrayList<>()).add(frame.pts());
+					}
+
+					@Override
+					public void batchConsumed() {
+						batchCount.incrementAndGet();
+					}
+				});
+		worker.start();
+
+		List<Thread> producers = new ArrayList<>();
+		long startTime = System.nanoTime();
+		for (int i = 0; i < inputCount; i++) {
+			String streamId = "stream" + i;
+			Thread producer = new Thread(() -> {
+				for (int pts = 0; pts < frameCountPerInput; pts++) {
+					worker.offer(streamId, createFrame(pts, pts % 30 == 0), true);
+				}
+			});
+			producers.add(producer);
+			producer.start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+
+		long totalFrameCount = (long)inputCount * frameCountPerInput;
+		Awaitility.await().atMost(30, TimeUnit.SECONDS).until(() -> worker.getProcessedFrameCount() == totalFrameCount);
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+		System.out.println("Inputs:" + inputCount + " frames:" + totalFrameCount + " batches:" + batchCount.get() 
+				+ " elapsed:" + elapsedMs + "ms throughput:" + (totalFrameCount * 1000 / Math.max(elapsedMs, 1)) + " fps");
+
+		assertEquals(0, worker.getDroppedFrameCount());
+		assertEquals(inputCount, consumedPts.size());
+		for (List<Long> ptsList : consumedPts.values()) {
+			assertEquals(frameCountPerInput, ptsList.size());
+			for (int i = 0; i < frameCountPerInput; i++) {
+				assertEquals(i, ptsList.get(i).longValue());
+			}
+		}
+		worker.stop();
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.utils.FrameRateDecimator;
+
+public class FrameRateDecimatorUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	private int countAccepted(FrameRateDecimator decimator, String streamId, double inputFps, int frameCount) {
+		int accepted = 0;
+		for (int i = 0; i < frameCount; i++) {
+			if (decimator.accept(streamId, Math.round(i * 1000 / inputFps))) {
+				accepted++;
+			}
+		}
+		return accepted;
+	}
+
+	@Test
+	public void testDecimation() {
+		//every other frame of 60fps
+		FrameRateDecimator decimator = new FrameRateDecimator(30);
+		assertEquals(300, countAccepted(decimator, "stream1", 60, 600));
+
+		//input rate is not a multiple of the target rate
+		assertEquals(250, countAccepted(new FrameRateDecimator(25), "stream2", 30, 300), 1);
+
+		//input below the target rate is not decimated
+		assertEquals(150, countAccepted(decimator, "stream3", 15, 150));
+
+		//0 accepts all frames
+		decimator.setTargetFps(0);
+		assertEquals(600, countAccepted(decimator, "stream1", 60, 600));
+	}
+
+	@Test
+	public void testResync() {
+		FrameRateDecimator decimator = new FrameRateDecimator(10);
+		assertTrue(decimator.accept("stream1", 0));
+		assertFalse(decimator.accept("stream1", 50));
+		assertTrue(decimator.accept("stream1", 100));
+
+		//frames after a gap are not accepted in a burst
+		assertTrue(decimator.accept("stream1", 5000));
+		assertFalse(decimator.accept("stream1", 5033));
+		assertFalse(decimator.accept("stream1", 5066));
+		assertTrue(decimator.accept("stream1", 5100));
+
+		//timestamps jump backward
+		assertTrue(decimator.accept("stream1", 0));
+		assertFalse(decimator.accept("stream1", 50));
+
+		//removed input starts again with its next frame
+		decimator.removeInput("stream1");
+		assertTrue(decimator.accept("stream1", 60));
+
+		//inputs are synced again when the rate is changed
+		decimator.setTargetFps(5);
+		assertTrue(decimator.accept("stream1", 70));
+		assertFalse(decimator.accept("stream1", 170));
+		assertTrue(decimator.accept("stream1", 270));
+	}
+}
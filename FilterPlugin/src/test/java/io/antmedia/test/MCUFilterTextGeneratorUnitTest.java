@@ -0,0 +1,233 @@
+package io.antmedia.test;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_get_buffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.utils.Filter;
+import io.antmedia.filter.utils.FilterGraph;
+import io.antmedia.filter.utils.MCUFilterTextGenerator;
+
+public class MCUFilterTextGeneratorUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	/*
+	 * Sources are created only for the inputs used in the filter text like FilterAdaptor does
+	 */
+	private FilterGraph createFilterGraph(String filterDescription, int streamCount) {
+		return createFilterGraph(filterDescription, streamCount, 0);
+	}
+
+	private FilterGraph createFilterGraph(String filterDescription, int streamCount, long startPts) {
+		Map<String, Filter> sourceFiltersMap = new LinkedHashMap<>();
+		for (int i = 0; i < streamCount; i++) {
+			if (filterDescription.contains("[in" + i + "]")) {
+				sourceFiltersMap.put("stream"+i, new Filter("buffer", "video_size=640x360:pix_fmt=0:time_base=1/1000:pixel_aspect=1/1", "in"+i));
+			}
+		}
+
+		Map<String, Filter> sinkFiltersMap = new LinkedHashMap<>();
+		Filter sink = new Filter("buffersink", null, "out0");
+		sink.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+		sinkFiltersMap.put("output0", sink);
+
+		return new FilterGraph(filterDescription, sourceFiltersMap, sinkFiltersMap, startPts);
+	}
+
+	@Test
+	public void testGridLayoutIsNotChanged() {
+		assertEquals("[in0]copy[out0]", MCUFilterTextGenerator.createVideoFilter(1));
+		assertEquals("[in0]scale=354:234:force_original_aspect_ratio=decrease,pad=360:240:3:3:color=black[s0];"
+				+ "[in1]scale=354:234:force_original_aspect_ratio=decrease,pad=360:240:3:3:color=black[s1];"
+				+ "[s0][s1]hstack=inputs=2,pad=720:480:(ow-iw)/2:(oh-ih)/2[out0]", MCUFilterTextGenerator.createVideoFilter(2));
+
+		//focus index is not used in grid
+		assertEquals(MCUFilterTextGenerator.createVideoFilter(5), 
+				MCUFilterTextGenerator.createVideoFilter(MCUFilterTextGenerator.LAYOUT_GRID, 5, 3, 720, 480));
+		//unknown layout falls back to grid
+		assertEquals(MCUFilterTextGenerator.createVideoFilter(5), 
+				MCUFilterTextGenerator.createVideoFilter("unknown", 5, 3, 720, 480));
+
+		assertEquals("[in0][in1][in2]amix=inputs=3[out0]", MCUFilterTextGenerator.createAudioFilter(3));
+	}
+
+	@Test
+	public void testFilterTextCache() {
+		String filter = MCUFilterTextGenerator.createVideoFilter(MCUFilterTextGenerator.LAYOUT_SPEAKER_FOCUS, 7, 0, 1024, 576);
+		int cachedCount = MCUFilterTextGenerator.getCachedTemplateCount();
+
+		//same text is returned from cache
+		assertSame(filter, MCUFilterTextGenerator.createVideoFilter(MCUFilterTextGenerator.LAYOUT_SPEAKER_FOCUS, 7, 0, 1024, 576));
+
+		//changing the speaker does not generate the filter again
+		String speakerFilter = MCUFilterTextGenerator.createVideoFilter(MCUFilterTextGenerator.LAYOUT_SPEAKER_FOCUS, 7, 4, 1024, 576);
+		assertEquals(cachedCount, MCUFilterTextGenerator.getCachedTemplateCount());
+		assertTrue(speakerFilter.startsWith("[in4]scale=1024:432"));
+		assertEquals(filter.length(), speakerFilter.length());
+		for (int i = 0; i < 7; i++) {
+			assertTrue(speakerFilter.contains("[in" + i + "]"));
+		}
+
+		//different size has its own template
+		MCUFilterTextGenerator.createVideoFilter(MCUFilterTextGenerator.LAYOUT_SPEAKER_FOCUS, 7, 4, 1024, 768);
+		assertEquals(cachedCount + 1, MCUFilterTextGenerator.getCachedTemplateCount());
+	}
+
+	@Test
+	public void testPipLayoutLimitsTiles() {
+		int streamCount = MCUFilterTextGenerator.MAX_PIP_TILES + 3;
+		String filter = MCUFilterTextGenerator.createVideoFilter(MCUFilterTextGenerator.LAYOUT_PIP, streamCount, 2, 720, 480);
+		assertTrue(filter.startsWith("[in2]scale=720:480"));
+		assertTrue(filter.contains("[in0]"));
+		assertTrue(filter.contains("[in" + MCUFilterTextGenerator.MAX_PIP_TILES + "]"));
+		assertFalse(filter.contains("[in" + (MCUFilterTextGenerator.MAX_PIP_TILES + 1) + "]"));
+	}
+
+	@Test
+	public void testAllLayoutsAreValidFilterGraphs() {
+		String[] layouts = {MCUFilterTextGenerator.LAYOUT_GRID, MCUFilterTextGenerator.LAYOUT_SPEAKER_FOCUS, MCUFilterTextGenerator.LAYOUT_PIP};
+		for (String layout : layouts) {
+			for (int streamCount = 2; streamCount <= 16; streamCount++) {
+				String filter = MCUFilterTextGenerator.createVideoFilter(layout, streamCount, streamCount - 1, 720, 480);
+				FilterGraph filterGraph = createFilterGraph(filter, streamCount);
+				assertTrue("layout:" + layout + " stream count:" + streamCount + " filter:" + filter, filterGraph.isInitiated());
+				filterGraph.close();
+			}
+		}
+	}
+
+	@Test
+	public void testSpeakerFocusOutputSize() {
+		int streamCount = 4;
+		FilterGraph filterGraph = createFilterGraph(MCUFilterTextGenerator.createVideoFilter(MCUFilterTextGenerator.LAYOUT_SPEAKER_FOCUS, streamCount, 1, 720, 480), streamCount);
+		assertTrue(filterGraph.isInitiated());
+
+		List<int[]> outputSizes = new ArrayList<>();
+		filterGraph.setListener((streamId, frame) -> outputSizes.add(new int[] {frame.width(), frame.height()}));
+		for (int pts = 0; pts < 400 && outputSizes.isEmpty(); pts += 40) {
+			for (int i = 0; i < streamCount; i++) {
+				AVFrame frame = av_frame_alloc();
+				frame.width(640);
+				frame.height(360);
+				frame.format(avutil.AV_PIX_FMT_YUV420P);
+				frame.pts(pts);
+				assertEquals(0, av_frame_get_buffer(frame, 32));
+				filterGraph.doFilter("stream" + i, frame, false);
+				av_frame_free(frame);
+			}
+		}
+
+		assertFalse(outputSizes.isEmpty());
+		assertEquals(720, outputSizes.get(0)[0]);
+		assertEquals(480, outputSizes.get(0)[1]);
+		filterGraph.close();
+	}
+	@Test
+	public void testPlaceholderTiles() {
+		boolean[] videoOff = {false, true, false, true};
+		String filter = MCUFilterTextGenerator.createVideoFilter(MCUFilterTextGenerator.LAYOUT_GRID, 0, videoOff, 720, 480);
+		assertTrue(filter.contains("[in0]"));
+		assertFalse(filter.contains("[in1]"));
+		assertTrue(filter.contains("[in2]"));
+		assertFalse(filter.contains("[in3]"));
+		assertTrue(filter.contains(MCUFilterTextGenerator.PLACEHOLDER_SOURCE));
+
+		//all inputs are off so the first one drives the output
+		String allOffFilter = MCUFilterTextGenerator.createVideoFilter(MCUFilterTextGenerator.LAYOUT_GRID, 0, new boolean[] {true, true, true}, 720, 480);
+		assertTrue(allOffFilter.contains("[in0]"));
+		assertFalse(allOffFilter.contains("[in1]"));
+
+		//frames of only the video-on inputs generate the output
+		FilterGraph filterGraph = createFilterGraph(filter, videoOff.length);
+		assertTrue(filterGraph.isInitiated());
+		List<int[]> outputSizes = new ArrayList<>();
+		filterGraph.setListener((streamId, frame) -> outputSizes.add(new int[] {frame.width(), frame.height()}));
+		for (int pts = 0; pts < 400 && outputSizes.isEmpty(); pts += 40) {
+			for (int i : new int[] {0, 2}) {
+				AVFrame frame = av_frame_alloc();
+				frame.width(640);
+				frame.height(360);
+				frame.format(avutil.AV_PIX_FMT_YUV420P);
+				frame.pts(pts);
+				assertEquals(0, av_frame_get_buffer(frame, 32));
+				filterGraph.doFilter("stream" + i, frame, false);
+				av_frame_free(frame);
+			}
+		}
+		assertFalse(outputSizes.isEmpty());
+		assertEquals(720, outputSizes.get(0)[0]);
+		filterGraph.close();
+	}
+
+	@Test
+	public void testPlaceholderStartsAtGraphPts() {
+		boolean[] videoOff = {false, true};
+		String filter = MCUFilterTextGenerator.createVideoFilter(MCUFilterTextGenerator.LAYOUT_GRID, 0, videoOff, 720, 480);
+
+		//graph is rebuilt in a room that has run for an hour, so the inputs continue from its pts
+		long startPts = 3600000;
+		FilterGraph filterGraph = createFilterGraph(filter, videoOff.length, startPts);
+		assertTrue(filterGraph.isInitiated());
+		List<Long> outputPts = new ArrayList<>();
+		filterGraph.setListener((streamId, frame) -> outputPts.add(frame.pts()));
+		int inputFrameCount = 25;
+		long startTime = System.currentTimeMillis();
+		for (int i = 0; i < inputFrameCount; i++) {
+			AVFrame frame = av_frame_alloc();
+			frame.width(640);
+			frame.height(360);
+			frame.format(avutil.AV_PIX_FMT_YUV420P);
+			frame.pts(i * 40L);
+			assertEquals(0, av_frame_get_buffer(frame, 32));
+			filterGraph.doFilter("stream0", frame, false);
+			av_frame_free(frame);
+		}
+
+		//placeholder does not generate the frames from 0 to catch up with the input, it takes tens of seconds otherwise
+		long filterTime = System.currentTimeMillis() - startTime;
+		assertTrue("filter time:" + filterTime, filterTime < 5000);
+		assertFalse(outputPts.isEmpty());
+		assertTrue("output frame count:" + outputPts.size(), outputPts.size() <= inputFrameCount * 2);
+		assertTrue("first output pts:" + outputPts.get(0), outputPts.get(0) >= startPts);
+		filterGraph.close();
+	}
+
+	@Test
+	public void testAudioFilterOfUnmutedInputs() {
+		assertEquals(MCUFilterTextGenerator.createAudioFilter(3), MCUFilterTextGenerator.createAudioFilter(new boolean[] {false, false, false}));
+		assertEquals("[in0][in2]amix=inputs=2[out0]", MCUFilterTextGenerator.createAudioFilter(new boolean[] {false, true, false}));
+		assertEquals("[in1]acopy[out0]", MCUFilterTextGenerator.createAudioFilter(new boolean[] {true, false, true}));
+		assertEquals("[in0]acopy[out0]", MCUFilterTextGenerator.createAudioFilter(new boolean[] {true, true}));
+	}
+}
@@ -1,8 +1,13 @@
 package io.antmedia.test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -13,20 +18,31 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.RandomUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.awaitility.Awaitility;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
+import org.mockito.ArgumentCaptor;
 
 import io.antmedia.AntMediaApplicationAdapter;
 import io.antmedia.datastore.db.DataStore;
 import io.antmedia.datastore.db.InMemoryDataStore;
 import io.antmedia.datastore.db.types.Broadcast;
+import io.antmedia.filter.FilterAdaptor;
+import io.antmedia.filter.utils.ConfigurationStore;
+import io.antmedia.filter.utils.FilterConfiguration;
+import io.antmedia.filter.utils.MCUFilterTextGenerator;
 import io.antmedia.muxer.IAntMediaStreamHandler;
 import io.antmedia.plugin.FiltersManager;
 import io.antmedia.plugin.MCUManager;
@@ -139,6 +155,54 @@ public class MCUManagerUnitTest {
 		
 	}
 	
+	@Test
+	public void testRoomsAreRestored() throws Exception {
+		String roomId = "room"+RandomUtils.nextInt();
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		DataStore dataStore = new InMemoryDataStore("test");
+		when(app.getDataStore()).thenReturn(dataStore);
+		File configurationFile = new File(Files.createTempDirectory("filter-plugin").toFile(), ConfigurationStore.FILE_NAME);
+		configurationFile.deleteOnExit();
+
+		MCUManager mcuManager = spy(new MCUManager());
+		doNothing().when(mcuManager).triggerUpdate(anyString(), anyBoolean());
+		doReturn(createFiltersManager(app, configurationFile)).when(mcuManager).getFiltersManager();
+		doReturn(app).when(mcuManager).getApplication();
+
+		mcuManager.addCustomRoom(roomId, true, false, MCUFilterTextGenerator.LAYOUT_PIP);
+		mcuManager.customFilterAdded(roomId);
+
+		//server restarts
+		MCUManager restartedMcuManager = spy(new MCUManager());
+		doNothing().when(restartedMcuManager).triggerUpdate(anyString(), anyBoolean());
+		doReturn(createFiltersManager(app, configurationFile)).when(restartedMcuManager).getFiltersManager();
+		doReturn(app).when(restartedMcuManager).getApplication();
+
+		restartedMcuManager.restoreRooms();
+		assertEquals(MCUFilterTextGenerator.LAYOUT_PIP, restartedMcuManager.getRoomLayout(roomId));
+		assertTrue(restartedMcuManager.hasCustomFilter(roomId));
+		verify(restartedMcuManager, times(1)).triggerUpdate(roomId, false);
+
+		//rooms are not restored twice
+		restartedMcuManager.restoreRooms();
+		verify(restartedMcuManager, times(1)).triggerUpdate(roomId, false);
+
+		//removed room is not restored
+		restartedMcuManager.removeCustomRoom(roomId);
+		MCUManager anotherRestartedMcuManager = spy(new MCUManager());
+		doNothing().when(anotherRestartedMcuManager).triggerUpdate(anyString(), anyBoolean());
+		doReturn(createFiltersManager(app, configurationFile)).when(anotherRestartedMcuManager).getFiltersManager();
+		doReturn(app).when(anotherRestartedMcuManager).getApplication();
+		anotherRestartedMcuManager.restoreRooms();
+		assertNull(anotherRestartedMcuManager.getRoomLayout(roomId));
+	}
+
+	private FiltersManager createFiltersManager(AntMediaApplicationAdapter app, File configurationFile) {
+		FiltersManager filtersManager = spy(new FiltersManager());
+		doReturn(configurationFile).when(filtersManager).getConfigurationFile(app);
+		return filtersManager;
+	}
+
 	@Test
 	public void testMCUWithOtherRooms() throws Exception {
 		
@@ -148,7 +212,7 @@ public class MCUManagerUnitTest {
 		
 		doReturn(filtersManager).when(mcuManager).getFiltersManager();
 		
-		doReturn(new Result(true)).when(filtersManager).createFilter(any(), any());
+		doReturn(new Result(true)).when(filtersManager).createFilter(any(), any(), any());
 
 		
 		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
@@ -178,6 +242,7 @@ public class MCUManagerUnitTest {
 		broadcast2.setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
 		broadcast2.setUpdateTime(System.currentTimeMillis());
 		broadcast2.setMainTrackStreamId(roomId);
+		broadcast2.setOriginAdress("127.0.0.1");
 		dataStore.save(broadcast2);
 		
 
@@ -187,8 +252,248 @@ public class MCUManagerUnitTest {
 		
 		mcuManager.addCustomRoom(roomId, true, true);
 		
-		verify(filtersManager, timeout(MCUManager.CONFERENCE_INFO_POLL_PERIOD_MS*4000).times(1)).createFilter(any(), eq(app));
+		verify(filtersManager, timeout(MCUManager.CONFERENCE_INFO_POLL_PERIOD_MS*4000).times(1)).createFilter(any(), eq(app), any());
+
+	}
+	
+	@Test
+	public void testSpeakerLayout() {
+		MCUManager mcuManager = spy(new MCUManager());
+		doNothing().when(mcuManager).triggerUpdate(anyString(), anyBoolean());
+
+		FiltersManager filtersManager = spy(new FiltersManager());
+		doReturn(filtersManager).when(mcuManager).getFiltersManager();
+
+		String roomId = "room"+RandomUtils.nextInt();
+
+		assertFalse(mcuManager.setRoomLayout(roomId, MCUFilterTextGenerator.LAYOUT_PIP));
+
+		mcuManager.addCustomRoom(roomId, true, true, "unknown");
+		assertEquals(MCUFilterTextGenerator.LAYOUT_GRID, mcuManager.getRoomLayout(roomId));
+
+		FilterAdaptor filterAdaptor = mock(FilterAdaptor.class);
+		Map<String, Double> audioLevels = new HashMap<>();
+		audioLevels.put("stream1", -20.0);
+		audioLevels.put("stream2", -80.0);
+		when(filterAdaptor.getAudioLevels()).thenReturn(audioLevels);
+		doReturn(filterAdaptor).when(filtersManager).findFilterAdaptor(roomId);
+
+		//active speaker is not tracked in grid layout
+		mcuManager.checkActiveSpeakers();
+		assertNull(mcuManager.getActiveSpeaker(roomId));
+
+		assertFalse(mcuManager.setRoomLayout(roomId, "unknown"));
+		assertTrue(mcuManager.setRoomLayout(roomId, MCUFilterTextGenerator.LAYOUT_SPEAKER_FOCUS));
+		assertEquals(MCUFilterTextGenerator.LAYOUT_SPEAKER_FOCUS, mcuManager.getRoomLayout(roomId));
+		verify(mcuManager, times(1)).triggerUpdate(roomId, true);
+
+		mcuManager.checkActiveSpeakers();
+		assertEquals("stream1", mcuManager.getActiveSpeaker(roomId));
+		verify(mcuManager, times(2)).triggerUpdate(roomId, true);
+
+		//filter is not updated if the speaker does not change
+		mcuManager.checkActiveSpeakers();
+		verify(mcuManager, times(2)).triggerUpdate(roomId, true);
+
+		//adaptor is not created for the room whose filter is deleted
+		doCallRealMethod().when(filtersManager).findFilterAdaptor(roomId);
+		mcuManager.checkActiveSpeakers();
+		assertFalse(filtersManager.hasFilter(roomId));
+	}
+	
+	@Test
+	public void testParticipantMediaState() throws Exception {
+		String roomId = "room"+RandomUtils.nextInt();
+		MCUManager mcuManager = spy(new MCUManager());
+		doNothing().when(mcuManager).triggerUpdate(anyString(), anyBoolean());
+
+		FiltersManager filtersManager = spy(new FiltersManager());
+		doReturn(filtersManager).when(mcuManager).getFiltersManager();
+		doReturn(new Result(true)).when(filtersManager).createFilter(any(), any(), any());
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		DataStore dataStore = new InMemoryDataStore("test");
+		when(app.getDataStore()).thenReturn(dataStore);
+		doReturn(app).when(mcuManager).getApplication();
+
+		Broadcast room = new Broadcast();
+		room.setStreamId(roomId);
+		dataStore.save(room);
+
+		for (int i = 0; i < 3; i++) {
+			Broadcast participant = new Broadcast();
+			participant.setStreamId("stream" + i);
+			participant.setMainTrackStreamId(roomId);
+			participant.setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
+			participant.setOriginAdress("127.0.0.1");
+			participant.setUpdateTime(System.currentTimeMillis());
+			dataStore.save(participant);
+		}
+
+		assertFalse(mcuManager.setParticipantMediaState(roomId, "stream1", false, true));
+
+		mcuManager.addCustomRoom(roomId, true, true);
+		assertTrue(mcuManager.setParticipantMediaState(roomId, "stream1", false, true));
+		assertTrue(mcuManager.setParticipantMediaState(roomId, "stream2", true, false));
+		verify(mcuManager, times(2)).triggerUpdate(roomId, true);
+		assertFalse(mcuManager.isParticipantVideoEnabled(roomId, "stream1"));
+		assertTrue(mcuManager.isParticipantAudioEnabled(roomId, "stream1"));
+
+		//same state does not update the filter
+		assertTrue(mcuManager.setParticipantMediaState(roomId, "stream1", false, true));
+		verify(mcuManager, times(2)).triggerUpdate(roomId, true);
+
+		mcuManager.updateRoomFilter(roomId);
+
+		ArgumentCaptor<FilterConfiguration> configCaptor = ArgumentCaptor.forClass(FilterConfiguration.class);
+		verify(filtersManager, times(1)).createFilter(configCaptor.capture(), eq(app), any());
+		FilterConfiguration filterConfiguration = configCaptor.getValue();
+		int videoOffIndex = filterConfiguration.getInputStreams().indexOf("stream1");
+		int audioOffIndex = filterConfiguration.getInputStreams().indexOf("stream2");
+		assertFalse(filterConfiguration.getVideoFilter().contains("[in" + videoOffIndex + "]"));
+		assertTrue(filterConfiguration.getVideoFilter().contains(MCUFilterTextGenerator.PLACEHOLDER_SOURCE));
+		assertTrue(filterConfiguration.getVideoFilter().contains("[in" + audioOffIndex + "]"));
+		assertFalse(filterConfiguration.getAudioFilter().contains("[in" + audioOffIndex + "]"));
+		assertTrue(filterConfiguration.getAudioFilter().contains("[in" + videoOffIndex + "]"));
+		assertTrue(filterConfiguration.getAudioFilter().contains("amix=inputs=2"));
+
+		//merged stream is produced all the time by default
+		assertFalse(filterConfiguration.isOnDemand());
+		mcuManager.setOnDemandOutputs(true);
+		//filters of the existing rooms are updated
+		verify(mcuManager, times(3)).triggerUpdate(roomId, true);
+		mcuManager.setOnDemandOutputs(true);
+		verify(mcuManager, times(3)).triggerUpdate(roomId, true);
+		mcuManager.updateRoomFilter(roomId);
+		verify(filtersManager, times(2)).createFilter(configCaptor.capture(), eq(app), any());
+		assertTrue(configCaptor.getValue().isOnDemand());
+
+		//filters are generic ones by default
+		assertFalse(configCaptor.getValue().isAudioMixer());
+		assertEquals(0, configCaptor.getValue().getAlignmentLatencyMs());
+		assertEquals(0, configCaptor.getValue().getOutputFps());
+		assertFalse(configCaptor.getValue().isDownscaleInputs());
+		assertFalse(configCaptor.getValue().isSeparateGraphThreads());
+
+		MCUManager.MCUSettings mcuSettings = new MCUManager.MCUSettings();
+		mcuSettings.setAlignmentLatencyMs(-1);
+		assertFalse(mcuManager.setMCUSettings(mcuSettings));
+		mcuSettings.setAlignmentLatencyMs(150);
+		mcuSettings.setOutputFps(30);
+		mcuSettings.setAudioMixer(true);
+		mcuSettings.setDownscaleInputs(true);
+		mcuSettings.setSeparateGraphThreads(true);
+		assertTrue(mcuManager.setMCUSettings(mcuSettings));
+		verify(mcuManager, times(4)).triggerUpdate(roomId, true);
+		mcuManager.updateRoomFilter(roomId);
+		verify(filtersManager, times(3)).createFilter(configCaptor.capture(), eq(app), any());
+		assertTrue(configCaptor.getValue().isAudioMixer());
+		assertEquals(150, configCaptor.getValue().getAlignmentLatencyMs());
+		assertEquals(30, configCaptor.getValue().getOutputFps());
+		assertTrue(configCaptor.getValue().isDownscaleInputs());
+		assertTrue(configCaptor.getValue().isSeparateGraphThreads());
+
+		//participant resumes
+		assertTrue(mcuManager.setParticipantMediaState(roomId, "stream1", true, true));
+		assertTrue(mcuManager.isParticipantVideoEnabled(roomId, "stream1"));
+
+		//state is cleared when participant leaves
+		mcuManager.leftTheRoom(roomId, "stream2");
+		assertTrue(mcuManager.isParticipantAudioEnabled(roomId, "stream2"));
+	}
+	
+	private void saveParticipant(DataStore dataStore, String roomId, String streamId) {
+		Broadcast participant = new Broadcast();
+		try {
+			participant.setStreamId(streamId);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		participant.setMainTrackStreamId(roomId);
+		participant.setStatus(IAntMediaStreamHandler.BROADCAST_STATUS_BROADCASTING);
+		participant.setOriginAdress("127.0.0.1");
+		participant.setUpdateTime(System.currentTimeMillis());
+		dataStore.save(participant);
+	}
+
+	@Test
+	public void testDebouncedRoomUpdates() throws Exception {
+		String roomId = "room"+RandomUtils.nextInt();
+		MCUManager mcuManager = spy(new MCUManager());
+		FiltersManager filtersManager = spy(new FiltersManager());
+		doReturn(filtersManager).when(mcuManager).getFiltersManager();
+		doReturn(new Result(true)).when(filtersManager).createFilter(any(), any(), any());
+		doReturn(true).when(filtersManager).hasFilter(roomId);
+
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		DataStore dataStore = spy(new InMemoryDataStore("test"));
+		when(app.getDataStore()).thenReturn(dataStore);
+		Vertx vertx = Vertx.vertx();
+		when(app.getVertx()).thenReturn(vertx);
+		doReturn(app).when(mcuManager).getApplication();
+
+		Broadcast room = new Broadcast();
+		room.setStreamId(roomId);
+		dataStore.save(room);
+		saveParticipant(dataStore, roomId, "stream0");
+
+		mcuManager.addCustomRoom(roomId, true, true);
+		verify(filtersManager, timeout(5000).times(1)).createFilter(any(), eq(app), any());
+		assertEquals(Arrays.asList("stream0"), mcuManager.getCachedRoomMembers(roomId));
+
+		//all rooms are synced in the first poll, then the rooms without recent changes are not queried
+		mcuManager.syncRoomMembers();
+		mcuManager.syncRoomMembers();
+		verify(dataStore, times(2)).getActiveSubtracks(roomId, null);
+
+		//burst of joins is applied with one update and members are not queried from the datastore again
+		for (int i = 1; i <= 5; i++) {
+			//last participant joins before it starts streaming
+			if (i < 5) {
+				saveParticipant(dataStore, roomId, "stream" + i);
+			}
+			mcuManager.joinedTheRoom(roomId, "stream" + i);
+		}
+		ArgumentCaptor<FilterConfiguration> configCaptor = ArgumentCaptor.forClass(FilterConfiguration.class);
+		verify(filtersManager, timeout(5000).times(2)).createFilter(configCaptor.capture(), eq(app), any());
+		assertEquals(Arrays.asList("stream0", "stream1", "stream2", "stream3", "stream4"), configCaptor.getValue().getInputStreams());
+		verify(dataStore, times(2)).getActiveSubtracks(roomId, null);
+		//broadcasts of the members are received with the members, so they're not fetched one by one in the updates
+		verify(dataStore, never()).get("stream0");
+
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> mcuManager.getLayoutUpdateStats(roomId).getUpdateCount() == 2);
+		assertTrue(mcuManager.getLayoutUpdateStats(roomId).getLastTimeToLayoutMs() >= MCUManager.ROOM_UPDATE_DEBOUNCE_MS);
+		assertTrue(mcuManager.getLayoutUpdateStats(roomId).getMaxTimeToLayoutMs() < MCUManager.CONFERENCE_INFO_POLL_PERIOD_MS);
+
+		//participant is added when it starts streaming
+		saveParticipant(dataStore, roomId, "stream5");
+		mcuManager.streamStarted(dataStore.get("stream5"));
+		verify(filtersManager, timeout(5000).times(3)).createFilter(configCaptor.capture(), eq(app), any());
+		assertEquals(6, configCaptor.getValue().getInputStreams().size());
+
+		mcuManager.leftTheRoom(roomId, "stream1");
+		mcuManager.leftTheRoom(roomId, "stream2");
+		verify(filtersManager, timeout(5000).times(4)).createFilter(configCaptor.capture(), eq(app), any());
+		assertEquals(Arrays.asList("stream0", "stream3", "stream4", "stream5"), configCaptor.getValue().getInputStreams());
+
+		//participant in another node is received from the datastore in the sync of the room that has recent joins
+		saveParticipant(dataStore, roomId, "stream9");
+		mcuManager.syncRoomMembers();
+		verify(filtersManager, timeout(5000).times(5)).createFilter(configCaptor.capture(), eq(app), any());
+		assertTrue(configCaptor.getValue().getInputStreams().contains("stream9"));
+		assertTrue(configCaptor.getValue().getInputStreams().contains("stream3"));
+
+		//nothing changed
+		mcuManager.syncRoomMembers();
+		Thread.sleep(MCUManager.ROOM_UPDATE_DEBOUNCE_MS * 3);
+		verify(filtersManager, times(5)).createFilter(any(), eq(app), any());
+
+		//join event of a room that is not an MCU room of this node deletes the filter of the removed room
+		String removedRoomId = "room"+RandomUtils.nextInt();
+		mcuManager.joinedTheRoom(removedRoomId, "stream10");
+		verify(filtersManager, timeout(5000)).delete(removedRoomId, app);
 
+		vertx.close();
 	}
 	
 }
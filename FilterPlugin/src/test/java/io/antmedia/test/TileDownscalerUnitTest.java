@@ -0,0 +1,120 @@
+package io.antmedia.test;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_ALL;
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_DEFAULT;
+import static org.bytedeco.ffmpeg.global.avcodec.AVDISCARD_NONREF;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import io.antmedia.filter.utils.Filter;
+import io.antmedia.filter.utils.FilterGraph;
+import io.antmedia.filter.utils.MCUFilterTextGenerator;
+import io.antmedia.filter.utils.TileDownscaler;
+
+public class TileDownscalerUnitTest {
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+
+		protected void failed(Throwable e, Description description) {
+			System.out.println("Failed test: " + description.getMethodName() + " e: " + ExceptionUtils.getStackTrace(e));
+		};
+
+		protected void finished(Description description) {
+			System.out.println("Finishing test: " + description.getMethodName());
+		};
+	};
+
+	@Test
+	public void testTileSizesAndRatios() {
+		String filter = MCUFilterTextGenerator.createVideoFilter(2);
+		Map<Integer, int[]> tileSizes = TileDownscaler.getTileSizes(filter);
+		assertEquals(2, tileSizes.size());
+		assertArrayEquals(new int[] {354, 234}, tileSizes.get(0));
+		assertArrayEquals(new int[] {354, 234}, tileSizes.get(1));
+
+		//inputs that are not scaled first have no tile
+		assertTrue(TileDownscaler.getTileSizes("[in0]vflip[out0]").isEmpty());
+		assertEquals(1, TileDownscaler.getDownscaleRatio(1920, 1080, null));
+
+		assertEquals(4, TileDownscaler.getDownscaleRatio(1920, 1080, new int[] {354, 234}));
+		assertEquals(1, TileDownscaler.getDownscaleRatio(640, 360, new int[] {720, 360}));
+		//smaller ratio is used
+		assertEquals(2, TileDownscaler.getDownscaleRatio(1920, 480, new int[] {354, 234}));
+
+		assertEquals(AVDISCARD_DEFAULT, TileDownscaler.getLoopFilterDiscard(1));
+		assertEquals(AVDISCARD_NONREF, TileDownscaler.getLoopFilterDiscard(2));
+		assertEquals(AVDISCARD_NONREF, TileDownscaler.getLoopFilterDiscard(3));
+		assertEquals(AVDISCARD_ALL, TileDownscaler.getLoopFilterDiscard(4));
+	}
+
+	@Test
+	public void testPreScales() {
+		String filter = MCUFilterTextGenerator.createVideoFilter(2);
+
+		//only the 1080p input is pre-scaled
+		Map<Integer, int[]> sourceSizes = Map.of(0, new int[] {1920, 1080}, 1, new int[] {640, 360});
+		String preScaled = TileDownscaler.addPreScales(filter, sourceSizes);
+		assertTrue(preScaled.startsWith("[in0]scale=708:468:force_original_aspect_ratio=increase:force_divisible_by=2:flags=fast_bilinear,scale=354:234:force_original_aspect_ratio=decrease"));
+		assertTrue(preScaled.contains("[in1]scale=354:234:force_original_aspect_ratio=decrease"));
+		assertFalse(preScaled.contains("[in1]scale=708"));
+
+		//text is not changed if no input is big enough
+		assertEquals(filter, TileDownscaler.addPreScales(filter, Map.of(0, new int[] {640, 360})));
+
+		//pre-scaled graph is built with the real inputs
+		Map<String, Filter> sourceFiltersMap = new LinkedHashMap<>();
+		sourceFiltersMap.put("stream0", new Filter("buffer", "video_size=1920x1080:pix_fmt=0:time_base=1/1000:pixel_aspect=1/1", "in0"));
+		sourceFiltersMap.put("stream1", new Filter("buffer", "video_size=640x360:pix_fmt=0:time_base=1/1000:pixel_aspect=1/1", "in1"));
+		Map<String, Filter> sinkFiltersMap = new LinkedHashMap<>();
+		sinkFiltersMap.put("output0", new Filter("buffersink", null, "out0"));
+		FilterGraph graph = new FilterGraph(preScaled, sourceFiltersMap, sinkFiltersMap);
+		assertTrue(graph.getInitializationError(), graph.isInitiated());
+
+		List<int[]> outputSizes = new ArrayList<>();
+		graph.setListener((streamId, filteredFrame) -> outputSizes.add(new int[] {filteredFrame.width(), filteredFrame.height()}));
+
+		AVFrame frame0 = allocFrame(1920, 1080);
+		AVFrame frame1 = allocFrame(640, 360);
+		for (int i = 0; i < 3; i++) {
+			frame0.pts(i * 40);
+			frame1.pts(i * 40);
+			graph.doFilter("stream0", frame0, false, true);
+			graph.doFilter("stream1", frame1, false, true);
+		}
+		assertFalse(outputSizes.isEmpty());
+		assertArrayEquals(new int[] {720, 480}, outputSizes.get(0));
+
+		graph.close();
+		avutil.av_frame_free(frame0);
+		avutil.av_frame_free(frame1);
+	}
+
+	private AVFrame allocFrame(int width, int height) {
+		AVFrame frame = avutil.av_frame_alloc();
+		frame.width(width);
+		frame.height(height);
+		frame.format(avutil.AV_PIX_FMT_YUV420P);
+		assertEquals(0, avutil.av_frame_get_buffer(frame, 32));
+		return frame;
+	}
+}
@@ -13,12 +13,15 @@ import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
 import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_FLTP;
 import static org.bytedeco.ffmpeg.global.avutil.av_channel_layout_default;
 import static org.bytedeco.ffmpeg.global.avutil.av_malloc;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
 import org.bytedeco.ffmpeg.avcodec.AVPacket;
@@ -34,6 +37,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.antmedia.filter.AudioDecoder;
+import io.antmedia.filter.DecoderBudget;
 import io.antmedia.filter.Utils;
 import io.antmedia.filter.VideoDecoder;
 import io.antmedia.plugin.api.StreamParametersInfo;
@@ -109,4 +113,214 @@ public class VideoDecoderTest {
 		
 	}
 
+	private StreamParametersInfo createStreamParams() {
+		AVCodecParameters videoCodecParameters = new AVCodecParameters();
+
+		videoCodecParameters.width(640);
+		videoCodecParameters.height(360);
+		videoCodecParameters.codec_id(AV_CODEC_ID_H264);
+		videoCodecParameters.codec_type(AVMEDIA_TYPE_VIDEO);
+		videoCodecParameters.format(AV_PIX_FMT_YUV420P);
+		videoCodecParameters.codec_tag(0);
+
+		StreamParametersInfo streamParams = new StreamParametersInfo();
+		streamParams.setEnabled(true);
+		streamParams.setTimeBase(Utils.TIME_BASE_FOR_MS);
+		streamParams.setCodecParameters(videoCodecParameters);
+		return streamParams;
+	}
+
+	private int decodeFile(VideoDecoder videoDecoder) {
+		AVFormatContext inputFormatContext = new AVFormatContext(null);
+		int ret = avformat_open_input(inputFormatContext, "src/test/resources/test_video_360p.ts", null, null);
+		assertTrue(Utils.getErrorDefinition(ret), ret >= 0);
+
+		ret = avformat_find_stream_info(inputFormatContext, (AVDictionary) null);
+		assertTrue(Utils.getErrorDefinition(ret), ret >= 0);
+
+		AVPacket pkt = avcodec.av_packet_alloc();
+		int decodedFrameCount = 0;
+		while (av_read_frame(inputFormatContext, pkt) == 0)
+		{
+			if (inputFormatContext.streams(pkt.stream_index()).codecpar().codec_type() == AVMEDIA_TYPE_VIDEO
+					&& videoDecoder.decodeVideoPacket(pkt) != null) {
+				decodedFrameCount++;
+			}
+			av_packet_unref(pkt);
+		}
+		avformat.avformat_close_input(inputFormatContext);
+		return decodedFrameCount;
+	}
+
+	@Test
+	public void testDecodeFrameInterval() {
+		VideoDecoder videoDecoder = new VideoDecoder("streamId", createStreamParams());
+		videoDecoder.setDecoderTimeBase(Utils.TIME_BASE_FOR_MS);
+		assertEquals(VideoDecoder.DECODE_ALL_FRAMES, videoDecoder.getFrameInterval());
+		int allFrameCount = decodeFile(videoDecoder);
+		videoDecoder.stop();
+		assertTrue(allFrameCount > 1000);
+
+		videoDecoder = new VideoDecoder("streamId", createStreamParams());
+		videoDecoder.setDecoderTimeBase(Utils.TIME_BASE_FOR_MS);
+		videoDecoder.setFrameInterval(VideoDecoder.DECODE_KEY_FRAMES_ONLY);
+		int keyFrameCount = decodeFile(videoDecoder);
+		logger.info("All frame count: {} key frame count: {} skipped packet count:{}", allFrameCount, keyFrameCount, videoDecoder.getSkippedPacketCount());
+		assertTrue(keyFrameCount > 0);
+		assertTrue(keyFrameCount < allFrameCount / 10);
+		assertEquals(allFrameCount, keyFrameCount + videoDecoder.getSkippedPacketCount(), allFrameCount / 100.0);
+		videoDecoder.stop();
+
+		//each key frame is returned with its own packet, it's not delayed by frame threading
+		videoDecoder = new VideoDecoder("streamId", createStreamParams());
+		videoDecoder.setDecoderTimeBase(Utils.TIME_BASE_FOR_MS);
+		videoDecoder.setFrameInterval(VideoDecoder.DECODE_KEY_FRAMES_ONLY);
+		AVFormatContext inputFormatContext = new AVFormatContext(null);
+		assertTrue(avformat_open_input(inputFormatContext, "src/test/resources/test_video_360p.ts", null, null) >= 0);
+		assertTrue(avformat_find_stream_info(inputFormatContext, (AVDictionary) null) >= 0);
+		AVPacket pkt = avcodec.av_packet_alloc();
+		int keyPacketCount = 0;
+		while (keyPacketCount < 5 && av_read_frame(inputFormatContext, pkt) == 0)
+		{
+			if (inputFormatContext.streams(pkt.stream_index()).codecpar().codec_type() == AVMEDIA_TYPE_VIDEO
+					&& (pkt.flags() & avcodec.AV_PKT_FLAG_KEY) != 0) {
+				keyPacketCount++;
+				assertNotNull(videoDecoder.decodeVideoPacket(pkt));
+			}
+			av_packet_unref(pkt);
+		}
+		avformat.avformat_close_input(inputFormatContext);
+		assertEquals(5, keyPacketCount);
+
+		//decoder is opened again with frame threading when all frames are decoded
+		videoDecoder.setFrameInterval(VideoDecoder.DECODE_ALL_FRAMES);
+		assertTrue(videoDecoder.isRunning());
+		assertTrue(decodeFile(videoDecoder) > allFrameCount / 2);
+		videoDecoder.stop();
+
+		videoDecoder = new VideoDecoder("streamId", createStreamParams());
+		videoDecoder.setDecoderTimeBase(Utils.TIME_BASE_FOR_MS);
+		videoDecoder.setFrameInterval(3);
+		int everyThirdFrameCount = decodeFile(videoDecoder);
+		logger.info("Every third frame count: {}", everyThirdFrameCount);
+		assertTrue(everyThirdFrameCount > 0);
+		assertTrue(everyThirdFrameCount <= allFrameCount / 3 + 1);
+		videoDecoder.stop();
+
+		videoDecoder = new VideoDecoder("streamId", createStreamParams());
+		videoDecoder.setDecoderTimeBase(Utils.TIME_BASE_FOR_MS);
+		videoDecoder.setFrameInterval(VideoDecoder.DECODE_NONE);
+		assertEquals(0, decodeFile(videoDecoder));
+		assertEquals(allFrameCount, videoDecoder.getSkippedPacketCount());
+		videoDecoder.stop();
+
+		try {
+			videoDecoder.setFrameInterval(-2);
+			fail("Frame interval less than DECODE_NONE is not accepted");
+		}
+		catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void testDecoderBudget() {
+		DecoderBudget budget = new DecoderBudget(8);
+		assertEquals(8, budget.getCoreCount());
+
+		//small inputs get less threads
+		assertEquals(2, budget.getThreadCount(640, 360));
+		assertEquals(4, budget.getThreadCount(1280, 720));
+		assertEquals(DecoderBudget.MAX_THREAD_COUNT, budget.getThreadCount(1920, 1080));
+		assertEquals(DecoderBudget.MAX_THREAD_COUNT, budget.getThreadCount(0, 0));
+
+		//cores are shared between the active decoders
+		for (int i = 0; i < 3; i++) {
+			budget.register();
+		}
+		assertEquals(3, budget.getActiveDecoderCount());
+		assertEquals(2, budget.getThreadCount(1920, 1080));
+
+		for (int i = 0; i < 10; i++) {
+			budget.register();
+		}
+		assertEquals(1, budget.getThreadCount(1920, 1080));
+
+		for (int i = 0; i < 13; i++) {
+			budget.unregister();
+		}
+		assertEquals(0, budget.getActiveDecoderCount());
+
+		int activeDecoderCount = DecoderBudget.getInstance().getActiveDecoderCount();
+		VideoDecoder videoDecoder = new VideoDecoder("streamId", createStreamParams());
+		assertEquals(activeDecoderCount + 1, DecoderBudget.getInstance().getActiveDecoderCount());
+		videoDecoder.stop();
+		videoDecoder.stop();
+		assertEquals(activeDecoderCount, DecoderBudget.getInstance().getActiveDecoderCount());
+	}
+
+	@Test
+	public void testDecodeAllReadyFramesAndFlush() {
+		VideoDecoder videoDecoder = new VideoDecoder("streamId", createStreamParams());
+		videoDecoder.setDecoderTimeBase(Utils.TIME_BASE_FOR_MS);
+
+		AVFormatContext inputFormatContext = new AVFormatContext(null);
+		int ret = avformat_open_input(inputFormatContext, "src/test/resources/test_video_360p.ts", null, null);
+		assertTrue(Utils.getErrorDefinition(ret), ret >= 0);
+		ret = avformat_find_stream_info(inputFormatContext, (AVDictionary) null);
+		assertTrue(Utils.getErrorDefinition(ret), ret >= 0);
+
+		AudioDecoder audioDecoder = null;
+		AVRational audioTimeBase = null;
+		for (int i = 0; i < inputFormatContext.nb_streams(); i++) {
+			if (inputFormatContext.streams(i).codecpar().codec_type() == AVMEDIA_TYPE_AUDIO) {
+				audioDecoder = new AudioDecoder("streamId");
+				audioDecoder.prepareAudioDecoder(inputFormatContext.streams(i).codecpar());
+				audioTimeBase = inputFormatContext.streams(i).time_base();
+			}
+		}
+
+		AtomicInteger videoFrameCount = new AtomicInteger();
+		AtomicInteger audioFrameCount = new AtomicInteger();
+		int videoPacketCount = 0;
+		int audioPacketCount = 0;
+		AVPacket pkt = avcodec.av_packet_alloc();
+		while (av_read_frame(inputFormatContext, pkt) == 0)
+		{
+			int codecType = inputFormatContext.streams(pkt.stream_index()).codecpar().codec_type();
+			if (codecType == AVMEDIA_TYPE_VIDEO) {
+				videoPacketCount++;
+				videoDecoder.decodeVideoPacket(pkt, (streamId, frame) -> {
+					assertEquals("streamId", streamId);
+					assertEquals(640, frame.width());
+					videoFrameCount.incrementAndGet();
+				});
+			}
+			else if (codecType == AVMEDIA_TYPE_AUDIO && audioDecoder != null) {
+				audioPacketCount++;
+				audioDecoder.decodeAudioPacket(audioTimeBase, pkt, (streamId, frame) -> audioFrameCount.incrementAndGet());
+			}
+			av_packet_unref(pkt);
+		}
+		avformat.avformat_close_input(inputFormatContext);
+
+		int drainedVideoFrameCount = videoDecoder.flush((streamId, frame) -> videoFrameCount.incrementAndGet());
+		logger.info("Video packet count:{} frame count:{} drained in flush:{}", videoPacketCount, videoFrameCount.get(), drainedVideoFrameCount);
+
+		//no frame is lost or left in the decoder
+		assertEquals(videoPacketCount, videoFrameCount.get());
+		assertEquals(0, videoDecoder.flush((streamId, frame) -> videoFrameCount.incrementAndGet()));
+
+		if (audioDecoder != null) {
+			audioDecoder.flush((streamId, frame) -> audioFrameCount.incrementAndGet());
+			logger.info("Audio packet count:{} frame count:{}", audioPacketCount, audioFrameCount.get());
+			assertTrue(audioFrameCount.get() >= audioPacketCount - 1);
+			audioDecoder.stop();
+			assertEquals(0, audioDecoder.flush((streamId, frame) -> audioFrameCount.incrementAndGet()));
+		}
+
+		videoDecoder.stop();
+		assertEquals(0, videoDecoder.flush((streamId, frame) -> videoFrameCount.incrementAndGet()));
+	}
+
 }